@@ -0,0 +1,134 @@
+package edu.jhu.pacaya.gm.inf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jhu.pacaya.gm.inf.BeliefPropagation.BeliefPropagationPrm;
+import edu.jhu.pacaya.gm.inf.BeliefPropagation.BpScheduleType;
+import edu.jhu.pacaya.gm.inf.BeliefPropagation.BpUpdateOrder;
+import edu.jhu.pacaya.gm.model.ExplicitFactor;
+import edu.jhu.pacaya.gm.model.FactorGraph;
+import edu.jhu.pacaya.gm.model.FactorGraphsForTests;
+import edu.jhu.pacaya.gm.model.Var;
+import edu.jhu.pacaya.gm.model.Var.VarType;
+import edu.jhu.pacaya.gm.model.VarSet;
+import edu.jhu.pacaya.gm.model.globalfac.LinkVar;
+import edu.jhu.pacaya.gm.model.globalfac.ProjDepTreeFactor;
+import edu.jhu.pacaya.util.semiring.LogSemiring;
+import edu.jhu.prim.util.random.Prng;
+
+/**
+ * Benchmarks for belief propagation on a linear chain, a grid, and a dependency tree (i.e. a
+ * single global ProjDepTreeFactor with unary factors on each link variable).
+ *
+ * Replaces the hand-timed loops in BeliefPropagationSpeedTest.
+ *
+ * @author mgormley
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BeliefPropagationBenchmark {
+
+    /** The type of factor graph. */
+    @Param({"chain", "grid", "deptree"})
+    public String graph;
+
+    /** The number of variables in the chain, the width of the grid, or the sentence length. */
+    @Param({"10", "30"})
+    public int n;
+
+    /** The number of states of each variable (ignored for deptree). */
+    @Param({"10"})
+    public int numStates;
+
+    @Param({"TREE_LIKE", "RESIDUAL"})
+    public BpScheduleType schedule;
+
+    private FactorGraph fg;
+    private BeliefPropagationPrm prm;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Prng.seed(1234567134);
+        if (graph.equals("chain")) {
+            fg = getChainFg(n, numStates);
+        } else if (graph.equals("grid")) {
+            fg = FactorGraphsForTests.getGridGraph(n, n, numStates);
+        } else if (graph.equals("deptree")) {
+            fg = getDepTreeFg(n);
+        } else {
+            throw new IllegalArgumentException("Unknown graph type: " + graph);
+        }
+        prm = new BeliefPropagationPrm();
+        prm.s = LogSemiring.getInstance();
+        prm.updateOrder = BpUpdateOrder.SEQUENTIAL;
+        prm.schedule = schedule;
+        // Only the grid has cycles.
+        prm.maxIterations = graph.equals("grid") ? 10 : 1;
+    }
+
+    @Benchmark
+    public double runBp() {
+        BeliefPropagation bp = new BeliefPropagation(fg, prm);
+        bp.run();
+        return bp.getPartitionBelief();
+    }
+
+    public static FactorGraph getChainFg(int n, int numStates) {
+        FactorGraph fg = new FactorGraph();
+        Var[] vs = new Var[n];
+        for (int i=0; i<n; i++) {
+            vs[i] = new Var(VarType.PREDICTED, numStates, "t"+i, null);
+            // Add a unary factor.
+            ExplicitFactor f1 = new ExplicitFactor(new VarSet(vs[i]));
+            randomInit(f1);
+            fg.addFactor(f1);
+            // Add a transition factor.
+            if (i > 0) {
+                ExplicitFactor f2 = new ExplicitFactor(new VarSet(vs[i], vs[i-1]));
+                randomInit(f2);
+                fg.addFactor(f2);
+            }
+        }
+        return fg;
+    }
+
+    public static FactorGraph getDepTreeFg(int n) {
+        FactorGraph fg = new FactorGraph();
+        ProjDepTreeFactor treeFac = new ProjDepTreeFactor(n, VarType.PREDICTED);
+        fg.addFactor(treeFac);
+        for (int i=-1; i<n; i++) {
+            for (int j=0; j<n; j++) {
+                if (i == j) { continue; }
+                LinkVar link = treeFac.getLinkVar(i, j);
+                ExplicitFactor f1 = new ExplicitFactor(new VarSet(link));
+                randomInit(f1);
+                fg.addFactor(f1);
+            }
+        }
+        return fg;
+    }
+
+    private static void randomInit(ExplicitFactor f1) {
+        for (int c=0; c<f1.size(); c++) {
+            f1.setValue(c, Math.log(Prng.nextDouble()));
+        }
+    }
+
+}
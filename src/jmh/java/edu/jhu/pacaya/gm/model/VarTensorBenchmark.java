@@ -0,0 +1,96 @@
+package edu.jhu.pacaya.gm.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jhu.pacaya.gm.model.Var.VarType;
+import edu.jhu.pacaya.util.semiring.RealAlgebra;
+import edu.jhu.prim.util.random.Prng;
+
+/**
+ * Benchmarks for the products and marginals of VarTensors which dominate belief propagation.
+ *
+ * @author mgormley
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VarTensorBenchmark {
+
+    /** The number of states of each variable. */
+    @Param({"2", "10", "50"})
+    public int numStates;
+
+    private VarTensor fab;
+    private VarTensor fbc;
+    private VarTensor fb;
+    private VarTensor margB;
+    private int[] mapB;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Prng.seed(1234567134);
+        Var a = new Var(VarType.PREDICTED, numStates, "a", null);
+        Var b = new Var(VarType.PREDICTED, numStates, "b", null);
+        Var c = new Var(VarType.PREDICTED, numStates, "c", null);
+        RealAlgebra s = RealAlgebra.getInstance();
+        fab = randomTensor(s, new VarSet(a, b));
+        fbc = randomTensor(s, new VarSet(b, c));
+        fb = randomTensor(s, new VarSet(b));
+        margB = new VarTensor(s, new VarSet(b));
+        mapB = margB.getVars().getConfigArr(fab.getVars());
+    }
+
+    /** Product with a subset of the variables (e.g. a message times a factor). */
+    @Benchmark
+    public VarTensor prodSubset() {
+        VarTensor out = new VarTensor(fab);
+        out.prod(fb);
+        return out;
+    }
+
+    /** Product which requires the union of the variable sets. */
+    @Benchmark
+    public VarTensor prodUnion() {
+        VarTensor out = new VarTensor(fab);
+        out.prod(fbc);
+        return out;
+    }
+
+    /** Marginal which allocates its output. */
+    @Benchmark
+    public VarTensor getMarginal() {
+        return fab.getMarginal(fb.getVars(), false);
+    }
+
+    /** Marginal into a preallocated output with a precomputed config map. */
+    @Benchmark
+    public VarTensor getMarginalWithMap() {
+        fab.getMarginal(margB, mapB);
+        return margB;
+    }
+
+    private static VarTensor randomTensor(RealAlgebra s, VarSet vars) {
+        VarTensor f = new VarTensor(s, vars);
+        for (int c=0; c<f.size(); c++) {
+            f.setValue(c, Prng.nextDouble());
+        }
+        return f;
+    }
+
+}
@@ -0,0 +1,107 @@
+package edu.jhu.pacaya.gm.train;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jhu.hlt.optimize.function.ValueGradient;
+import edu.jhu.pacaya.gm.data.FgExampleList;
+import edu.jhu.pacaya.gm.feat.FeatureVector;
+import edu.jhu.pacaya.gm.maxent.LogLinearXY;
+import edu.jhu.pacaya.gm.maxent.LogLinearXY.LogLinearXYPrm;
+import edu.jhu.pacaya.gm.maxent.LogLinearXYData;
+import edu.jhu.pacaya.gm.model.FgModel;
+import edu.jhu.pacaya.gm.train.AvgBatchObjective.ParallelAccum;
+import edu.jhu.pacaya.util.Threads;
+import edu.jhu.prim.util.random.Prng;
+
+/**
+ * Benchmarks for computing the value and gradient of a single minibatch, as CrfTrainer does on
+ * each step of a batch optimizer. The examples are log-linear models from LogLinearXY.
+ *
+ * Replaces the hand-timed training loop in LogLinearXYSpeedTest.
+ *
+ * @author mgormley
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CrfTrainerBenchmark {
+
+    private static final int numExamples = 1000;
+
+    /** The number of examples in each minibatch. */
+    @Param({"10", "100"})
+    public int batchSize;
+
+    /** The number of labels. */
+    @Param({"10", "100"})
+    public int numYs;
+
+    @Param({"1", "4"})
+    public int numThreads;
+
+    @Param({"SYNCHRONIZED", "SHARDED", "HOGWILD"})
+    public ParallelAccum parallelAccum;
+
+    private FgModel model;
+    private AvgBatchObjective objective;
+    private int[] batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Prng.seed(1234567134);
+        int numFeatTpls = 10;
+        LogLinearXYData data = new LogLinearXYData(numYs);
+        for (int x=0; x<numExamples; x++) {
+            FeatureVector[] fvs = new FeatureVector[numYs];
+            for (int y=0; y<numYs; y++) {
+                fvs[y] = new FeatureVector();
+                for (int f=0; f<numFeatTpls; f++) {
+                    String featName = String.format("x=%d_y=%d_feat=%d", x % 100, y, f);
+                    fvs[y].add(data.getFeatAlphabet().lookupIndex(featName), 1.0);
+                }
+            }
+            data.addEx(1.0, "x="+x, "y="+(x%numYs), fvs);
+        }
+        LogLinearXYPrm prm = new LogLinearXYPrm();
+        FgExampleList list = new LogLinearXY(prm).getData(data);
+        model = new FgModel(data.getFeatAlphabet().size());
+        model.setRandomStandardNormal();
+
+        MtFactory mtFactory = new ScaleByWeightFactory(new LogLikelihoodFactory(prm.crfPrm.infFactory));
+        objective = new AvgBatchObjective(new ModuleObjective(list, mtFactory), model, parallelAccum);
+        batch = new int[batchSize];
+        for (int i=0; i<batchSize; i++) {
+            batch[i] = Prng.nextInt(numExamples);
+        }
+        Threads.initDefaultPool(numThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Threads.shutdownDefaultPool();
+        Threads.initDefaultPool(1);
+    }
+
+    @Benchmark
+    public ValueGradient valueGradient() {
+        return objective.getValueGradient(model.getParams(), batch);
+    }
+
+}
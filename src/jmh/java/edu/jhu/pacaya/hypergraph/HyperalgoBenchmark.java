@@ -0,0 +1,69 @@
+package edu.jhu.pacaya.hypergraph;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jhu.pacaya.hypergraph.Hyperalgo.Scores;
+import edu.jhu.pacaya.hypergraph.depparse.O1DpHypergraph;
+import edu.jhu.pacaya.util.semiring.LogSemiring;
+import edu.jhu.prim.util.random.Prng;
+
+/**
+ * Benchmarks for the inside-outside algorithm on the first-order dependency parsing hypergraph.
+ *
+ * @author mgormley
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HyperalgoBenchmark {
+
+    /** The sentence length. */
+    @Param({"10", "30", "60"})
+    public int n;
+
+    private LogSemiring s = LogSemiring.getInstance();
+    private O1DpHypergraph graph;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Prng.seed(1234567134);
+        double[] root = new double[n];
+        double[][] child = new double[n][n];
+        for (int i=0; i<n; i++) {
+            root[i] = Math.log(Prng.nextDouble());
+            for (int j=0; j<n; j++) {
+                child[i][j] = Math.log(Prng.nextDouble());
+            }
+        }
+        graph = new O1DpHypergraph(root, child, s, true);
+    }
+
+    @Benchmark
+    public double[] inside() {
+        return Hyperalgo.insideAlgorithm(graph, graph.getPotentials(), s);
+    }
+
+    @Benchmark
+    public Scores insideOutside() {
+        Scores scores = new Scores();
+        Hyperalgo.forward(graph, graph.getPotentials(), s, scores);
+        return scores;
+    }
+
+}
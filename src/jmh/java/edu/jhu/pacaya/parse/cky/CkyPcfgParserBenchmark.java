@@ -0,0 +1,88 @@
+package edu.jhu.pacaya.parse.cky;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jhu.pacaya.nlp.data.Sentence;
+import edu.jhu.pacaya.nlp.data.SentenceCollection;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser.CkyPcfgParserPrm;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser.LoopOrder;
+import edu.jhu.pacaya.parse.cky.chart.Chart;
+import edu.jhu.pacaya.parse.cky.chart.Chart.ChartCellType;
+import edu.jhu.prim.util.random.Prng;
+
+/**
+ * Benchmarks for CKY parsing with the small "time flies" grammar. The sentences are random
+ * sequences of the words in its lexicon.
+ *
+ * @author mgormley
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CkyPcfgParserBenchmark {
+
+    private static final String timeFliesGrammarResource = "/edu/jhu/parse/cky/time-flies.gr";
+    private static final String[] words = new String[]{ "time", "flies", "like", "an", "arrow" };
+
+    /** The sentence length. */
+    @Param({"10", "20", "40"})
+    public int n;
+
+    @Param({"LEFT_CHILD", "RIGHT_CHILD", "CARTESIAN_PRODUCT"})
+    public LoopOrder loopOrder;
+
+    @Param({"FULL", "SINGLE_HASH"})
+    public ChartCellType cellType;
+
+    private CnfGrammar grammar;
+    private Sentence sentence;
+    private CkyPcfgParser parser;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Prng.seed(1234567134);
+        CnfGrammarReader reader = new CnfGrammarReader();
+        reader.loadFromResource(timeFliesGrammarResource);
+        grammar = reader.getGrammar(loopOrder);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<n; i++) {
+            if (i > 0) {
+                sb.append(" ");
+            }
+            sb.append(words[Prng.nextInt(words.length)]);
+        }
+        SentenceCollection sentences = new SentenceCollection(grammar.getLexAlphabet());
+        sentences.addSentenceFromString(sb.toString());
+        sentence = sentences.get(0);
+
+        CkyPcfgParserPrm prm = new CkyPcfgParserPrm();
+        prm.loopOrder = loopOrder;
+        prm.cellType = cellType;
+        prm.cacheChart = true;
+        parser = new CkyPcfgParser(prm);
+    }
+
+    @Benchmark
+    public Chart parse() {
+        return parser.parseSentence(sentence, grammar);
+    }
+
+}
@@ -0,0 +1,67 @@
+package edu.jhu.pacaya.parse.dep;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.jhu.prim.util.random.Prng;
+
+/**
+ * Benchmarks for Eisner's algorithm: Viterbi parsing and inside-outside.
+ *
+ * Replaces the hand-timed loops in ProjectiveDependencyParserSpeedTest.
+ *
+ * @author mgormley
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProjectiveDependencyParserBenchmark {
+
+    /** The sentence length. */
+    @Param({"10", "30", "60"})
+    public int n;
+
+    private double[] root;
+    private double[][] child;
+    private int[] parents;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Prng.seed(1234567134);
+        root = new double[n];
+        child = new double[n][n];
+        for (int i=0; i<n; i++) {
+            root[i] = Math.log(Prng.nextDouble());
+            for (int j=0; j<n; j++) {
+                child[i][j] = Math.log(Prng.nextDouble());
+            }
+        }
+        parents = new int[n];
+    }
+
+    @Benchmark
+    public double parseSingleRoot() {
+        return ProjectiveDependencyParser.parseSingleRoot(root, child, parents);
+    }
+
+    @Benchmark
+    public DepIoChart insideOutsideSingleRoot() {
+        return ProjectiveDependencyParser.insideOutsideSingleRoot(root, child);
+    }
+
+}
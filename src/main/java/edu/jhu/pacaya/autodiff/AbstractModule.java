@@ -8,6 +8,13 @@ public abstract class AbstractModule<T extends MVec> implements Module<T> {
     protected T yAdj;
     // The output adjoint will be represented in this abstract algebra.
     protected final Algebra s;
+    // Whether forward() may write its output into the output of the previous call.
+    private boolean reuseOutput = false;
+    // Pool of released tensors from which forward() may take its output.
+    private TensorPool pool = null;
+    // The algebra and dimensions of the last released output, from which an adjoint can be created.
+    private Algebra releasedAlgebra = null;
+    private int[] releasedDims = null;
     
     /** 
      * Constructor.
@@ -25,10 +32,18 @@ public abstract class AbstractModule<T extends MVec> implements Module<T> {
         return y;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public T getOutputAdj() {
         if (yAdj == null) {
-            yAdj = (T) getOutput().copyAndFill(s.zero());
+            if (y == null && releasedDims != null) {
+                // The output was released, but backward() may still need its adjoint.
+                Tensor adj = new Tensor(releasedAlgebra, releasedDims);
+                adj.fill(s.zero());
+                yAdj = (T) adj;
+            } else {
+                yAdj = (T) getOutput().copyAndFill(s.zero());
+            }
         }
         return yAdj;
     }
@@ -43,6 +58,109 @@ public abstract class AbstractModule<T extends MVec> implements Module<T> {
         return s;
     }
 
+    /**
+     * Sets whether forward() should write its output into the output tensor of the previous call,
+     * when it has the same algebra and dimensions, instead of allocating a new one. Since the
+     * output adjoint is also kept across calls, a circuit of a fixed shape then allocates no new
+     * outputs after its first forward pass. However, the output of each call to forward() is
+     * overwritten by the next call.
+     */
+    public void setReuseOutput(boolean reuseOutput) {
+        this.reuseOutput = reuseOutput;
+    }
+
+    public boolean isReuseOutput() {
+        return reuseOutput;
+    }
+
+    /**
+     * Sets the pool from which forward() may take its output tensor instead of allocating a new
+     * one, or null for no pool. See {@link TopoOrder#setReleaseOutputs(boolean)}.
+     */
+    public void setPool(TensorPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Releases the output of this module, if it is a tensor, and adds it to the pool for reuse by
+     * other modules if a pool is set. The output must not be read again until the next call to
+     * forward(), but the output adjoint remains available to backward(). Other outputs are kept,
+     * since their adjoint could not be recreated.
+     */
+    public void releaseOutput() {
+        if (!(y instanceof Tensor)) {
+            return;
+        }
+        Tensor t = (Tensor) y;
+        releasedAlgebra = t.getAlgebra();
+        releasedDims = t.getDims();
+        if (yAdj != null && !((Tensor) yAdj).hasShape(releasedAlgebra, releasedDims)) {
+            yAdj = null;
+        }
+        if (pool != null) {
+            pool.put(t);
+        }
+        y = null;
+    }
+
+    /**
+     * Whether backward() reads the output of this module. Modules whose backward() only reads the
+     * output adjoint override this to return false, so that their output can be released by
+     * {@link TopoOrder#setReleaseOutputs(boolean)} before the backward pass.
+     */
+    protected boolean backwardReadsOutput() {
+        return true;
+    }
+
+    /**
+     * Whether backward() reads the output of the i'th module of {@link #getInputs()}. Modules whose
+     * backward() only adds to the adjoint of that input override this to return false.
+     */
+    protected boolean backwardReadsInput(int i) {
+        return true;
+    }
+
+    /**
+     * Gets a copy of x to be used as the output, reusing the previous output or a pooled tensor if
+     * possible.
+     */
+    protected Tensor copyToOutput(Tensor x) {
+        Tensor out = getReusableOutput(x.getAlgebra(), x.getDims());
+        if (out != null) {
+            out.setValuesOnly(x);
+            return out;
+        }
+        return new Tensor(x);
+    }
+
+    /**
+     * Gets a tensor of zeros to be used as the output, reusing the previous output or a pooled
+     * tensor if possible.
+     */
+    protected Tensor newOutput(Algebra s, int... dims) {
+        Tensor out = getReusableOutput(s, dims);
+        if (out != null) {
+            out.fill(s.zero());
+            return out;
+        }
+        return new Tensor(s, dims);
+    }
+
+    /**
+     * Gets the previous output or a pooled tensor with the given algebra and dimensions, if reuse
+     * is enabled and there is one, or null otherwise. The contents of the returned tensor are
+     * undefined.
+     */
+    protected Tensor getReusableOutput(Algebra s, int[] dims) {
+        if (reuseOutput && y instanceof Tensor && ((Tensor) y).hasShape(s, dims)) {
+            return (Tensor) y;
+        }
+        if (pool != null) {
+            return pool.take(s, dims);
+        }
+        return null;
+    }
+
     @Override
     public String toString() {
         return this.getClass() + " [y=" + y + ", yAdj=" + yAdj + "]";
@@ -0,0 +1,126 @@
+package edu.jhu.pacaya.autodiff;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A static plan of the lifetimes of the module outputs in a topological order. The output of a
+ * module is live from the step at which it is computed until the last step which takes that module
+ * as an input. After that step, a forward pass can release it, provided that the backward pass
+ * never reads it: neither the module itself nor any module taking it as an input may read it in
+ * backward() (see {@link AbstractModule#backwardReadsOutput()} and
+ * {@link AbstractModule#backwardReadsInput(int)}).
+ *
+ * Only the outputs of intermediate modules are released: the root, the leaves (which hold the
+ * inputs to the circuit) and any modules which are not {@link AbstractModule}s are kept.
+ *
+ * @author mgormley
+ */
+public class MemoryPlan {
+
+    private final List<? extends Module<?>> topoOrder;
+    // The index of the last step which reads the output of each module.
+    private final int[] lastUse;
+    // Whether the backward pass reads the output of each module.
+    private final boolean[] readByBackward;
+    // The modules whose outputs can be released after each step.
+    private final List<List<AbstractModule<?>>> releasedAfter;
+
+    public MemoryPlan(List<? extends Module<?>> topoOrder, Module<?> root) {
+        this.topoOrder = topoOrder;
+        int n = topoOrder.size();
+        IdentityHashMap<Module<?>, Integer> index = new IdentityHashMap<Module<?>, Integer>();
+        for (int i = 0; i < n; i++) {
+            index.put(topoOrder.get(i), i);
+        }
+        lastUse = new int[n];
+        readByBackward = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            lastUse[i] = i;
+            Module<?> m = topoOrder.get(i);
+            readByBackward[i] = !(m instanceof AbstractModule) || ((AbstractModule<?>) m).backwardReadsOutput();
+        }
+        for (int j = 0; j < n; j++) {
+            Module<?> m = topoOrder.get(j);
+            List<? extends Module<?>> inputs = m.getInputs();
+            if (inputs == null) { continue; }
+            for (int k = 0; k < inputs.size(); k++) {
+                Module<?> in = inputs.get(k);
+                Integer i = (in == null) ? null : index.get(in);
+                if (i == null) { continue; }
+                if (lastUse[i] < j) {
+                    lastUse[i] = j;
+                }
+                if (!(m instanceof AbstractModule) || ((AbstractModule<?>) m).backwardReadsInput(k)) {
+                    readByBackward[i] = true;
+                }
+            }
+        }
+        releasedAfter = new ArrayList<List<AbstractModule<?>>>(n);
+        for (int j = 0; j < n; j++) {
+            releasedAfter.add(new ArrayList<AbstractModule<?>>());
+        }
+        for (int i = 0; i < n; i++) {
+            Module<?> m = topoOrder.get(i);
+            if (m != root && !readByBackward[i] && m instanceof AbstractModule && m.getInputs() != null
+                    && m.getInputs().size() > 0) {
+                releasedAfter.get(lastUse[i]).add((AbstractModule<?>) m);
+            }
+        }
+    }
+
+    /** Gets the index of the last step in the topological order which reads the output of step i. */
+    public int getLastUse(int i) {
+        return lastUse[i];
+    }
+
+    /** Whether the backward pass reads the output of step i, which must then be kept. */
+    public boolean isReadByBackward(int i) {
+        return readByBackward[i];
+    }
+
+    /** Gets the modules whose outputs are no longer needed by the forward or backward pass after step j. */
+    public List<AbstractModule<?>> getReleasedAfter(int j) {
+        return releasedAfter.get(j);
+    }
+
+    /**
+     * Gets the number of bytes of the output of a module, or zero if it has no output.
+     */
+    public static long getOutputBytes(Module<?> m) {
+        MVec y = (m instanceof AbstractModule) ? ((AbstractModule<?>) m).y : m.getOutput();
+        return (y == null) ? 0 : (long) Double.BYTES * y.size();
+    }
+
+    /**
+     * Gets the total number of bytes in the current outputs of all the modules, i.e. the memory held
+     * by a forward pass which releases nothing. Must be called after a forward pass.
+     */
+    public long getTotalBytes() {
+        long total = 0;
+        for (Module<?> m : topoOrder) {
+            total += getOutputBytes(m);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the peak number of bytes of live outputs during a forward pass which releases each output
+     * after its last use, as computed from the current outputs of the modules. Must be called after a
+     * forward pass which released nothing.
+     */
+    public long getPeakBytes() {
+        long live = 0;
+        long peak = 0;
+        for (int j = 0; j < topoOrder.size(); j++) {
+            live += getOutputBytes(topoOrder.get(j));
+            peak = Math.max(peak, live);
+            for (AbstractModule<?> m : releasedAfter.get(j)) {
+                live -= getOutputBytes(m);
+            }
+        }
+        return peak;
+    }
+
+}
@@ -455,14 +455,26 @@ public class Tensor implements MVec, Serializable {
     public Tensor select(int dim, int idx) {
         int[] yDims = IntArrays.removeEntry(this.getDims(), dim);
         Tensor y = new Tensor(s, yDims);
-        DimIter yIter = new DimIter(y.getDims());
-        while (yIter.hasNext()) {
-            int[] yIdx = yIter.next();
-            int[] xIdx = IntArrays.insertEntry(yIdx, dim, idx);
-            y.set(yIdx, this.get(xIdx));
-        }
+        selectInto(y, dim, idx);
         return y;
     }
+
+    /**
+     * Selects a sub-tensor from this one into a given tensor, as in {@link #select(int, int)}.
+     * 
+     * @param y The output tensor, whose dimensions must be those of this tensor without dim.
+     * @param dim The dimension to treat as fixed.
+     * @param idx The index of that dimension to fix.
+     */
+    public void selectInto(Tensor y, int dim, int idx) {
+        checkSameAlgebra(this, y);
+        // The entries with the fixed index are contiguous blocks of length strides[dim].
+        int block = strides[dim];
+        int numBlocks = values.length / (dims[dim] * block);
+        for (int b = 0; b < numBlocks; b++) {
+            System.arraycopy(values, (b * dims[dim] + idx) * block, y.values, b * block, block);
+        }
+    }
     
     /**
      * Adds a smaller tensor to this one, inserting it at a specified dimension
@@ -477,14 +489,22 @@ public class Tensor implements MVec, Serializable {
      */
     public void addTensor(Tensor addend, int dim, int idx) {
         checkSameAlgebra(this, addend);
-        DimIter yIter = new DimIter(addend.getDims());
-        while (yIter.hasNext()) {
-            int[] yIdx = yIter.next();
-            int[] xIdx = IntArrays.insertEntry(yIdx, dim, idx);
-            this.add(xIdx, addend.get(yIdx));
+        // The entries with the fixed index are contiguous blocks of length strides[dim].
+        int block = strides[dim];
+        int numBlocks = values.length / (dims[dim] * block);
+        for (int b = 0; b < numBlocks; b++) {
+            int start = (b * dims[dim] + idx) * block;
+            for (int i = 0; i < block; i++) {
+                addValue(start + i, addend.values[b * block + i]);
+            }
         }
     }
 
+    /** Whether this tensor has the given algebra and dimensions. */
+    public boolean hasShape(Algebra s, int[] dims) {
+        return this.s.equals(s) && Arrays.equals(this.dims, dims);
+    }
+
     public static void checkEqualSize(Tensor t1, Tensor t2) {
         if (t1.size() != t2.size()) {
             throw new IllegalArgumentException("Input tensors are not the same size");
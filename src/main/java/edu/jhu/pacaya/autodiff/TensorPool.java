@@ -0,0 +1,52 @@
+package edu.jhu.pacaya.autodiff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.jhu.pacaya.util.semiring.Algebra;
+
+/**
+ * A pool of released tensors, from which modules can take their outputs instead of allocating
+ * new ones. See {@link TopoOrder#setReleaseOutputs(boolean)}.
+ *
+ * @author mgormley
+ */
+public class TensorPool {
+
+    private final List<Tensor> free = new ArrayList<Tensor>();
+
+    public TensorPool() { }
+
+    /** Adds a tensor which is no longer used to the pool. */
+    public void put(Tensor t) {
+        free.add(t);
+    }
+
+    /**
+     * Takes a tensor with the given algebra and dimensions from the pool, or returns null if there
+     * is none. The contents of the returned tensor are undefined.
+     */
+    public Tensor take(Algebra s, int[] dims) {
+        for (int i = free.size() - 1; i >= 0; i--) {
+            if (free.get(i).hasShape(s, dims)) {
+                // Swap with the last element to remove in constant time.
+                Tensor t = free.get(i);
+                free.set(i, free.get(free.size() - 1));
+                free.remove(free.size() - 1);
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /** Gets the number of tensors in the pool. */
+    public int size() {
+        return free.size();
+    }
+
+    /** Removes all the tensors from the pool. */
+    public void clear() {
+        free.clear();
+    }
+
+}
@@ -20,6 +20,13 @@ public class TopoOrder<Y extends MVec> implements Module<Y> {
     private Module<Y> outMod;
     private List<? extends Module<?>> topoOrder;
     private String name;
+    // Whether forward() releases the outputs of intermediate modules after their last use.
+    private boolean releaseOutputs = false;
+    private MemoryPlan plan;
+    private TensorPool pool;
+    // Whether the last forward pass released outputs.
+    private boolean released = false;
+    private long peakBytes = 0;
     
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public TopoOrder(Module<Y> root) {
@@ -66,6 +73,7 @@ public class TopoOrder<Y extends MVec> implements Module<Y> {
         this.outMod = other.outMod;
         this.name = other.name;
         this.topoOrder = other.topoOrder;
+        this.plan = null;
     }
     
     @SuppressWarnings({ "rawtypes" })
@@ -81,9 +89,29 @@ public class TopoOrder<Y extends MVec> implements Module<Y> {
 
     @Override
     public Y forward() {
-        for (Module<? extends Object> m : topoOrder) {
+        if (!releaseOutputs) {
+            for (Module<? extends Object> m : topoOrder) {
+                m.forward();
+            }
+            released = false;
+            return outMod.getOutput();
+        }
+        MemoryPlan plan = getMemoryPlan();
+        long live = 0;
+        peakBytes = 0;
+        for (int j = 0; j < topoOrder.size(); j++) {
+            Module<?> m = topoOrder.get(j);
             m.forward();
+            live += MemoryPlan.getOutputBytes(m);
+            peakBytes = Math.max(peakBytes, live);
+            for (AbstractModule<?> dead : plan.getReleasedAfter(j)) {
+                long bytes = MemoryPlan.getOutputBytes(dead);
+                dead.releaseOutput();
+                // Outputs which are not tensors are kept.
+                live -= bytes - MemoryPlan.getOutputBytes(dead);
+            }
         }
+        released = true;
         return outMod.getOutput();
     }
 
@@ -121,6 +149,65 @@ public class TopoOrder<Y extends MVec> implements Module<Y> {
         return topoOrder;
     }
 
+    /**
+     * Sets whether the modules in this topo order reuse their output tensors across calls to
+     * forward(), as in {@link AbstractModule#setReuseOutput(boolean)}. For a circuit of a fixed shape
+     * this means that repeated forward and backward passes allocate no new outputs or adjoints, but
+     * the outputs of a forward pass are overwritten by the next one.
+     */
+    public void setReuseOutputs(boolean reuseOutputs) {
+        for (Module<?> m : topoOrder) {
+            if (m instanceof AbstractModule) {
+                ((AbstractModule<?>) m).setReuseOutput(reuseOutputs);
+            } else if (m instanceof TopoOrder) {
+                ((TopoOrder<?>) m).setReuseOutputs(reuseOutputs);
+            }
+        }
+    }
+
+    /**
+     * Sets whether forward() releases the output of each intermediate module after the last module
+     * which reads it, following a {@link MemoryPlan}. Only outputs which backward() never reads are
+     * released, so backward() may still be called after such a pass. Released tensors are pooled and
+     * reused as the outputs of later modules with the same shape. Nested topo orders are set
+     * likewise, each with its own pool.
+     */
+    public void setReleaseOutputs(boolean releaseOutputs) {
+        this.releaseOutputs = releaseOutputs;
+        if (releaseOutputs && pool == null) {
+            pool = new TensorPool();
+        }
+        for (Module<?> m : topoOrder) {
+            if (m instanceof AbstractModule) {
+                ((AbstractModule<?>) m).setPool(releaseOutputs ? pool : null);
+            } else if (m instanceof TopoOrder) {
+                ((TopoOrder<?>) m).setReleaseOutputs(releaseOutputs);
+            }
+        }
+        if (!releaseOutputs) {
+            pool = null;
+        }
+    }
+
+    /** Gets the memory plan for the outputs of this topo order. */
+    public MemoryPlan getMemoryPlan() {
+        if (plan == null) {
+            plan = new MemoryPlan(topoOrder, outMod);
+        }
+        return plan;
+    }
+
+    /**
+     * Gets the peak number of bytes of live module outputs during the last forward pass. If that
+     * pass released nothing, this is the peak that releasing would have attained.
+     */
+    public long getPeakBytes() {
+        if (released) {
+            return peakBytes;
+        }
+        return getMemoryPlan().getPeakBytes();
+    }
+
     @Override
     public Algebra getAlgebra() {
         return outMod.getAlgebra();
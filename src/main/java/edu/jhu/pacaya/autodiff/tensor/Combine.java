@@ -1,11 +1,13 @@
 package edu.jhu.pacaya.autodiff.tensor;
 
+import java.util.Arrays;
 import java.util.List;
 
 import edu.jhu.pacaya.autodiff.AbstractModule;
 import edu.jhu.pacaya.autodiff.Module;
 import edu.jhu.pacaya.autodiff.Tensor;
 import edu.jhu.pacaya.util.collections.QLists;
+import edu.jhu.prim.arrays.IntArrays;
 
 /**
  * Combines two tensors into a single larger tensor by adding an additional dimension of size two.
@@ -28,15 +30,35 @@ public class Combine extends AbstractModule<Tensor> implements Module<Tensor> {
     public Tensor forward() {
         Tensor t1 = mod1.getOutput();
         Tensor t2 = mod2.getOutput();
-        return y = Tensor.combine(t1, t2);
+        if (!Arrays.equals(t1.getDims(), t2.getDims())) {
+            throw new IllegalStateException("Input tensors are not the same dimension.");
+        }
+        y = newOutput(s, IntArrays.insertEntry(t1.getDims(), 0, 2));
+        y.addTensor(t1, 0, 0);
+        y.addTensor(t2, 0, 1);
+        return y;
     }
 
     @Override
     public void backward() {
         Tensor t1Adj = mod1.getOutputAdj();
         Tensor t2Adj = mod2.getOutputAdj();
-        t1Adj.elemAdd(yAdj.select(0, 0));
-        t2Adj.elemAdd(yAdj.select(0, 1));
+        // The two halves of the adjoint are contiguous.
+        int size = t1Adj.size();
+        for (int c = 0; c < size; c++) {
+            t1Adj.addValue(c, yAdj.getValue(c));
+            t2Adj.addValue(c, yAdj.getValue(size + c));
+        }
+    }
+
+    @Override
+    protected boolean backwardReadsOutput() {
+        return false;
+    }
+
+    @Override
+    protected boolean backwardReadsInput(int i) {
+        return false;
     }
 
     @Override
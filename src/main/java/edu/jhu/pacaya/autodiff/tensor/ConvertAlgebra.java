@@ -4,9 +4,12 @@ import java.util.List;
 
 import edu.jhu.pacaya.autodiff.AbstractModule;
 import edu.jhu.pacaya.autodiff.MVec;
+import edu.jhu.pacaya.autodiff.MVecArray;
 import edu.jhu.pacaya.autodiff.Module;
+import edu.jhu.pacaya.autodiff.Tensor;
 import edu.jhu.pacaya.util.collections.QLists;
 import edu.jhu.pacaya.util.semiring.Algebra;
+import edu.jhu.pacaya.util.semiring.Algebras;
 
 /**
  * Converts from the abstract algebra of the input to a given abstract algebra.
@@ -29,7 +32,21 @@ public class ConvertAlgebra<T extends MVec> extends AbstractModule<T> implements
     @SuppressWarnings("unchecked")
     public T forward() {
         T x = modIn.getOutput();
-        y = (T) x.copyAndConvertAlgebra(s);
+        if (x instanceof Tensor) {
+            // Convert into the previous output if it can be reused.
+            Tensor xT = (Tensor) x;
+            Tensor out = getReusableOutput(s, xT.getDims());
+            if (out == null) {
+                out = new Tensor(s, xT.getDims());
+            }
+            Algebra xS = xT.getAlgebra();
+            for (int c = 0; c < out.size(); c++) {
+                out.setValue(c, Algebras.convertAlgebra(xT.getValue(c), xS, s));
+            }
+            y = (T) out;
+        } else {
+            y = (T) x.copyAndConvertAlgebra(s);
+        }
         return y;
     }
 
@@ -40,9 +57,43 @@ public class ConvertAlgebra<T extends MVec> extends AbstractModule<T> implements
     @Override
     @SuppressWarnings("unchecked")
     public void backward() {
-        T xAdj = modIn.getOutputAdj();
-        T tmp = (T) yAdj.copyAndConvertAlgebra(modIn.getAlgebra());
-        xAdj.elemAdd(tmp);
+        addConverted(yAdj, s, modIn.getOutputAdj(), modIn.getAlgebra());
+    }
+
+    /**
+     * Adds a vector converted from the algebra yS to a vector in the algebra xS, elementwise and
+     * without a temporary copy. Arrays of vectors are added element by element, since their
+     * getValue() must search for the vector containing an index.
+     */
+    private static void addConverted(MVec y, Algebra yS, MVec x, Algebra xS) {
+        if (y instanceof MVecArray && x instanceof MVecArray) {
+            addConverted(((MVecArray<?>) y).f, yS, ((MVecArray<?>) x).f, xS);
+        } else {
+            for (int c = 0; c < y.size(); c++) {
+                x.setValue(c, xS.plus(x.getValue(c), Algebras.convertAlgebra(y.getValue(c), yS, xS)));
+            }
+        }
+    }
+
+    private static void addConverted(MVec[] y, Algebra yS, MVec[] x, Algebra xS) {
+        if (y == null) {
+            return;
+        }
+        for (int i = 0; i < y.length; i++) {
+            if (y[i] != null) {
+                addConverted(y[i], yS, x[i], xS);
+            }
+        }
+    }
+
+    @Override
+    protected boolean backwardReadsOutput() {
+        return false;
+    }
+
+    @Override
+    protected boolean backwardReadsInput(int i) {
+        return false;
     }
 
     @Override
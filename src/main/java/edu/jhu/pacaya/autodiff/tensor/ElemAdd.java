@@ -29,7 +29,7 @@ public class ElemAdd extends AbstractModule<Tensor> implements Module<Tensor> {
     public Tensor forward() {
         Tensor x = modInX.getOutput();
         Tensor w = modInW.getOutput();
-        y = new Tensor(x); // copy
+        y = copyToOutput(x);
         y.elemAdd(w);
         return y;
     }
@@ -45,6 +45,16 @@ public class ElemAdd extends AbstractModule<Tensor> implements Module<Tensor> {
         modInW.getOutputAdj().elemAdd(yAdj);
     }
 
+    @Override
+    protected boolean backwardReadsOutput() {
+        return false;
+    }
+
+    @Override
+    protected boolean backwardReadsInput(int i) {
+        return false;
+    }
+
     @Override
     public List<Module<Tensor>> getInputs() {
         return QLists.getList(modInX, modInW);
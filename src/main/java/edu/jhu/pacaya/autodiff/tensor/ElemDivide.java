@@ -6,7 +6,6 @@ import edu.jhu.pacaya.autodiff.AbstractModule;
 import edu.jhu.pacaya.autodiff.Module;
 import edu.jhu.pacaya.autodiff.Tensor;
 import edu.jhu.pacaya.util.collections.QLists;
-import edu.jhu.prim.util.Lambda.FnIntDoubleToDouble;
 
 /**
  * Elementwise division of the entries in two tensors of identical size.
@@ -30,7 +29,7 @@ public class ElemDivide extends AbstractModule<Tensor> implements Module<Tensor>
     public Tensor forward() {
         Tensor x = modInX.getOutput();
         Tensor w = modInW.getOutput();
-        y = new Tensor(x); // copy
+        y = copyToOutput(x);
         y.elemDivide(w);
         return y;
     }
@@ -44,39 +43,26 @@ public class ElemDivide extends AbstractModule<Tensor> implements Module<Tensor>
     public void backward() {
         Tensor x = modInX.getOutput();
         Tensor w = modInW.getOutput();
-        {
-            Tensor tmp = new Tensor(yAdj); // copy
-            tmp.elemDivide(w);
-            correctForZeros(tmp);
-            modInX.getOutputAdj().elemAdd(tmp);
-        }
-        {
-            Tensor tmp = new Tensor(w); // copy
-            tmp.fill(s.one());
-            tmp.elemDivide(w);
-            tmp.elemDivide(w);
-            tmp.multiply(s.fromReal(-1));
-            tmp.elemMultiply(yAdj);
-            tmp.elemMultiply(x); 
-            correctForZeros(tmp);
-            modInW.getOutputAdj().elemAdd(tmp);
-        }
-    }
-
-    private void correctForZeros(Tensor tmp) {
-        // If the adjoint of y is zero, then zero the result.
-        // This allows us to correct for NaNs introduced by division by zero.
-        final Tensor yAdjFinal = yAdj;
-        tmp.elemApply(new FnIntDoubleToDouble() {
-            @Override
-            public double call(int idx, double val) {
-                if (yAdjFinal.getValue(idx) == s.zero()) {
-                    return s.zero();
-                } else {
-                    return val;
-                }
+        Tensor xAdj = modInX.getOutputAdj();
+        Tensor wAdj = modInW.getOutputAdj();
+        Tensor.checkEqualSize(yAdj, xAdj);
+        Tensor.checkEqualSize(yAdj, wAdj);
+        double negOne = s.fromReal(-1);
+        for (int c = 0; c < yAdj.size(); c++) {
+            double yAdj_c = yAdj.getValue(c);
+            // If the adjoint of y is zero, then the adjoints are unchanged.
+            // This allows us to correct for NaNs introduced by division by zero.
+            if (yAdj_c == s.zero()) {
+                continue;
             }
-        } );
+            double w_c = w.getValue(c);
+            xAdj.addValue(c, s.divide(yAdj_c, w_c));
+            double tmp = s.divide(s.divide(s.one(), w_c), w_c);
+            tmp = s.times(tmp, negOne);
+            tmp = s.times(tmp, yAdj_c);
+            tmp = s.times(tmp, x.getValue(c));
+            wAdj.addValue(c, tmp);
+        }
     }
 
     @Override
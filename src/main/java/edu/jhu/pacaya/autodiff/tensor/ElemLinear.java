@@ -42,11 +42,12 @@ public class ElemLinear extends AbstractModule<Tensor> implements Module<Tensor>
     public Tensor forward() {
         Tensor x = modInX.getOutput();
         Tensor w = modInW.getOutput();
-        y = new Tensor(x); // copy
+        y = copyToOutput(x);
         y.multiply(weightX);
-        Tensor tmp = new Tensor(w); // copy
-        tmp.multiply(weightW);
-        y.elemAdd(tmp);
+        Tensor.checkEqualSize(y, w);
+        for (int c = 0; c < y.size(); c++) {
+            y.addValue(c, s.times(w.getValue(c), weightW));
+        }
         return y;
     }
 
@@ -57,13 +58,25 @@ public class ElemLinear extends AbstractModule<Tensor> implements Module<Tensor>
      */
     @Override
     public void backward() {
-        Tensor tmp1 = new Tensor(yAdj); // copy
-        tmp1.multiply(weightX);
-        modInX.getOutputAdj().elemAdd(tmp1);
+        Tensor xAdj = modInX.getOutputAdj();
+        Tensor wAdj = modInW.getOutputAdj();
+        Tensor.checkEqualSize(yAdj, xAdj);
+        Tensor.checkEqualSize(yAdj, wAdj);
+        for (int c = 0; c < yAdj.size(); c++) {
+            double yAdj_c = yAdj.getValue(c);
+            xAdj.addValue(c, s.times(yAdj_c, weightX));
+            wAdj.addValue(c, s.times(yAdj_c, weightW));
+        }
+    }
 
-        Tensor tmp2 = new Tensor(yAdj); // copy
-        tmp2.multiply(weightW);
-        modInW.getOutputAdj().elemAdd(tmp2);
+    @Override
+    protected boolean backwardReadsOutput() {
+        return false;
+    }
+
+    @Override
+    protected boolean backwardReadsInput(int i) {
+        return false;
     }
 
     @Override
@@ -29,7 +29,7 @@ public class ElemMultiply extends AbstractModule<Tensor> implements Module<Tenso
     public Tensor forward() {
         Tensor x = modInX.getOutput();
         Tensor w = modInW.getOutput();
-        y = new Tensor(x); // copy
+        y = copyToOutput(x);
         y.elemMultiply(w);
         return y;
     }
@@ -43,15 +43,14 @@ public class ElemMultiply extends AbstractModule<Tensor> implements Module<Tenso
     public void backward() {
         Tensor x = modInX.getOutput();
         Tensor w = modInW.getOutput();
-        {
-            Tensor tmp = new Tensor(yAdj); // copy
-            tmp.elemMultiply(w);
-            modInX.getOutputAdj().elemAdd(tmp);
-        }
-        {
-            Tensor tmp = new Tensor(yAdj); // copy
-            tmp.elemMultiply(x);
-            modInW.getOutputAdj().elemAdd(tmp);
+        Tensor xAdj = modInX.getOutputAdj();
+        Tensor wAdj = modInW.getOutputAdj();
+        Tensor.checkEqualSize(yAdj, xAdj);
+        Tensor.checkEqualSize(yAdj, wAdj);
+        for (int c = 0; c < yAdj.size(); c++) {
+            double yAdj_c = yAdj.getValue(c);
+            xAdj.addValue(c, s.times(yAdj_c, w.getValue(c)));
+            wAdj.addValue(c, s.times(yAdj_c, x.getValue(c)));
         }
     }
 
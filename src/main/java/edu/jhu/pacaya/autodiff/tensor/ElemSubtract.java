@@ -29,7 +29,7 @@ public class ElemSubtract extends AbstractModule<Tensor> implements Module<Tenso
     public Tensor forward() {
         Tensor x = modInX.getOutput();
         Tensor w = modInW.getOutput();
-        y = new Tensor(x); // copy
+        y = copyToOutput(x);
         y.elemSubtract(w);
         return y;
     }
@@ -45,6 +45,16 @@ public class ElemSubtract extends AbstractModule<Tensor> implements Module<Tenso
         modInW.getOutputAdj().elemSubtract(yAdj);
     }
 
+    @Override
+    protected boolean backwardReadsOutput() {
+        return false;
+    }
+
+    @Override
+    protected boolean backwardReadsInput(int i) {
+        return false;
+    }
+
     @Override
     public List<Module<Tensor>> getInputs() {
         return QLists.getList(modInX, modInW);
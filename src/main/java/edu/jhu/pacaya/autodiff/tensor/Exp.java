@@ -25,7 +25,7 @@ public class Exp extends AbstractModule<Tensor> implements Module<Tensor> {
     @Override
     public Tensor forward() {
         Tensor x = modInX.getOutput();
-        y = new Tensor(x); // copy
+        y = copyToOutput(x);
         y.exp();
         return y;
     }
@@ -36,9 +36,11 @@ public class Exp extends AbstractModule<Tensor> implements Module<Tensor> {
      */
     @Override
     public void backward() {
-        Tensor tmp = new Tensor(yAdj); // copy
-        tmp.elemMultiply(y);
-        modInX.getOutputAdj().elemAdd(tmp);
+        Tensor xAdj = modInX.getOutputAdj();
+        Tensor.checkEqualSize(yAdj, xAdj);
+        for (int c = 0; c < yAdj.size(); c++) {
+            xAdj.addValue(c, s.times(yAdj.getValue(c), y.getValue(c)));
+        }
     }
 
     @Override
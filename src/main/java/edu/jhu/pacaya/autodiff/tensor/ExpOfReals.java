@@ -7,6 +7,7 @@ import edu.jhu.pacaya.autodiff.Module;
 import edu.jhu.pacaya.gm.model.VarTensor;
 import edu.jhu.pacaya.util.collections.QLists;
 import edu.jhu.pacaya.util.semiring.Algebra;
+import edu.jhu.pacaya.util.semiring.Algebras;
 import edu.jhu.pacaya.util.semiring.RealAlgebra;
 
 /**
@@ -45,11 +46,12 @@ public class ExpOfReals extends AbstractModule<VarTensor> implements Module<VarT
      */
     @Override
     public void backward() {
-        VarTensor tmp = new VarTensor(yAdj); // copy
-        tmp.elemMultiply(y);
-        tmp = tmp.copyAndConvertAlgebra(RealAlgebra.getInstance());
         VarTensor xAdj = modInX.getOutputAdj();
-        xAdj.elemAdd(tmp);
+        Algebra xS = xAdj.getAlgebra();
+        for (int c = 0; c < yAdj.size(); c++) {
+            double tmp = s.times(yAdj.getValue(c), y.getValue(c));
+            xAdj.addValue(c, Algebras.convertAlgebra(tmp, s, xS));
+        }
     }
 
     @Override
@@ -25,7 +25,7 @@ public class Log extends AbstractModule<Tensor> implements Module<Tensor> {
     @Override
     public Tensor forward() {
         Tensor x = modInX.getOutput();
-        y = new Tensor(x); // copy
+        y = copyToOutput(x);
         y.log();
         return y;
     }
@@ -37,9 +37,11 @@ public class Log extends AbstractModule<Tensor> implements Module<Tensor> {
     @Override
     public void backward() {
         Tensor x = modInX.getOutput();
-        Tensor tmp = new Tensor(yAdj); // copy
-        tmp.elemDivide(x);
-        modInX.getOutputAdj().elemAdd(tmp);
+        Tensor xAdj = modInX.getOutputAdj();
+        Tensor.checkEqualSize(yAdj, xAdj);
+        for (int c = 0; c < yAdj.size(); c++) {
+            xAdj.addValue(c, s.divide(yAdj.getValue(c), x.getValue(c)));
+        }
     }
 
     @Override
@@ -25,7 +25,7 @@ public class Prod extends AbstractModule<Tensor> implements Module<Tensor> {
     @Override
     public Tensor forward() {
         Tensor x = modIn.getOutput();
-        y = new Tensor(s, 1);
+        y = newOutput(s, 1);
         y.setValue(0, x.getProd());
         return y;
     }
@@ -37,11 +37,10 @@ public class Prod extends AbstractModule<Tensor> implements Module<Tensor> {
         // multiplying \prod_{j=1}^{i-1} x_j \prod_{j+1}^n x_j  
         Tensor x = modIn.getOutput();
         Tensor xAdj = modIn.getOutputAdj();
-        Tensor tmp = new Tensor(xAdj); // copy
-        tmp.fill(yAdj.getValue(0));
-        tmp.multiply(y.getValue(0));
-        tmp.elemDivide(x);
-        xAdj.elemAdd(tmp);
+        double yAdjTimesY = s.times(yAdj.getValue(0), y.getValue(0));
+        for (int c = 0; c < xAdj.size(); c++) {
+            xAdj.addValue(c, s.divide(yAdjTimesY, x.getValue(c)));
+        }
     }
 
     @Override
@@ -41,7 +41,7 @@ public class ScalarAdd extends AbstractModule<Tensor> implements Module<Tensor>
     public Tensor forward() {
         Tensor x = modInX.getOutput();
         double w_k = modInW.getOutput().getValue(k);
-        y = new Tensor(x); // copy
+        y = copyToOutput(x);
         y.add(w_k);
         return y;
     }
@@ -57,6 +57,16 @@ public class ScalarAdd extends AbstractModule<Tensor> implements Module<Tensor>
         modInW.getOutputAdj().addValue(k, yAdj.getSum());
     }
 
+    @Override
+    protected boolean backwardReadsOutput() {
+        return false;
+    }
+
+    @Override
+    protected boolean backwardReadsInput(int i) {
+        return false;
+    }
+
     @Override
     public List<Module<Tensor>> getInputs() {
         return QLists.getList(modInX, modInW);
@@ -41,7 +41,7 @@ public class ScalarDivide extends AbstractModule<Tensor> implements Module<Tenso
     public Tensor forward() {
         Tensor x = modInX.getOutput();
         double w_k = modInW.getOutput().getValue(k);
-        y = new Tensor(x); // copy
+        y = copyToOutput(x);
         y.divide(w_k);
         return y;
     }
@@ -55,17 +55,16 @@ public class ScalarDivide extends AbstractModule<Tensor> implements Module<Tenso
     public void backward() {
         Tensor x = modInX.getOutput();
         double w_k = modInW.getOutput().getValue(k);
-        {
-            Tensor tmp = new Tensor(yAdj); // copy
-            tmp.divide(w_k);
-            modInX.getOutputAdj().elemAdd(tmp);
-        }
-        {
-            Tensor tmp = new Tensor(yAdj); // copy
-            tmp.elemMultiply(x);
-            tmp.divide(s.negate(s.times(w_k, w_k)));
-            modInW.getOutputAdj().addValue(k, tmp.getSum());
+        Tensor xAdj = modInX.getOutputAdj();
+        Tensor.checkEqualSize(yAdj, xAdj);
+        double negSquare = s.negate(s.times(w_k, w_k));
+        double sum = s.zero();
+        for (int c = 0; c < yAdj.size(); c++) {
+            double yAdj_c = yAdj.getValue(c);
+            xAdj.addValue(c, s.divide(yAdj_c, w_k));
+            sum = s.plus(sum, s.divide(s.times(yAdj_c, x.getValue(c)), negSquare));
         }
+        modInW.getOutputAdj().addValue(k, sum);
     }
 
     @Override
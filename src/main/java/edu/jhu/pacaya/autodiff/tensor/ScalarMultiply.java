@@ -41,7 +41,7 @@ public class ScalarMultiply extends AbstractModule<Tensor> implements Module<Ten
     public Tensor forward() {
         Tensor x = modInX.getOutput();
         double w_k = modInW.getOutput().getValue(k);
-        y = new Tensor(x); // copy
+        y = copyToOutput(x);
         y.multiply(w_k);
         return y;
     }
@@ -55,16 +55,15 @@ public class ScalarMultiply extends AbstractModule<Tensor> implements Module<Ten
     public void backward() {
         Tensor x = modInX.getOutput();
         double w_k = modInW.getOutput().getValue(k);
-        {
-            Tensor tmp = new Tensor(yAdj); // copy
-            tmp.multiply(w_k);
-            modInX.getOutputAdj().elemAdd(tmp);
-        }
-        {
-            Tensor tmp = new Tensor(yAdj); // copy
-            tmp.elemMultiply(x);
-            modInW.getOutputAdj().addValue(k, tmp.getSum());
+        Tensor xAdj = modInX.getOutputAdj();
+        Tensor.checkEqualSize(yAdj, xAdj);
+        double sum = s.zero();
+        for (int c = 0; c < yAdj.size(); c++) {
+            double yAdj_c = yAdj.getValue(c);
+            xAdj.addValue(c, s.times(yAdj_c, w_k));
+            sum = s.plus(sum, s.times(yAdj_c, x.getValue(c)));
         }
+        modInW.getOutputAdj().addValue(k, sum);
     }
 
     @Override
@@ -6,6 +6,7 @@ import edu.jhu.pacaya.autodiff.AbstractModule;
 import edu.jhu.pacaya.autodiff.Module;
 import edu.jhu.pacaya.autodiff.Tensor;
 import edu.jhu.pacaya.util.collections.QLists;
+import edu.jhu.prim.arrays.IntArrays;
 
 /**
  * Sum of all the entries in the tensor.
@@ -28,7 +29,13 @@ public class Select extends AbstractModule<Tensor> implements Module<Tensor> {
     @Override
     public Tensor forward() {
         Tensor x = modIn.getOutput();
-        y = x.select(dim, idx);
+        int[] dims = IntArrays.removeEntry(x.getDims(), dim);
+        // Every entry is overwritten by selectInto, so a reused output need not be zeroed.
+        y = getReusableOutput(s, dims);
+        if (y == null) {
+            y = new Tensor(s, dims);
+        }
+        x.selectInto(y, dim, idx);
         return y;
     }
 
@@ -39,6 +46,16 @@ public class Select extends AbstractModule<Tensor> implements Module<Tensor> {
         xAdj.addTensor(yAdj, dim, idx);
     }
 
+    @Override
+    protected boolean backwardReadsOutput() {
+        return false;
+    }
+
+    @Override
+    protected boolean backwardReadsInput(int i) {
+        return false;
+    }
+
     @Override
     public List<Module<Tensor>> getInputs() {
         return QLists.getList(modIn);
@@ -25,7 +25,7 @@ public class Sum extends AbstractModule<Tensor> implements Module<Tensor> {
     @Override
     public Tensor forward() {
         Tensor x = modIn.getOutput();
-        y = new Tensor(s, 1);
+        y = newOutput(s, 1);
         y.setValue(0, x.getSum());
         return y;
     }
@@ -37,6 +37,16 @@ public class Sum extends AbstractModule<Tensor> implements Module<Tensor> {
         xAdj.add(yAdj.getValue(0));
     }
 
+    @Override
+    protected boolean backwardReadsOutput() {
+        return false;
+    }
+
+    @Override
+    protected boolean backwardReadsInput(int i) {
+        return false;
+    }
+
     @Override
     public List<Module<Tensor>> getInputs() {
         return QLists.getList(modIn);
@@ -6,6 +6,8 @@ import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.collections.map.ReferenceMap;
 
 import edu.jhu.pacaya.util.cache.GzipMap;
+import edu.jhu.pacaya.util.cache.JavaSerializer;
+import edu.jhu.pacaya.util.cache.Serializer;
 
 /**
  * An immutable collection of instances for a graphical model.
@@ -34,8 +36,19 @@ public class FgExampleCache implements FgExampleList {
      * @param maxEntriesInMemory The maximum number of entries to keep in the
      *            in-memory cache or -1 to use a SoftReference cache.
      */
-    @SuppressWarnings("unchecked")
     public FgExampleCache(FgExampleList exampleFactory, int maxEntriesInMemory, boolean gzipOnSerialize) {
+        this(exampleFactory, maxEntriesInMemory, gzipOnSerialize ? new JavaSerializer<LFgExample>(true) : null);
+    }
+
+    /**
+     * Constructor with LRU cache.
+     * @param maxEntriesInMemory The maximum number of entries to keep in the
+     *            in-memory cache or -1 to use a SoftReference cache.
+     * @param serializer The serializer with which to store the cached examples, or null to store
+     *            the examples themselves.
+     */
+    @SuppressWarnings("unchecked")
+    public FgExampleCache(FgExampleList exampleFactory, int maxEntriesInMemory, Serializer<LFgExample> serializer) {
         this.exampleFactory = exampleFactory;
         @SuppressWarnings("rawtypes")
         Map tmp;
@@ -44,8 +57,8 @@ public class FgExampleCache implements FgExampleList {
         } else {
             tmp = new LRUMap(maxEntriesInMemory);
         }
-        if (gzipOnSerialize) {
-            cache = new GzipMap<Integer, LFgExample>(tmp);
+        if (serializer != null) {
+            cache = new GzipMap<Integer, LFgExample>(tmp, serializer);
         } else {
             cache = tmp;
         }
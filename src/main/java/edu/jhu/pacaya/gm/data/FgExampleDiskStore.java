@@ -4,6 +4,8 @@ import java.io.File;
 import java.io.IOException;
 
 import edu.jhu.pacaya.util.cache.CachedFastDiskStore;
+import edu.jhu.pacaya.util.cache.JavaSerializer;
+import edu.jhu.pacaya.util.cache.Serializer;
 
 /**
  * A disk-backed mutable collection of instances for a graphical model.
@@ -20,9 +22,13 @@ public class FgExampleDiskStore implements FgExampleStore {
     }
 
     public FgExampleDiskStore(File cacheDir, boolean gzipped, int maxEntriesInMemory) {
+        this(cacheDir, new JavaSerializer<LFgExample>(gzipped), maxEntriesInMemory);
+    }
+
+    public FgExampleDiskStore(File cacheDir, Serializer<LFgExample> serializer, int maxEntriesInMemory) {
         try {
             File cachePath = File.createTempFile("cache", ".binary.gz", cacheDir);
-            this.examples = new CachedFastDiskStore<Integer, LFgExample>(cachePath, gzipped, maxEntriesInMemory);
+            this.examples = new CachedFastDiskStore<Integer, LFgExample>(cachePath, serializer, maxEntriesInMemory);
             // TODO: cachePath.deleteOnExit();
         } catch (IOException e) {
             throw new RuntimeException(e);
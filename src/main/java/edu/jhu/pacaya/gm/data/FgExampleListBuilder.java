@@ -1,11 +1,17 @@
 package edu.jhu.pacaya.gm.data;
 
 import java.io.File;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import edu.jhu.pacaya.util.Prm;
+import edu.jhu.pacaya.util.Threads;
+import edu.jhu.pacaya.util.cache.JavaSerializer;
+import edu.jhu.pacaya.util.cache.Serializer;
+import edu.jhu.prim.util.Lambda.FnO1ToVoid;
 import edu.jhu.prim.util.Timer;
 
 /**
@@ -23,7 +29,7 @@ import edu.jhu.prim.util.Timer;
 public class FgExampleListBuilder {
 
     public enum CacheType {
-        MEMORY_STORE, CACHE, DISK_STORE, NONE
+        MEMORY_STORE, CACHE, DISK_STORE, MMAP_STORE, NONE
     }
 
     /** Parameters for FgExamplesBuilder. */
@@ -43,8 +49,38 @@ public class FgExampleListBuilder {
         /** Whether to GZip the disk cache. */
         public boolean gzipped = true;
 
+        /**
+         * Whether to serialize the examples with the compact binary format of
+         * FgExampleSerializer, instead of Java serialization. If gzipped is true, the
+         * examples are also compressed.
+         */
+        public boolean compactSerialization = false;
+
         /** The directory in which the disk store file should be created. */
         public File cacheDir = new File(".");
+
+        /**
+         * The file for the memory-mapped store, or null to create a temporary file in cacheDir.
+         * If the file already contains a store, it is reopened instead of being rebuilt.
+         */
+        public File mmapStoreFile = null;
+
+        /**
+         * The number of threads with which to construct the examples. If greater than one, the
+         * get(i) method of the given list must be thread safe.
+         */
+        public int numThreads = 1;
+    }
+
+    /** A function which is applied to each example as it is constructed. */
+    public interface ExampleConsumer {
+
+        /**
+         * Accepts the i'th example. This is called on the thread that constructed the example,
+         * so it must be thread safe if the examples are constructed with more than one thread.
+         */
+        void accept(int i, LFgExample ex);
+
     }
 
     private static final Logger log = LoggerFactory.getLogger(FgExampleListBuilder.class);
@@ -56,18 +92,56 @@ public class FgExampleListBuilder {
     }
 
     public FgExampleList getInstance(FgExampleList data) {
+        return getInstance(data, null);
+    }
+
+    /**
+     * Wraps the given examples according to the cache type.
+     * 
+     * @param data The examples.
+     * @param consumer A function to apply to every example in the same pass that constructs them
+     *            (e.g. one that extracts their features), or null. If the cache type does not
+     *            construct the examples up front, a separate pass is made over them.
+     * @return The wrapped examples.
+     */
+    public FgExampleList getInstance(FgExampleList data, ExampleConsumer consumer) {
         if (prm.cacheType == CacheType.CACHE) {
-            data = new FgExampleCache(data, prm.maxEntriesInMemory, prm.gzipped);
+            data = new FgExampleCache(data, prm.maxEntriesInMemory,
+                    (prm.gzipped || prm.compactSerialization) ? getSerializer() : null);
+            if (consumer != null) {
+                constructAndStoreAll(data, null, prm.numThreads, consumer);
+            }
         } else if (prm.cacheType == CacheType.MEMORY_STORE) {
             FgExampleStore store = new FgExampleMemoryStore();
-            constructAndStoreAll(data, store);
+            constructAndStoreAll(data, store, prm.numThreads, consumer);
             data = store;
         } else if (prm.cacheType == CacheType.DISK_STORE) {
-            FgExampleStore store = new FgExampleDiskStore(prm.cacheDir, prm.gzipped, prm.maxEntriesInMemory);
-            constructAndStoreAll(data, store);
+            FgExampleStore store = new FgExampleDiskStore(prm.cacheDir, getSerializer(), prm.maxEntriesInMemory);
+            constructAndStoreAll(data, store, prm.numThreads, consumer);
+            data = store;
+        } else if (prm.cacheType == CacheType.MMAP_STORE) {
+            FgExampleMmapStore store;
+            if (prm.mmapStoreFile == null) {
+                store = FgExampleMmapStore.createTemp(prm.cacheDir, getSerializer());
+            } else {
+                store = new FgExampleMmapStore(prm.mmapStoreFile, getSerializer());
+            }
+            if (store.size() == 0) {
+                constructAndStoreAll(data, store, prm.numThreads, consumer);
+            } else if (store.size() != data.size()) {
+                throw new IllegalStateException(String.format("Reopened store has %d examples, but expected %d: %s",
+                        store.size(), data.size(), prm.mmapStoreFile));
+            } else {
+                log.info("Reopened memory-mapped store with " + store.size() + " examples: " + prm.mmapStoreFile);
+                if (consumer != null) {
+                    constructAndStoreAll(store, null, prm.numThreads, consumer);
+                }
+            }
             data = store;
         } else if (prm.cacheType == CacheType.NONE) {
-            // Do nothing.
+            if (consumer != null) {
+                constructAndStoreAll(data, null, prm.numThreads, consumer);
+            }
         } else {
             throw new IllegalStateException("Unsupported cache type: " + prm.cacheType);
         }
@@ -75,20 +149,87 @@ public class FgExampleListBuilder {
         return data;
     }
 
+    /** Gets the serializer for the examples in a cache or disk store. */
+    private Serializer<LFgExample> getSerializer() {
+        if (prm.compactSerialization) {
+            return new FgExampleSerializer(prm.gzipped);
+        } else {
+            return new JavaSerializer<LFgExample>(prm.gzipped);
+        }
+    }
+
     public static void constructAndStoreAll(FgExampleList examples, FgExampleStore store) {
+        constructAndStoreAll(examples, store, 1, null);
+    }
+
+    /**
+     * Constructs each example and adds it to the store.
+     * 
+     * With more than one thread, the examples are constructed concurrently, but are added to the
+     * store in order by the calling thread. At most a few examples per thread are constructed ahead
+     * of the store, so that the examples in flight do not exhaust memory.
+     * 
+     * @param examples The examples to construct.
+     * @param store The store to which the examples are added, or null to discard them.
+     * @param numThreads The number of threads.
+     * @param consumer A function to apply to each example after it is constructed, or null.
+     */
+    public static void constructAndStoreAll(final FgExampleList examples, final FgExampleStore store, int numThreads,
+            final ExampleConsumer consumer) {
         Timer fgTimer = new Timer();
-        for (int i = 0; i < examples.size(); i++) {
-            if (i % 1000 == 0 && i > 0) {
-                log.debug("Preprocessed " + i + " examples...");
-            }
-            // Construct the example to update counter, and then discard it.
-            fgTimer.start();
-            LFgExample ex = examples.get(i);
-            if (store != null) {
-                store.add(ex);
+        fgTimer.start();
+        if (numThreads <= 1) {
+            for (int i = 0; i < examples.size(); i++) {
+                if (i % 1000 == 0 && i > 0) {
+                    log.debug("Preprocessed " + i + " examples...");
+                }
+                // Construct the example to update counter, and then discard it.
+                LFgExample ex = examples.get(i);
+                if (consumer != null) {
+                    consumer.accept(i, ex);
+                }
+                if (store != null) {
+                    store.add(ex);
+                }
             }
-            fgTimer.stop();
+        } else {
+            Threads.forEachOrdered(Threads.getForkJoinPool(numThreads), Threads.QUEUED_TASKS_PER_THREAD * numThreads,
+                    new Iterator<Callable<LFgExample>>() {
+                        private int i = 0;
+                        @Override
+                        public boolean hasNext() {
+                            return i < examples.size();
+                        }
+                        @Override
+                        public Callable<LFgExample> next() {
+                            // Construct the next example.
+                            final int idx = i++;
+                            return new Callable<LFgExample>() {
+                                @Override
+                                public LFgExample call() {
+                                    LFgExample ex = examples.get(idx);
+                                    if (consumer != null) {
+                                        consumer.accept(idx, ex);
+                                    }
+                                    return ex;
+                                }
+                            };
+                        }
+                    }, new FnO1ToVoid<LFgExample>() {
+                        private int numDone = 0;
+                        @Override
+                        public void call(LFgExample ex) {
+                            if (store != null) {
+                                store.add(ex);
+                            }
+                            numDone++;
+                            if (numDone % 1000 == 0) {
+                                log.debug("Preprocessed " + numDone + " examples...");
+                            }
+                        }
+                    });
         }
+        fgTimer.stop();
         log.info("Time (ms) to construct factor graph: " + fgTimer.totMs());
     }
     
@@ -0,0 +1,85 @@
+package edu.jhu.pacaya.gm.data;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.jhu.pacaya.util.cache.JavaSerializer;
+import edu.jhu.pacaya.util.cache.MmapDiskStore;
+import edu.jhu.pacaya.util.cache.Serializer;
+
+/**
+ * A disk-backed mutable collection of instances for a graphical model, which is read through
+ * memory-mapped files. Unlike {@link FgExampleDiskStore}, {@link #get(int)} does not lock, so many
+ * training threads can read concurrently.
+ *
+ * The store persists an index of its examples, so it can be reopened in a later run without
+ * rebuilding it. Note that reopening a store does not reconstruct the examples, so any side
+ * effects of their construction (e.g. the growth of feature alphabets) must be persisted
+ * separately.
+ *
+ * @author mgormley
+ */
+public class FgExampleMmapStore implements FgExampleStore {
+
+    private MmapDiskStore<LFgExample> examples;
+
+    /**
+     * Opens the store at the given path, or creates it if it does not exist.
+     *
+     * @param path The data file. The index file is the same path with the suffix ".idx".
+     * @param gzipped Whether the examples are gzipped. This must match the setting with which an
+     *            existing store was created.
+     */
+    public FgExampleMmapStore(File path, boolean gzipped) {
+        this(path, new JavaSerializer<LFgExample>(gzipped));
+    }
+
+    /**
+     * Opens the store at the given path, or creates it if it does not exist.
+     *
+     * @param path The data file. The index file is the same path with the suffix ".idx".
+     * @param serializer The serializer for the examples. This must match the one with which an
+     *            existing store was created.
+     */
+    public FgExampleMmapStore(File path, Serializer<LFgExample> serializer) {
+        try {
+            this.examples = new MmapDiskStore<LFgExample>(path, serializer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Creates a new store in a temporary file in the given directory. */
+    public static FgExampleMmapStore createTemp(File cacheDir, Serializer<LFgExample> serializer) {
+        try {
+            return new FgExampleMmapStore(File.createTempFile("cache", ".mmap", cacheDir), serializer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Adds an example. */
+    public void add(LFgExample example) {
+        examples.add(example);
+    }
+
+    /** Gets the i'th example. */
+    public LFgExample get(int i) {
+        return examples.get(i);
+    }
+
+    /** Gets the number of examples. */
+    public int size() {
+        return examples.size();
+    }
+
+    /** Forces all the examples to disk and closes the underlying files. */
+    public void close() {
+        try {
+            examples.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,577 @@
+package edu.jhu.pacaya.gm.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import edu.jhu.pacaya.gm.feat.FeatureVector;
+import edu.jhu.pacaya.gm.model.ExplicitExpFamFactor;
+import edu.jhu.pacaya.gm.model.ExplicitFactor;
+import edu.jhu.pacaya.gm.model.Factor;
+import edu.jhu.pacaya.gm.model.FactorGraph;
+import edu.jhu.pacaya.gm.model.Var;
+import edu.jhu.pacaya.gm.model.Var.VarType;
+import edu.jhu.pacaya.gm.model.VarConfig;
+import edu.jhu.pacaya.gm.model.VarSet;
+import edu.jhu.pacaya.util.cache.Serializer;
+import edu.jhu.pacaya.util.semiring.RealAlgebra;
+
+/**
+ * Compact binary serializer for factor graph examples, for use with the example caches and disk
+ * stores in place of Java serialization.
+ *
+ * Each example is written as a table of its variables, whose state names are interned in a
+ * dictionary, followed by its factors and gold configuration. {@link ExplicitFactor}s and
+ * {@link ExplicitExpFamFactor}s are written as primitive arrays, with delta-encoded feature indices.
+ * All other factors are written with Java serialization, but with each of their variables replaced
+ * by its position in the table and each {@link FeatureVector} written as above. Examples other than
+ * {@link LabeledFgExample} and {@link UnlabeledFgExample} are written with Java serialization.
+ *
+ * The deserialized variables are new instances, which are created in the same relative order as the
+ * originals so that each {@link VarSet} (and hence the layout of each factor) is unchanged. They are
+ * shared by every example with an identical table of variables (e.g. the same example read back
+ * repeatedly from a cache), so that deserialization does not keep creating variables. The
+ * values of an {@link ExplicitExpFamFactor} are kept, but like a newly constructed factor it must be
+ * updated from the model before it is queried.
+ *
+ * @author mgormley
+ */
+public class FgExampleSerializer implements Serializer<LFgExample> {
+
+    private static final int FORMAT_VERSION = 1;
+
+    // Types of examples.
+    private static final int EX_LABELED = 0;
+    private static final int EX_UNLABELED = 1;
+    private static final int EX_JAVA = 2;
+
+    // Types of factors.
+    private static final int FAC_EXPLICIT = 0;
+    private static final int FAC_EXPLICIT_EXP_FAM = 1;
+    private static final int FAC_JAVA = 2;
+
+    private static final VarType[] varTypes = VarType.values();
+
+    /** The maximum number of distinct tables of variables to keep. */
+    private static final int MAX_VAR_TABLES = 1000;
+
+    private final boolean compress;
+    /** The variables created for each table of variables, in least-recently used order. */
+    private final Map<List<Object>, Var[]> varTables = new LinkedHashMap<List<Object>, Var[]>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Var[]> eldest) {
+            return size() > MAX_VAR_TABLES;
+        }
+    };
+
+    /** Constructs a serializer which does not compress its output. */
+    public FgExampleSerializer() {
+        this(false);
+    }
+
+    /**
+     * @param compress Whether to compress each serialized example with a fast setting of deflate.
+     */
+    public FgExampleSerializer(boolean compress) {
+        this.compress = compress;
+    }
+
+    @Override
+    public byte[] serialize(LFgExample ex) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            baos.write(FORMAT_VERSION);
+            baos.write(compress ? 1 : 0);
+            Deflater deflater = null;
+            OutputStream os = baos;
+            if (compress) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+                os = new DeflaterOutputStream(baos, deflater);
+            }
+            try {
+                DataOutputStream out = new DataOutputStream(os);
+                writeExample(out, ex);
+                out.close();
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public LFgExample deserialize(InputStream is) {
+        try {
+            int version = is.read();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalStateException("Unsupported format version: " + version);
+            }
+            if (is.read() == 1) {
+                is = new InflaterInputStream(is);
+            }
+            return readExample(new DataInputStream(is));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void writeExample(DataOutputStream out, LFgExample ex) throws IOException {
+        boolean labeled;
+        if (ex.getClass() == LabeledFgExample.class) {
+            labeled = true;
+            out.writeByte(EX_LABELED);
+        } else if (ex.getClass() == UnlabeledFgExample.class) {
+            labeled = false;
+            out.writeByte(EX_UNLABELED);
+        } else {
+            out.writeByte(EX_JAVA);
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(ex);
+            oos.flush();
+            return;
+        }
+        FactorGraph fg = ex.getFactorGraph();
+        VarConfig gold = labeled ? ex.getGoldConfig() : null;
+
+        // Get the variables, sorted by instance (i.e. the order of their VarSets). The gold config
+        // may contain variables which are not in the factor graph.
+        List<Var> vars = new ArrayList<Var>(fg.getVars());
+        if (gold != null) {
+            for (Var var : gold.getVars()) {
+                if (!isInGraph(fg, var)) {
+                    vars.add(var);
+                }
+            }
+        }
+        Collections.sort(vars);
+        IdentityHashMap<Var, Integer> varIdx = new IdentityHashMap<Var, Integer>();
+        for (int i=0; i<vars.size(); i++) {
+            varIdx.put(vars.get(i), i);
+        }
+
+        // Write the dictionary of state names.
+        Map<List<String>, Integer> stateNamesIdx = new HashMap<List<String>, Integer>();
+        List<List<String>> stateNamesList = new ArrayList<List<String>>();
+        for (Var var : vars) {
+            List<String> stateNames = var.getStateNames();
+            if (stateNames != null && !stateNamesIdx.containsKey(stateNames)) {
+                stateNamesIdx.put(stateNames, stateNamesList.size());
+                stateNamesList.add(stateNames);
+            }
+        }
+        writeVarInt(out, stateNamesList.size());
+        for (List<String> stateNames : stateNamesList) {
+            writeVarInt(out, stateNames.size());
+            for (String stateName : stateNames) {
+                writeString(out, stateName);
+            }
+        }
+
+        // Write the variables.
+        writeVarInt(out, vars.size());
+        for (Var var : vars) {
+            writeVarInt(out, isInGraph(fg, var) ? var.getId() + 1 : 0);
+            out.writeByte(var.getType().ordinal());
+            writeVarInt(out, var.getNumStates());
+            writeString(out, var.getName());
+            writeVarInt(out, var.getStateNames() == null ? 0 : stateNamesIdx.get(var.getStateNames()) + 1);
+        }
+
+        // Write the factors.
+        List<Factor> javaFactors = new ArrayList<Factor>();
+        writeVarInt(out, fg.getNumFactors());
+        for (Factor f : fg.getFactors()) {
+            if (f.getClass() == ExplicitFactor.class && isRealAlgebra((ExplicitFactor) f)) {
+                out.writeByte(FAC_EXPLICIT);
+                writeVarSet(out, f.getVars(), varIdx);
+                writeDoubles(out, ((ExplicitFactor) f).getValues());
+            } else if (f.getClass() == ExplicitExpFamFactor.class && isRealAlgebra((ExplicitFactor) f)) {
+                ExplicitExpFamFactor eff = (ExplicitExpFamFactor) f;
+                out.writeByte(FAC_EXPLICIT_EXP_FAM);
+                writeVarSet(out, f.getVars(), varIdx);
+                writeDoubles(out, eff.getValues());
+                for (int c=0; c<eff.size(); c++) {
+                    FeatureVector fv = eff.getFeatures(c);
+                    out.writeBoolean(fv != null);
+                    if (fv != null) {
+                        writeFeatureVector(out, fv);
+                    }
+                }
+            } else {
+                out.writeByte(FAC_JAVA);
+                javaFactors.add(f);
+            }
+        }
+
+        // Write the gold config and weight.
+        if (labeled) {
+            VarSet goldVars = gold.getVars();
+            writeVarInt(out, goldVars.size());
+            for (Var var : goldVars) {
+                writeVarInt(out, varIdx.get(var));
+                writeVarInt(out, gold.getState(var));
+            }
+            out.writeDouble(ex.getWeight());
+        }
+
+        // Write the remaining factors with Java serialization.
+        if (javaFactors.size() > 0) {
+            ObjectOutputStream oos = new VarRefObjectOutputStream(out, varIdx);
+            for (Factor f : javaFactors) {
+                oos.writeObject(f);
+            }
+            oos.flush();
+        }
+    }
+
+    private LFgExample readExample(DataInputStream in) throws IOException, ClassNotFoundException {
+        int exType = in.readByte();
+        if (exType == EX_JAVA) {
+            return (LFgExample) new ObjectInputStream(in).readObject();
+        } else if (exType != EX_LABELED && exType != EX_UNLABELED) {
+            throw new IllegalStateException("Unknown example type: " + exType);
+        }
+        boolean labeled = (exType == EX_LABELED);
+
+        // Read the dictionary of state names.
+        int numStateNames = readVarInt(in);
+        List<List<String>> stateNamesList = new ArrayList<List<String>>(numStateNames);
+        for (int i=0; i<numStateNames; i++) {
+            int n = readVarInt(in);
+            String[] stateNames = new String[n];
+            for (int j=0; j<n; j++) {
+                stateNames[j] = readString(in);
+            }
+            stateNamesList.add(Collections.unmodifiableList(Arrays.asList(stateNames)));
+        }
+
+        // Read the table of variables.
+        int numVars = readVarInt(in);
+        List<Object> varTable = new ArrayList<Object>(5 * numVars);
+        int[] fgIds = new int[numVars];
+        int numFgVars = 0;
+        for (int i=0; i<numVars; i++) {
+            fgIds[i] = readVarInt(in) - 1;
+            varTable.add(fgIds[i]);
+            varTable.add(varTypes[in.readByte()]);
+            varTable.add(readVarInt(in));
+            varTable.add(readString(in));
+            int sn = readVarInt(in);
+            varTable.add(sn == 0 ? null : stateNamesList.get(sn - 1));
+            if (fgIds[i] >= 0) {
+                numFgVars++;
+            }
+        }
+        // Reuse the variables of an identical table, or else create them in their original
+        // relative order.
+        Var[] vars;
+        synchronized (varTables) {
+            vars = varTables.get(varTable);
+            if (vars == null) {
+                vars = new Var[numVars];
+                for (int i=0; i<numVars; i++) {
+                    @SuppressWarnings("unchecked")
+                    List<String> stateNames = (List<String>) varTable.get(5*i + 4);
+                    vars[i] = new Var((VarType) varTable.get(5*i + 1), (Integer) varTable.get(5*i + 2),
+                            (String) varTable.get(5*i + 3), stateNames);
+                }
+                varTables.put(varTable, vars);
+            }
+        }
+        Var[] fgVars = new Var[numFgVars];
+        for (int i=0; i<numVars; i++) {
+            if (fgIds[i] >= 0) {
+                fgVars[fgIds[i]] = vars[i];
+            }
+        }
+
+        // Read the factors.
+        int numFactors = readVarInt(in);
+        Factor[] factors = new Factor[numFactors];
+        for (int a=0; a<numFactors; a++) {
+            int facType = in.readByte();
+            if (facType == FAC_EXPLICIT) {
+                ExplicitFactor f = new ExplicitFactor(readVarSet(in, vars));
+                readDoubles(in, f);
+                factors[a] = f;
+            } else if (facType == FAC_EXPLICIT_EXP_FAM) {
+                ExplicitExpFamFactor f = new ExplicitExpFamFactor(readVarSet(in, vars));
+                readDoubles(in, f);
+                for (int c=0; c<f.size(); c++) {
+                    if (in.readBoolean()) {
+                        f.setFeatures(c, readFeatureVector(in));
+                    }
+                }
+                factors[a] = f;
+            } else if (facType != FAC_JAVA) {
+                throw new IllegalStateException("Unknown factor type: " + facType);
+            }
+        }
+
+        // Read the gold config and weight.
+        VarConfig gold = null;
+        double weight = 1.0;
+        if (labeled) {
+            gold = new VarConfig();
+            int n = readVarInt(in);
+            for (int i=0; i<n; i++) {
+                Var var = vars[readVarInt(in)];
+                gold.put(var, readVarInt(in));
+            }
+            weight = in.readDouble();
+        }
+
+        // Read the remaining factors.
+        ObjectInputStream ois = null;
+        for (int a=0; a<numFactors; a++) {
+            if (factors[a] == null) {
+                if (ois == null) {
+                    ois = new VarRefObjectInputStream(in, vars);
+                }
+                factors[a] = (Factor) ois.readObject();
+            }
+        }
+
+        // Build the factor graph.
+        FactorGraph fg = new FactorGraph();
+        for (Var var : fgVars) {
+            fg.addVar(var);
+        }
+        for (Factor f : factors) {
+            fg.addFactor(f);
+        }
+        if (labeled) {
+            LabeledFgExample ex = new LabeledFgExample(fg, gold);
+            ex.setWeight(weight);
+            return ex;
+        } else {
+            return new UnlabeledFgExample(fg);
+        }
+    }
+
+    private static boolean isInGraph(FactorGraph fg, Var var) {
+        int id = var.getId();
+        return 0 <= id && id < fg.getNumVars() && fg.getVar(id) == var;
+    }
+
+    private static boolean isRealAlgebra(ExplicitFactor f) {
+        return f.getAlgebra().equals(RealAlgebra.getInstance());
+    }
+
+    private static void writeVarSet(DataOutput out, VarSet vs, IdentityHashMap<Var, Integer> varIdx) throws IOException {
+        writeVarInt(out, vs.size());
+        for (Var var : vs) {
+            writeVarInt(out, varIdx.get(var));
+        }
+    }
+
+    private static VarSet readVarSet(DataInput in, Var[] vars) throws IOException {
+        int n = readVarInt(in);
+        Var[] vs = new Var[n];
+        for (int i=0; i<n; i++) {
+            vs[i] = vars[readVarInt(in)];
+        }
+        return new VarSet(vs);
+    }
+
+    private static void writeDoubles(DataOutput out, double[] values) throws IOException {
+        for (int i=0; i<values.length; i++) {
+            out.writeDouble(values[i]);
+        }
+    }
+
+    private static void readDoubles(DataInput in, ExplicitFactor f) throws IOException {
+        for (int c=0; c<f.size(); c++) {
+            f.setValue(c, in.readDouble());
+        }
+    }
+
+    /**
+     * Writes a feature vector as its number of entries, the differences between consecutive
+     * indices, and the values (unless they are all 1.0).
+     */
+    static void writeFeatureVector(DataOutput out, FeatureVector fv) throws IOException {
+        int n = fv.getUsed();
+        int[] idx = fv.getInternalIndices();
+        double[] vals = fv.getInternalValues();
+        writeVarInt(out, n);
+        int prev = 0;
+        boolean allOnes = true;
+        for (int i=0; i<n; i++) {
+            writeVarInt(out, zigzag(idx[i] - prev));
+            prev = idx[i];
+            allOnes &= (vals[i] == 1.0);
+        }
+        out.writeBoolean(allOnes);
+        if (!allOnes) {
+            for (int i=0; i<n; i++) {
+                out.writeDouble(vals[i]);
+            }
+        }
+    }
+
+    static FeatureVector readFeatureVector(DataInput in) throws IOException {
+        int n = readVarInt(in);
+        int[] idx = new int[n];
+        double[] vals = new double[n];
+        int prev = 0;
+        for (int i=0; i<n; i++) {
+            idx[i] = prev + unzigzag(readVarInt(in));
+            prev = idx[i];
+        }
+        boolean allOnes = in.readBoolean();
+        for (int i=0; i<n; i++) {
+            vals[i] = allOnes ? 1.0 : in.readDouble();
+        }
+        return new FeatureVector(idx, vals);
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /** Writes a non-negative int in 1 to 5 bytes, 7 bits at a time. */
+    static void writeVarInt(DataOutput out, int v) throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IllegalStateException("Malformed variable-length int");
+    }
+
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** Placeholder for the variable at a position in the variable table. */
+    private static class VarRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int idx;
+        public VarRef(int idx) {
+            this.idx = idx;
+        }
+    }
+
+    /** Placeholder which writes a feature vector in the compact form. */
+    private static class FeatureVectorRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private transient FeatureVector fv;
+        public FeatureVectorRef(FeatureVector fv) {
+            this.fv = fv;
+        }
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            writeFeatureVector(out, fv);
+        }
+        private void readObject(ObjectInputStream in) throws IOException {
+            fv = readFeatureVector(in);
+        }
+    }
+
+    private static class VarRefObjectOutputStream extends ObjectOutputStream {
+
+        private final IdentityHashMap<Var, Integer> varIdx;
+        private final VarRef[] varRefs;
+        private final IdentityHashMap<FeatureVector, FeatureVectorRef> fvRefs = new IdentityHashMap<FeatureVector, FeatureVectorRef>();
+
+        public VarRefObjectOutputStream(OutputStream out, IdentityHashMap<Var, Integer> varIdx) throws IOException {
+            super(out);
+            this.varIdx = varIdx;
+            this.varRefs = new VarRef[varIdx.size()];
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof Var) {
+                Integer i = varIdx.get(obj);
+                if (i != null) {
+                    if (varRefs[i] == null) {
+                        varRefs[i] = new VarRef(i);
+                    }
+                    return varRefs[i];
+                }
+            } else if (obj != null && obj.getClass() == FeatureVector.class) {
+                FeatureVectorRef ref = fvRefs.get(obj);
+                if (ref == null) {
+                    ref = new FeatureVectorRef((FeatureVector) obj);
+                    fvRefs.put((FeatureVector) obj, ref);
+                }
+                return ref;
+            }
+            return obj;
+        }
+
+    }
+
+    private static class VarRefObjectInputStream extends ObjectInputStream {
+
+        private final Var[] vars;
+
+        public VarRefObjectInputStream(InputStream in, Var[] vars) throws IOException {
+            super(in);
+            this.vars = vars;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof VarRef) {
+                return vars[((VarRef) obj).idx];
+            } else if (obj instanceof FeatureVectorRef) {
+                return ((FeatureVectorRef) obj).fv;
+            }
+            return obj;
+        }
+
+    }
+
+}
@@ -1,8 +1,8 @@
 package edu.jhu.pacaya.gm.feat;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,8 +19,9 @@ public class FactorTemplateList implements Serializable {
 
     private static final long serialVersionUID = 5880428795836008068L;
     private static final Logger log = LoggerFactory.getLogger(FactorTemplateList.class); 
+    // Copied on write, so that the templates can be read without locking while the list grows.
     private List<FactorTemplate> fts;
-    private boolean isGrowing;  
+    private volatile boolean isGrowing;  
     private IntObjectBimap<Object> templateKeyAlphabet;
     private boolean useCountingAlphabets;
 
@@ -29,7 +30,7 @@ public class FactorTemplateList implements Serializable {
     }
     
     public FactorTemplateList(boolean useCountingAlphabets) {
-        fts = new ArrayList<FactorTemplate>();
+        fts = new CopyOnWriteArrayList<FactorTemplate>();
         isGrowing = true;
         templateKeyAlphabet = new IntObjectBimap<Object>();
         this.useCountingAlphabets = useCountingAlphabets;
@@ -52,7 +53,7 @@ public class FactorTemplateList implements Serializable {
         return count;
     }
 
-    public void startGrowth() {
+    public synchronized void startGrowth() {
         for (FactorTemplate ft : fts) {
             ft.getAlphabet().startGrowth();
         }
@@ -60,7 +61,7 @@ public class FactorTemplateList implements Serializable {
         isGrowing = true;
     }
 
-    public void stopGrowth() {
+    public synchronized void stopGrowth() {
         for (FactorTemplate ft : fts) {
             ft.getAlphabet().stopGrowth();
         }
@@ -68,7 +69,7 @@ public class FactorTemplateList implements Serializable {
         isGrowing = false;
     }
     
-    public void add(FactorTemplate ft) {
+    public synchronized void add(FactorTemplate ft) {
         int index = templateKeyAlphabet.lookupIndex(ft.getKey());
         if (index >= fts.size()) {
             fts.add(ft);
@@ -108,7 +109,7 @@ public class FactorTemplateList implements Serializable {
         }
     }
 
-    private int lookupTemplateId(TemplateFactor f) {
+    private synchronized int lookupTemplateId(TemplateFactor f) {
         int index = templateKeyAlphabet.lookupIndex(f.getTemplateKey());
         if (index >= fts.size()) {
             // Add the template.
@@ -150,7 +151,7 @@ public class FactorTemplateList implements Serializable {
         return fts.get(getTemplateIdByKey(templateKey));
     }
 
-    public int getTemplateIdByKey(Object templateKey) {
+    public synchronized int getTemplateIdByKey(Object templateKey) {
         return templateKeyAlphabet.lookupIndex(templateKey);
     }
 
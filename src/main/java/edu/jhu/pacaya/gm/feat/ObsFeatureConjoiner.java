@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Iterator;
 
 import org.slf4j.Logger;
@@ -13,6 +14,8 @@ import org.slf4j.LoggerFactory;
 import com.google.common.collect.Iterables;
 
 import edu.jhu.pacaya.gm.data.FgExampleList;
+import edu.jhu.pacaya.gm.data.FgExampleListBuilder;
+import edu.jhu.pacaya.gm.data.FgExampleListBuilder.ExampleConsumer;
 import edu.jhu.pacaya.gm.data.LFgExample;
 import edu.jhu.pacaya.gm.inf.FgInferencer;
 import edu.jhu.pacaya.gm.model.Factor;
@@ -25,13 +28,13 @@ import edu.jhu.pacaya.gm.model.Var;
 import edu.jhu.pacaya.gm.model.VarConfig;
 import edu.jhu.pacaya.gm.model.VarTensor;
 import edu.jhu.pacaya.gm.model.globalfac.GlobalFactor;
-import edu.jhu.pacaya.gm.train.MarginalLogLikelihood;
 import edu.jhu.pacaya.gm.util.ArrayIter3D;
 import edu.jhu.pacaya.util.FeatureNames;
 import edu.jhu.pacaya.util.Prm;
 import edu.jhu.pacaya.util.semiring.RealAlgebra;
 import edu.jhu.prim.arrays.BoolArrays;
 import edu.jhu.prim.iter.IntIter;
+import edu.jhu.prim.list.IntArrayList;
 import edu.jhu.prim.map.IntDoubleEntry;
 import edu.jhu.prim.vector.IntIntDenseVector;
 
@@ -53,6 +56,11 @@ public class ObsFeatureConjoiner implements Serializable {
          * cutoff implies that unsupported features will not be included.)
          */
         public int featCountCutoff = -1;
+        /**
+         * The number of threads with which to extract and count the features in init(). If
+         * greater than one, the get(i) method of the training data must be thread safe.
+         */
+        public int numThreads = 1;
     }
     
     private static final Logger log = LoggerFactory.getLogger(ObsFeatureConjoiner.class);
@@ -88,6 +96,11 @@ public class ObsFeatureConjoiner implements Serializable {
     public FeatureNames fcmAlphabet = new FeatureNames();
     
     private ObsFeatureConjoinerPrm prm;
+    /**
+     * The number of times each feature appears in the gold training data, as counted by
+     * extractAndCount(). Indexed by feature template index, and variable assignment config index.
+     */
+    private transient ArrayList<IntIntDenseVector[]> goldCounts;
     
     // HACK: This treats the OFC as a submodel for NLP factors needing embeddings.
     public Object embeddings; // TODO: Remove this hack.
@@ -108,10 +121,18 @@ public class ObsFeatureConjoiner implements Serializable {
             throw new IllegalArgumentException("Data can only be null if there is no feature count cutoff.");
         }
         
-        // Ensure the FactorTemplateList is initialized, and maybe count features along the way.
+        if (!prm.includeUnsupportedFeatures) {
+            prm.featCountCutoff = Math.max(prm.featCountCutoff, 1);
+        }
+        
+        // Ensure the FactorTemplateList is initialized, and count features along the way.
+        if (data != null && goldCounts == null && (templates.isGrowing() || prm.featCountCutoff >= 1)) {
+            if (templates.isGrowing()) {
+                log.info("Growing feature template list by iterating over examples");
+            }
+            extractAndCountAll(data, prm.featCountCutoff >= 1);
+        }
         if (templates.isGrowing() && data != null) {
-            log.info("Growing feature template list by iterating over examples");
-            extractAllFeats(data, templates);
             templates.stopGrowth();
             feAlphabet.stopGrowth();
         }
@@ -126,14 +147,12 @@ public class ObsFeatureConjoiner implements Serializable {
             included[t] = new boolean[numConfigs][numFeats];
         }
         BoolArrays.fill(included, true);        
-        if (!prm.includeUnsupportedFeatures) {
-            prm.featCountCutoff = Math.max(prm.featCountCutoff, 1);
-        }
         if (prm.featCountCutoff >= 1) {
             log.info("Applying feature count cutoff: " + prm.featCountCutoff);
-            IntIntDenseVector[][] counts = countFeatures(data, templates);
+            IntIntDenseVector[][] counts = getGoldCounts();
             excludeByFeatCount(counts);
         }
+        goldCounts = null;
         
         // Always include the bias features.
         for (int t=0; t<included.length; t++) {
@@ -226,85 +245,131 @@ public class ObsFeatureConjoiner implements Serializable {
             
     }
     
+    // A "no-op" counter.
+    private static final IFgModel noOpCounts = new IFgModel() {                        
+        @Override
+        public void addAfterScaling(FeatureVector fv, double multiplier) { }
+        @Override
+        public void add(int feat, double addend) { }
+    };  
+
     /**
-     * Loops through all examples to create the features, thereby ensuring that the FTS are initialized.
+     * Loops through all examples to create the features, thereby ensuring that the FTS are
+     * initialized, and optionally counts the features in the same pass.
      */
-    private void extractAllFeats(FgExampleList data, FactorTemplateList templates) {
-        // Create a "no-op" counter.
-        IFgModel counts = new IFgModel() {                        
-            @Override
-            public void addAfterScaling(FeatureVector fv, double multiplier) { }
+    private void extractAndCountAll(FgExampleList data, final boolean count) {
+        final boolean extract = templates.isGrowing();
+        FgExampleListBuilder.constructAndStoreAll(data, null, prm.numThreads, new ExampleConsumer() {
             @Override
-            public void add(int feat, double addend) { }
-        };  
-        
-        // Loop over all factors in the dataset. 
-        for (int i=0; i<data.size(); i++) {
-            if (i % 1000 == 0) {
-                log.debug("Processing example: " + i);
-            }
-            LFgExample ex = data.get(i);
-            FactorGraph fgLat = MarginalLogLikelihood.getFgLat(ex.getFactorGraph(), ex.getGoldConfig());
-            // Create a "no-op" inferencer, which returns arbitrary marginals.
-            NoOpInferencer inferencer = new NoOpInferencer(ex.getFactorGraph());   
-            for (int a=0; a<ex.getFactorGraph().getNumFactors(); a++) {
-                Factor f = fgLat.getFactor(a);
-                if (f instanceof ObsFeatureCarrier && f instanceof TemplateFactor) {
-                    // For each observation function extractor.
-                    int t = templates.getTemplateId((TemplateFactor) f);
-                    if (t != -1) {
-                        ((ObsFeatureCarrier) f).getObsFeatures();                                      
-                    }
-                } else {
-                    // For each standard factor.  
-                    f = ex.getFactorGraph().getFactor(a);
-                    if (f instanceof GlobalFactor) {
-                        ((GlobalFactor) f).addExpectedPartials(counts, 0, inferencer, a);
-                    } else {
-                        VarTensor marg = inferencer.getMarginalsForFactorId(a);
-                        f.addExpectedPartials(counts, marg, 0);
-                    }
-                }
+            public void accept(int i, LFgExample ex) {
+                extractAndCount(ex, extract, count);
             }
+        });
+        if (!count) {
+            goldCounts = null;
         }
     }
     
     /**
-     * Counts the number of times each feature appears in the gold training data.
+     * Creates the features for an example (growing the feature template list and alphabets), and
+     * counts the number of times each feature appears in its gold configuration. Features are only
+     * counted if init() will apply a feature count cutoff, so unlabeled examples may be passed in
+     * when it will not. This method is thread safe.
+     * 
+     * If this is called for every training example (e.g. as each is constructed by
+     * FgExampleListBuilder) before the call to init(), then init() will not make its own pass over
+     * the training data.
      */
-    private IntIntDenseVector[][] countFeatures(FgExampleList data, FactorTemplateList templates) {
-        IntIntDenseVector[][] counts = new IntIntDenseVector[numTemplates][];
-        for (int t=0; t<numTemplates; t++) {
-            FactorTemplate template = templates.get(t);
-            int numConfigs = template.getNumConfigs();
-            int numFeats = template.getAlphabet().size();
-            counts[t] = new IntIntDenseVector[numConfigs];
-            for (int c=0; c<numConfigs; c++) {
-                counts[t][c] = new IntIntDenseVector(numFeats);
-            }
-        }
-        for (int i=0; i<data.size(); i++) {
-            LFgExample ex = data.get(i);
-            FactorGraph fg = ex.getFactorGraph();
-            for (int a=0; a<ex.getFactorGraph().getNumFactors(); a++) {
-                Factor f = fg.getFactor(a);
-                if (f instanceof ObsFeatureCarrier && f instanceof TemplateFactor) {
-                    int t = templates.getTemplateId((TemplateFactor) f);
-                    if (t != -1) {
-                        FeatureVector fv = ((ObsFeatureCarrier) f).getObsFeatures();
+    public void extractAndCount(LFgExample ex) {
+        // As in init(), excluding unsupported features implies a cutoff of at least one.
+        boolean count = prm.featCountCutoff >= 1 || !prm.includeUnsupportedFeatures;
+        extractAndCount(ex, templates.isGrowing(), count);
+    }
+
+    private void extractAndCount(LFgExample ex, boolean extract, boolean count) {
+        // Note: The clamped factor graph used for training (see MarginalLogLikelihood.getFgLat())
+        // contains the same factor objects as the original, plus unary clamp factors which have no
+        // features, so we can extract features from the latter.
+        FactorGraph fg = ex.getFactorGraph();
+        // Create a "no-op" inferencer, which returns arbitrary marginals.
+        NoOpInferencer inferencer = new NoOpInferencer(fg);
+        // Triples of template, config, and feature index.
+        IntArrayList tcfs = new IntArrayList();
+        for (int a=0; a<fg.getNumFactors(); a++) {
+            Factor f = fg.getFactor(a);
+            if (f instanceof ObsFeatureCarrier && f instanceof TemplateFactor) {
+                // For each observation function extractor.
+                int t = templates.getTemplateId((TemplateFactor) f);
+                if (t != -1) {
+                    FeatureVector fv = ((ObsFeatureCarrier) f).getObsFeatures();
+                    if (count) {
                         // We must clamp the predicted variables and loop over the latent ones.
                         VarConfig predVc = ex.getGoldConfigPred(a);
-                        IntIter iter = IndexForVc.getConfigIter(ex.getFactorGraph().getFactor(a).getVars(), predVc);
+                        IntIter iter = IndexForVc.getConfigIter(f.getVars(), predVc);
                         while (iter.hasNext()) {
                             // The configuration of all the latent/predicted variables,
                             // where the predicted variables have been clamped.
                             int config = iter.next();
                             for (IntDoubleEntry entry : fv) {
-                                counts[t][config].add(entry.index(), 1);
+                                tcfs.add(t);
+                                tcfs.add(config);
+                                tcfs.add(entry.index());
                             }
                         }
                     }
                 }
+            } else if (extract) {
+                // For each standard factor.  
+                if (f instanceof GlobalFactor) {
+                    ((GlobalFactor) f).addExpectedPartials(noOpCounts, 0, inferencer, a);
+                } else {
+                    VarTensor marg = inferencer.getMarginalsForFactorId(a);
+                    f.addExpectedPartials(noOpCounts, marg, 0);
+                }
+            }
+        }
+        addGoldCounts(tcfs);
+    }
+
+    private synchronized void addGoldCounts(IntArrayList tcfs) {
+        if (goldCounts == null) {
+            goldCounts = new ArrayList<IntIntDenseVector[]>();
+        }
+        int[] arr = tcfs.getInternalElements();
+        for (int i=0; i<tcfs.size(); i += 3) {
+            int t = arr[i];
+            while (goldCounts.size() <= t) {
+                goldCounts.add(null);
+            }
+            IntIntDenseVector[] countsT = goldCounts.get(t);
+            if (countsT == null) {
+                countsT = new IntIntDenseVector[templates.get(t).getNumConfigs()];
+                goldCounts.set(t, countsT);
+            }
+            int c = arr[i+1];
+            if (countsT[c] == null) {
+                countsT[c] = new IntIntDenseVector();
+            }
+            countsT[c].add(arr[i+2], 1);
+        }
+    }
+    
+    /**
+     * Gets the number of times each feature appears in the gold training data.
+     */
+    private IntIntDenseVector[][] getGoldCounts() {
+        IntIntDenseVector[][] counts = new IntIntDenseVector[numTemplates][];
+        for (int t=0; t<numTemplates; t++) {
+            FactorTemplate template = templates.get(t);
+            int numConfigs = template.getNumConfigs();
+            counts[t] = new IntIntDenseVector[numConfigs];
+            for (int c=0; c<numConfigs; c++) {
+                if (goldCounts != null && t < goldCounts.size() && goldCounts.get(t) != null
+                        && goldCounts.get(t)[c] != null) {
+                    counts[t][c] = goldCounts.get(t)[c];
+                } else {
+                    counts[t][c] = new IntIntDenseVector();
+                }
             }
         }
         return counts;
@@ -353,7 +418,7 @@ public class ObsFeatureConjoiner implements Serializable {
         return feAlphabet;
     }
 
-    public void requestReserved(int reserved) {
+    public synchronized void requestReserved(int reserved) {
         this.reservedMax = Math.max(this.reservedMax, reserved);
     }
     
@@ -365,7 +430,7 @@ public class ObsFeatureConjoiner implements Serializable {
         return reservedMax;
     }
     
-    public void takeNoteOfFeatureHashMod(int featureHashMod) {
+    public synchronized void takeNoteOfFeatureHashMod(int featureHashMod) {
         this.featureHashModMax = Math.max(featureHashModMax, featureHashMod);
     }
 
@@ -7,6 +7,10 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
@@ -28,6 +32,8 @@ import edu.jhu.pacaya.gm.model.globalfac.AutodiffGlobalFactor;
 import edu.jhu.pacaya.gm.model.globalfac.GlobalFactor;
 import edu.jhu.pacaya.gm.util.BipartiteGraph;
 import edu.jhu.pacaya.util.Prm;
+import edu.jhu.pacaya.util.Threads;
+import edu.jhu.pacaya.util.collections.IndexedMaxHeap;
 import edu.jhu.pacaya.util.collections.QLists;
 import edu.jhu.pacaya.util.files.QFiles;
 import edu.jhu.pacaya.util.semiring.Algebra;
@@ -49,6 +55,11 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
         private static final long serialVersionUID = 1L;        
         public BpScheduleType schedule = BpScheduleType.TREE_LIKE;
         public int maxIterations = 100;
+        /** 
+         * Maximum number of messages to send with the RESIDUAL schedule. If negative, this is
+         * maxIterations times the number of edges in the factor graph.
+         */
+        public int maxMessages = -1;
         public BpUpdateOrder updateOrder = BpUpdateOrder.PARALLEL;
         public Algebra s = LogSemiring.getInstance();
         /** Whether to normalize the messages after sending. */
@@ -61,12 +72,33 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
          * false can save memory. 
          */
         public boolean keepTape = true;
+        /**
+         * If positive, the tape is checkpointed: a snapshot of all the messages is stored only
+         * every checkpointInterval iterations, and the messages in between are recomputed from the
+         * snapshots during backward(). This bounds the memory of the tape at the cost of about
+         * one more forward pass. Not supported by the RESIDUAL schedule or by the cached beliefs
+         * (minVarNbsForCache, minFacNbsForCache), which always keep the full tape.
+         */
+        public int checkpointInterval = 0;
+        /**
+         * If positive and checkpointInterval is not, the approximate maximum number of bytes for
+         * the messages on the tape. If the full tape could exceed it, the tape is checkpointed with
+         * an interval chosen to fit.
+         */
+        public long maxTapeBytes = -1;
         /** Directory for dumping of beliefs at each iteration (debugging only). */
         public Path dumpDir = null;
         /** Minimum number of neighbors for a variable to compute messages by dividing out from a cached belief. */
         public int minVarNbsForCache = Integer.MAX_VALUE; // TODO: Use this.
         /** Minimum number of neighbors for a factor   to compute messages by dividing out from a cached belief. */
         public int minFacNbsForCache = Integer.MAX_VALUE; // TODO: This is currently disabled because it might still be buggy.
+        /** 
+         * Number of threads used to create the messages for the PARALLEL update order. If greater
+         * than one, the messages are created in chunks on a shared fork-join pool.
+         */
+        public int numThreads = 1;
+        /** Minimum number of edges in each chunk when creating messages on multiple threads. */
+        public int minEdgesPerChunk = 64;
         
         public BeliefPropagationPrm() {
         }
@@ -93,6 +125,11 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
         TREE_LIKE,
         /** Send messages in a random order. */
         RANDOM,
+        /** 
+         * Residual belief propagation (Elidan et al., 2006): always send the message which
+         * would change the most, as measured by its residual. This ignores the update order.
+         */
+        RESIDUAL,
     }
     
     public enum BpUpdateOrder {
@@ -108,6 +145,9 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
      * sent, the normalized messages, and the normalizing constants of the pre-normalized messages.
      * Optionally, we also include the modules for a global factor.
      * 
+     * On a checkpointed tape, the entries only store the item, and are recomputed during the
+     * backward pass.
+     * 
      * @author mgormley
      */
     private static class TapeEntry {
@@ -123,6 +163,22 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
             this.msgSums = new DoubleArrayList(edges.size());
         }
         
+        public TapeEntry(Object item) {
+            this.item = item;
+        }
+        
+    }
+    
+    /** A snapshot of all the messages, taken before the tape entry at index t. */
+    private static class Checkpoint {
+        public int t;
+        public VarTensor[] msgs;
+        
+        public Checkpoint(int t, VarTensor[] msgs) {
+            this.t = t;
+            this.msgs = msgs;
+        }
+        
     }
     
     private final BeliefPropagationPrm prm;
@@ -130,6 +186,10 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
     private final FactorGraph fg;   
     private final BipartiteGraph<Var, Factor> bg;
     private final CachingBpSchedule sched;
+    // The configuration maps for each factor and neighbor. See FactorGraph.getFactorConfigMaps().
+    private final int[][][] configMaps;
+    // Scratch space for the cavity product of each factor to variable message. Indexed by edge id.
+    private final VarTensor[] cavities;
     // Messages for each edge in the factor graph. Indexed by edge id.
     private VarTensor[] msgs;
     private VarTensor[] newMsgs;
@@ -143,6 +203,12 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
     
     // The tape, which records each message passed in the forward() call.
     private List<TapeEntry> tape;
+    // Whether the messages are recorded on the tape entries.
+    private boolean recordTape;
+    // The number of iterations between checkpoints, or 0 if the tape is not checkpointed.
+    private int checkpointInterval;
+    // The checkpoints of a checkpointed tape, in order.
+    private List<Checkpoint> checkpoints;
     // The tape for the normalization of the variable and factor beliefs.
     double[] varBeliefsUnSum; // Indexed by variable id.
     double[] facBeliefsUnSum; // Indexed by factor id.
@@ -177,7 +243,10 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
         this.fm = fm;
         
         MpSchedule sch;
-        if (prm.updateOrder == BpUpdateOrder.SEQUENTIAL) {
+        if (prm.schedule == BpScheduleType.RESIDUAL) {
+            // This schedule is only used to send the constant messages.
+            sch = new RandomMpSchedule(fg);
+        } else if (prm.updateOrder == BpUpdateOrder.SEQUENTIAL) {
             if (prm.schedule == BpScheduleType.TREE_LIKE) {
                 sch = new BfsMpSchedule(fg);
             } else if (prm.schedule == BpScheduleType.RANDOM) {
@@ -189,6 +258,8 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
             sch = new ParallelMpSchedule(fg);
         }        
         sched = new CachingBpSchedule(sch, prm.updateOrder, prm.schedule);
+        configMaps = fg.getFactorConfigMaps();
+        cavities = new VarTensor[bg.getNumEdges()];
     }
 
     /** @inheritDoc */
@@ -205,36 +276,26 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
         initForward();
         
         // Message passing.
-        loops:
-        for (int iter=-1; iter < prm.maxIterations; iter++) {
-            List<Object> order = sched.getOrder(iter, fg);
-            for (Object item : order) {
-                List<Integer> edges = CachingBpSchedule.toEdgeList(fg, item);
-                List<?> elems = CachingBpSchedule.toFactorEdgeList(item);
-                TapeEntry te = prm.keepTape ? new TapeEntry(item, edges) : null;
-                for (Object elem : elems) {
-                    if (elem instanceof Integer) {
-                        forwardCreateMessage((Integer) elem);
-                    } else if (elem instanceof AutodiffGlobalFactor) {
-                        forwardGlobalFacToVar((AutodiffGlobalFactor) elem, te);
-                    } else {
-                        throw new RuntimeException("Unsupported type in schedule: " + elem.getClass());
-                    }
-                }
-                for (Integer edge : edges) {
-                    normalizeAndAddToTape(edge, te);
-                }
-                for (Integer edge : edges) {
-                    forwardSendMessage(edge, iter);
+        if (prm.schedule == BpScheduleType.RESIDUAL) {
+            forwardResidualSchedule();
+        } else {
+            loops:
+            for (int iter=-1; iter < prm.maxIterations; iter++) {
+                if (checkpointInterval > 0 && (iter+1) % checkpointInterval == 0) {
+                    checkpoints.add(new Checkpoint(tape.size(), copyMsgs()));
                 }
-                if (prm.keepTape) { tape.add(te); }
-                if (isConverged()) {
-                    // Stop on convergence: Break out of inner and outer loop.
-                    log.trace("Stopping on convergence. Iterations = {}", (iter+1));
-                    break loops;
+                List<Object> order = sched.getOrder(iter, fg);
+                for (Object item : order) {
+                    TapeEntry te = forwardItem(item, iter);
+                    if (prm.keepTape) { tape.add(recordTape ? te : new TapeEntry(item)); }
+                    if (isConverged()) {
+                        // Stop on convergence: Break out of inner and outer loop.
+                        log.trace("Stopping on convergence. Iterations = {}", (iter+1));
+                        break loops;
+                    }
                 }
+                maybeWriteAllBeliefs(iter);
             }
-            maybeWriteAllBeliefs(iter);
         }
         
         log.trace("Oscillation rate: {}", ((double) oscillationCount.get() / sendCount.get()));
@@ -244,9 +305,279 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
         return b;
     }
 
+    /**
+     * Creates and sends the messages for one item of the schedule.
+     * 
+     * @return The tape entry recording the messages, or null if they are not recorded.
+     */
+    private TapeEntry forwardItem(Object item, int iter) {
+        List<Integer> edges = CachingBpSchedule.toEdgeList(fg, item);
+        List<?> elems = CachingBpSchedule.toFactorEdgeList(item);
+        TapeEntry te = recordTape ? new TapeEntry(item, edges) : null;
+        if (isThreaded(edges)) {
+            forwardThreaded(elems, edges, te, iter);
+        } else {
+            for (Object elem : elems) {
+                if (elem instanceof Integer) {
+                    forwardCreateMessage((Integer) elem);
+                } else if (elem instanceof AutodiffGlobalFactor) {
+                    forwardGlobalFacToVar((AutodiffGlobalFactor) elem, te);
+                } else {
+                    throw new RuntimeException("Unsupported type in schedule: " + elem.getClass());
+                }
+            }
+            for (Integer edge : edges) {
+                normalizeAndAddToTape(edge, te);
+            }
+            for (Integer edge : edges) {
+                forwardSendMessage(edge, iter);
+            }
+        }
+        return te;
+    }
+    
     public boolean isConverged() {
         return numConverged == msgs.length;
     }
+    
+    /**
+     * Residual belief propagation (Elidan et al., 2006; Sutton & McCallum, 2007).
+     * 
+     * The constant messages are sent first. Afterwards, every other edge always has a pending
+     * (i.e. created and normalized, but unsent) message in newMsgs, whose residual is stored in
+     * residuals[] and used as its priority in a max-heap. We repeatedly send the message with the
+     * largest residual and then recreate only the pending messages which depend on it. Since a
+     * sent message is identical to the message which would be recreated from the current
+     * messages, its residual becomes zero. BP has converged once the maximum residual is at most
+     * the convergence threshold.
+     * 
+     * The messages from a global factor are always created and sent together.
+     */
+    private void forwardResidualSchedule() {
+        // Send the constant messages.
+        for (Object item : sched.getOrder(-1, fg)) {
+            TapeEntry te = forwardItem(item, -1);
+            if (prm.keepTape) { tape.add(te); }
+        }
+        
+        // Create the pending messages and add their residuals to the heap.
+        IndexedMaxHeap heap = new IndexedMaxHeap(bg.getNumEdges());
+        double[] msgSums = new double[bg.getNumEdges()];
+        TapeEntry[] gfEntries = new TapeEntry[fg.getNumFactors()];
+        for (int f=0; f<fg.getNumFactors(); f++) {
+            if (fg.getFactor(f) instanceof GlobalFactor) {
+                if (bg.numNbsT2(f) == 1) {
+                    // The messages from this global factor are constant, so send them only once.
+                    TapeEntry te = forwardItem(fg.getFactor(f), -1);
+                    if (prm.keepTape) { tape.add(te); }
+                } else {
+                    forwardResidualGlobalFac(f, heap, msgSums, gfEntries);
+                }
+            }
+        }
+        for (int edge=0; edge<bg.getNumEdges(); edge++) {
+            if (!CachingBpSchedule.isConstantMsg(edge, fg) && !isGlobalFacToVar(edge)) {
+                forwardResidualCreateMessage(edge, heap, msgSums);
+            }
+        }
+        
+        // Send the messages in order of their residuals.
+        int maxMessages = (prm.maxMessages >= 0) ? prm.maxMessages : prm.maxIterations * bg.getNumEdges();
+        int numSent = 0;
+        while (!heap.isEmpty() && numSent < maxMessages) {
+            if (heap.peekMaxPriority() <= prm.convergenceThreshold) {
+                log.trace("Stopping on convergence. Messages sent = {}", numSent);
+                break;
+            }
+            int edge = heap.peekMax();
+            int child = bg.childE(edge);
+            if (isGlobalFacToVar(edge)) {
+                // Send all the messages from the global factor.
+                int f = bg.parentE(edge);
+                TapeEntry te = gfEntries[f];
+                gfEntries[f] = null;
+                for (int nb=0; nb<bg.numNbsT2(f); nb++) {
+                    forwardResidualSendMessage(bg.edgeT2(f, nb), heap, msgSums, te, numSent++);
+                }
+                if (prm.keepTape) { tape.add(te); }
+                for (int nb=0; nb<bg.numNbsT2(f); nb++) {
+                    int e = bg.edgeT2(f, nb);
+                    forwardResidualUpdateNbs(bg.childE(e), true, bg.dualE(e), heap, msgSums, gfEntries);
+                }
+            } else {
+                TapeEntry te = prm.keepTape ? new TapeEntry(edge, QLists.getList(edge)) : null;
+                forwardResidualSendMessage(edge, heap, msgSums, te, numSent++);
+                if (prm.keepTape) { tape.add(te); }
+                forwardResidualUpdateNbs(child, !bg.isT1T2(edge), bg.dualE(edge), heap, msgSums, gfEntries);
+            }
+        }
+        maybeWriteAllBeliefs(numSent);
+    }
+
+    /** Recreates the pending messages sent from a node, excluding the one to neighbor excl. */
+    private void forwardResidualUpdateNbs(int node, boolean isVar, int excl, IndexedMaxHeap heap,
+            double[] msgSums, TapeEntry[] gfEntries) {
+        if (!isVar && fg.getFactor(node) instanceof GlobalFactor) {
+            if (bg.numNbsT2(node) > 1) {
+                forwardResidualGlobalFac(node, heap, msgSums, gfEntries);
+            }
+            return;
+        }
+        int numNbs = isVar ? bg.numNbsT1(node) : bg.numNbsT2(node);
+        for (int nb=0; nb<numNbs; nb++) {
+            if (nb != excl) {
+                int edge = isVar ? bg.edgeT1(node, nb) : bg.edgeT2(node, nb);
+                forwardResidualCreateMessage(edge, heap, msgSums);
+            }
+        }
+    }
+    
+    /** Creates and normalizes the pending message for an edge and updates its residual. */
+    private void forwardResidualCreateMessage(int edge, IndexedMaxHeap heap, double[] msgSums) {
+        forwardCreateMessage(edge);
+        forwardResidualPending(edge, heap, msgSums);
+    }
+    
+    /** Creates and normalizes all the pending messages from a global factor and updates their residuals. */
+    private void forwardResidualGlobalFac(int f, IndexedMaxHeap heap, double[] msgSums, TapeEntry[] gfEntries) {
+        AutodiffGlobalFactor gf = (AutodiffGlobalFactor) fg.getFactor(f);
+        List<Integer> edges = CachingBpSchedule.toEdgeList(fg, gf);
+        gfEntries[f] = new TapeEntry(gf, edges);
+        forwardGlobalFacToVar(gf, gfEntries[f]);
+        for (int edge : edges) {
+            forwardResidualPending(edge, heap, msgSums);
+        }
+    }
+
+    private void forwardResidualPending(int edge, IndexedMaxHeap heap, double[] msgSums) {
+        if (prm.normalizeMessages) {
+            msgSums[edge] = forwardNormalize(edge);
+        }
+        numConverged += forwardResidual(edge);
+        heap.put(edge, residuals[edge]);
+    }
+    
+    private void forwardResidualSendMessage(int edge, IndexedMaxHeap heap, double[] msgSums, TapeEntry te, int numSent) {
+        if (recordTape) {
+            te.msgs.add(new VarTensor(msgs[edge]));
+            te.msgSums.add(msgSums[edge]);
+        }
+        forwardSwapMessage(edge, numSent);
+        // The pending message is now the same as the sent one.
+        numConverged += convergedDelta(residuals[edge], 0.0);
+        residuals[edge] = 0.0;
+        heap.remove(edge);
+    }
+    
+    private boolean isGlobalFacToVar(int edge) {
+        return !bg.isT1T2(edge) && bg.t2E(edge) instanceof GlobalFactor;
+    }
+
+    /** Whether the messages for this schedule item should be created on multiple threads. */
+    private boolean isThreaded(List<Integer> edges) {
+        return prm.numThreads > 1 && prm.updateOrder == BpUpdateOrder.PARALLEL 
+                && edges.size() > prm.minEdgesPerChunk;
+    }
+    
+    /**
+     * Multi-threaded version of a single PARALLEL update: (1) create all the new messages, with
+     * the edges partitioned into chunks across threads, (2) normalize the new messages and compute
+     * their residuals, again across threads, and then (3) send all the messages at once.
+     * 
+     * This is only correct for the PARALLEL update order, since each new message only reads the
+     * current messages (never the new ones) and writes only to its own edge.
+     */
+    private void forwardThreaded(List<?> elems, final List<Integer> edges, TapeEntry te, int iter) {
+        // Create the messages. Global factors create all their outgoing messages at once, so
+        // they are run on this thread.
+        final IntArrayList createEdges = new IntArrayList(elems.size());
+        for (Object elem : elems) {
+            if (elem instanceof Integer) {
+                createEdges.add((Integer) elem);
+            } else if (elem instanceof AutodiffGlobalFactor) {
+                forwardGlobalFacToVar((AutodiffGlobalFactor) elem, te);
+            } else {
+                throw new RuntimeException("Unsupported type in schedule: " + elem.getClass());
+            }
+        }
+        forEachChunk(createEdges.size(), new EdgeChunkFn() {
+            @Override
+            public int call(int start, int end) {
+                for (int i=start; i<end; i++) {
+                    forwardCreateMessage(createEdges.get(i));
+                }
+                return 0;
+            }
+        });
+        
+        // Normalize the messages and compute their residuals.
+        final double[] msgSums = new double[edges.size()];
+        final VarTensor[] oldMsgs = recordTape ? new VarTensor[edges.size()] : null;
+        numConverged += forEachChunk(edges.size(), new EdgeChunkFn() {
+            @Override
+            public int call(int start, int end) {
+                int convergedDelta = 0;
+                for (int i=start; i<end; i++) {
+                    int edge = edges.get(i);
+                    if (prm.normalizeMessages) {
+                        msgSums[i] = forwardNormalize(edge);
+                    }
+                    if (recordTape) {
+                        oldMsgs[i] = new VarTensor(msgs[edge]);
+                    }
+                    convergedDelta += forwardResidual(edge);
+                }
+                return convergedDelta;
+            }
+        });
+        
+        // Send the messages.
+        for (int i=0; i<edges.size(); i++) {
+            if (recordTape) {
+                te.msgs.add(oldMsgs[i]);
+                te.msgSums.add(msgSums[i]);
+            }
+            forwardSwapMessage(edges.get(i), iter);
+        }
+    }
+    
+    /** A function over a contiguous range [start, end) of edge indices, returning a partial sum. */
+    private interface EdgeChunkFn {
+        int call(int start, int end);
+    }
+    
+    /**
+     * Partitions the range [0, n) into contiguous chunks, calls the function on each chunk using
+     * the shared fork-join pool, waits for all of them to finish, and returns the sum of their
+     * results.
+     */
+    private int forEachChunk(int n, final EdgeChunkFn fn) {
+        int numChunks = Math.min(prm.numThreads * 4, n / Math.max(1, prm.minEdgesPerChunk));
+        numChunks = Math.max(1, numChunks);
+        List<Callable<Integer>> tasks = new ArrayList<>(numChunks);
+        for (int c=0; c<numChunks; c++) {
+            final int start = (int) ((long) n * c / numChunks);
+            final int end = (int) ((long) n * (c+1) / numChunks);
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return fn.call(start, end);
+                }
+            });
+        }
+        ForkJoinPool pool = Threads.getForkJoinPool(prm.numThreads);
+        int sum = 0;
+        try {
+            for (Future<Integer> f : pool.invokeAll(tasks)) {
+                sum += f.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        return sum;
+    }
 
     private void initForward() {
         // Set the number of converged messages to zero.
@@ -270,6 +601,10 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
                 newMsgs[e] = new VarTensor(s, vars, s.one());                
             }
         }
+        // Initialize the checkpoints.
+        checkpointInterval = getCheckpointInterval();
+        checkpoints = (checkpointInterval > 0) ? new ArrayList<Checkpoint>() : null;
+        recordTape = prm.keepTape && checkpointInterval == 0;
         // Initialize residuals.
         this.residuals = new double[bg.getNumEdges()];
         Arrays.fill(residuals, Double.POSITIVE_INFINITY);
@@ -302,6 +637,52 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
         potentialsAdj = null;
     }
 
+    /**
+     * Gets the number of iterations between checkpoints of the tape, or 0 if the full tape should
+     * be kept. With a memory budget, the checkpoints and the recomputed segment of the tape take
+     * ceil(T / k) + k times the memory of one iteration's messages, where T is the maximum number
+     * of iterations and k the interval, so the largest k which fits is chosen.
+     */
+    private int getCheckpointInterval() {
+        if (!prm.keepTape || prm.schedule == BpScheduleType.RESIDUAL
+                || prm.minVarNbsForCache < Integer.MAX_VALUE || prm.minFacNbsForCache < Integer.MAX_VALUE) {
+            return 0;
+        }
+        if (prm.checkpointInterval > 0) {
+            return prm.checkpointInterval;
+        }
+        if (prm.maxTapeBytes <= 0) {
+            return 0;
+        }
+        // The constant messages are sent in iteration -1.
+        int numIters = prm.maxIterations + 1;
+        long iterBytes = 0;
+        for (int e=0; e<msgs.length; e++) {
+            iterBytes += 8L * msgs[e].size();
+        }
+        if (numIters * iterBytes <= prm.maxTapeBytes) {
+            return 0;
+        }
+        for (int k=numIters; k >= 1; k--) {
+            if (((numIters + k - 1) / k + k) * iterBytes <= prm.maxTapeBytes) {
+                return k;
+            }
+        }
+        int k = Math.max(1, (int) Math.round(Math.sqrt(numIters)));
+        log.warn("Tape of {} iterations cannot fit in {} bytes. Using checkpoint interval {}.", numIters,
+                prm.maxTapeBytes, k);
+        return k;
+    }
+    
+    /** Gets a copy of all the messages. */
+    private VarTensor[] copyMsgs() {
+        VarTensor[] copy = new VarTensor[msgs.length];
+        for (int e=0; e<msgs.length; e++) {
+            copy[e] = new VarTensor(msgs[e]);
+        }
+        return copy;
+    }
+
     private void forwardCreateMessage(int edge) {
         if (!bg.isT1T2(edge) && (bg.t2E(edge) instanceof GlobalFactor)) {
             log.warn("ONLY FOR TESTING: Creating a single message from a global factor: " + edge);
@@ -330,6 +711,11 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
     }
 
     private void forwardFactorToVar(int edge) {
+        int f = bg.parentE(edge);
+        if (bg.numNbsT2(f) < prm.minFacNbsForCache && configMaps[f] != null) {
+            forwardFactorToVarCompiled(edge);
+            return;
+        }
         Var var = bg.t1E(edge);
         // Since this is not a global factor, we send messages in the normal way, which
         // in the case of a factor to variable message requires enumerating all possible
@@ -353,6 +739,35 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
         newMsgs[edge].setValuesOnly(msg);
     }
 
+    /**
+     * Computes the same message as forwardFactorToVar, but without allocating: the cavity product
+     * is computed in a scratch tensor reserved for this edge, and then marginalized directly into
+     * the new message, using the precomputed configuration maps of the factor graph.
+     */
+    private void forwardFactorToVarCompiled(int edge) {
+        int f = bg.parentE(edge);
+        int excl = bg.iterE(edge);
+        int[][] maps = configMaps[f];
+        // Set the initial values of the product to those of the sending factor.
+        VarTensor fac = fm.getOutput().get(f);
+        VarTensor prod = cavities[edge];
+        if (prod == null) {
+            prod = new VarTensor(fac);
+            cavities[edge] = prod;
+        } else {
+            prod.setValuesOnly(fac);
+        }
+        // Multiply in the messages from all the variables except v*.
+        for (int nb=0; nb<bg.numNbsT2(f); nb++) {
+            if (nb != excl) {
+                prod.prod(msgs[bg.opposingT2(f, nb)], maps[nb]);
+            }
+        }
+        // Marginalize over all the assignments to variables for f*, except for v*.
+        prod.getMarginal(newMsgs[edge], maps[excl]);
+        assert !newMsgs[edge].containsBadValues() : "msg = " + newMsgs[edge];
+    }
+
     private void forwardGlobalFacToVar(AutodiffGlobalFactor globalFac, TapeEntry te) {
         if (globalFac.getVars().size() == 0) { return; }
         log.trace("Creating messages for global factor.");
@@ -366,7 +781,7 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
         MutableModule<MVecArray<VarTensor>> modOut = globalFac.getCreateMessagesModule(modIn, fmIn);
         modOut.setOutput(new MVecArray<VarTensor>(outMsgs));
         modOut.forward();
-        if (prm.keepTape) {
+        if (recordTape) {
             assert te.modIn == null;
             assert te.modOut == null;
             te.modIn = modIn;
@@ -379,7 +794,7 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
         if (prm.normalizeMessages) {
             msgSum = forwardNormalize(edge);
         }
-        if (prm.keepTape) {
+        if (recordTape) {
             // The tape stores the old message, the normalization constant of the new message, and the edge.
             te.msgs.add(new VarTensor(msgs[edge]));
             te.msgSums.add(msgSum);
@@ -420,17 +835,44 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
      */
     private void forwardSendMessage(int edge, int iter) {      
         // Update the residual
+        numConverged += forwardResidual(edge);
+        forwardSwapMessage(edge, iter);
+    }
+    
+    /**
+     * Updates the residual of the message pending for this edge.
+     * 
+     * @param edge The edge.
+     * @return The change in the number of converged messages: 1 if the message has (newly)
+     *         converged, -1 if it was marked as converged but is no longer converged, and 0
+     *         otherwise.
+     */
+    private int forwardResidual(int edge) {
         double oldResidual = residuals[edge];
         residuals[edge] = smartResidual(msgs[edge], newMsgs[edge], edge);
-        if (oldResidual > prm.convergenceThreshold && residuals[edge] <= prm.convergenceThreshold) {
+        return convergedDelta(oldResidual, residuals[edge]);
+    }
+    
+    /** Gets the change in the number of converged messages when a residual changes. */
+    private int convergedDelta(double oldResidual, double newResidual) {
+        if (oldResidual > prm.convergenceThreshold && newResidual <= prm.convergenceThreshold) {
             // This message has (newly) converged.
-            numConverged ++;
+            return 1;
         }
-        if (oldResidual <= prm.convergenceThreshold && residuals[edge] > prm.convergenceThreshold) {
+        if (oldResidual <= prm.convergenceThreshold && newResidual > prm.convergenceThreshold) {
             // This message was marked as converged, but is no longer converged.
-            numConverged--;
+            return -1;
         }
-        
+        return 0;
+    }
+    
+    /**
+     * Sends the pending message for this edge, without updating its residual. 
+     * 
+     * @param edge The edge over which the message should be sent.
+     * @param iter The current iteration.
+     */
+    private void forwardSwapMessage(int edge, int iter) {
         // Check for oscillation. Did the argmax change?
         if (log.isTraceEnabled() && iter > 0) {
             if (msgs[edge].getArgmaxConfigId() != newMsgs[edge].getArgmaxConfigId()) {    
@@ -520,7 +962,43 @@ public class BeliefPropagation extends AbstractFgInferencer implements Module<Be
         // Initialize the message and potential adjoints by running the variable / factor belief computation in reverse.
         backwardVarFacBeliefs(varBeliefsAdj, facBeliefsAdj);
         
-        // Process each tape entry in reverse order.
+        if (checkpoints == null) {
+            backwardTape(tape);
+        } else {
+            // Recompute and process each segment of the tape between checkpoints in reverse order.
+            int end = tape.size();
+            for (int c = checkpoints.size() - 1; c >= 0; c--) {
+                Checkpoint cp = checkpoints.get(c);
+                backwardTape(recomputeTape(cp, end));
+                end = cp.t;
+            }
+        }
+    }
+    
+    /**
+     * Recomputes the tape entries in [cp.t, end) by rerunning the forward pass from a checkpoint.
+     * Afterwards, the messages are those after tape entry end-1.
+     */
+    private List<TapeEntry> recomputeTape(Checkpoint cp, int end) {
+        for (int e=0; e<msgs.length; e++) {
+            msgs[e].setValuesOnly(cp.msgs[e]);
+        }
+        // The residuals are only needed for the forward pass, so they are restored afterwards.
+        double[] residuals = this.residuals.clone();
+        int numConverged = this.numConverged;
+        List<TapeEntry> segment = new ArrayList<TapeEntry>(end - cp.t);
+        recordTape = true;
+        for (int t = cp.t; t < end; t++) {
+            segment.add(forwardItem(tape.get(t).item, -1));
+        }
+        recordTape = false;
+        this.residuals = residuals;
+        this.numConverged = numConverged;
+        return segment;
+    }
+    
+    /** Processes each tape entry in reverse order. */
+    private void backwardTape(List<TapeEntry> tape) {
         for (int t = tape.size() - 1; t >= 0; t--) {
             // Dequeue from tape.
             TapeEntry te = tape.get(t);
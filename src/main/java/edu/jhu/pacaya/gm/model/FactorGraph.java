@@ -8,6 +8,7 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.jhu.pacaya.gm.model.globalfac.GlobalFactor;
 import edu.jhu.pacaya.gm.util.BipartiteGraph;
 import edu.jhu.pacaya.gm.util.EdgeList;
 import edu.jhu.prim.list.IntArrayList;
@@ -35,6 +36,8 @@ public class FactorGraph implements Serializable {
     private int numUndirEdges = 0;
     
     private BipartiteGraph<Var,Factor> bg;
+    /** Cached configuration maps. See getFactorConfigMaps(). */
+    private transient int[][][] configMaps;
     
     public FactorGraph() {
         super();
@@ -112,6 +115,7 @@ public class FactorGraph implements Serializable {
 
             if (bg != null) { log.warn("Discarding BipartiteGraph. This may indicate inefficiency."); }
             bg = null;
+            configMaps = null;
         }
     }
 
@@ -141,6 +145,7 @@ public class FactorGraph implements Serializable {
 
             if (bg != null) { log.warn("Discarding BipartiteGraph. This may indicate inefficiency."); }
             bg = null;
+            configMaps = null;
         }
     }
 
@@ -224,6 +229,32 @@ public class FactorGraph implements Serializable {
         return bg;
     }
     
+    /**
+     * Gets the configuration maps for each factor and each of its neighboring variables. The
+     * entry configMaps[a][nb][c] is the state of the nb'th neighbor of factor a in the
+     * BipartiteGraph, for the c'th configuration of that factor's variables. The maps are computed
+     * once and cached. The entry for a global factor is null.
+     */
+    public synchronized int[][][] getFactorConfigMaps() {
+        if (configMaps == null) {
+            BipartiteGraph<Var, Factor> bg = getBipgraph();
+            int[][][] maps = new int[factors.size()][][];
+            for (int a=0; a<factors.size(); a++) {
+                Factor f = factors.get(a);
+                if (f instanceof GlobalFactor) {
+                    continue;
+                }
+                maps[a] = new int[bg.numNbsT2(a)][];
+                for (int nb=0; nb<bg.numNbsT2(a); nb++) {
+                    Var var = vars.get(bg.childT2(a, nb));
+                    maps[a][nb] = new VarSet(var).getConfigArr(f.getVars());
+                }
+            }
+            configMaps = maps;
+        }
+        return configMaps;
+    }
+    
     public IntArrayList getConnectedComponents() {
         return getBipgraph().getConnectedComponentsT2();
     }
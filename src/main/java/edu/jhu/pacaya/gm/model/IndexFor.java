@@ -29,6 +29,7 @@ import edu.jhu.prim.iter.IntIter;
    *  relatively small) indices that have been computed (use a hash). Then,
    *  instead of computing on the fly, use the precomputed ones. Here the
    *  labels of the variables don't matter, but the ranges of the variables do.
+   *  (This is implemented by IndexForCache.)
    */
 public class IndexFor implements IntIter {
 
@@ -0,0 +1,159 @@
+package edu.jhu.pacaya.gm.model;
+
+import java.util.Arrays;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import edu.jhu.prim.iter.IntIter;
+import edu.jhu.prim.list.IntArrayList;
+
+/**
+ * A global cache of the configuration index arrays computed by {@link IndexFor}.
+ *
+ * As noted in IndexFor, the labels of the variables don't matter, only their ranges do. So the
+ * cache is keyed by the signature: the ranges of the index variables, the ranges of the for
+ * variables, and for each for variable its position in the index variables (or -1 if it is not
+ * one of them). Factor graphs built for different sentences repeat the same few factor shapes, so
+ * almost every lookup is a hit.
+ *
+ * The cache is safe for concurrent use and is bounded by the total number of cached entries
+ * (summed over all the arrays). Arrays longer than {@link #MAX_CACHED_LENGTH} are never cached.
+ *
+ * The arrays returned by this class are shared and MUST NOT be modified.
+ *
+ * @author mgormley
+ */
+public class IndexForCache {
+
+    /** The maximum length of a single cached array. */
+    public static final int MAX_CACHED_LENGTH = 1 << 16;
+    /** The maximum number of ints in all the cached arrays. */
+    private static final long MAX_CACHED_INTS = 1 << 24;
+
+    private static final Cache<Signature, int[]> cache = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHED_INTS)
+            .weigher(new Weigher<Signature, int[]>() {
+                @Override
+                public int weigh(Signature key, int[] value) {
+                    return value.length;
+                }
+            })
+            .build();
+
+    private IndexForCache() {
+        // Private constructor.
+    }
+
+    /**
+     * Gets the configuration index array for the given variable sets: the c'th entry is the
+     * configuration index of indexVars for the c'th configuration of forVars (i.e. the values
+     * returned in order by new IndexFor(indexVars, forVars)).
+     *
+     * @return The (shared) array, which must not be modified.
+     */
+    public static int[] getConfigArr(VarSet indexVars, VarSet forVars) {
+        if (numConfigs(forVars) > MAX_CACHED_LENGTH) {
+            return computeConfigArr(indexVars, forVars);
+        }
+        Signature sig = new Signature(indexVars, forVars);
+        int[] arr = cache.getIfPresent(sig);
+        if (arr == null) {
+            // Two threads might compute the same array, but the results are identical.
+            arr = computeConfigArr(indexVars, forVars);
+            cache.put(sig, arr);
+        }
+        return arr;
+    }
+
+    /** Whether the configuration index array for forVars is small enough to be cached. */
+    public static boolean isCacheable(VarSet forVars) {
+        return numConfigs(forVars) <= MAX_CACHED_LENGTH;
+    }
+
+    /** Removes all entries from the cache. */
+    public static void clear() {
+        cache.invalidateAll();
+    }
+
+    /** Gets the (approximate) number of arrays in the cache. */
+    public static long size() {
+        return cache.size();
+    }
+
+    /** Computes the configuration index array directly, without the cache. */
+    static int[] computeConfigArr(VarSet indexVars, VarSet forVars) {
+        IntArrayList a = new IntArrayList(forVars.calcNumConfigs());
+        IntIter iter = new IndexFor(indexVars, forVars);
+        while (iter.hasNext()) {
+            a.add(iter.next());
+        }
+        return a.toNativeArray();
+    }
+
+    /** Gets the number of configurations, treating an empty set as having one configuration. */
+    private static long numConfigs(VarSet vars) {
+        long numConfigs = 1;
+        for (int i=0; i<vars.size(); i++) {
+            numConfigs *= vars.get(i).getNumStates();
+        }
+        return numConfigs;
+    }
+
+    /**
+     * The label-free signature of a pair of variable sets. It is stored as a single array: the
+     * number of index vars, their ranges, the number of for vars, their ranges, and the alignment
+     * of each for var to the index vars.
+     */
+    private static class Signature {
+
+        private final int[] sig;
+        private final int hash;
+
+        public Signature(VarSet indexVars, VarSet forVars) {
+            int ni = indexVars.size();
+            int nf = forVars.size();
+            sig = new int[2 + ni + 2*nf];
+            int k = 0;
+            sig[k++] = ni;
+            for (int i=0; i<ni; i++) {
+                sig[k++] = indexVars.get(i).getNumStates();
+            }
+            sig[k++] = nf;
+            for (int j=0; j<nf; j++) {
+                sig[k++] = forVars.get(j).getNumStates();
+            }
+            // Both sets are sorted, so the alignment can be found by a merge.
+            int i = 0;
+            for (int j=0; j<nf; j++) {
+                Var fv = forVars.get(j);
+                while (i < ni && indexVars.get(i).compareTo(fv) < 0) {
+                    i++;
+                }
+                sig[k++] = (i < ni && indexVars.get(i).equals(fv)) ? i : -1;
+            }
+            assert k == sig.length;
+            hash = Arrays.hashCode(sig);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Signature)) {
+                return false;
+            }
+            Signature other = (Signature) obj;
+            return hash == other.hash && Arrays.equals(sig, other.sig);
+        }
+
+    }
+
+}
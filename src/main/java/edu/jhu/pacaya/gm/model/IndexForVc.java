@@ -1,8 +1,5 @@
 package edu.jhu.pacaya.gm.model;
 
-import edu.jhu.prim.iter.IntIter;
-import edu.jhu.prim.list.IntArrayList;
-
 /**
  * Iterator over variable configuration indices, where some of the variables
  * have been clamped.
@@ -51,16 +48,21 @@ public class IndexForVc extends IndexFor {
     }
 
     /**
-     * Gets an array version of the configuration iterator.
+     * Gets an array version of the configuration iterator. The unclamped part of the
+     * configuration indices comes from the {@link IndexForCache}.
+     * 
      * @see edu.jhu.pacaya.gm.model.IndexForVc#getConfigIter
      */
     public static int[] getConfigArr(VarSet vars, VarConfig config) {        
-        IntArrayList a = new IntArrayList(config.getVars().calcNumConfigs());
-        IntIter iter = getConfigIter(vars, config);
-        while (iter.hasNext()) {
-            a.add(iter.next());
+        int fixedConfigContrib = getConfigIndex(vars, config);
+        VarSet forVars = new VarSet(vars);
+        forVars.removeAll(config.getVars());
+        int[] unclmp = IndexForCache.getConfigArr(vars, forVars);
+        int[] a = new int[unclmp.length];
+        for (int c=0; c<a.length; c++) {
+            a[c] = unclmp[c] + fixedConfigContrib;
         }
-        return a.toNativeArray();
+        return a;
     }
     
     /**
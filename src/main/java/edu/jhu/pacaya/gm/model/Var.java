@@ -114,7 +114,7 @@ public class Var implements Comparable<Var>, Serializable {
 
     @Override
     public int compareTo(Var other) {
-        return this.instanceId - other.instanceId;
+        return Integer.compare(this.instanceId, other.instanceId);
     }
     
     @Override
@@ -1,27 +1,35 @@
 package edu.jhu.pacaya.gm.model;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.Arrays;
 
 
 /**
  * A configuration of (i.e. assignment to) a set of variables. 
  * 
+ * The states are stored in an int[] aligned with the sorted variable set, so lookups are a binary
+ * search without any boxing, and the config index is computed once and cached.
+ * 
  * @author mgormley
  *
  */
 // TODO: Maybe rename this to VarsAssignment.
 public class VarConfig implements Serializable {
 
-    private static final long serialVersionUID = 1L;
-    // TODO: Internally, we should store an int[] not a HashMap.
-    private HashMap<Var,Integer> config;
+    private static final long serialVersionUID = 2L;
+    /** Sentinel for a config index which has not yet been computed. */
+    private static final int NO_INDEX = -1;
+    
+    /** The variables, in sorted order. */
     private VarSet vars;
+    /** The state of each variable: states[i] is the state of vars.get(i). Only the first vars.size() entries are used. */
+    private int[] states;
+    /** The cached config index of this configuration, or NO_INDEX. */
+    private int configIndex;
     
     /** Constructs an empty variable configuration. */
     public VarConfig() {
-        config = new HashMap<Var,Integer>();
-        vars = new VarSet();
+        this(new VarSet(), new int[4]);
     }
 
     /** Constructs a variable configuration by adding each of the configs in order. */
@@ -31,6 +39,13 @@ public class VarConfig implements Serializable {
             put(other);
         }
     }
+    
+    /** Constructs a variable configuration which takes ownership of the given (aligned) variables and states. */
+    private VarConfig(VarSet vars, int[] states) {
+        this.vars = vars;
+        this.states = states;
+        this.configIndex = NO_INDEX;
+    }
 
     /**
      * Gets the index of this configuration for the variable set it represents.
@@ -39,7 +54,17 @@ public class VarConfig implements Serializable {
      * variables in a VarSet.
      */
     public int getConfigIndex() {
-        return getConfigIndexOfSubset(vars);
+        if (configIndex == NO_INDEX) {
+            int index = 0;
+            int numStatesProd = 1;
+            for (int v=vars.size()-1; v >= 0; v--) {
+                index += states[v] * numStatesProd;
+                numStatesProd *= vars.get(v).getNumStates();
+                checkNoOverflow(numStatesProd);
+            }
+            configIndex = index;
+        }
+        return configIndex;
     }
 
     /**
@@ -49,24 +74,32 @@ public class VarConfig implements Serializable {
      * variables in a VarSet.
      */
     public int getConfigIndexOfSubset(VarSet vars) {
+        if (vars == this.vars || vars.equals(this.vars)) {
+            return getConfigIndex();
+        }
         int configIndex = 0;
         int numStatesProd = 1;
         for (int v=vars.size()-1; v >= 0; v--) {
             Var var = vars.get(v);
-            int state = config.get(var);
+            int state = getState(var);
             configIndex += state * numStatesProd;
             numStatesProd *= var.getNumStates();
-            if (numStatesProd <= 0) {
-                throw new IllegalStateException("Integer overflow when computing config index -- this can occur if trying to compute the index of a high arity factor: " + numStatesProd);
-            }
+            checkNoOverflow(numStatesProd);
         }
         return configIndex;
     }
 
+    private static void checkNoOverflow(int numStatesProd) {
+        if (numStatesProd <= 0) {
+            throw new IllegalStateException("Integer overflow when computing config index -- this can occur if trying to compute the index of a high arity factor: " + numStatesProd);
+        }
+    }
+
     /** Sets all variable assignments in other. */
     public void put(VarConfig other) { 
-        this.config.putAll(other.config);
-        this.vars.addAll(other.vars);
+        for (int i=0; i<other.vars.size(); i++) {
+            put(other.vars.get(i), other.states[i]);
+        }
     }
     
     /** Sets the state value to stateName for the given variable, adding it if necessary. */
@@ -83,35 +116,51 @@ public class VarConfig implements Serializable {
         if (state < 0 || state >= var.getNumStates()) {
             throw new IllegalArgumentException("Invalid state idx " + state + " for var " + var);
         }
-        config.put(var, state);
+        configIndex = NO_INDEX;
+        int i = vars.indexOf(var);
+        if (i >= 0) {
+            states[i] = state;
+            return;
+        }
+        // Insert the new variable at its sorted position.
+        int n = vars.size();
+        i = -(i + 1);
+        if (n == states.length) {
+            states = Arrays.copyOf(states, Math.max(4, 2*n));
+        }
+        System.arraycopy(states, i, states, i+1, n - i);
+        states[i] = state;
         vars.add(var);
     }
 
     /** Gets the state name (in this config) for a given variable. */
     public String getStateName(Var var) {
-        return var.getStateNames().get(config.get(var));
+        return var.getStateNames().get(getState(var));
     }
     
     /** Gets the state (in this config) for a given variable. */
     public int getState(Var var) {
-        Integer state = config.get(var);
-        if (state == null) {
+        int i = vars.indexOf(var);
+        if (i < 0) {
             throw new RuntimeException("VarConfig does not contain var: " + var);
         }
-        return state;
+        return states[i];
     }
     
     /** Gets the state (in this config) for a given variable if it exists, or the default otherwise. */
     public int getState(Var var, int defaultState) {
-        Integer state = config.get(var);
-        if (state == null) {
+        int i = vars.indexOf(var);
+        if (i < 0) {
             return defaultState;
         } else {
-            return state;
+            return states[i];
         }
     }
 
-    /** Gets the variable set. */
+    /**
+     * Gets the variable set. This is the internal set, which is aligned with the states, so it must
+     * not be modified. Copy it with {@link VarSet#VarSet(VarSet)} before making any changes.
+     */
     public VarSet getVars() {
         return vars;
     }
@@ -123,19 +172,29 @@ public class VarConfig implements Serializable {
     
     /** Gets a new variable configuration that contains only a subset of the variables. */
     public VarConfig getSubset(VarSet subsetVars) {
-        if (!vars.isSuperset(subsetVars)) {
-            throw new IllegalStateException("This config does not contain all the given variables.");
+        int[] subStates = new int[subsetVars.size()];
+        // Both variable sets are sorted, so a single merge finds the states.
+        int i = 0;
+        for (int j=0; j<subStates.length; j++) {
+            Var v = subsetVars.get(j);
+            while (i < vars.size() && vars.get(i).compareTo(v) < 0) {
+                i++;
+            }
+            if (i == vars.size() || !vars.get(i).equals(v)) {
+                throw new IllegalStateException("This config does not contain all the given variables.");
+            }
+            subStates[j] = states[i];
         }
-        return getIntersection(subsetVars);
+        return new VarConfig(new VarSet(subsetVars), subStates);
     }
 
     /** Gets a new variable configuration that keeps only variables in otherVars. */
     public VarConfig getIntersection(Iterable<Var> otherVars) {
         VarConfig subset = new VarConfig();
         for (Var v : otherVars) {
-            Integer state = config.get(v);
-            if (state != null) {
-                subset.put(v, state);
+            int i = vars.indexOf(v);
+            if (i >= 0) {
+                subset.put(v, states[i]);
             }
         }
         return subset;
@@ -145,8 +204,10 @@ public class VarConfig implements Serializable {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + ((config == null) ? 0 : config.hashCode());
-        result = prime * result + ((vars == null) ? 0 : vars.hashCode());
+        for (int i=0; i<vars.size(); i++) {
+            result = prime * result + states[i];
+        }
+        result = prime * result + vars.hashCode();
         return result;
     }
 
@@ -159,19 +220,12 @@ public class VarConfig implements Serializable {
         if (getClass() != obj.getClass())
             return false;
         VarConfig other = (VarConfig) obj;
-        if (config == null) {
-            if (other.config != null)
-                return false;
-        }
-        if (vars == null) {
-            if (other.vars != null)
-                return false;
-        }
-        
-        if (!config.equals(other.config))
-            return false;
         if (!vars.equals(other.vars))
             return false;
+        for (int i=0; i<vars.size(); i++) {
+            if (states[i] != other.states[i])
+                return false;
+        }
         return true;
     }
 
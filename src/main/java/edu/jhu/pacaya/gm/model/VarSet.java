@@ -6,8 +6,8 @@ import java.util.List;
 
 import edu.jhu.pacaya.gm.model.Var.VarType;
 import edu.jhu.pacaya.util.collections.SmallSet;
+import edu.jhu.prim.iter.IntArrayIter;
 import edu.jhu.prim.iter.IntIter;
-import edu.jhu.prim.list.IntArrayList;
 
 /**
  * A subset of the variables.
@@ -66,20 +66,21 @@ public class VarSet extends SmallSet<Var> {
      * @return The iterator.
      */
     public IntIter getConfigIter(VarSet vars) {
+        if (IndexForCache.isCacheable(vars)) {
+            return new IntArrayIter(IndexForCache.getConfigArr(this, vars));
+        }
         return new IndexFor(this, vars);
     }
     
     /**
      * Gets an array version of the configuration iterator.
+     * 
+     * The array may be shared through the {@link IndexForCache} and must not be modified.
+     * 
      * @see edu.jhu.pacaya.gm.model.VarSet#getConfigIter
      */
     public int[] getConfigArr(VarSet vars) {        
-        IntArrayList a = new IntArrayList(vars.calcNumConfigs());
-        IntIter iter = getConfigIter(vars);
-        while (iter.hasNext()) {
-            a.add(iter.next());
-        }
-        return a.toNativeArray();
+        return IndexForCache.getConfigArr(this, vars);
     }
 
     /**
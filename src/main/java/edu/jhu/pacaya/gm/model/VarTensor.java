@@ -71,9 +71,9 @@ public class VarTensor extends Tensor implements Serializable {
             return marg;
         }
         
-        IntIter iter = margVars.getConfigIter(this.vars);
+        int[] map = margVars.getConfigArr(this.vars);
         for (int i=0; i<this.values.length; i++) {
-            int j = iter.next();
+            int j = map[i];
             marg.values[j] = s.plus(marg.values[j], this.values[i]);
         }
         
@@ -84,6 +84,22 @@ public class VarTensor extends Tensor implements Serializable {
         return marg;
     }
     
+    /**
+     * Sums this factor into the given marginal distribution, which is first set to zero. The
+     * entry map[c] is the configuration index of marg's variables for the c'th configuration of
+     * this factor's variables (i.e. marg.getVars().getConfigArr(this.getVars())).
+     * 
+     * This is equivalent to getMarginal(marg.getVars(), false), except that it does not allocate.
+     */
+    public void getMarginal(VarTensor marg, int[] map) {
+        checkSameAlgebra(this, marg);
+        marg.fill(s.zero());
+        for (int c=0; c<this.values.length; c++) {
+            int j = map[c];
+            marg.values[j] = s.plus(marg.values[j], this.values[c]);
+        }
+    }
+    
     public VarTensor getClamped(VarConfig clmpVarConfig) {
         if (clmpVarConfig.size() == 0) {
             return new VarTensor(this);
@@ -135,6 +151,20 @@ public class VarTensor extends Tensor implements Serializable {
         internalSet(newFactor);  
     }
     
+    /**
+     * Multiplies a factor over a subset of this factor's variables into this one. The entry
+     * map[c] is the configuration index of f's variables for the c'th configuration of this
+     * factor's variables (i.e. f.getVars().getConfigArr(this.getVars())).
+     * 
+     * This is equivalent to prod(f), except that it does not allocate.
+     */
+    public void prod(VarTensor f, int[] map) {
+        checkSameAlgebra(this, f);
+        for (int c=0; c<this.values.length; c++) {
+            this.values[c] = s.times(this.values[c], f.values[map[c]]);
+        }
+    }
+    
     /**
      * this /= f
      * indices matching 0 /= 0 are set to 0.
@@ -191,25 +221,24 @@ public class VarTensor extends Tensor implements Serializable {
             return f1;
         } else if (f1.vars.isSuperset(f2.vars)) {
             // Special case where f1 is a superset of f2.
-            IntIter iter2 = f2.vars.getConfigIter(f1.vars);
+            int[] map2 = f2.vars.getConfigArr(f1.vars);
             int n = f1.vars.calcNumConfigs();
+            assert (map2.length == n);
             for (int c = 0; c < n; c++) {
-                f1.values[c] = op.call(s, f1.values[c], f2.values[iter2.next()]);
+                f1.values[c] = op.call(s, f1.values[c], f2.values[map2[c]]);
             }
-            assert(!iter2.hasNext());
             return f1;
         } else {
             // The union of the two variable sets must be created.
             VarSet union = new VarSet(f1.vars, f2.vars);
             VarTensor out = new VarTensor(s, union);
-            IntIter iter1 = f1.vars.getConfigIter(union);
-            IntIter iter2 = f2.vars.getConfigIter(union);
+            int[] map1 = f1.vars.getConfigArr(union);
+            int[] map2 = f2.vars.getConfigArr(union);
             int n = out.vars.calcNumConfigs();
+            assert (map1.length == n && map2.length == n);
             for (int c = 0; c < n; c++) {
-                out.values[c] = op.call(s, f1.values[iter1.next()], f2.values[iter2.next()]);
+                out.values[c] = op.call(s, f1.values[map1[c]], f2.values[map2[c]]);
             }
-            assert(!iter1.hasNext());
-            assert(!iter2.hasNext());
             return out;
         }
     }
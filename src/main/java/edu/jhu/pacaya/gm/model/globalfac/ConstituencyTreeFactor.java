@@ -2,31 +2,33 @@ package edu.jhu.pacaya.gm.model.globalfac;
 
 import java.io.IOException;
 import java.io.StringReader;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.jhu.pacaya.autodiff.AbstractMutableModule;
+import edu.jhu.pacaya.autodiff.MVec;
+import edu.jhu.pacaya.autodiff.MVecArray;
+import edu.jhu.pacaya.autodiff.Module;
+import edu.jhu.pacaya.autodiff.MutableModule;
+import edu.jhu.pacaya.autodiff.Tensor;
+import edu.jhu.pacaya.gm.model.MVecFgModel;
 import edu.jhu.pacaya.gm.model.Var;
 import edu.jhu.pacaya.gm.model.Var.VarType;
 import edu.jhu.pacaya.gm.model.VarConfig;
 import edu.jhu.pacaya.gm.model.VarSet;
 import edu.jhu.pacaya.gm.model.VarTensor;
-import edu.jhu.pacaya.nlp.data.Sentence;
 import edu.jhu.pacaya.parse.cky.CkyPcfgParser.LoopOrder;
 import edu.jhu.pacaya.parse.cky.CnfGrammar;
 import edu.jhu.pacaya.parse.cky.CnfGrammarReader;
-import edu.jhu.pacaya.parse.cky.PcfgInsideOutside;
-import edu.jhu.pacaya.parse.cky.PcfgInsideOutside.PcfgInsideOutsidePrm;
-import edu.jhu.pacaya.parse.cky.PcfgInsideOutside.PcfgIoChart;
-import edu.jhu.pacaya.parse.cky.Rule;
-import edu.jhu.pacaya.parse.cky.Scorer;
+import edu.jhu.pacaya.parse.cky.SpanInsideOutside;
 import edu.jhu.pacaya.util.collections.QLists;
 import edu.jhu.pacaya.util.semiring.Algebra;
+import edu.jhu.pacaya.util.semiring.Algebras;
 import edu.jhu.pacaya.util.semiring.LogSemiring;
-import edu.jhu.pacaya.util.semiring.RealAlgebra;
-import edu.jhu.prim.arrays.DoubleArrays;
+import edu.jhu.pacaya.util.semiring.LogSignAlgebra;
 import edu.jhu.prim.util.math.FastMath;
 
 /**
@@ -35,7 +37,7 @@ import edu.jhu.prim.util.math.FastMath;
  * 
  * @author mgormley
  */
-public class ConstituencyTreeFactor extends AbstractConstraintFactor implements GlobalFactor {
+public class ConstituencyTreeFactor extends AbstractConstraintFactor implements GlobalFactor, AutodiffGlobalFactor {
 
     private static final long serialVersionUID = 1L;
 
@@ -101,8 +103,6 @@ public class ConstituencyTreeFactor extends AbstractConstraintFactor implements
     /** The sentence length. */
     private final int n;
     private SpanVar[][] spanVars;
-    // Internal sentence used by parser.
-    private Sentence sentence;
 
     /**
      * Constructor.
@@ -122,11 +122,6 @@ public class ConstituencyTreeFactor extends AbstractConstraintFactor implements
             SpanVar span = (SpanVar) var;
             spanVars[span.getStart()][span.getEnd()] = span;
         }
-
-        // Construct sentence.
-        int[] sent = new int[n];
-        Arrays.fill(sent, grammar.getLexAlphabet().lookupIndex("a"));
-        sentence = new Sentence(grammar.getLexAlphabet(), sent);
     }
 
     /**
@@ -154,121 +149,221 @@ public class ConstituencyTreeFactor extends AbstractConstraintFactor implements
         return vars;
     }
 
+    @Override
+    public MutableModule<MVecArray<VarTensor>> getCreateMessagesModule(Module<MVecArray<VarTensor>> modIn, Module<?> fm) {
+        return new CTFCreateMessagesModule(modIn, fm);
+    }
+
     @Override
     public void createMessages(VarTensor[] inMsgs, VarTensor[] outMsgs) {
-        Algebra s = inMsgs[0].getAlgebra();
-        if (!s.equals(RealAlgebra.getInstance()) && !s.equals(LogSemiring.getInstance())) {
-            throw new IllegalStateException("ConstituencyTreeFactor only supports log and real semirings as input.");
+        forwardAndBackward(inMsgs, outMsgs, null, null, true);
+    }
+
+    private class CTFCreateMessagesModule extends AbstractMutableModule<MVecArray<VarTensor>> implements MutableModule<MVecArray<VarTensor>> {
+
+        private Module<MVecArray<VarTensor>> modIn;
+        private Module<?> fm;
+
+        public CTFCreateMessagesModule(Module<MVecArray<VarTensor>> modIn, Module<?> fm) {
+            super(modIn.getAlgebra());
+            this.modIn = modIn;
+            this.fm = fm;
         }
-        
-        // All internal computation is done in the logDomain
-        // since (for example) pi the product of all incoming false messages
-        // would overflow.
-        final double[][] spanWeights = new double[n][n+1];
-        getLogOddsRatios(inMsgs, spanWeights);
-        double pi = getProductOfAllFalseMessages(inMsgs);
-
-        // Compute the constituency tree marginals, summing over all 
-        // constiuency trees via the inside-outside algorithm.
-        PcfgInsideOutsidePrm prm = new PcfgInsideOutsidePrm();
-        prm.scorer = new Scorer() {            
-            @Override
-            public double score(Rule r, int start, int mid, int end) {
-                return spanWeights[start][end];
+
+        @Override
+        public MVecArray<VarTensor> forward() {
+            forwardAndBackward(modIn.getOutput().f, y.f, null, null, true);
+            return y;
+        }
+
+        @Override
+        public void backward() {
+            forwardAndBackward(modIn.getOutput().f, null, yAdj.f, modIn.getOutputAdj().f, false);
+        }
+
+        @Override
+        public List<? extends Module<? extends MVec>> getInputs() {
+            return QLists.getList(modIn, fm);
+        }
+
+    }
+
+    /**
+     * Computes the outgoing messages, or on the backward pass the adjoints of the incoming
+     * messages, by running the inside-outside algorithm over spans. The backward pass recomputes
+     * the forward pass, so that only the per-thread charts of {@link SpanInsideOutside} are used.
+     */
+    public void forwardAndBackward(VarTensor[] inMsgs, VarTensor[] outMsgs, VarTensor[] outMsgsAdj, VarTensor[] inMsgsAdj, boolean isForward) {
+        Algebra inS = inMsgs[0].getAlgebra();
+        // All internal computation is done in the log domain (or the log-sign domain for the
+        // adjoints) since (for example) pi the product of all incoming false messages would
+        // overflow.
+        Algebra s = (isForward) ? LogSemiring.getInstance() : LogSignAlgebra.getInstance();
+        SpanInsideOutside io = SpanInsideOutside.getThreadLocal();
+
+        // Compute the odds ratio for each span, w_{ij} = \mu_{ij}(1) / \mu_{ij}(0), and
+        // the product of all the "false" messages, pi = \prod_{ij} \mu_{ij}(0).
+        double[][] spanWeights = io.getWeights(n);
+        double pi = s.one();
+        for (VarTensor inMsg : inMsgs) {
+            SpanVar span = (SpanVar) inMsg.getVars().get(0);
+            double inMsgTrue = Algebras.convertAlgebra(inMsg.getValue(SpanVar.TRUE), inS, s);
+            double inMsgFalse = Algebras.convertAlgebra(inMsg.getValue(SpanVar.FALSE), inS, s);
+            if (inMsgFalse == s.zero()) {
+                throw new IllegalStateException("Hard constraints turning ON a span are not supported.");
             }
-        };
-        PcfgInsideOutside io = new PcfgInsideOutside(prm);
-        PcfgIoChart chart = io.runInsideOutside(sentence, grammar);
+            spanWeights[span.getStart()][span.getEnd()] = s.divide(inMsgTrue, inMsgFalse);
+            pi = s.times(pi, inMsgFalse);
+        }
+        if (isForward) {
+            checkSpanWeights(spanWeights);
+        }
+
+        // Compute the constituency tree marginals, summing over all
+        // constituency trees via the inside-outside algorithm.
+        double root = io.insideOutside(n, s);
+        if (root == s.zero()) {
+            throw new IllegalStateException("Incoming messages disallowed all valid tree structures");
+        }
+        double[][] inside = io.getInside();
+        double[][] outside = io.getOutside();
 
-        // partition = pi * \sum_{y \in Trees} \prod_{edge \in y} weight(edge) 
-        // Here we store the log partition.
-        double partition = pi + chart.getLogPartitionFunction();
+        // partition = pi * \sum_{y \in Trees} \prod_{span \in y} weight(span)
+        double partition = s.times(pi, root);
 
         if (log.isTraceEnabled()) {
-            log.trace(String.format("partition: %.2f", partition));
+            log.trace(String.format("partition: %.2f", s.toLogProb(partition)));
         }
 
-        // Create the messages and stage them in the Messages containers.
-        for (int i=0; i<inMsgs.length; i++) {
-            VarTensor inMsg = inMsgs[i];
-            VarTensor outMsg = outMsgs[i];
-            SpanVar span = (SpanVar) inMsg.getVars().get(0);
-            
-            // The beliefs are computed as follows.
-            // beliefTrue = pi * FastMath.exp(chart.getLogSumOfPotentials(link.getParent(), link.getChild()));
-            // beliefFalse = partition - beliefTrue;
-            // 
-            // Then the outgoing messages are computed as:
-            // outMsgTrue = beliefTrue / inMsgTrue
-            // outMsgFalse = beliefFalse / inMsgFalse
-            // 
-            // Here we compute the logs of these quantities.
-
-            double beliefTrue = pi + chart.getLogSumOfPotentials(nonTerminalSymbol, span.getStart(), span.getEnd());
-            double beliefFalse = safeLogSubtract(partition, beliefTrue);
-
-            // TODO: Detect possible numerical precision error.
-
-            // Get the incoming messages.
-            double inMsgTrue = s.toLogProb(inMsg.getValue(SpanVar.TRUE));
-            double inMsgFalse = s.toLogProb(inMsg.getValue(SpanVar.FALSE));
-            
-            double outMsgTrue = beliefTrue - inMsgTrue;
-            double outMsgFalse = beliefFalse - inMsgFalse;
-
-            outMsgTrue = (inMsgTrue == Double.NEGATIVE_INFINITY) ? Double.NEGATIVE_INFINITY : outMsgTrue;
-            outMsgFalse = (inMsgFalse == Double.NEGATIVE_INFINITY) ? Double.NEGATIVE_INFINITY : outMsgFalse;
-            
-            setOutMsgs(outMsg, span, outMsgTrue, outMsgFalse);
+        if (isForward) {
+            // Create the messages and stage them in the Messages containers.
+            for (int i=0; i<inMsgs.length; i++) {
+                VarTensor inMsg = inMsgs[i];
+                SpanVar span = (SpanVar) inMsg.getVars().get(0);
+
+                // The beliefs are computed as follows.
+                // beliefTrue = pi * inside * outside;
+                // beliefFalse = partition - beliefTrue;
+                //
+                // Then the outgoing messages are computed as:
+                // outMsgTrue = beliefTrue / inMsgTrue
+                // outMsgFalse = beliefFalse / inMsgFalse
+                double beliefTrue = s.times(pi, io.getMarginal(span.getStart(), span.getEnd()));
+                double beliefFalse = isUnsafeSubtract(partition, beliefTrue, s) ? s.zero() : s.minus(partition, beliefTrue);
+
+                // Get the incoming messages.
+                double inMsgTrue = Algebras.convertAlgebra(inMsg.getValue(SpanVar.TRUE), inS, s);
+                double inMsgFalse = Algebras.convertAlgebra(inMsg.getValue(SpanVar.FALSE), inS, s);
+
+                double outMsgTrue = (inMsgTrue == s.zero()) ? s.zero() : s.divide(beliefTrue, inMsgTrue);
+                double outMsgFalse = s.divide(beliefFalse, inMsgFalse);
+
+                setOutMsgs(outMsgs[i], span, outMsgTrue, outMsgFalse, s);
+            }
+        } else {
+            io.zeroAdj();
+            double[][] insideAdj = io.getInsideAdj();
+            double[][] outsideAdj = io.getOutsideAdj();
+
+            // Backward through the outgoing messages and beliefs.
+            double piAdj = s.zero();
+            double partitionAdj = s.zero();
+            for (int i=0; i<inMsgs.length; i++) {
+                VarTensor inMsg = inMsgs[i];
+                SpanVar span = (SpanVar) inMsg.getVars().get(0);
+                int start = span.getStart();
+                int end = span.getEnd();
+                double marginal = s.times(inside[start][end], outside[start][end]);
+                double beliefTrue = s.times(pi, marginal);
+                boolean isUnsafe = isUnsafeSubtract(partition, beliefTrue, s);
+                double beliefFalse = isUnsafe ? s.zero() : s.minus(partition, beliefTrue);
+                double inMsgTrue = Algebras.convertAlgebra(inMsg.getValue(SpanVar.TRUE), inS, s);
+                double inMsgFalse = Algebras.convertAlgebra(inMsg.getValue(SpanVar.FALSE), inS, s);
+                Algebra outAdjS = outMsgsAdj[i].getAlgebra();
+                double outMsgTrueAdj = Algebras.convertAlgebra(outMsgsAdj[i].getValue(SpanVar.TRUE), outAdjS, s);
+                double outMsgFalseAdj = Algebras.convertAlgebra(outMsgsAdj[i].getValue(SpanVar.FALSE), outAdjS, s);
+
+                // outMsgTrue = beliefTrue / inMsgTrue and outMsgFalse = beliefFalse / inMsgFalse.
+                double inMsgTrueAdj = s.zero();
+                double inMsgFalseAdj = s.zero();
+                double beliefTrueAdj = s.zero();
+                double beliefFalseAdj = s.zero();
+                if (inMsgTrue != s.zero() && outMsgTrueAdj != s.zero()) {
+                    beliefTrueAdj = s.divide(outMsgTrueAdj, inMsgTrue);
+                    inMsgTrueAdj = ProjDepTreeModule.divideAdj(outMsgTrueAdj, beliefTrue, inMsgTrue, s);
+                }
+                if (outMsgFalseAdj != s.zero()) {
+                    beliefFalseAdj = s.divide(outMsgFalseAdj, inMsgFalse);
+                    inMsgFalseAdj = ProjDepTreeModule.divideAdj(outMsgFalseAdj, beliefFalse, inMsgFalse, s);
+                }
+                // beliefFalse = partition - beliefTrue, unless it was truncated to zero.
+                if (!isUnsafe) {
+                    partitionAdj = s.plus(partitionAdj, beliefFalseAdj);
+                    beliefTrueAdj = s.minus(beliefTrueAdj, beliefFalseAdj);
+                }
+                // beliefTrue = pi * inside * outside.
+                piAdj = s.plus(piAdj, s.times(beliefTrueAdj, marginal));
+                double marginalAdj = s.times(beliefTrueAdj, pi);
+                insideAdj[start][end] = s.plus(insideAdj[start][end], s.times(marginalAdj, outside[start][end]));
+                outsideAdj[start][end] = s.plus(outsideAdj[start][end], s.times(marginalAdj, inside[start][end]));
+
+                addInMsgsAdj(inMsgsAdj[i], inMsgTrueAdj, inMsgFalseAdj, s);
+            }
+            // partition = pi * root.
+            piAdj = s.plus(piAdj, s.times(partitionAdj, root));
+            insideAdj[0][n] = s.plus(insideAdj[0][n], s.times(partitionAdj, pi));
+
+            // Backward through inside-outside.
+            io.backward();
+            double[][] spanWeightsAdj = io.getWeightsAdj();
+
+            // Backward through the odds ratios and pi.
+            double piTimesAdj = s.times(piAdj, pi);
+            for (int i=0; i<inMsgs.length; i++) {
+                VarTensor inMsg = inMsgs[i];
+                SpanVar span = (SpanVar) inMsg.getVars().get(0);
+                double weightAdj = spanWeightsAdj[span.getStart()][span.getEnd()];
+                double inMsgTrue = Algebras.convertAlgebra(inMsg.getValue(SpanVar.TRUE), inS, s);
+                double inMsgFalse = Algebras.convertAlgebra(inMsg.getValue(SpanVar.FALSE), inS, s);
+                double inMsgTrueAdj = s.divide(weightAdj, inMsgFalse);
+                double inMsgFalseAdj = ProjDepTreeModule.divideAdj(weightAdj, inMsgTrue, inMsgFalse, s);
+                inMsgFalseAdj = s.plus(inMsgFalseAdj, s.divide(piTimesAdj, inMsgFalse));
+                addInMsgsAdj(inMsgsAdj[i], inMsgTrueAdj, inMsgFalseAdj, s);
+            }
         }
     }
 
-    private double safeLogSubtract(double partition, double beliefTrue) {
-        double outMsgFalse;
-        if (partition < beliefTrue) {
+    /**
+     * Whether partition - beliefTrue would be negative due to floating point error, in which case
+     * we truncate the subtraction to zero.
+     */
+    private boolean isUnsafeSubtract(double partition, double beliefTrue, Algebra s) {
+        boolean isUnsafe = s.lt(partition, beliefTrue);
+        if (isUnsafe) {
             // This will happen very frequently if the log-add table is used
             // instead of "exact" log-add.
             if (log.isTraceEnabled()) {
-                log.trace(String.format("Partition function less than belief: partition=%.20f belief=%.20f", partition, beliefTrue));
+                log.trace(String.format("Partition function less than belief: partition=%.20f belief=%.20f", s.toLogProb(partition), s.toLogProb(beliefTrue)));
             }
-            // To get around the floating point error, we truncate the
-            // subtraction to log(0).
-            outMsgFalse = Double.NEGATIVE_INFINITY;
             unsafeLogSubtracts++;
-        } else {
-            outMsgFalse = FastMath.logSubtractExact(partition, beliefTrue);
         }
         logSubtractCount++;
-        return outMsgFalse;
+        return isUnsafe;
     }
     private static int unsafeLogSubtracts = 0;
     private static int logSubtractCount = 0;
     private static int extremeOddsRatios = 0;
     private static int oddsRatioCount = 0;
 
-    /** Computes the log odds ratio for each edge. w_{ij} = \mu_{ij}(1) / \mu_{ij}(0) */
-    private void getLogOddsRatios(VarTensor[] inMsgs, double[][] spanWeights) {
-        Algebra s = inMsgs[0].getAlgebra();
-        
-        // Compute the odds ratios of the messages for each edge in the tree.
-        DoubleArrays.fill(spanWeights, Double.NEGATIVE_INFINITY);
-        for (VarTensor inMsg : inMsgs) {
-            SpanVar span = (SpanVar) inMsg.getVars().get(0);
-            double oddsRatio = s.toLogProb(inMsg.getValue(SpanVar.TRUE)) - s.toLogProb(inMsg.getValue(SpanVar.FALSE));
-            spanWeights[span.getStart()][span.getEnd()] = oddsRatio;                
-        }
-
-        checkSpanWeights(spanWeights);
-    }
-
+    /** Checks the log odds ratios of the spans for possible numerical precision issues. */
     private void checkSpanWeights(double[][] spanWeights) {
         // Keep track of the minimum and maximum odds ratios, in order to detect
         // possible numerical precision issues.
         double minOddsRatio = Double.POSITIVE_INFINITY;
         double maxOddsRatio = Double.NEGATIVE_INFINITY;
-        
-        for (int i=0; i<spanWeights.length; i++) {
-            for (int j=0; j<spanWeights[i].length; j++) {
+
+        for (int i=0; i<n; i++) {
+            for (int j=i+1; j<=n; j++) {
                 double oddsRatio = spanWeights[i][j];
                 // Check min/max.
                 if (oddsRatio < minOddsRatio && oddsRatio != Double.NEGATIVE_INFINITY) {
@@ -288,40 +383,39 @@ public class ConstituencyTreeFactor extends AbstractConstraintFactor implements
             extremeOddsRatios++;
             log.debug(String.format("maxOddsRatio=%.20g minOddsRatio=%.20g", maxOddsRatio, minOddsRatio));
             log.debug(String.format("Proportion extreme odds ratios:  %f (%d / %d)", (double) extremeOddsRatios/ oddsRatioCount, extremeOddsRatios, oddsRatioCount));
-            // We log the proportion of unsafe log-subtracts here only as a convenient way of highlighting the two floating point errors together.
+            // We log the proportion of unsafe log subtracts here only as a convenient way of highlighting the two floating point errors together.
             log.debug(String.format("Proportion unsafe log subtracts:  %f (%d / %d)", (double) unsafeLogSubtracts / logSubtractCount, unsafeLogSubtracts, logSubtractCount));
         }
     }
 
-    /** Computes pi = \prod_i \mu_i(0). */
-    private double getProductOfAllFalseMessages(VarTensor[] inMsgs) {
-        // Precompute the product of all the "false" messages.
-        // pi = \prod_i \mu_i(0)
-        // Here we store log pi.
-        Algebra s = inMsgs[0].getAlgebra();
-        double logPi = 0.0;
-        for (VarTensor inMsg : inMsgs) {
-            logPi += s.toLogProb(inMsg.getValue(SpanVar.FALSE));
-        }
-        return logPi;
-    }
+    /** Sets the outgoing messages, given in the algebra s. */
+    private void setOutMsgs(VarTensor outMsg, SpanVar span, double outMsgTrue, double outMsgFalse, Algebra s) {
 
-    /** Sets the outgoing messages. */
-    private void setOutMsgs(VarTensor outMsg, SpanVar span, double outMsgTrue, double outMsgFalse) {
-        
         // Set the outgoing messages.
-        Algebra s = outMsg.getAlgebra();
-        outMsg.setValue(SpanVar.FALSE, s.fromLogProb(outMsgFalse));
-        outMsg.setValue(SpanVar.TRUE, s.fromLogProb(outMsgTrue));
-                
+        Algebra outS = outMsg.getAlgebra();
+        outMsg.setValue(SpanVar.FALSE, Algebras.convertAlgebra(outMsgFalse, s, outS));
+        outMsg.setValue(SpanVar.TRUE, Algebras.convertAlgebra(outMsgTrue, s, outS));
+
         if (log.isTraceEnabled()) {
             log.trace(String.format("outMsgTrue: %s = %.2f", span.getName(), outMsg.getValue(LinkVar.TRUE)));
             log.trace(String.format("outMsgFalse: %s = %.2f", span.getName(), outMsg.getValue(LinkVar.FALSE)));
         }
-        
+
         assert !outMsg.containsBadValues() : "message = " + outMsg;
     }
 
+    /** Adds to the adjoints of an incoming message, given in the algebra s. */
+    private static void addInMsgsAdj(VarTensor inMsgAdj, double inMsgTrueAdj, double inMsgFalseAdj, Algebra s) {
+        Algebra adjS = inMsgAdj.getAlgebra();
+        inMsgAdj.addValue(SpanVar.TRUE, Algebras.convertAlgebra(inMsgTrueAdj, s, adjS));
+        inMsgAdj.addValue(SpanVar.FALSE, Algebras.convertAlgebra(inMsgFalseAdj, s, adjS));
+    }
+
+    @Override
+    public Module<Tensor> getExpectedLogBeliefModule(Module<MVecArray<VarTensor>> modIn, Module<?> fm) {
+        throw new RuntimeException("not implemented");
+    }
+
     @Override
     public double getExpectedLogBelief(VarTensor[] inMsgs) {
         if (n == 0) {
@@ -342,6 +436,11 @@ public class ConstituencyTreeFactor extends AbstractConstraintFactor implements
         return vars;
     }
 
+    @Override
+    public Module<?> getFactorModule(Module<MVecFgModel> modIn, Algebra s) {
+        return new ParamFreeGlobalFactorModule(s, this, new ArrayList<Module<MVec>>());
+    }
+
     @Override
     public double getLogUnormalizedScore(int configId) {
         VarConfig vc = vars.getVarConfig(configId);
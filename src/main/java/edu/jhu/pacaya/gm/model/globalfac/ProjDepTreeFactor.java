@@ -149,42 +149,80 @@ public class ProjDepTreeFactor extends AbstractConstraintFactor implements Globa
         
     }
     
+    /**
+     * The modules and input tensors used to compute the messages of a factor, reused by every call
+     * to {@link ProjDepTreeFactor#forwardAndBackward(VarTensor[], VarTensor[], VarTensor[], VarTensor[], boolean)}
+     * on one thread, so that the buffers of the {@link ProjDepTreeModule}s are allocated only when
+     * a longer sentence is seen.
+     */
+    private static class MsgsKernel {
+
+        private Algebra s;
+        private int n = -1;
+        private Identity<Tensor> mTrueIn;
+        private Identity<Tensor> mFalseIn;
+        // The modules for the forward and backward passes, which use different internal algebras.
+        private ProjDepTreeModule depForward;
+        private ProjDepTreeModule depBackward;
+
+        /** Prepares the input modules for messages in the given algebra over a sentence of length n. */
+        public void init(Algebra s, int n) {
+            if (!s.equals(this.s)) {
+                mTrueIn = new Identity<Tensor>(new Tensor(s, n, n));
+                mFalseIn = new Identity<Tensor>(new Tensor(s, n, n));
+                depForward = new ProjDepTreeModule(mTrueIn, mFalseIn, LogSemiring.getInstance());
+                depBackward = new ProjDepTreeModule(mTrueIn, mFalseIn, LogSignAlgebra.getInstance());
+                this.s = s;
+            } else if (n != this.n) {
+                mTrueIn.setOutput(new Tensor(s, n, n));
+                mFalseIn.setOutput(new Tensor(s, n, n));
+                mTrueIn.setOutputAdj(null);
+                mFalseIn.setOutputAdj(null);
+            }
+            this.n = n;
+        }
+
+    }
+
+    private static final ThreadLocal<MsgsKernel> kernels = new ThreadLocal<MsgsKernel>() {
+        @Override
+        protected MsgsKernel initialValue() {
+            return new MsgsKernel();
+        }
+    };
+
     public void forwardAndBackward(VarTensor[] inMsgs, VarTensor[] outMsgs, VarTensor[] outMsgsAdj, VarTensor[] inMsgsAdj, boolean isForward) {
         Algebra s = inMsgs[0].getAlgebra();
+        MsgsKernel k = kernels.get();
+        k.init(s, n);
 
         // Get the incoming messages at time (t).
-        Tensor tmTrueIn = getMsgs(inMsgs, LinkVar.TRUE);        
-        Tensor tmFalseIn = getMsgs(inMsgs, LinkVar.FALSE);
+        getMsgs(inMsgs, LinkVar.TRUE, k.mTrueIn.getOutput());
+        getMsgs(inMsgs, LinkVar.FALSE, k.mFalseIn.getOutput());
         
-        // Construct the circuit.
-        Identity<Tensor> mTrueIn = new Identity<Tensor>(tmTrueIn);
-        Identity<Tensor> mFalseIn = new Identity<Tensor>(tmFalseIn);        
-        Algebra tmpS = (isForward) ? LogSemiring.getInstance() : LogSignAlgebra.getInstance();
-        ProjDepTreeModule dep = new ProjDepTreeModule(mTrueIn, mFalseIn, tmpS);
+        ProjDepTreeModule dep = (isForward) ? k.depForward : k.depBackward;
         dep.forward();
         
         if (isForward) {
-            Tensor pair = dep.getOutput();
-            Tensor tmTrueOut = pair.select(0, 1);
-            Tensor tmFalseOut = pair.select(0, 0);
-            
             // Set the outgoing messages at time (t+1).
-            setMsgs(outMsgs, tmTrueOut, LinkVar.TRUE);
-            setMsgs(outMsgs, tmFalseOut, LinkVar.FALSE);
+            Tensor pair = dep.getOutput();
+            setMsgs(outMsgs, pair, 1, LinkVar.TRUE);
+            setMsgs(outMsgs, pair, 0, LinkVar.FALSE);
         } else {
             // Get the adjoints on outgoing message modules at time (t+1).
-            Tensor tTrue = getMsgs(outMsgsAdj, LinkVar.TRUE);
-            Tensor tFalse = getMsgs(outMsgsAdj, LinkVar.FALSE);
+            dep.zeroOutputAdj();
             Tensor pairAdj = dep.getOutputAdj();
-            pairAdj.addTensor(tTrue, 0, 1);
-            pairAdj.addTensor(tFalse, 0, 0);
+            addToPair(outMsgsAdj, pairAdj, 1, LinkVar.TRUE);
+            addToPair(outMsgsAdj, pairAdj, 0, LinkVar.FALSE);
             
             // Backward pass.
+            k.mTrueIn.zeroOutputAdj();
+            k.mFalseIn.zeroOutputAdj();
             dep.backward();
             
             // Increment adjoints of the incoming messages at time (t).
-            addMsgs(inMsgsAdj, mTrueIn.getOutputAdj(), LinkVar.TRUE);
-            addMsgs(inMsgsAdj, mFalseIn.getOutputAdj(), LinkVar.FALSE);
+            addMsgs(inMsgsAdj, k.mTrueIn.getOutputAdj(), LinkVar.TRUE);
+            addMsgs(inMsgsAdj, k.mFalseIn.getOutputAdj(), LinkVar.FALSE);
         }
     }
 
@@ -281,30 +319,58 @@ public class ProjDepTreeFactor extends AbstractConstraintFactor implements Globa
      * @return The messages as a Tensor.
      */
     private Tensor getMsgs(VarTensor[] inMsgs, int tf) {
-        Algebra s = inMsgs[0].getAlgebra();
-        EdgeScores es = new EdgeScores(n, s.zero());
+        Tensor t = new Tensor(inMsgs[0].getAlgebra(), n, n);
+        getMsgs(inMsgs, tf, t);
+        return t;
+    }
+    
+    /**
+     * Gets messages from the Messages[] into an nxn tensor, as in {@link EdgeScores#toTensor(Algebra)}.
+     * 
+     * @param inMsgs The input messages.
+     * @param tf Whether to get TRUE or FALSE messages.
+     * @param t Output: The messages.
+     */
+    private void getMsgs(VarTensor[] inMsgs, int tf, Tensor t) {
+        t.fill(t.getAlgebra().zero());
         for (VarTensor inMsg : inMsgs) {
-            LinkVar link = (LinkVar) inMsg.getVars().get(0);            
-            double val = inMsg.getValue(tf);
-            es.setScore(link.getParent(), link.getChild(), val);
+            LinkVar link = (LinkVar) inMsg.getVars().get(0);
+            int c = link.getChild();
+            t.set(inMsg.getValue(tf), EdgeScores.getTensorParent(link.getParent(), c), c);
         }
-        return es.toTensor(s);
     }
     
     /**
      * Sets messages on a Messages[].
      * 
      * @param msgs The output messages.
-     * @param t The input messages.
+     * @param pair The input messages, indexed by FALSE (0) or TRUE (1), parent, and child.
+     * @param idx The index of the messages in pair.
      * @param tf Whether to set TRUE or FALSE messages.
      */
-    private void setMsgs(VarTensor[] msgs, Tensor t, int tf) {
-        assert msgs[0].getAlgebra().equals(t.getAlgebra());
-        EdgeScores es = EdgeScores.tensorToEdgeScores(t);
+    private void setMsgs(VarTensor[] msgs, Tensor pair, int idx, int tf) {
+        assert msgs[0].getAlgebra().equals(pair.getAlgebra());
         for (VarTensor msg : msgs) {
-            LinkVar link = (LinkVar) msg.getVars().get(0);            
-            double val = es.getScore(link.getParent(), link.getChild());
-            msg.setValue(tf, val);
+            LinkVar link = (LinkVar) msg.getVars().get(0);
+            int c = link.getChild();
+            msg.setValue(tf, pair.get(idx, EdgeScores.getTensorParent(link.getParent(), c), c));
+        }
+    }
+    
+    /**
+     * Adds messages from a Messages[] to a pair of nxn tensors.
+     * 
+     * @param msgs The input messages.
+     * @param pair Output: The tensor, indexed by FALSE (0) or TRUE (1), parent, and child.
+     * @param idx The index of the messages in pair.
+     * @param tf Whether to add TRUE or FALSE messages.
+     */
+    private void addToPair(VarTensor[] msgs, Tensor pair, int idx, int tf) {
+        assert msgs[0].getAlgebra().equals(pair.getAlgebra());
+        for (VarTensor msg : msgs) {
+            LinkVar link = (LinkVar) msg.getVars().get(0);
+            int c = link.getChild();
+            pair.add(msg.getValue(tf), idx, EdgeScores.getTensorParent(link.getParent(), c), c);
         }
     }
     
@@ -317,11 +383,10 @@ public class ProjDepTreeFactor extends AbstractConstraintFactor implements Globa
      */
     private void addMsgs(VarTensor[] msgs, Tensor t, int tf) {
         assert msgs[0].getAlgebra().equals(t.getAlgebra());
-        EdgeScores es = EdgeScores.tensorToEdgeScores(t);
         for (VarTensor msg : msgs) {
             LinkVar link = (LinkVar) msg.getVars().get(0);
-            double val = es.getScore(link.getParent(), link.getChild());
-            msg.addValue(tf, val);
+            int c = link.getChild();
+            msg.addValue(tf, t.get(EdgeScores.getTensorParent(link.getParent(), c), c));
         }
     }
     
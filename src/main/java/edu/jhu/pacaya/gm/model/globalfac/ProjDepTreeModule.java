@@ -1,5 +1,6 @@
 package edu.jhu.pacaya.gm.model.globalfac;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -18,10 +19,15 @@ import edu.jhu.pacaya.autodiff.tensor.Prod;
 import edu.jhu.pacaya.autodiff.tensor.ScalarFill;
 import edu.jhu.pacaya.autodiff.tensor.ScalarMultiply;
 import edu.jhu.pacaya.autodiff.tensor.Select;
+import edu.jhu.pacaya.hypergraph.CompiledHypergraph;
+import edu.jhu.pacaya.hypergraph.Hyperalgo;
+import edu.jhu.pacaya.hypergraph.Hyperalgo.Scores;
 import edu.jhu.pacaya.hypergraph.depparse.InsideOutsideDepParse;
+import edu.jhu.pacaya.hypergraph.depparse.O1DpHypergraph;
 import edu.jhu.pacaya.parse.dep.EdgeScores;
 import edu.jhu.pacaya.util.collections.QLists;
 import edu.jhu.pacaya.util.semiring.Algebra;
+import edu.jhu.pacaya.util.semiring.Algebras;
 import edu.jhu.pacaya.util.semiring.LogSemiring;
 import edu.jhu.pacaya.util.semiring.LogSignAlgebra;
 
@@ -30,6 +36,12 @@ import edu.jhu.pacaya.util.semiring.LogSignAlgebra;
  * outgoing messages that are sent from a projective dependency parsing factor following (Smith &
  * Eisner, 2008).
  * 
+ * By default, the messages and their adjoints are computed by a fused kernel: one pass over
+ * buffers indexed like the input tensors before and after inside-outside, instead of a circuit of
+ * autodiff modules which each copy an nxn tensor. The buffers, the output, and the inside-outside
+ * scores are reused when forward() is called again, so a module should be kept across calls (as
+ * {@link ProjDepTreeFactor} does per thread). The circuit is kept as a reference implementation.
+ * 
  * @author mgormley
  */
 public class ProjDepTreeModule implements Module<Tensor> {
@@ -41,6 +53,28 @@ public class ProjDepTreeModule implements Module<Tensor> {
     private final Algebra outS;
     // For internal use only.
     private final Algebra tmpS;
+    // Whether to use the circuit of autodiff modules instead of the fused kernel.
+    private final boolean useCircuit;
+    
+    // The buffers of the fused kernel, indexed as in the input tensors.
+    private double[] trueIn = new double[0];
+    private double[] falseIn = new double[0];
+    private double[] weights = new double[0];
+    private double[] bTrue = new double[0];
+    private double[] bFalse = new double[0];
+    private double[] trueInAdj = new double[0];
+    private double[] falseInAdj = new double[0];
+    private double[] weightsAdj = new double[0];
+    // The state of the fused kernel.
+    private double pi;
+    private double partition;
+    private CompiledHypergraph graph;
+    private int[] arcNodeIds;
+    // The flat edge weights, which are the parameters of the compiled hypergraph.
+    private double[] params = new double[0];
+    private Scores scores;
+    private Tensor y;
+    private Tensor yAdj;
 
     private static final Logger log = LoggerFactory.getLogger(ProjDepTreeModule.class);
     
@@ -58,16 +92,26 @@ public class ProjDepTreeModule implements Module<Tensor> {
     }
     
     public ProjDepTreeModule(Module<Tensor> mTrueIn, Module<Tensor> mFalseIn, Algebra tmpS) {
+        this(mTrueIn, mFalseIn, tmpS, false);
+    }
+    
+    /**
+     * @param useCircuit Whether to compute the messages with the reference circuit of autodiff
+     *            modules instead of the fused kernel.
+     */
+    public ProjDepTreeModule(Module<Tensor> mTrueIn, Module<Tensor> mFalseIn, Algebra tmpS, boolean useCircuit) {
         AbstractModule.checkEqualAlgebras(mTrueIn, mFalseIn);
         this.mTrueIn = mTrueIn;
         this.mFalseIn = mFalseIn;
         this.outS = mTrueIn.getAlgebra();
         this.tmpS = tmpS;
+        this.useCircuit = useCircuit;
     }
     
     @Override
     public Tensor forward() {
-        // Construct the circuit.
+        comb = null;
+        topoOrder = null;
         {
             // Initialize using the input tensors.
             AbstractModule.checkEqualAlgebras(mTrueIn, mFalseIn);
@@ -81,7 +125,189 @@ public class ProjDepTreeModule implements Module<Tensor> {
                 throw new IllegalStateException("Hard constraints turning ON an edge are not supported.");                
             }
         }
+        if (useCircuit) {
+            return forwardCircuit();
+        } else {
+            return forwardFused();
+        }
+    }
+    
+    /** Computes the outgoing messages with the fused kernel. */
+    private Tensor forwardFused() {
+        final Algebra s = tmpS;
+        final int size = n * n;
+        ensureCapacity(size);
+        Tensor tmTrueIn = mTrueIn.getOutput();
+        Tensor tmFalseIn = mFalseIn.getOutput();
+        
+        // Internally we use a different algebra to avoid numerical precision problems.
+        pi = s.one();
+        for (int i=0; i<size; i++) {
+            trueIn[i] = Algebras.convertAlgebra(tmTrueIn.getValue(i), outS, s);
+            falseIn[i] = Algebras.convertAlgebra(tmFalseIn.getValue(i), outS, s);
+            pi = s.times(pi, falseIn[i]);
+            weights[i] = s.divide(trueIn[i], falseIn[i]);
+        }
+        if (outS instanceof LogSemiring) {
+            // Check odds ratios for potential floating point precision errors.
+            checkLogOddsRatios(weights, size, s);
+        }
+        
+        // Compute the dependency tree marginals, summing over all projective
+        // spanning trees via the inside-outside algorithm.
+        int nplus = n + 1;
+        if (params.length < nplus * nplus) {
+            params = new double[nplus * nplus];
+        }
+        EdgeScores.tensorToCombined(weights, n, params);
+        CompiledHypergraph g = O1DpHypergraph.getCompiled(n, InsideOutsideDepParse.singleRoot);
+        if (g != graph) {
+            graph = g;
+            arcNodeIds = InsideOutsideDepParse.getArcNodeIds(graph);
+        }
+        if (scores == null) {
+            scores = new Scores();
+        }
+        Hyperalgo.insideAlgorithm(graph, params, s, scores);
+        Hyperalgo.outsideAlgorithm(graph, params, s, scores);
+        double root = scores.beta[graph.getRoot()];
+        if (root == s.zero()) {
+            throw new IllegalStateException("Incoming messages disallowed all valid tree structures");
+        }
+        
+        // beliefTrue = pi * alpha * beta.
+        double max = s.minValue();
+        for (int i=0; i<size; i++) {
+            int id = arcNodeIds[i];
+            bTrue[i] = s.times(s.times(scores.alpha[id], scores.beta[id]), pi);
+            if (s.gte(bTrue[i], max)) {
+                max = bTrue[i];
+            }
+        }
+        // partition = pi * \sum_{y \in Trees} \prod_{edge \in y} weight(edge) 
+        partition = fixPartition(s.times(pi, root), max, s);
+        
+        // Compute the outgoing messages as in the circuit below. If the incoming message
+        // contained zeros, send back the same message.
+        if (y == null || y.getDim(1) != n) {
+            y = new Tensor(outS, 2, n, n);
+            yAdj = null;
+        }
+        for (int i=0; i<size; i++) {
+            bFalse[i] = s.minus(partition, bTrue[i]);
+            double outTrue = trueIn[i];
+            double outFalse = falseIn[i];
+            if (s.times(trueIn[i], falseIn[i]) != s.zero()) {
+                outTrue = s.divide(bTrue[i], trueIn[i]);
+                outFalse = s.divide(bFalse[i], falseIn[i]);
+            }
+            y.setValue(i, Algebras.convertAlgebra(outFalse, s, outS));
+            y.setValue(size + i, Algebras.convertAlgebra(outTrue, s, outS));
+        }
+        assert !y.containsNaN();
+        return y;
+    }
+    
+    /** Computes the adjoints of the incoming messages with the fused kernel. */
+    private void backwardFused() {
+        final Algebra s = tmpS;
+        final int size = n * n;
+        Tensor outAdj = getOutputAdj();
+        Arrays.fill(trueInAdj, 0, size, s.zero());
+        Arrays.fill(falseInAdj, 0, size, s.zero());
+        Arrays.fill(weightsAdj, 0, size, s.zero());
+        if (scores.alphaAdj == null || scores.alphaAdj.length != graph.getNumNodes()) {
+            scores.alphaAdj = new double[graph.getNumNodes()];
+            scores.betaAdj = new double[graph.getNumNodes()];
+        }
+        Arrays.fill(scores.alphaAdj, s.zero());
+        Arrays.fill(scores.betaAdj, s.zero());
+        
+        // Backward through the outgoing messages and beliefs.
+        double piAdj = s.zero();
+        double partitionAdj = s.zero();
+        for (int i=0; i<size; i++) {
+            double outFalseAdj = Algebras.convertAlgebra(outAdj.getValue(i), outS, s);
+            double outTrueAdj = Algebras.convertAlgebra(outAdj.getValue(size + i), outS, s);
+            double bTrueAdj = s.zero();
+            double bFalseAdj = s.zero();
+            if (s.times(trueIn[i], falseIn[i]) == s.zero()) {
+                trueInAdj[i] = s.plus(trueInAdj[i], outTrueAdj);
+                falseInAdj[i] = s.plus(falseInAdj[i], outFalseAdj);
+            } else {
+                // outTrue = bTrue / trueIn and outFalse = bFalse / falseIn.
+                if (outTrueAdj != s.zero()) {
+                    bTrueAdj = s.divide(outTrueAdj, trueIn[i]);
+                    trueInAdj[i] = s.plus(trueInAdj[i], divideAdj(outTrueAdj, bTrue[i], trueIn[i], s));
+                }
+                if (outFalseAdj != s.zero()) {
+                    bFalseAdj = s.divide(outFalseAdj, falseIn[i]);
+                    falseInAdj[i] = s.plus(falseInAdj[i], divideAdj(outFalseAdj, bFalse[i], falseIn[i], s));
+                }
+            }
+            // bFalse = partition - bTrue.
+            partitionAdj = s.plus(partitionAdj, bFalseAdj);
+            bTrueAdj = s.minus(bTrueAdj, bFalseAdj);
+            // bTrue = alpha * beta * pi.
+            int id = arcNodeIds[i];
+            double edgeSumAdj = s.times(bTrueAdj, pi);
+            piAdj = s.plus(piAdj, s.times(bTrueAdj, s.times(scores.alpha[id], scores.beta[id])));
+            scores.alphaAdj[id] = s.times(edgeSumAdj, scores.beta[id]);
+            scores.betaAdj[id] = s.times(edgeSumAdj, scores.alpha[id]);
+        }
+        // partition = pi * root. As in the circuit, the fix for a small partition function is
+        // not differentiated.
+        double root = scores.beta[graph.getRoot()];
+        piAdj = s.plus(piAdj, s.times(partitionAdj, root));
+        scores.betaAdj[graph.getRoot()] = s.times(partitionAdj, pi);
+        
+        // Backward through inside-outside.
+        Hyperalgo.insideOutsideBackward(graph, params, s, scores);
+        for (int k = 0; k < graph.getNumWeights(); k++) {
+            int i = InsideOutsideDepParse.getArcTensorIdx(k, n);
+            if (i != -1) {
+                weightsAdj[i] = s.plus(weightsAdj[i], scores.weightAdj[k]);
+            }
+        }
         
+        // Backward through weights = trueIn / falseIn and pi = \prod falseIn.
+        Tensor tmTrueInAdj = mTrueIn.getOutputAdj();
+        Tensor tmFalseInAdj = mFalseIn.getOutputAdj();
+        double piTimesAdj = s.times(piAdj, pi);
+        for (int i=0; i<size; i++) {
+            if (weightsAdj[i] != s.zero()) {
+                trueInAdj[i] = s.plus(trueInAdj[i], s.divide(weightsAdj[i], falseIn[i]));
+                falseInAdj[i] = s.plus(falseInAdj[i], divideAdj(weightsAdj[i], trueIn[i], falseIn[i], s));
+            }
+            falseInAdj[i] = s.plus(falseInAdj[i], s.divide(piTimesAdj, falseIn[i]));
+            tmTrueInAdj.addValue(i, Algebras.convertAlgebra(trueInAdj[i], s, outS));
+            tmFalseInAdj.addValue(i, Algebras.convertAlgebra(falseInAdj[i], s, outS));
+        }
+    }
+    
+    /** Gets the adjoint of the denominator w of x / w: - yAdj * x / w^2. */
+    static double divideAdj(double yAdj, double x, double w, Algebra s) {
+        double adj = s.divide(s.divide(s.one(), w), w);
+        adj = s.times(adj, s.fromReal(-1));
+        adj = s.times(adj, yAdj);
+        return s.times(adj, x);
+    }
+    
+    private void ensureCapacity(int size) {
+        if (trueIn.length < size) {
+            trueIn = new double[size];
+            falseIn = new double[size];
+            weights = new double[size];
+            bTrue = new double[size];
+            bFalse = new double[size];
+            trueInAdj = new double[size];
+            falseInAdj = new double[size];
+            weightsAdj = new double[size];
+        }
+    }
+    
+    /** Computes the outgoing messages with the reference circuit of autodiff modules. */
+    private Tensor forwardCircuit() {
         // Internally we use a different algebra to avoid numerical precision problems.
         ConvertAlgebra<Tensor> mTrueIn1 = new ConvertAlgebra<Tensor>(mTrueIn, tmpS);
         ConvertAlgebra<Tensor> mFalseIn1 = new ConvertAlgebra<Tensor>(mFalseIn, tmpS);
@@ -135,7 +361,8 @@ public class ProjDepTreeModule implements Module<Tensor> {
                 checkAndFixPartition(bTrue, partition); // TODO: semiring
             } else if (module == weights && outS instanceof LogSemiring) {
                 // Check odds ratios for potential floating point precision errors.
-                checkLogOddsRatios(EdgeScores.tensorToEdgeScores(weights.getOutput()), tmpS);
+                Tensor w = weights.getOutput();
+                checkLogOddsRatios(w.getValues(), w.size(), tmpS);
                 
                 // TODO: When a possible floating point error is detected, we should try to fix that
                 // outgoing message. This was implemented in the pre-ERMA version, but was removed because
@@ -158,6 +385,13 @@ public class ProjDepTreeModule implements Module<Tensor> {
 
     @Override
     public void backward() {
+        if (topoOrder == null && comb != null) {
+            throw new IllegalStateException("The backward pass is not implemented when all edges are clamped.");
+        }
+        if (!useCircuit) {
+            backwardFused();
+            return;
+        }
         // Backward pass.
         List<Module<Tensor>> rev = QLists.reverse(topoOrder);
         for (Module<Tensor> module : rev) {
@@ -172,18 +406,30 @@ public class ProjDepTreeModule implements Module<Tensor> {
 
     @Override
     public Tensor getOutput() {
-        return comb.getOutput();
+        return (comb != null) ? comb.getOutput() : y;
     }
 
     @Override
     public Tensor getOutputAdj() {
-        return comb.getOutputAdj();
+        if (comb != null) {
+            return comb.getOutputAdj();
+        }
+        if (yAdj == null) {
+            yAdj = y.copyAndFill(outS.zero());
+        }
+        return yAdj;
     }
 
     @Override
     public void zeroOutputAdj() {
-        for (Module<?> m : topoOrder) {
-            m.zeroOutputAdj();
+        if (topoOrder != null) {
+            for (Module<?> m : topoOrder) {
+                m.zeroOutputAdj();
+            }
+        } else if (comb != null) {
+            comb.zeroOutputAdj();
+        } else if (yAdj != null) {
+            yAdj.fill(outS.zero());
         }
     }
 
@@ -237,34 +483,43 @@ public class ProjDepTreeModule implements Module<Tensor> {
     private void checkAndFixPartition(Module<Tensor> bTrue, Module<Tensor> module) {
         AbstractModule.checkEqualAlgebras(bTrue, module);
         Algebra s = bTrue.getAlgebra();
-        // Correct for the case where the partition function is smaller
-        // than some of the beliefs.
         double max = bTrue.getOutput().getMax();
         double partition = module.getOutput().getValue(0);
+        module.getOutput().setValue(0, fixPartition(partition, max, s));
+    }
+    
+    /**
+     * Corrects for the case where the partition function is smaller than some of the beliefs.
+     * 
+     * @param partition The partition function.
+     * @param max The maximum belief.
+     * @return The corrected partition function.
+     */
+    private static double fixPartition(double partition, double max, Algebra s) {
+        logSubtractCount++;
         if (!s.gte(partition, max)) {
-            module.getOutput().setValue(0, max);
             unsafeLogSubtracts++;
+            return max;
         }
-        logSubtractCount++;
+        return partition;
     }
     
-    private void checkLogOddsRatios(EdgeScores es, Algebra s) {       
+    /** Checks the odds ratios, given as the first size values of the weights. */
+    private static void checkLogOddsRatios(double[] weights, int size, Algebra s) {       
         // Keep track of the minimum and maximum odds ratios, in order to detect
         // possible numerical precision issues.        
         double minOddsRatio = s.posInf();
         double maxOddsRatio = s.minValue();
 
-        for (int p = -1; p < n; p++) {
-            for (int c = 0; c < n; c++) {
-                double oddsRatio = es.getScore(p, c);
-                // Check min/max.
-                if (s.lt(oddsRatio, minOddsRatio) && oddsRatio != s.zero()) {
-                    // Don't count zeros when logging extreme odds ratios.
-                    minOddsRatio = oddsRatio;
-                }
-                if (s.gt(oddsRatio, maxOddsRatio)) {
-                    maxOddsRatio = oddsRatio;
-                }
+        for (int i = 0; i < size; i++) {
+            double oddsRatio = weights[i];
+            // Check min/max.
+            if (s.lt(oddsRatio, minOddsRatio) && oddsRatio != s.zero()) {
+                // Don't count zeros when logging extreme odds ratios.
+                minOddsRatio = oddsRatio;
+            }
+            if (s.gt(oddsRatio, maxOddsRatio)) {
+                maxOddsRatio = oddsRatio;
             }
         }
 
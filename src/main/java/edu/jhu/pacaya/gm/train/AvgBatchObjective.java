@@ -1,10 +1,15 @@
 package edu.jhu.pacaya.gm.train;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.AtomicDoubleArray;
+
 import edu.jhu.hlt.optimize.function.AbstractDifferentiableBatchFunction;
 import edu.jhu.hlt.optimize.function.DifferentiableBatchFunction;
 import edu.jhu.hlt.optimize.function.NonstationaryFunction;
@@ -12,6 +17,8 @@ import edu.jhu.hlt.optimize.function.ValueGradient;
 import edu.jhu.pacaya.gm.model.FgModel;
 import edu.jhu.pacaya.util.Threads;
 import edu.jhu.pacaya.util.Threads.TaskFactory;
+import edu.jhu.prim.util.Lambda.FnIntDoubleToVoid;
+import edu.jhu.prim.util.Lambda.FnIntToVoid;
 import edu.jhu.prim.vector.IntDoubleVector;
 
 /**
@@ -46,6 +53,27 @@ public class AvgBatchObjective extends AbstractDifferentiableBatchFunction imple
         void report();
     }
     
+    /**
+     * How the per-example gradients are accumulated when running with more than one thread.
+     */
+    public enum ParallelAccum {
+        /**
+         * Each example accumulates into its own sparse gradient, which is then added to the shared
+         * gradient while holding a lock.
+         */
+        SYNCHRONIZED,
+        /**
+         * Each worker thread accumulates into its own dense gradient shard, which it reuses across
+         * the batch (and across batches). The shards are then tree-reduced.
+         */
+        SHARDED,
+        /**
+         * Each example accumulates into its own sparse gradient, which is then added to a shared
+         * dense gradient with lock-free atomic adds.
+         */
+        HOGWILD,
+    }
+    
     private static final Logger log = LoggerFactory.getLogger(AvgBatchObjective.class);
     
     private int numParams;
@@ -57,16 +85,28 @@ public class AvgBatchObjective extends AbstractDifferentiableBatchFunction imple
     private int curIter;
     private int maxIter;
     
-    // TODO: Setting this to true is untested.
-    private boolean hogwild = false;
+    // How to accumulate the gradient in parallel.
+    private ParallelAccum parallelAccum;
+    // For SHARDED: the shard of the current thread, the list of all shards, and the pool whose
+    // worker threads own them.
+    private ThreadLocal<Accumulator> shard = new ThreadLocal<Accumulator>();
+    private List<Accumulator> shards = new ArrayList<Accumulator>();
+    private ExecutorService shardsPool = null;
+    // For HOGWILD: the shared gradient.
+    private AtomicDoubleArray sharedGrad;
     
     public AvgBatchObjective(ExampleObjective exObj, FgModel model) {
+        this(exObj, model, ParallelAccum.SYNCHRONIZED);
+    }
+    
+    public AvgBatchObjective(ExampleObjective exObj, FgModel model, ParallelAccum parallelAccum) {
         this.exObj = exObj;
         this.numExamples = exObj.getNumExamples();
         this.numParams = model.getNumParams();
         this.model = model;
         this.gradient = model.getDenseCopy();
         this.gradient.zero();
+        this.parallelAccum = parallelAccum;
     }
 
     /** @inheritDoc */
@@ -108,8 +148,9 @@ public class AvgBatchObjective extends AbstractDifferentiableBatchFunction imple
             ac.accumLoss = true;
             ac.accumWeight = true;
         }
+        boolean isParallel = (Threads.numThreads > 1);
         if (ac.accumGradient) {
-            if (isFullDataset || hogwild) {
+            if (isFullDataset || (isParallel && parallelAccum != ParallelAccum.SYNCHRONIZED)) {
                 this.gradient.zero();
                 ac.gradient = this.gradient;
             } else {
@@ -118,7 +159,7 @@ public class AvgBatchObjective extends AbstractDifferentiableBatchFunction imple
         }
         
         model.setParams(params);        
-        if (Threads.numThreads == 1) {
+        if (!isParallel) {
             // Run serially.
             for (int i=0; i<batch.length; i++) {
                 log.trace("Computing value/gradient for example " + i);
@@ -126,12 +167,28 @@ public class AvgBatchObjective extends AbstractDifferentiableBatchFunction imple
             }
         } else {
             // Run in parallel.
+            if (parallelAccum == ParallelAccum.SHARDED) {
+                resetShards(ac);
+            } else if (parallelAccum == ParallelAccum.HOGWILD && ac.accumGradient) {
+                resetSharedGrad();
+            }
             TaskFactory<Object> factory = new TaskFactory<Object>() {
                 public Callable<Object> getTask(int i) {
                     return new AccumValueGradientOfExample(ac, i);
                 }
             };
             Threads.safelyParallelizeBatch(Threads.defaultPool, batch, factory);
+            if (parallelAccum == ParallelAccum.SHARDED) {
+                reduceShards(ac.accumGradient);
+                if (shards.size() > 0) {
+                    ac.addAll(shards.get(0));
+                }
+            } else if (parallelAccum == ParallelAccum.HOGWILD && ac.accumGradient) {
+                IntDoubleVector grad = ac.gradient.getParams();
+                for (int j=0; j<numParams; j++) {
+                    grad.set(j, sharedGrad.get(j));
+                }
+            }
         }
         
         if (ac.accumValue) {
@@ -153,6 +210,96 @@ public class AvgBatchObjective extends AbstractDifferentiableBatchFunction imple
         return batch.length;
     }
 
+    /**
+     * Zeros all the shards, and copies the flags from the given accumulator. If the default pool has
+     * changed since the shards were created, they are discarded, since their threads are gone.
+     */
+    private void resetShards(final Accumulator ac) {
+        if (shardsPool != Threads.defaultPool) {
+            shard = new ThreadLocal<Accumulator>();
+            synchronized (shards) {
+                shards.clear();
+            }
+            shardsPool = Threads.defaultPool;
+        }
+        Threads.forEach(shards.size(), new FnIntToVoid() {
+            @Override
+            public void call(int s) {
+                Accumulator sac = shards.get(s);
+                sac.setFlagsFromOther(ac);
+                sac.value = 0;
+                sac.weight = 0;
+                sac.loss = 0;
+                if (ac.accumGradient) {
+                    sac.gradient.zero();
+                }
+            }
+        });
+    }
+    
+    /** Gets the number of gradient shards, for testing. */
+    int getNumShards() {
+        return shards.size();
+    }
+    
+    /** Gets the shard for the current thread, creating it if necessary. */
+    private Accumulator getShard(Accumulator ac) {
+        Accumulator sac = shard.get();
+        if (sac == null) {
+            sac = new Accumulator();
+            sac.setFlagsFromOther(ac);
+            sac.setGradient(this.gradient.getDenseCopy());
+            sac.gradient.zero();
+            shard.set(sac);
+            synchronized (shards) {
+                shards.add(sac);
+            }
+        }
+        return sac;
+    }
+    
+    /**
+     * Sums all the shards into the first one by a parallel tree reduction. The gradients are only
+     * summed if they were accumulated, since otherwise they hold stale values.
+     */
+    private void reduceShards(boolean addGradient) {
+        final int n = shards.size();
+        if (!addGradient) {
+            // Only the scalars need summing.
+            Accumulator first = (n > 0) ? shards.get(0) : null;
+            for (int i=1; i<n; i++) {
+                Accumulator sac = shards.get(i);
+                first.value += sac.value;
+                first.weight += sac.weight;
+                first.loss += sac.loss;
+            }
+            return;
+        }
+        for (int step=1; step < n; step *= 2) {
+            final int s = step;
+            // The pairs are (i, i+s) for i = 0, 2s, 4s, ... such that i+s < n.
+            int numPairs = (n - s + 2*s - 1) / (2*s);
+            Threads.forEach(numPairs, new FnIntToVoid() {
+                @Override
+                public void call(int j) {
+                    int i = 2*s*j;
+                    shards.get(i).addAll(shards.get(i+s));
+                }
+            });
+        }
+    }
+    
+    /** Zeros the shared gradient used by HOGWILD. */
+    private void resetSharedGrad() {
+        if (sharedGrad == null) {
+            sharedGrad = new AtomicDoubleArray(numParams);
+        } else {
+            for (int j=0; j<numParams; j++) {
+                sharedGrad.set(j, 0.0);
+            }
+        }
+    }
+
     private class AccumValueGradientOfExample implements Callable<Object> {
 
         private Accumulator ac;
@@ -165,9 +312,31 @@ public class AvgBatchObjective extends AbstractDifferentiableBatchFunction imple
 
         @Override
         public Object call() {
-            if (hogwild) {
-                // Just accumulate the per-example gradients without any syncronization.
-                exObj.accum(model, i, ac);
+            if (parallelAccum == ParallelAccum.SHARDED) {
+                // Accumulate into this thread's shard without any synchronization.
+                exObj.accum(model, i, getShard(ac));
+                return null;
+            } else if (parallelAccum == ParallelAccum.HOGWILD) {
+                Accumulator sparseAc = new Accumulator();
+                sparseAc.setFlagsFromOther(ac);
+                if (ac.accumGradient) {
+                    sparseAc.setGradient(gradient.getSparseZeroedCopy());
+                }
+                exObj.accum(model, i, sparseAc);
+                if (ac.accumGradient) {
+                    // Add the gradient to the shared one without any locking.
+                    sparseAc.gradient.getParams().iterate(new FnIntDoubleToVoid() {
+                        @Override
+                        public void call(int j, double val) {
+                            sharedGrad.addAndGet(j, val);
+                        }
+                    });
+                    sparseAc.gradient = null;
+                }
+                synchronized (ac) {
+                    // Only the scalars are added here.
+                    ac.addAll(sparseAc);
+                }
                 return null;
             } else {
                 Accumulator sparseAc = new Accumulator();
@@ -20,6 +20,7 @@ import edu.jhu.pacaya.gm.inf.BeliefPropagation.BeliefPropagationPrm;
 import edu.jhu.pacaya.gm.inf.FgInferencerFactory;
 import edu.jhu.pacaya.gm.model.FgModel;
 import edu.jhu.pacaya.gm.train.AvgBatchObjective.ExampleObjective;
+import edu.jhu.pacaya.gm.train.AvgBatchObjective.ParallelAccum;
 import edu.jhu.pacaya.gm.train.EmpiricalRisk.EmpiricalRiskFactory;
 import edu.jhu.pacaya.gm.train.ExpectedRecall.ExpectedRecallFactory;
 import edu.jhu.pacaya.util.Prm;
@@ -45,6 +46,8 @@ public class CrfTrainer {
         public Trainer trainer = Trainer.CLL;
         /** The decoder and loss function used by ERMA training. */
         public DlFactory dlFactory = new ExpectedRecallFactory();
+        /** How to accumulate the gradient when running with multiple threads. */
+        public ParallelAccum parallelAccum = ParallelAccum.SYNCHRONIZED;
     }
     
     private static final Logger log = LoggerFactory.getLogger(CrfTrainer.class);
@@ -76,7 +79,7 @@ public class CrfTrainer {
         }
         mtFactory = new ScaleByWeightFactory(mtFactory);
         exObj = new ModuleObjective(data, mtFactory);
-        AvgBatchObjective objective = new AvgBatchObjective(exObj, model);
+        AvgBatchObjective objective = new AvgBatchObjective(exObj, model, prm.parallelAccum);
         
         Regularizer reg = prm.regularizer;
         if (prm.optimizer != null) {
@@ -0,0 +1,266 @@
+package edu.jhu.pacaya.hypergraph;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import edu.jhu.pacaya.hypergraph.Hypergraph.HyperedgeFn;
+import edu.jhu.prim.list.IntArrayList;
+import edu.jhu.prim.tuple.Pair;
+
+/**
+ * A static hypergraph compiled into flat arrays (compressed sparse row format). The edges are
+ * stored in topological order: the head of the k'th edge is head[k] and its tails are
+ * tails[tailStart[k]], ..., tails[tailStart[k+1]-1]. The node ids are those of the hypergraph
+ * which was compiled.
+ *
+ * The weight of each edge is either the semiring one or a parameter, shared by all the edges with
+ * the same weight index. This lets a single compiled hypergraph be reused for every set of
+ * parameters, e.g. all sentences of the same length, so that the variants of {@link Hyperalgo}
+ * which take a compiled hypergraph can run tight loops over arrays instead of re-walking the
+ * dynamic program with a callback per edge. Those variants read the weight of an edge directly
+ * from the parameters, so nothing is stored per edge for a particular set of parameters.
+ *
+ * @author mgormley
+ */
+public class CompiledHypergraph {
+
+    /** Function which gets an integer for a hyperedge. */
+    public interface HyperedgeIntFn {
+        int apply(Hyperedge e);
+    }
+
+    /** The weight index of an edge whose weight is the semiring one. */
+    public static final int ONE = -1;
+    // A rough estimate of the size of a hypernode and its reference in the list of nodes.
+    private static final long BYTES_PER_NODE = 40;
+
+    private final Hypergraph graph;
+    private final int numNodes;
+    private final int root;
+    private final int[] head;
+    private final int[] tailStart;
+    private final int[] tails;
+    private final int[] weightIdx;
+    private final int numWeights;
+    private final int[] edgeIds;
+
+    private CompiledHypergraph(Hypergraph graph, int[] head, int[] tailStart, int[] tails, int[] weightIdx,
+            int numWeights, int[] edgeIds) {
+        this.graph = graph;
+        this.numNodes = graph.getNodes().size();
+        this.root = graph.getRoot().getId();
+        this.head = head;
+        this.tailStart = tailStart;
+        this.tails = tails;
+        this.weightIdx = weightIdx;
+        this.numWeights = numWeights;
+        this.edgeIds = edgeIds;
+    }
+
+    /**
+     * Compiles a hypergraph by walking its edges once in topological order.
+     *
+     * @param graph The hypergraph.
+     * @param weightIdxFn Function giving the weight index of an edge in [0, numWeights), or
+     *            {@link #ONE} if its weight is the semiring one.
+     * @param numWeights The number of weight parameters.
+     * @return The compiled hypergraph.
+     */
+    public static CompiledHypergraph compile(Hypergraph graph, final HyperedgeIntFn weightIdxFn, final int numWeights) {
+        final int numEdges = graph.getNumEdges();
+        final int[] head = new int[numEdges];
+        final int[] tailStart = new int[numEdges + 1];
+        final IntArrayList tails = new IntArrayList(2 * numEdges);
+        final int[] weightIdx = new int[numEdges];
+        final int[] edgeIds = new int[numEdges];
+        graph.applyTopoSort(new HyperedgeFn() {
+
+            private int k = 0;
+
+            @Override
+            public void apply(Hyperedge e) {
+                head[k] = e.getHeadNode().getId();
+                tailStart[k] = tails.size();
+                for (Hypernode jNode : e.getTailNodes()) {
+                    tails.add(jNode.getId());
+                }
+                int idx = weightIdxFn.apply(e);
+                if (idx != ONE && (idx < 0 || idx >= numWeights)) {
+                    throw new IllegalStateException("Invalid weight index: " + idx);
+                }
+                weightIdx[k] = idx;
+                edgeIds[k] = e.getId();
+                k++;
+                tailStart[k] = tails.size();
+            }
+
+        });
+        return new CompiledHypergraph(graph, head, tailStart, tails.toNativeArray(), weightIdx, numWeights, edgeIds);
+    }
+
+    /**
+     * Gets the hypergraph which was compiled. Its node ids are those of the compiled hypergraph,
+     * but its edge weights should be ignored.
+     */
+    public Hypergraph getGraph() {
+        return graph;
+    }
+
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    public int getNumEdges() {
+        return head.length;
+    }
+
+    public int getRoot() {
+        return root;
+    }
+
+    /** Gets the head node id of each edge. */
+    public int[] getHead() {
+        return head;
+    }
+
+    /** Gets the start of the tails of each edge, followed by the number of tails. */
+    public int[] getTailStart() {
+        return tailStart;
+    }
+
+    /** Gets the tail node ids of all the edges. */
+    public int[] getTails() {
+        return tails;
+    }
+
+    /** Gets the weight index of each edge, or {@link #ONE}. */
+    public int[] getWeightIdx() {
+        return weightIdx;
+    }
+
+    public int getNumWeights() {
+        return numWeights;
+    }
+
+    /** Gets the id of each edge in the hypergraph which was compiled. */
+    public int[] getEdgeIds() {
+        return edgeIds;
+    }
+
+    /**
+     * Gets an estimate of the number of bytes used by this compiled hypergraph, including the
+     * nodes of the hypergraph which was compiled, but not any other structures it retains (e.g. a
+     * chart).
+     */
+    public long getNumBytes() {
+        long numInts = (long) head.length + tailStart.length + tails.length + weightIdx.length + edgeIds.length;
+        return Integer.BYTES * numInts + BYTES_PER_NODE * numNodes;
+    }
+
+    /**
+     * A thread-safe cache of compiled hypergraphs of one family (e.g. one model order), keyed by
+     * sentence length and whether the parses are single-root. The cache is bounded by the total
+     * estimated size of its entries (see {@link #getNumBytes(CompiledHypergraph)}): the least
+     * recently used entries are evicted once it is exceeded, and a hypergraph larger than the
+     * bound is returned without being cached.
+     * 
+     * Compilation happens outside of any lock, so threads which need different entries do not wait
+     * on one another. Threads which need the same entry wait for a single compilation.
+     */
+    public static abstract class Cache {
+
+        private final long maxBytes;
+        private final ConcurrentHashMap<Pair<Integer, Boolean>, FutureTask<CompiledHypergraph>> map;
+        // The sizes of the compiled entries in access order. Guarded by itself.
+        private final LinkedHashMap<Pair<Integer, Boolean>, Long> lru;
+        private long numBytes = 0;
+
+        /**
+         * Constructor.
+         * @param maxBytes The maximum total estimated size of the cached hypergraphs.
+         */
+        public Cache(long maxBytes) {
+            this.maxBytes = maxBytes;
+            this.map = new ConcurrentHashMap<Pair<Integer, Boolean>, FutureTask<CompiledHypergraph>>();
+            this.lru = new LinkedHashMap<Pair<Integer, Boolean>, Long>(16, 0.75f, true);
+        }
+
+        /** Gets the compiled hypergraph, compiling it if it is not in the cache. */
+        public CompiledHypergraph get(final int numTokens, final boolean singleRoot) {
+            Pair<Integer, Boolean> key = new Pair<Integer, Boolean>(numTokens, singleRoot);
+            FutureTask<CompiledHypergraph> task = map.get(key);
+            boolean isOwner = false;
+            if (task == null) {
+                FutureTask<CompiledHypergraph> newTask = new FutureTask<CompiledHypergraph>(new Callable<CompiledHypergraph>() {
+                    @Override
+                    public CompiledHypergraph call() {
+                        return compile(numTokens, singleRoot);
+                    }
+                });
+                task = map.putIfAbsent(key, newTask);
+                if (task == null) {
+                    task = newTask;
+                    isOwner = true;
+                    task.run();
+                }
+            }
+            CompiledHypergraph graph;
+            try {
+                graph = task.get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                map.remove(key, task);
+                throw new RuntimeException(e.getCause());
+            }
+            synchronized (lru) {
+                if (isOwner) {
+                    add(key, getNumBytes(graph));
+                } else {
+                    // Mark as recently used.
+                    lru.get(key);
+                }
+            }
+            return graph;
+        }
+
+        private void add(Pair<Integer, Boolean> key, long bytes) {
+            if (bytes > maxBytes) {
+                map.remove(key);
+                return;
+            }
+            lru.put(key, bytes);
+            numBytes += bytes;
+            Iterator<Entry<Pair<Integer, Boolean>, Long>> iter = lru.entrySet().iterator();
+            while (numBytes > maxBytes) {
+                // The new entry is the most recently used, so it is not evicted.
+                Entry<Pair<Integer, Boolean>, Long> eldest = iter.next();
+                iter.remove();
+                numBytes -= eldest.getValue();
+                map.remove(eldest.getKey());
+            }
+        }
+
+        /** Gets the total estimated size of the cached hypergraphs. */
+        public long getNumBytes() {
+            synchronized (lru) {
+                return numBytes;
+            }
+        }
+
+        /** Gets the estimated size of a compiled hypergraph, which by default is {@link CompiledHypergraph#getNumBytes()}. */
+        protected long getNumBytes(CompiledHypergraph graph) {
+            return graph.getNumBytes();
+        }
+
+        /** Compiles the hypergraph for a sentence. */
+        protected abstract CompiledHypergraph compile(int numTokens, boolean singleRoot);
+
+    }
+
+}
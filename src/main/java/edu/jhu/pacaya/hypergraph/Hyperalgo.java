@@ -244,15 +244,16 @@ public class Hyperalgo {
      */
     public static void marginals(final Hypergraph graph, final Hyperpotential w, final Algebra s,
             final Scores scores) {
-        final int n = graph.getNodes().size();
+        marginals(graph.getNodes().size(), graph.getRoot().getId(), s, scores);
+    }
+    
+    private static void marginals(final int n, final int root, final Algebra s, final Scores scores) {
         final double[] alpha = scores.alpha;
         final double[] beta = scores.beta;
         final double[] marginal = new double[n];
-        int root = graph.getRoot().getId();
         
         // p(i) = \alpha_i * \beta_i / \beta_{root}
-        for (Hypernode iNode : graph.getNodes()) {
-            int i = iNode.getId();
+        for (int i = 0; i < n; i++) {
             marginal[i] = s.divide(s.times(alpha[i], beta[i]), beta[root]); 
         }
         
@@ -271,7 +272,10 @@ public class Hyperalgo {
      */
     private static void marginalsBackward(final Hypergraph graph, final Hyperpotential w, final Algebra s,
             final Scores scores) {        
-        final int n = graph.getNodes().size();
+        marginalsBackward(graph.getNodes().size(), graph.getRoot().getId(), s, scores);
+    }
+    
+    private static void marginalsBackward(final int n, final int root, final Algebra s, final Scores scores) {
         final double[] marginalAdj = scores.marginalAdj;
         final double[] alpha = scores.alpha;
         final double[] beta = scores.beta;
@@ -285,21 +289,18 @@ public class Hyperalgo {
             scores.betaAdj = DoubleArrays.newFilled(beta.length, s.zero());
         }
         final double[] betaAdj = scores.betaAdj;
-        int root = graph.getRoot().getId();
 
         // ----- Computes the adjoints of the outside scores -----        
-        for (Hypernode iNode : graph.getNodes()) {
-            int i = iNode.getId();
+        for (int i = 0; i < n; i++) {
             // \adj{\alpha_i} += \adj{p(i)} * \beta_i / \beta_{root}
             double prod = s.times(marginalAdj[i], beta[i]);
-            prod = s.divide(prod, beta[graph.getRoot().getId()]);
+            prod = s.divide(prod, beta[root]);
             alphaAdj[i] = s.plus(alphaAdj[i], prod);            
         }
 
         // ----- Computes the adjoints of the partition function (i.e. inside of root) -----
-        for (Hypernode jNode : graph.getNodes()) {
+        for (int j = 0; j < n; j++) {
             // \adj{beta_{root}} = - \sum_{j \in G : j \neq root} \adj{p(j)} * \alpha_j * \beta_j / (\beta_{root}^2)
-            int j = jNode.getId();
             if (j == root) { continue; }
             double prod = s.times(marginalAdj[j], alpha[j]);
             prod = s.times(prod, beta[j]);
@@ -308,9 +309,8 @@ public class Hyperalgo {
         }
         
         // ----- Computes the adjoints of the other inside scores -----
-        for (Hypernode jNode : graph.getNodes()) {
+        for (int j = 0; j < n; j++) {
             // \adj{\beta_j} += \adj{p(j)} * \alpha_j / \beta_{root}, \forall j \neq root
-            int j = jNode.getId();
             if (j == root) { continue; }
             double prod = s.divide(s.times(marginalAdj[j], alpha[j]), beta[root]);
             betaAdj[j] = s.plus(betaAdj[j], prod);
@@ -557,5 +557,287 @@ public class Hyperalgo {
             
         });
     }
+
+    /* ----- Variants over a compiled hypergraph. ----- */
+    
+    // The weight of each edge of a compiled hypergraph is params[weightIdx[e]], or the semiring one
+    // if its weight index is CompiledHypergraph.ONE. The adjoints of the weights are accumulated in
+    // scores.weightAdj, indexed by weight index. The arrays in scores are reused if they have the
+    // right length, so that a caller can run many sentences without allocating per-edge arrays.
+    
+    /** Same as {@link #forward(Hypergraph, Hyperpotential, Algebra, Scores)} but for a compiled hypergraph. */
+    public static void forward(final CompiledHypergraph graph, final double[] params, final Algebra s,
+            final Scores scores) {
+        insideAlgorithm(graph, params, s, scores);
+        outsideAlgorithm(graph, params, s, scores);
+        marginals(graph, s, scores);
+    }
+    
+    /**
+     * Same as {@link #backward(Hypergraph, Hyperpotential, Algebra, Scores)} but for a compiled
+     * hypergraph. The adjoints of the weights are indexed by weight index.
+     */
+    public static void backward(final CompiledHypergraph graph, final double[] params, final Algebra s,
+            final Scores scores) {
+        if (scores.marginalAdj == null) {
+            throw new IllegalStateException("scores.marginalAdj must be non-null.");
+        }
+        marginalsBackward(graph.getNumNodes(), graph.getRoot(), s, scores);
+        outsideAdjoint(graph, params, s, scores);
+        insideAdjoint(graph, params, s, scores, true);
+        weightAdjoint(graph, params, s, scores, true);
+    }
+    
+    /**
+     * Runs the inside algorithm on a compiled hypergraph.
+     * INPUT: 
+     * OUTPUT: scores.beta.
+     * 
+     * @param graph The compiled hypergraph.
+     * @param params The weight parameters, indexed by weight index.
+     * @param s The semiring.
+     * @param scores Input and output struct.
+     */
+    public static void insideAlgorithm(final CompiledHypergraph graph, final double[] params, final Semiring s,
+            final Scores scores) {
+        checkParams(graph, params);
+        final int[] head = graph.getHead();
+        final int[] tailStart = graph.getTailStart();
+        final int[] tails = graph.getTails();
+        final int[] weightIdx = graph.getWeightIdx();
+        final int numEdges = head.length;
+        // \beta_i = 0 \forall i
+        final double[] beta = getFilled(scores.beta, graph.getNumNodes(), s.zero());
+        for (int e = 0; e < numEdges; e++) {
+            // \beta_{H(e)} += w_e \prod_{j \in T(e)} \beta_j
+            double prod = s.one();
+            for (int t = tailStart[e]; t < tailStart[e+1]; t++) {
+                prod = s.times(prod, beta[tails[t]]);
+            }
+            int i = head[e];
+            int idx = weightIdx[e];
+            if (idx != CompiledHypergraph.ONE) {
+                prod = s.times(params[idx], prod);
+            }
+            beta[i] = s.plus(beta[i], prod);
+        }
+        scores.beta = beta;
+    }
+    
+    /**
+     * Runs the outside algorithm on a compiled hypergraph.
+     * INPUT: scores.beta.
+     * OUTPUT: scores.alpha.
+     * 
+     * @param graph The compiled hypergraph.
+     * @param params The weight parameters, indexed by weight index.
+     * @param s The semiring.
+     * @param scores Input and output struct.
+     */
+    public static void outsideAlgorithm(final CompiledHypergraph graph, final double[] params, final Semiring s,
+            final Scores scores) {
+        checkParams(graph, params);
+        final int[] head = graph.getHead();
+        final int[] tailStart = graph.getTailStart();
+        final int[] tails = graph.getTails();
+        final int[] weightIdx = graph.getWeightIdx();
+        final double[] beta = scores.beta;
+        // \alpha_i = 0 \forall i
+        final double[] alpha = getFilled(scores.alpha, graph.getNumNodes(), s.zero());
+        // \alpha_{root} = 1
+        alpha[graph.getRoot()] = s.one();
+        for (int e = head.length - 1; e >= 0; e--) {
+            int i = head[e];
+            int start = tailStart[e];
+            int end = tailStart[e+1];
+            double w_e = getWeight(weightIdx[e], params, s);
+            // \forall j \in T(e): 
+            // \alpha_j += \alpha_{H(e)} * w_e * \prod_{k \in T(e) : k \neq j} \beta_k
+            for (int tj = start; tj < end; tj++) {
+                int j = tails[tj];
+                double prod = s.one();
+                for (int tk = start; tk < end; tk++) {
+                    int k = tails[tk];
+                    if (k == j) { continue; }
+                    prod = s.times(prod, beta[k]);
+                }
+                prod = s.times(prod, alpha[i]);
+                prod = s.times(prod, w_e);
+                alpha[j] = s.plus(alpha[j], prod);
+            }
+        }
+        scores.alpha = alpha;
+    }
+    
+    /**
+     * Computes the marginal for each hypernode of a compiled hypergraph.
+     * INPUT: scores.alpha, scores.beta.
+     * OUTPUT: scores.marginal.
+     */
+    public static void marginals(final CompiledHypergraph graph, final Algebra s, final Scores scores) {
+        marginals(graph.getNumNodes(), graph.getRoot(), s, scores);
+    }
+    
+    /**
+     * Computes the adjoints of the inside scores, outside scores, and weight parameters of a
+     * compiled hypergraph by doing a backward pass through the inside-outside algorithm.
+     * 
+     * INPUT: scores.alpha, scores.beta, scores.alphaAdj, scores.betaAdj.
+     * OUTPUT: scores.alphaAdj, scores.betaAdj, scores.weightAdj (indexed by weight index).
+     */
+    public static void insideOutsideBackward(final CompiledHypergraph graph, final double[] params, 
+            final Algebra s, final Scores scores) {
+        outsideAdjoint(graph, params, s, scores);
+        insideAdjoint(graph, params, s, scores, true);
+        weightAdjoint(graph, params, s, scores, true);
+    }
+    
+    /**
+     * Computes the adjoints of the inside scores and weight parameters of a compiled hypergraph by
+     * doing a backward pass through the inside algorithm.
+     * 
+     * INPUT: scores.alpha, scores.beta, scores.betaAdj.
+     * OUTPUT: scores.betaAdj, scores.weightAdj (indexed by weight index).
+     */
+    public static void insideBackward(final CompiledHypergraph graph, final double[] params, 
+            final Algebra s, final Scores scores) {
+        insideAdjoint(graph, params, s, scores, false);
+        weightAdjoint(graph, params, s, scores, false);
+    }
+    
+    private static void outsideAdjoint(final CompiledHypergraph graph, final double[] params, final Algebra s,
+            final Scores scores) {
+        checkParams(graph, params);
+        final int[] head = graph.getHead();
+        final int[] tailStart = graph.getTailStart();
+        final int[] tails = graph.getTails();
+        final int[] weightIdx = graph.getWeightIdx();
+        final double[] beta = scores.beta;
+        final double[] alphaAdj = scores.alphaAdj;
+        for (int e = 0; e < head.length; e++) {
+            int i = head[e];
+            int start = tailStart[e];
+            int end = tailStart[e+1];
+            double w_e = getWeight(weightIdx[e], params, s);
+            // \forall j \in T(e):
+            // \adj{\alpha_i} += \adj{\alpha_j} * w_e * \prod_{k \in T(e): k \neq j} \beta_k
+            for (int tj = start; tj < end; tj++) {
+                double prod = s.times(alphaAdj[tails[tj]], w_e);
+                for (int tk = start; tk < end; tk++) {
+                    if (tk == tj) { continue; }
+                    prod = s.times(prod, beta[tails[tk]]);
+                }
+                alphaAdj[i] = s.plus(alphaAdj[i], prod);
+            }
+        }
+    }
+    
+    private static void insideAdjoint(final CompiledHypergraph graph, final double[] params, final Algebra s,
+            final Scores scores, final boolean backOutside) {
+        checkParams(graph, params);
+        final int[] head = graph.getHead();
+        final int[] tailStart = graph.getTailStart();
+        final int[] tails = graph.getTails();
+        final int[] weightIdx = graph.getWeightIdx();
+        final double[] alpha = scores.alpha;
+        final double[] beta = scores.beta;
+        final double[] alphaAdj = scores.alphaAdj;
+        final double[] betaAdj = scores.betaAdj;
+        for (int e = head.length - 1; e >= 0; e--) {
+            int i = head[e];
+            int start = tailStart[e];
+            int end = tailStart[e+1];
+            double w_e = getWeight(weightIdx[e], params, s);
+            for (int tj = start; tj < end; tj++) {
+                int j = tails[tj];
+                // \adj{\beta_{j}} += \sum_{e \in O(j)} \adj{\beta_{H(e)}} * w_e * \prod_{k \in T(e) : k \neq j} \beta_k  
+                double prod = s.times(betaAdj[i], w_e);
+                for (int tk = start; tk < end; tk++) {
+                    int k = tails[tk];
+                    if (j == k) { continue; }
+                    prod = s.times(prod, beta[k]);
+                }
+                betaAdj[j] = s.plus(betaAdj[j], prod);
+                
+                if (backOutside) {
+                    // \adj{\beta_{j}} += \sum_{e \in O(j)} \sum_{k \in T(e) : k \neq j} \adj{\alpha_k} * w_e * \alpha_{H(e)} * \prod_{l \in T(e) : l \neq k, l \neq j} \beta_l
+                    for (int tk = start; tk < end; tk++) {
+                        int k = tails[tk];
+                        if (k == j) { continue; }
+                        prod = s.times(alphaAdj[k], w_e);
+                        prod = s.times(prod, alpha[i]);
+                        for (int tl = start; tl < end; tl++) {
+                            int l = tails[tl];
+                            if (l == j || l == k) { continue; }
+                            prod = s.times(prod, beta[l]);
+                        }
+                        betaAdj[j] = s.plus(betaAdj[j], prod);
+                    }
+                }
+            }
+        }
+    }
+    
+    private static void weightAdjoint(final CompiledHypergraph graph, final double[] params, final Algebra s,
+            final Scores scores, final boolean backOutside) {
+        final int[] head = graph.getHead();
+        final int[] tailStart = graph.getTailStart();
+        final int[] tails = graph.getTails();
+        final int[] weightIdx = graph.getWeightIdx();
+        final double[] alpha = scores.alpha;
+        final double[] beta = scores.beta;
+        final double[] alphaAdj = scores.alphaAdj;
+        final double[] betaAdj = scores.betaAdj;
+        final double[] weightAdj = getFilled(scores.weightAdj, graph.getNumWeights(), s.zero());
+        for (int e = 0; e < head.length; e++) {
+            int idx = weightIdx[e];
+            if (idx == CompiledHypergraph.ONE) {
+                // The semiring one is not a parameter.
+                continue;
+            }
+            int i = head[e];
+            int start = tailStart[e];
+            int end = tailStart[e+1];
+            // \adj{w_e} += \adj{\beta_{H(e)} * \prod_{j \in T(e)} \beta_j
+            double prod = betaAdj[i];
+            for (int tj = start; tj < end; tj++) {
+                prod = s.times(prod, beta[tails[tj]]);
+            }
+            double w_e = prod;
+            
+            if (backOutside) {
+                // \adj{w_e} += \adj{\alpha_j} * \alpha_{H(e)} * \prod_{k \in T(e) : k \neq j} \beta_k
+                for (int tj = start; tj < end; tj++) {
+                    prod = s.times(alphaAdj[tails[tj]], alpha[i]);
+                    for (int tk = start; tk < end; tk++) {
+                        if (tk == tj) { continue; }
+                        prod = s.times(prod, beta[tails[tk]]);
+                    }
+                    w_e = s.plus(w_e, prod);
+                }
+            }
+            weightAdj[idx] = s.plus(weightAdj[idx], w_e);
+        }
+        scores.weightAdj = weightAdj;
+    }
+    
+    private static double getWeight(int weightIdx, double[] params, Semiring s) {
+        return (weightIdx == CompiledHypergraph.ONE) ? s.one() : params[weightIdx];
+    }
+    
+    private static void checkParams(final CompiledHypergraph graph, final double[] params) {
+        if (params.length < graph.getNumWeights()) {
+            throw new IllegalArgumentException("Expected at least " + graph.getNumWeights() + " parameters: " + params.length);
+        }
+    }
+    
+    /** Gets the array, or a new one if it does not have the given length, filled with the value. */
+    private static double[] getFilled(double[] arr, int length, double value) {
+        if (arr == null || arr.length != length) {
+            return DoubleArrays.newFilled(length, value);
+        }
+        Arrays.fill(arr, value);
+        return arr;
+    }
     
 }
@@ -0,0 +1,151 @@
+package edu.jhu.pacaya.hypergraph.depparse;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.jhu.pacaya.parse.dep.DepIoChart;
+import edu.jhu.pacaya.parse.dep.ProjectiveDependencyParser;
+import edu.jhu.pacaya.util.semiring.Algebra;
+
+/**
+ * Prunes the arcs of a second-order dependency parser with a first-order pass, in the spirit of
+ * vine pruning (Rush & Petrov, 2012). Each arc gets the first-order score of its best grandparent,
+ * and first-order inside-outside gives its posterior. An arc is kept if it is among the top heads
+ * of its child and its posterior is above a threshold. The arcs of the first-order Viterbi tree are
+ * always kept, so at least one tree survives the pruning.
+ *
+ * The result is a mask for {@link O2AllGraDpHypergraph}, indexed by parent and child where the wall
+ * is 0. This class is not thread-safe.
+ *
+ * @author mgormley
+ */
+public class DepArcPruner {
+
+    private static final Logger log = LoggerFactory.getLogger(DepArcPruner.class);
+
+    public static class DepArcPrunerPrm {
+        /** The maximum number of heads kept for each child. */
+        public int maxHeadsPerChild = 10;
+        /** Arcs whose first-order log posterior is below this threshold are pruned. */
+        public double logPosteriorThreshold = Math.log(1e-4);
+    }
+
+    private final DepArcPrunerPrm prm;
+    private final ProjectiveDependencyParser parser = new ProjectiveDependencyParser();
+
+    // Pruning statistics.
+    private long numSentences = 0;
+    private long numArcs = 0;
+    private long numPrunedArcs = 0;
+
+    public DepArcPruner(DepArcPrunerPrm prm) {
+        this.prm = prm;
+    }
+
+    /**
+     * Gets the arcs to keep for a second-order scorer. The first-order score of an arc is the
+     * maximum of its scores over the grandparents.
+     *
+     * @param scorer The second-order scorer.
+     * @param s The algebra of the scores.
+     * @param singleRoot Whether the wall must have exactly one child.
+     * @return Whether to keep each arc, indexed by parent and child where the wall is 0.
+     */
+    public boolean[][] getKeepArcs(DependencyScorer scorer, Algebra s, boolean singleRoot) {
+        int nplus = scorer.getNumTokens() + 1;
+        double[] scores = new double[nplus * nplus];
+        for (int p = 0; p < nplus; p++) {
+            for (int c = 0; c < nplus; c++) {
+                double max = Double.NEGATIVE_INFINITY;
+                if (c != 0 && p != c) {
+                    if (p == 0) {
+                        max = s.toLogProb(scorer.getScore(p, c, O2AllGraDpHypergraph.NIL));
+                    } else {
+                        int start = Math.min(p, c);
+                        int end = Math.max(p, c);
+                        for (int g = 0; g < nplus; g++) {
+                            if (start <= g && g <= end) { continue; }
+                            max = Math.max(max, s.toLogProb(scorer.getScore(p, c, g)));
+                        }
+                    }
+                }
+                scores[p * nplus + c] = max;
+            }
+        }
+        return getKeepArcs(scores, nplus, singleRoot);
+    }
+
+    /**
+     * Gets the arcs to keep given first-order scores.
+     *
+     * @param scores The first-order log edge weights, indexed by p * nplus + c where the wall is 0.
+     * @param nplus The sentence length plus one.
+     * @param singleRoot Whether the wall must have exactly one child.
+     * @return Whether to keep each arc, indexed by parent and child where the wall is 0.
+     */
+    public boolean[][] getKeepArcs(double[] scores, int nplus, boolean singleRoot) {
+        final int n = nplus - 1;
+        int[] parents = new int[n];
+        parser.parse(scores, nplus, singleRoot, parents);
+        DepIoChart chart = parser.insideOutside(scores, nplus, singleRoot);
+
+        boolean[][] keep = new boolean[nplus][nplus];
+        final double[] post = new double[nplus];
+        Integer[] heads = new Integer[n];
+        for (int c = 1; c < nplus; c++) {
+            // Rank the heads of the child by their posteriors.
+            int numHeads = 0;
+            for (int p = 0; p < nplus; p++) {
+                if (p == c) { continue; }
+                post[p] = chart.getLogExpectedCount(p-1, c-1);
+                heads[numHeads++] = p;
+            }
+            Arrays.sort(heads, 0, numHeads, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer p1, Integer p2) {
+                    return Double.compare(post[p2], post[p1]);
+                }
+            });
+            for (int k = 0; k < numHeads; k++) {
+                int p = heads[k];
+                keep[p][c] = k < prm.maxHeadsPerChild && post[p] >= prm.logPosteriorThreshold;
+            }
+            // Always keep the Viterbi arc.
+            keep[parents[c-1]+1][c] = true;
+
+            numArcs += numHeads;
+            for (int k = 0; k < numHeads; k++) {
+                if (!keep[heads[k]][c]) {
+                    numPrunedArcs++;
+                }
+            }
+        }
+        numSentences++;
+        return keep;
+    }
+
+    /** Gets the number of sentences pruned. */
+    public long getNumSentences() {
+        return numSentences;
+    }
+
+    /** Gets the number of arcs considered, summed over all sentences. */
+    public long getNumArcs() {
+        return numArcs;
+    }
+
+    /** Gets the number of arcs pruned, summed over all sentences. */
+    public long getNumPrunedArcs() {
+        return numPrunedArcs;
+    }
+
+    /** Logs the pruning statistics. */
+    public void logPruningStats() {
+        log.info(String.format("Arc pruning: sentences=%d arcs=%d pruned=%d (%.2f%%)",
+                numSentences, numArcs, numPrunedArcs, 100.0 * numPrunedArcs / Math.max(1, numArcs)));
+    }
+
+}
@@ -1,5 +1,6 @@
 package edu.jhu.pacaya.hypergraph.depparse;
 
+import edu.jhu.pacaya.hypergraph.CompiledHypergraph;
 import edu.jhu.pacaya.hypergraph.Hyperalgo;
 import edu.jhu.pacaya.hypergraph.Hyperalgo.Scores;
 import edu.jhu.pacaya.hypergraph.Hyperedge;
@@ -81,12 +82,15 @@ public class HyperDepParser {
         //Semirings.fromLogProb(fracRoot, semiring);
         //Semirings.fromLogProb(fracChild, semiring);
         
-        O1DpHypergraph graph = new O1DpHypergraph(fracRoot, fracChild, semiring, singleRoot);
+        CompiledHypergraph graph = O1DpHypergraph.getCompiled(fracRoot.length, singleRoot);
+        int nplus = fracRoot.length + 1;
+        double[] params = new double[nplus * nplus];
+        EdgeScores.combine(fracRoot, fracChild, params);
         Scores scores = new Scores();
-        Hyperalgo.insideAlgorithm(graph, graph.getPotentials(), semiring, scores);
-        Hyperalgo.outsideAlgorithm(graph, graph.getPotentials(), semiring, scores);
+        Hyperalgo.insideAlgorithm(graph, params, semiring, scores);
+        Hyperalgo.outsideAlgorithm(graph, params, semiring, scores);
 
-        return getDepIoChart(graph, scores);
+        return getDepIoChart((O1DpHypergraph) graph.getGraph(), scores);
     }
     
     public static DepIoChart getDepIoChart(O1DpHypergraph graph, Scores scores) {
@@ -153,7 +157,32 @@ public class HyperDepParser {
     }
 
     protected static EdgeScores insideOutside02AllGra(DependencyScorer scorer, Algebra s, boolean singleRoot) {
-        O2AllGraDpHypergraph graph = new O2AllGraDpHypergraph(scorer, s, singleRoot);
+        int n = scorer.getNumTokens();
+        if (n > O2AllGraDpHypergraph.MAX_COMPILED_TOKENS) {
+            // Too large to compile, so walk the dynamic program without storing anything per edge.
+            O2AllGraDpHypergraph graph = new O2AllGraDpHypergraph(scorer, s, singleRoot);
+            Scores sc = new Scores();
+            Hyperalgo.forward(graph, graph.getPotentials(), s, sc);
+            return getEdgeMarginalsRealSemiring(graph, s, sc);
+        }
+        CompiledHypergraph graph = O2AllGraDpHypergraph.getCompiled(n, singleRoot);
+        double[] params = new double[O2AllGraDpHypergraph.getNumParams(n)];
+        O2AllGraDpHypergraph.getParams(scorer, singleRoot, params);
+        Scores sc = new Scores();
+        Hyperalgo.forward(graph, params, s, sc);
+        return getEdgeMarginalsRealSemiring((O2AllGraDpHypergraph) graph.getGraph(), s, sc);
+    }
+
+    /**
+     * Runs inside outside on an all-grandparents hypergraph restricted to a subset of the arcs
+     * (e.g. from {@link DepArcPruner}) and returns the edge marginals in the real semiring. The
+     * marginals of the pruned arcs are zero.
+     * 
+     * @param keepArcs Whether to keep each arc, indexed by parent and child where the wall is 0.
+     */
+    public static EdgeScores insideOutsideO2AllGra(DependencyScorer scorer, Algebra s, boolean singleRoot,
+            boolean[][] keepArcs) {
+        O2AllGraDpHypergraph graph = new O2AllGraDpHypergraph(scorer, s, singleRoot, keepArcs);
         Scores sc = new Scores();
         Hyperalgo.forward(graph, graph.getPotentials(), s, sc);
         return getEdgeMarginalsRealSemiring(graph, sc);
@@ -161,7 +190,10 @@ public class HyperDepParser {
 
     /** Gets the edge marginals in the real semiring from an all-grandparents hypergraph and its marginals in scores. */
     public static EdgeScores getEdgeMarginalsRealSemiring(O2AllGraDpHypergraph graph, Scores sc) {
-        Algebra s = graph.getAlgebra();
+        return getEdgeMarginalsRealSemiring(graph, graph.getAlgebra(), sc);
+    }
+
+    private static EdgeScores getEdgeMarginalsRealSemiring(O2AllGraDpHypergraph graph, Algebra s, Scores sc) {
         int nplus = graph.getNumTokens()+1;
 
         Hypernode[][][][] c = graph.getChart();
@@ -171,10 +203,11 @@ public class HyperDepParser {
                 int j = i + width;
                 for (int g=0; g<nplus; g++) {
                     if (i <= g && g <= j && !(i==0 && g==O2AllGraDpHypergraph.NIL)) { continue; }
-                    if (j > 0) {
+                    // The items of pruned arcs are null.
+                    if (j > 0 && c[i][j][g][O2AllGraDpHypergraph.INCOMPLETE] != null) {
                         marg.incrScore(i-1, j-1, s.toReal(sc.marginal[c[i][j][g][O2AllGraDpHypergraph.INCOMPLETE].getId()]));
                     } 
-                    if (i > 0) {
+                    if (i > 0 && c[j][i][g][O2AllGraDpHypergraph.INCOMPLETE] != null) {
                         marg.incrScore(j-1, i-1, s.toReal(sc.marginal[c[j][i][g][O2AllGraDpHypergraph.INCOMPLETE].getId()]));
                     }
                 }
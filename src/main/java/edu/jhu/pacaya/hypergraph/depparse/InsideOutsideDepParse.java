@@ -5,12 +5,10 @@ import java.util.List;
 import edu.jhu.pacaya.autodiff.AbstractModule;
 import edu.jhu.pacaya.autodiff.Module;
 import edu.jhu.pacaya.autodiff.Tensor;
+import edu.jhu.pacaya.hypergraph.CompiledHypergraph;
 import edu.jhu.pacaya.hypergraph.Hyperalgo;
-import edu.jhu.pacaya.hypergraph.Hyperalgo.HyperedgeDoubleFn;
 import edu.jhu.pacaya.hypergraph.Hyperalgo.Scores;
-import edu.jhu.pacaya.hypergraph.Hyperedge;
 import edu.jhu.pacaya.hypergraph.Hypernode;
-import edu.jhu.pacaya.hypergraph.Hyperpotential;
 import edu.jhu.pacaya.parse.dep.EdgeScores;
 import edu.jhu.pacaya.util.cli.Opt;
 import edu.jhu.pacaya.util.collections.QLists;
@@ -39,7 +37,9 @@ public class InsideOutsideDepParse extends AbstractModule<Tensor> implements Mod
     
     private Scores scores;
     // Cached for efficiency.
-    private O1DpHypergraph graph;
+    private CompiledHypergraph graph;
+    // The flat edge weights, which are the parameters of the compiled hypergraph.
+    private double[] params = new double[0];
     
     public InsideOutsideDepParse(Module<Tensor> weightsIn) {
         super(weightsIn.getAlgebra());
@@ -49,69 +49,90 @@ public class InsideOutsideDepParse extends AbstractModule<Tensor> implements Mod
     @Override
     public Tensor forward() {
         scores = new Scores();
-        EdgeScores es = EdgeScores.tensorToEdgeScores(weightsIn.getOutput());            
-        graph = new O1DpHypergraph(es.root, es.child, s, singleRoot);            
-        Hyperpotential w = graph.getPotentials();
-        Hyperalgo.insideAlgorithm(graph, w, s, scores);
-        Hyperalgo.outsideAlgorithm(graph, w, s, scores);
-        int n = graph.getNumTokens();
+        Tensor weights = weightsIn.getOutput();
+        int n = weights.getDims()[1];
+        if (params.length < (n+1) * (n+1)) {
+            params = new double[(n+1) * (n+1)];
+        }
+        EdgeScores.tensorToCombined(weights, params);
+        graph = O1DpHypergraph.getCompiled(n, singleRoot);
+        Hyperalgo.insideAlgorithm(graph, params, s, scores);
+        Hyperalgo.outsideAlgorithm(graph, params, s, scores);
         
         y = new Tensor(s, 3, n, n);
         y.fill(s.zero());
-        for (Hypernode node : graph.getNodes()) {
-            if (node instanceof PCBasicHypernode) {   
-                PCBasicHypernode pc = (PCBasicHypernode) node;
-                int p = pc.getP();
-                int c = pc.getC();
-                int pp = EdgeScores.getTensorParent(p, c);
-                
-                int id = node.getId();
-                y.set(scores.beta[id], BETA_IDX, pp, c);
-                y.set(scores.alpha[id], ALPHA_IDX, pp, c);
-            }
+        int[] arcNodeIds = getArcNodeIds(graph);
+        for (int i = 0; i < arcNodeIds.length; i++) {
+            int id = arcNodeIds[i];
+            y.setValue(y.getConfigIdx(BETA_IDX, 0, 0) + i, scores.beta[id]);
+            y.setValue(y.getConfigIdx(ALPHA_IDX, 0, 0) + i, scores.alpha[id]);
         }
-        y.set(scores.beta[graph.getRoot().getId()], ROOT_IDX, 0, 0);
+        y.set(scores.beta[graph.getRoot()], ROOT_IDX, 0, 0);
         return y;
     }
 
     @Override
     public void backward() {
-        scores.alphaAdj = new double[graph.getNodes().size()];
-        scores.betaAdj = new double[graph.getNodes().size()];
+        scores.alphaAdj = new double[graph.getNumNodes()];
+        scores.betaAdj = new double[graph.getNumNodes()];
         DoubleArrays.fill(scores.alphaAdj, s.zero());
         DoubleArrays.fill(scores.betaAdj, s.zero());
         // Update output adjoints in scores.
-        for (Hypernode node : graph.getNodes()) {
+        int[] arcNodeIds = getArcNodeIds(graph);
+        for (int i = 0; i < arcNodeIds.length; i++) {
+            int id = arcNodeIds[i];
+            scores.alphaAdj[id] = yAdj.getValue(yAdj.getConfigIdx(ALPHA_IDX, 0, 0) + i);
+            scores.betaAdj[id] = yAdj.getValue(yAdj.getConfigIdx(BETA_IDX, 0, 0) + i);
+        }
+        scores.betaAdj[graph.getRoot()] = yAdj.get(ROOT_IDX, 0, 0);
+
+        // Run backward pass.
+        Hyperalgo.insideOutsideBackward(graph, params, s, scores);
+        // Update input adjoints on weightsIn.
+        Tensor wAdj = weightsIn.getOutputAdj();
+        int n = ((O1DpHypergraph) graph.getGraph()).getNumTokens();
+        for (int k = 0; k < graph.getNumWeights(); k++) {
+            int i = getArcTensorIdx(k, n);
+            if (i != -1) {
+                wAdj.addValue(i, scores.weightAdj[k]);
+            }
+        }
+    }
+    
+    /**
+     * Gets the node id of each arc's incomplete item in a compiled first-order hypergraph, indexed
+     * as in the nxn weights tensor: EdgeScores.getTensorParent(p, c) * n + c.
+     */
+    public static int[] getArcNodeIds(CompiledHypergraph graph) {
+        int n = ((O1DpHypergraph) graph.getGraph()).getNumTokens();
+        int[] ids = new int[n * n];
+        for (Hypernode node : graph.getGraph().getNodes()) {
             if (node instanceof PCBasicHypernode) {   
                 PCBasicHypernode pc = (PCBasicHypernode) node;
                 int p = pc.getP();
                 int c = pc.getC();
-                int pp = EdgeScores.getTensorParent(p, c);
-                
-                int id = node.getId();
-                scores.alphaAdj[id] = yAdj.get(ALPHA_IDX, pp, c);
-                scores.betaAdj[id] = yAdj.get(BETA_IDX, pp, c);
+                ids[EdgeScores.getTensorParent(p, c) * n + c] = node.getId();
             }
         }
-        scores.betaAdj[graph.getRoot().getId()] = yAdj.get(ROOT_IDX, 0, 0);
-
-        // Run backward pass.
-        Hyperpotential w = graph.getPotentials();        
-        // Update input adjoints on weightsIn.
-        final Tensor wAdj = weightsIn.getOutputAdj();
-        HyperedgeDoubleFn lambda = new HyperedgeDoubleFn() {
-            public void apply(Hyperedge e, double adj_w_e) {
-                Hypernode head = e.getHeadNode();
-                if (head instanceof PCBasicHypernode) {   
-                    PCBasicHypernode pc = (PCBasicHypernode) head;
-                    int p = pc.getP();
-                    int c = pc.getC();
-                    int pp = EdgeScores.getTensorParent(p, c);
-                    wAdj.add(adj_w_e, pp, c);
-                }
-            }
-        };
-        Hyperalgo.insideOutsideBackward(graph, w, s, scores, lambda);
+        return ids;
+    }
+    
+    /**
+     * Gets the index in the nxn weights tensor of the arc whose weight has the given weight index in
+     * a compiled first-order hypergraph, or -1 if the weight is not an input arc weight.
+     */
+    public static int getArcTensorIdx(int weightIdx, int n) {
+        int nplus = n + 1;
+        // Only the arc weights of edges into an arc's incomplete item are inputs.
+        if (weightIdx == CompiledHypergraph.ONE || weightIdx % nplus == 0) { 
+            return -1;
+        }
+        int p = weightIdx / nplus - 1;
+        int c = weightIdx % nplus - 1;
+        if (p == c) {
+            return -1;
+        }
+        return EdgeScores.getTensorParent(p, c) * n + c;
     }
 
     @Override
@@ -1,18 +1,22 @@
 package edu.jhu.pacaya.hypergraph.depparse;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import edu.jhu.pacaya.hypergraph.BasicHypernode;
+import edu.jhu.pacaya.hypergraph.CompiledHypergraph;
+import edu.jhu.pacaya.hypergraph.CompiledHypergraph.HyperedgeIntFn;
 import edu.jhu.pacaya.hypergraph.Hyperedge;
 import edu.jhu.pacaya.hypergraph.Hypergraph;
 import edu.jhu.pacaya.hypergraph.Hypernode;
 import edu.jhu.pacaya.hypergraph.Hyperpotential;
 import edu.jhu.pacaya.hypergraph.WeightedHyperedge;
 import edu.jhu.pacaya.parse.dep.EdgeScores;
+import edu.jhu.pacaya.util.semiring.LogSemiring;
 import edu.jhu.pacaya.util.semiring.Semiring;
 
 /**
@@ -31,6 +35,14 @@ public class O1DpHypergraph implements Hypergraph {
     private static final int INCOMPLETE = 0;
     private static final int COMPLETE = 1;
     
+    private static final CompiledHypergraph.Cache compiledCache = new CompiledHypergraph.Cache(64L * 1024 * 1024) {
+        @Override
+        protected CompiledHypergraph compile(int numTokens, boolean singleRoot) {
+            return new O1DpHypergraph(new double[numTokens], new double[numTokens][numTokens], 
+                    LogSemiring.getInstance(), singleRoot).compile();
+        }
+    };
+    
     // Number of words in the sentence plus one.
     private int nplus;
     private Hypernode root;
@@ -352,6 +364,37 @@ public class O1DpHypergraph implements Hypergraph {
         assert id == -1 : "id="+id;
     }
 
+    /**
+     * Compiles this hypergraph. The weight index of an edge is p * (n+1) + c, where p and c are
+     * the (wall at zero) parent and child of its arc, so the parameters of the compiled hypergraph
+     * are the flat edge weights of {@link EdgeScores#combine(double[], double[][], double[])}.
+     */
+    public CompiledHypergraph compile() {
+        // Only edges into incomplete items are weighted by an arc score.
+        final int[] nodeWeightIdx = new int[nodes.size()];
+        Arrays.fill(nodeWeightIdx, CompiledHypergraph.ONE);
+        for (int s = 0; s < nplus; s++) {
+            for (int t = s + 1; t < nplus; t++) {
+                nodeWeightIdx[chart[s][t][LEFT][INCOMPLETE].getId()] = t * nplus + s;
+                nodeWeightIdx[chart[s][t][RIGHT][INCOMPLETE].getId()] = s * nplus + t;
+            }
+        }
+        return CompiledHypergraph.compile(this, new HyperedgeIntFn() {
+            @Override
+            public int apply(Hyperedge e) {
+                return nodeWeightIdx[e.getHeadNode().getId()];
+            }
+        }, nplus * nplus);
+    }
+    
+    /**
+     * Gets the compiled hypergraph for a sentence of the given length. The compiled hypergraphs
+     * are cached, so the chart of {@link CompiledHypergraph#getGraph()} must not be modified.
+     */
+    public static CompiledHypergraph getCompiled(int numTokens, boolean singleRoot) {
+        return compiledCache.get(numTokens, singleRoot);
+    }
+    
     public Hypernode[][][][] getChart() {
         return chart;
     }
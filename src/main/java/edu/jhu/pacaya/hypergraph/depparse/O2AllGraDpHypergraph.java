@@ -1,24 +1,36 @@
 package edu.jhu.pacaya.hypergraph.depparse;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import edu.jhu.pacaya.hypergraph.BasicHypernode;
+import edu.jhu.pacaya.hypergraph.CompiledHypergraph;
+import edu.jhu.pacaya.hypergraph.CompiledHypergraph.HyperedgeIntFn;
 import edu.jhu.pacaya.hypergraph.Hyperedge;
 import edu.jhu.pacaya.hypergraph.Hypergraph;
 import edu.jhu.pacaya.hypergraph.Hypernode;
 import edu.jhu.pacaya.hypergraph.Hyperpotential;
 import edu.jhu.pacaya.hypergraph.WeightedHyperedge;
 import edu.jhu.pacaya.util.semiring.Algebra;
+import edu.jhu.pacaya.util.semiring.LogSemiring;
 import edu.jhu.pacaya.util.semiring.Semiring;
 
 /**
  * Hypergraph for second-order dependency parsing with all grandchild factors. This algorithm comes
  * from Koo & Collins (2010).
  * 
+ * Optionally, the arcs may be restricted by a mask (e.g. from {@link DepArcPruner}). Then only the
+ * items and hyperedges consistent with the kept arcs are created: an item whose head's parent is g
+ * requires the arc from g to the head, and an incomplete item requires its own arc. The pruned items
+ * are null in the chart. The loops over split points are skipped entirely for the items which are
+ * pruned, so a heavily pruned sentence does much less than the O(n^4) work of the full hypergraph.
+ * A pruned hypergraph depends on its mask, so it cannot use the cached compiled hypergraphs of
+ * {@link #getCompiled(int, boolean)}, which are shared across all sentences of a given length.
+ * 
  * @author mgormley
  */
 public class O2AllGraDpHypergraph implements Hypergraph {
@@ -30,6 +42,22 @@ public class O2AllGraDpHypergraph implements Hypergraph {
     public static final int INCOMPLETE = 0;
     public static final int COMPLETE = 1;
     
+    /**
+     * The maximum sentence length for which {@link #getCompiled(int, boolean)} compiles a
+     * hypergraph. The number of edges grows as n^4, so longer sentences should use the uncompiled
+     * hypergraph, which stores nothing per edge.
+     */
+    public static final int MAX_COMPILED_TOKENS = 40;
+    
+    private static final CompiledHypergraph.Cache compiledCache = new CompiledHypergraph.Cache(64L * 1024 * 1024) {
+        @Override
+        protected CompiledHypergraph compile(int numTokens, boolean singleRoot) {
+            int nplus = numTokens + 1;
+            DependencyScorer scorer = new ExplicitDependencyScorer(new double[nplus][nplus][nplus], numTokens);
+            return new O2AllGraDpHypergraph(scorer, LogSemiring.getInstance(), singleRoot).compile();
+        }
+    };
+    
     // Number of words in the sentence plus one.
     private int nplus;
     private Hypernode root;
@@ -41,12 +69,28 @@ public class O2AllGraDpHypergraph implements Hypergraph {
     private DependencyScorer scorer;
     private final Algebra a;
     private boolean singleRoot;
+    // Indexed by parent and child, where the wall is 0. Null if all arcs are kept.
+    private final boolean[][] keepArcs;
     
     public O2AllGraDpHypergraph(DependencyScorer scorer, Algebra a, boolean singleRoot) {
+        this(scorer, a, singleRoot, null);
+    }
+    
+    /**
+     * Constructs a hypergraph restricted to a subset of the arcs.
+     * 
+     * @param scorer The dependency scorer.
+     * @param a The algebra.
+     * @param singleRoot Whether the wall must have exactly one child.
+     * @param keepArcs Whether to keep each arc, indexed by parent and child where the wall is 0 (as
+     *            in {@link DependencyScorer#getScore(int, int, int)}), or null to keep all arcs.
+     */
+    public O2AllGraDpHypergraph(DependencyScorer scorer, Algebra a, boolean singleRoot, boolean[][] keepArcs) {
         super();
         this.scorer = scorer;
         this.a = a;
         this.singleRoot = singleRoot;
+        this.keepArcs = keepArcs;
         this.nplus = scorer.getNumTokens()+1;
         this.nodes = new ArrayList<Hypernode>();    
         this.chart = new Hypernode[nplus][nplus][nplus][2];
@@ -68,16 +112,59 @@ public class O2AllGraDpHypergraph implements Hypergraph {
     @Override
     public int getNumEdges() {
         if (numEdges == NOT_INITIALIZED) {
-            // numEdges is initialized by any call to applyTopoSort().
-            applyTopoSort(new HyperedgeFn() {                
-                @Override
-                public void apply(Hyperedge e) { }
-            });
-            assert numEdges != NOT_INITIALIZED;
+            numEdges = countEdges();
         }
         return numEdges;
     }
     
+    /**
+     * Counts the hyperedges visited by {@link #applyTopoSort(HyperedgeFn)} in O(n^3) time, without
+     * visiting them.
+     */
+    private int countEdges() {
+        final int startIdx = singleRoot ? 1 : 0;
+        // numKeptBefore[p][c] is the number of kept arcs from p to a child c' < c.
+        int[][] numKeptBefore = new int[nplus][nplus+1];
+        for (int p = 0; p < nplus; p++) {
+            for (int c = 0; c < nplus; c++) {
+                numKeptBefore[p][c+1] = numKeptBefore[p][c] + (isKept(p, c) ? 1 : 0);
+            }
+        }
+        int count = 0;
+        // Initialize.
+        for (int s = 0; s < nplus; s++) {
+            for (int g=0; g<nplus; g++) {
+                if (g == s && s != 0) { continue; }
+                if (chart[s][s][g][COMPLETE] != null) { count++; }
+            }
+        }
+        // Parse.
+        for (int width = 1; width < nplus; width++) {
+            for (int i = startIdx; i < nplus - width; i++) {
+                int j = i + width;
+                for (int g = 0; g < nplus; g++) {
+                    if (i <= g && g <= j && !(i==0 && g==NIL)) { continue; }
+                    boolean right = isKeptHead(i, g);
+                    boolean left = isKeptHead(j, g);
+                    if (right) {
+                        if (isKept(i, j)) { count += width; }
+                        count += numKeptBefore[i][j+1] - numKeptBefore[i][i+1];
+                    }
+                    if (left) {
+                        if (isKept(j, i)) { count += width; }
+                        count += numKeptBefore[j][j] - numKeptBefore[j][i];
+                    }
+                }
+            }
+        }
+        if (singleRoot) {
+            count += 2 * (numKeptBefore[0][nplus] - numKeptBefore[0][1]);
+        }
+        // Wall to ROOT.
+        count++;
+        return count;
+    }
+    
     public Hyperpotential getPotentials() {
         return new Hyperpotential() {            
             @Override
@@ -87,11 +174,22 @@ public class O2AllGraDpHypergraph implements Hypergraph {
         };
     }
 
+    /** Whether the arc from p to c (where the wall is 0) is kept. */
+    private boolean isKept(int p, int c) {
+        return keepArcs == null || keepArcs[p][c];
+    }
+    
+    /** Whether the items headed by h, whose parent is g, are kept. */
+    private boolean isKeptHead(int h, int g) {
+        return (h == 0 && g == NIL) || isKept(g, h);
+    }
+
     private void createHypernodes() {
         int id=0;
         for (int s=0; s<nplus; s++) {
             for (int g=0; g<nplus; g++) {
                 if (g == s && s != 0) { continue; }
+                if (!isKeptHead(s, g)) { continue; }
                 String label = log.isTraceEnabled() ? String.format("chart[%d][%d][%d][%d]", s,s,g,COMPLETE) : null;
                 BasicHypernode node = new BasicHypernode(label, id++);
                 nodes.add(node);
@@ -103,20 +201,27 @@ public class O2AllGraDpHypergraph implements Hypergraph {
                 int j = i + width;
                 for (int g=0; g<nplus; g++) {
                     if (i <= g && g <= j && !(i==0 && g==NIL)) { continue; }
+                    boolean right = isKeptHead(i, g);
+                    boolean left = isKeptHead(j, g);
+                    if (!right && !left) { continue; }
                     for (int c=0; c<2; c++) {
                         String label;
                         // Right.
-                        label = log.isTraceEnabled() ? String.format("chart[%d][%d][%d][%d]", i,j,g,c) : null;
-                        chart[i][j][g][c] = (c == INCOMPLETE) ?
-                                new PCGBasicHypernode(label, id++, i-1, j-1, g-1) :
-                                new BasicHypernode(label, id++);
-                        nodes.add(chart[i][j][g][c]);
+                        if (right && (c == COMPLETE || isKept(i, j))) {
+                            label = log.isTraceEnabled() ? String.format("chart[%d][%d][%d][%d]", i,j,g,c) : null;
+                            chart[i][j][g][c] = (c == INCOMPLETE) ?
+                                    new PCGBasicHypernode(label, id++, i-1, j-1, g-1) :
+                                    new BasicHypernode(label, id++);
+                            nodes.add(chart[i][j][g][c]);
+                        }
                         // Left.
-                        label = log.isTraceEnabled() ? String.format("chart[%d][%d][%d][%d]", j,i,g,c) : null;
-                        chart[j][i][g][c] = (c == INCOMPLETE) ?
-                                new PCGBasicHypernode(label, id++, j-1, i-1, g-1) :
-                                new BasicHypernode(label, id++);
-                        nodes.add(chart[j][i][g][c]);
+                        if (left && (c == COMPLETE || isKept(j, i))) {
+                            label = log.isTraceEnabled() ? String.format("chart[%d][%d][%d][%d]", j,i,g,c) : null;
+                            chart[j][i][g][c] = (c == INCOMPLETE) ?
+                                    new PCGBasicHypernode(label, id++, j-1, i-1, g-1) :
+                                    new BasicHypernode(label, id++);
+                            nodes.add(chart[j][i][g][c]);
+                        }
                     }
                 }
             }
@@ -136,6 +241,7 @@ public class O2AllGraDpHypergraph implements Hypergraph {
         for (int s = 0; s < nplus; s++) {
             for (int g=0; g<nplus; g++) {
                 if (g == s && s != 0) { continue; }
+                if (chart[s][s][g][COMPLETE] == null) { continue; }
                 e.setHeadNode(chart[s][s][g][COMPLETE]);
                 e.setTailNodes();
                 e.setWeight(a.one());
@@ -150,44 +256,62 @@ public class O2AllGraDpHypergraph implements Hypergraph {
                 int j = i + width;
                 for (int g = 0; g < nplus; g++) {
                     if (i <= g && g <= j && !(i==0 && g==NIL)) { continue; }
+                    boolean right = isKeptHead(i, g);
+                    boolean left = isKeptHead(j, g);
+                    // Skip the grandparents for which neither head item exists.
+                    if (!right && !left) { continue; }
+                    boolean rightInc = right && isKept(i, j);
+                    boolean leftInc = left && isKept(j, i);
                     // Incomplete items.
-                    double sij = scorer.getScore(i, j, g);
-                    double sji = scorer.getScore(j, i, g);
-                    for (int r=i; r<j; r++) {
-                        // Right.
-                        e.setHeadNode(chart[i][j][g][INCOMPLETE]);
-                        e.setTailNodes(chart[i][r][g][COMPLETE],
-                                       chart[j][r+1][i][COMPLETE]);
-                        e.setWeight(sij);
-                        e.setId(id++);
-                        fn.apply(e);
-                        // Left.
-                        e.setHeadNode(chart[j][i][g][INCOMPLETE]);
-                        e.setTailNodes(chart[j][r+1][g][COMPLETE],
-                                       chart[i][r][j][COMPLETE]);
-                        e.setWeight(sji);
-                        e.setId(id++);
-                        fn.apply(e);
+                    if (rightInc || leftInc) {
+                        double sij = rightInc ? scorer.getScore(i, j, g) : a.zero();
+                        double sji = leftInc ? scorer.getScore(j, i, g) : a.zero();
+                        for (int r=i; r<j; r++) {
+                            if (rightInc) {
+                                // Right.
+                                e.setHeadNode(chart[i][j][g][INCOMPLETE]);
+                                e.setTailNodes(chart[i][r][g][COMPLETE],
+                                               chart[j][r+1][i][COMPLETE]);
+                                e.setWeight(sij);
+                                e.setId(id++);
+                                fn.apply(e);
+                            }
+                            if (leftInc) {
+                                // Left.
+                                e.setHeadNode(chart[j][i][g][INCOMPLETE]);
+                                e.setTailNodes(chart[j][r+1][g][COMPLETE],
+                                               chart[i][r][j][COMPLETE]);
+                                e.setWeight(sji);
+                                e.setId(id++);
+                                fn.apply(e);
+                            }
+                        }
                     }
                     
                     // Complete items.
-                    for (int r=i+1; r<=j; r++) {
-                        // Right
-                        e.setHeadNode(chart[i][j][g][COMPLETE]);
-                        e.setTailNodes(chart[i][r][g][INCOMPLETE],
-                                       chart[r][j][i][COMPLETE]);
-                        e.setWeight(a.one());
-                        e.setId(id++);
-                        fn.apply(e);
+                    if (right) {
+                        for (int r=i+1; r<=j; r++) {
+                            if (!isKept(i, r)) { continue; }
+                            // Right
+                            e.setHeadNode(chart[i][j][g][COMPLETE]);
+                            e.setTailNodes(chart[i][r][g][INCOMPLETE],
+                                           chart[r][j][i][COMPLETE]);
+                            e.setWeight(a.one());
+                            e.setId(id++);
+                            fn.apply(e);
+                        }
                     }
-                    for (int r=i; r<j; r++) {
-                        // Left
-                        e.setHeadNode(chart[j][i][g][COMPLETE]);
-                        e.setTailNodes(chart[j][r][g][INCOMPLETE],
-                                       chart[r][i][j][COMPLETE]);
-                        e.setWeight(a.one());
-                        e.setId(id++);
-                        fn.apply(e);
+                    if (left) {
+                        for (int r=i; r<j; r++) {
+                            if (!isKept(j, r)) { continue; }
+                            // Left
+                            e.setHeadNode(chart[j][i][g][COMPLETE]);
+                            e.setTailNodes(chart[j][r][g][INCOMPLETE],
+                                           chart[r][i][j][COMPLETE]);
+                            e.setWeight(a.one());
+                            e.setId(id++);
+                            fn.apply(e);
+                        }
                     }
                 }
             }
@@ -199,6 +323,7 @@ public class O2AllGraDpHypergraph implements Hypergraph {
             // left and right triangles. (Note: this is the opposite of how we
             // build an incomplete constituent.)
             for (int r=1; r<nplus; r++) {  
+                if (!isKept(0, r)) { continue; }
                 // Single-root.
                 e.setHeadNode(chart[0][r][NIL][INCOMPLETE]);
                 e.setTailNodes(chart[r][1][0][COMPLETE],
@@ -249,6 +374,7 @@ public class O2AllGraDpHypergraph implements Hypergraph {
             // left and right triangles. (Note: this is the opposite of how we
             // build an incomplete constituent.)
             for (int r=nplus-1; r >= 1; r--) {
+                if (!isKept(0, r)) { continue; }
                 // Finalize.
                 e.setHeadNode(chart[0][nplus-1][NIL][COMPLETE]);
                 e.setTailNodes(chart[0][r][NIL][INCOMPLETE]);
@@ -272,45 +398,63 @@ public class O2AllGraDpHypergraph implements Hypergraph {
                 int j = i + width;
                 for (int g = nplus-1; g >= 0; g--) {
                     if (i <= g && g <= j && !(i==0 && g==NIL)) { continue; }
+                    boolean right = isKeptHead(i, g);
+                    boolean left = isKeptHead(j, g);
+                    // Skip the grandparents for which neither head item exists.
+                    if (!right && !left) { continue; }
+                    boolean rightInc = right && isKept(i, j);
+                    boolean leftInc = left && isKept(j, i);
                                         
                     // Complete items.
-                    for (int r=j-1; r>=i; r--) {
-                        // Left
-                        e.setHeadNode(chart[j][i][g][COMPLETE]);
-                        e.setTailNodes(chart[j][r][g][INCOMPLETE],
-                                       chart[r][i][j][COMPLETE]);
-                        e.setWeight(a.one());
-                        e.setId(id--);
-                        fn.apply(e);
+                    if (left) {
+                        for (int r=j-1; r>=i; r--) {
+                            if (!isKept(j, r)) { continue; }
+                            // Left
+                            e.setHeadNode(chart[j][i][g][COMPLETE]);
+                            e.setTailNodes(chart[j][r][g][INCOMPLETE],
+                                           chart[r][i][j][COMPLETE]);
+                            e.setWeight(a.one());
+                            e.setId(id--);
+                            fn.apply(e);
+                        }
                     }
-                    for (int r=j; r>=i+1; r--) {
-                        // Right
-                        e.setHeadNode(chart[i][j][g][COMPLETE]);
-                        e.setTailNodes(chart[i][r][g][INCOMPLETE],
-                                       chart[r][j][i][COMPLETE]);
-                        e.setWeight(a.one());
-                        e.setId(id--);
-                        fn.apply(e);
+                    if (right) {
+                        for (int r=j; r>=i+1; r--) {
+                            if (!isKept(i, r)) { continue; }
+                            // Right
+                            e.setHeadNode(chart[i][j][g][COMPLETE]);
+                            e.setTailNodes(chart[i][r][g][INCOMPLETE],
+                                           chart[r][j][i][COMPLETE]);
+                            e.setWeight(a.one());
+                            e.setId(id--);
+                            fn.apply(e);
+                        }
                     }
                     
                     // Incomplete items.
-                    double sij = scorer.getScore(i, j, g);
-                    double sji = scorer.getScore(j, i, g);
-                    for (int r=j-1; r>=i; r--) {
-                        // Left.
-                        e.setHeadNode(chart[j][i][g][INCOMPLETE]);
-                        e.setTailNodes(chart[j][r+1][g][COMPLETE],
-                                       chart[i][r][j][COMPLETE]);
-                        e.setWeight(sji);
-                        e.setId(id--);
-                        fn.apply(e);
-                        // Right.
-                        e.setHeadNode(chart[i][j][g][INCOMPLETE]);
-                        e.setTailNodes(chart[i][r][g][COMPLETE],
-                                       chart[j][r+1][i][COMPLETE]);
-                        e.setWeight(sij);
-                        e.setId(id--);
-                        fn.apply(e);
+                    if (rightInc || leftInc) {
+                        double sij = rightInc ? scorer.getScore(i, j, g) : a.zero();
+                        double sji = leftInc ? scorer.getScore(j, i, g) : a.zero();
+                        for (int r=j-1; r>=i; r--) {
+                            if (leftInc) {
+                                // Left.
+                                e.setHeadNode(chart[j][i][g][INCOMPLETE]);
+                                e.setTailNodes(chart[j][r+1][g][COMPLETE],
+                                               chart[i][r][j][COMPLETE]);
+                                e.setWeight(sji);
+                                e.setId(id--);
+                                fn.apply(e);
+                            }
+                            if (rightInc) {
+                                // Right.
+                                e.setHeadNode(chart[i][j][g][INCOMPLETE]);
+                                e.setTailNodes(chart[i][r][g][COMPLETE],
+                                               chart[j][r+1][i][COMPLETE]);
+                                e.setWeight(sij);
+                                e.setId(id--);
+                                fn.apply(e);
+                            }
+                        }
                     }
                 }
             }
@@ -320,6 +464,7 @@ public class O2AllGraDpHypergraph implements Hypergraph {
         for (int s = nplus-1; s >= 0; s--) {
             for (int g = nplus - 1; g >= 0; g--) {
                 if (g == s && s != 0) { continue; }
+                if (chart[s][s][g][COMPLETE] == null) { continue; }
                 e.setHeadNode(chart[s][s][g][COMPLETE]);
                 e.setTailNodes();
                 e.setWeight(a.one());
@@ -331,6 +476,84 @@ public class O2AllGraDpHypergraph implements Hypergraph {
         assert id == -1 : "id="+id;
     }
 
+    /**
+     * Compiles this hypergraph. The weight index of an edge is (p * (n+1) + c) * (n+1) + g, where
+     * p, c, and g are the (wall at zero) arguments of {@link DependencyScorer#getScore(int, int, int)}
+     * for its arc.
+     */
+    public CompiledHypergraph compile() {
+        // Only edges into incomplete items are weighted by an arc score.
+        final int[] nodeWeightIdx = new int[nodes.size()];
+        Arrays.fill(nodeWeightIdx, CompiledHypergraph.ONE);
+        for (int width = 1; width < nplus; width++) {
+            for (int i = 0; i < nplus - width; i++) {
+                int j = i + width;
+                for (int g = 0; g < nplus; g++) {
+                    if (i <= g && g <= j && !(i==0 && g==NIL)) { continue; }
+                    if (chart[i][j][g][INCOMPLETE] != null) {
+                        nodeWeightIdx[chart[i][j][g][INCOMPLETE].getId()] = (i * nplus + j) * nplus + g;
+                    }
+                    if (chart[j][i][g][INCOMPLETE] != null) {
+                        nodeWeightIdx[chart[j][i][g][INCOMPLETE].getId()] = (j * nplus + i) * nplus + g;
+                    }
+                }
+            }
+        }
+        return CompiledHypergraph.compile(this, new HyperedgeIntFn() {
+            @Override
+            public int apply(Hyperedge e) {
+                return nodeWeightIdx[e.getHeadNode().getId()];
+            }
+        }, nplus * nplus * nplus);
+    }
+    
+    /**
+     * Gets the compiled hypergraph for a sentence of the given length, which must be at most
+     * {@link #MAX_COMPILED_TOKENS}. The compiled hypergraphs are cached, so the chart of
+     * {@link CompiledHypergraph#getGraph()} must not be modified.
+     */
+    public static CompiledHypergraph getCompiled(int numTokens, boolean singleRoot) {
+        if (numTokens > MAX_COMPILED_TOKENS) {
+            throw new IllegalArgumentException("Sentence too long to compile: " + numTokens);
+        }
+        return compiledCache.get(numTokens, singleRoot);
+    }
+    
+    /** Gets the number of parameters of a hypergraph compiled by {@link #compile()}. */
+    public static int getNumParams(int numTokens) {
+        int nplus = numTokens + 1;
+        return nplus * nplus * nplus;
+    }
+    
+    /**
+     * Gets the parameters, indexed by weight index, of a hypergraph compiled by {@link #compile()}.
+     * The scorer is only called for the arcs scored by {@link #applyTopoSort(HyperedgeFn)}.
+     * 
+     * @param scorer The dependency scorer.
+     * @param singleRoot Whether the hypergraph is for single-root parsing.
+     * @param params Output: The parameters. Must have length at least
+     *            {@link #getNumParams(int)}. Entries which are not parameters are not set.
+     */
+    public static void getParams(DependencyScorer scorer, boolean singleRoot, double[] params) {
+        final int startIdx = singleRoot ? 1 : 0;
+        final int nplus = scorer.getNumTokens() + 1;
+        for (int width = 1; width < nplus; width++) {
+            for (int i = startIdx; i < nplus - width; i++) {
+                int j = i + width;
+                for (int g = 0; g < nplus; g++) {
+                    if (i <= g && g <= j && !(i==0 && g==NIL)) { continue; }
+                    params[(i * nplus + j) * nplus + g] = scorer.getScore(i, j, g);
+                    params[(j * nplus + i) * nplus + g] = scorer.getScore(j, i, g);
+                }
+            }
+        }
+        if (singleRoot) {
+            for (int r = 1; r < nplus; r++) {
+                params[(0 * nplus + r) * nplus + NIL] = scorer.getScore(0, r, NIL);
+            }
+        }
+    }
+
     public Hypernode[][][][] getChart() {
         return chart;
     }
@@ -0,0 +1,102 @@
+package edu.jhu.pacaya.parse.cky;
+
+import java.util.Iterator;
+import java.util.List;
+
+import edu.jhu.pacaya.nlp.data.Sentence;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser.CkyPcfgParserPrm;
+import edu.jhu.pacaya.parse.cky.PcfgInsideOutside.PcfgInsideOutsidePrm;
+import edu.jhu.pacaya.parse.cky.PcfgInsideOutside.PcfgIoChart;
+import edu.jhu.pacaya.parse.cky.chart.Chart;
+import edu.jhu.pacaya.parse.cky.data.BinaryTree;
+import edu.jhu.prim.tuple.Pair;
+
+/**
+ * Thread-safe batch interface to {@link CkyPcfgParser} and {@link PcfgInsideOutside}.
+ * 
+ * Each worker thread uses its own parser, whose chart is cached between sentences (if
+ * cacheChart is set) and so grows to the longest sentence it has seen. The parsers are kept
+ * between calls, so a single instance should be reused for all the batches of a run. Since the
+ * charts are reused, the functions applied to them must not retain them.
+ * 
+ * @author mgormley
+ */
+public class CkyBatchParser {
+
+    /** A function of a chart, which is called before the chart is reused. */
+    public interface ChartFn<T> {
+        T call(Sentence sentence, Chart chart);
+    }
+
+    /** A function of an inside-outside chart, which is called before the chart is reused. */
+    public interface IoChartFn<T> {
+        T call(Sentence sentence, PcfgIoChart chart);
+    }
+
+    private final SentenceBatchRunner<CkyPcfgParser> parsers;
+    private final SentenceBatchRunner<PcfgInsideOutside> insideOutsides;
+
+    /**
+     * Constructor.
+     * 
+     * @param parserPrm The parameters for each parser. Its numThreads should usually be 1, since
+     *            the sentences are already parsed in parallel.
+     * @param ioPrm The parameters for each inside-outside runner.
+     * @param numThreads The number of sentences to parse at once.
+     */
+    public CkyBatchParser(final CkyPcfgParserPrm parserPrm, final PcfgInsideOutsidePrm ioPrm, int numThreads) {
+        this.parsers = new SentenceBatchRunner<CkyPcfgParser>(numThreads) {
+            @Override
+            protected CkyPcfgParser newWorker() {
+                return new CkyPcfgParser(parserPrm);
+            }
+        };
+        this.insideOutsides = new SentenceBatchRunner<PcfgInsideOutside>(numThreads) {
+            @Override
+            protected PcfgInsideOutside newWorker() {
+                return new PcfgInsideOutside(ioPrm);
+            }
+        };
+    }
+
+    /** Gets the Viterbi parse and its score for each sentence, in input order. */
+    public List<Pair<BinaryTree, Double>> getViterbiParses(Iterable<Sentence> sentences, CnfGrammar grammar) {
+        return parseAll(sentences.iterator(), grammar, new ChartFn<Pair<BinaryTree, Double>>() {
+            @Override
+            public Pair<BinaryTree, Double> call(Sentence sentence, Chart chart) {
+                return chart.getViterbiParse();
+            }
+        });
+    }
+
+    /** Parses each sentence and gets the result of fn on its chart, in input order. */
+    public <T> List<T> parseAll(Iterator<Sentence> sentences, final CnfGrammar grammar, final ChartFn<T> fn) {
+        return parsers.runAll(sentences, new SentenceBatchRunner.Task<CkyPcfgParser, T>() {
+            @Override
+            public T call(CkyPcfgParser parser, Sentence sentence) {
+                return fn.call(sentence, parser.parseSentence(sentence, grammar));
+            }
+        });
+    }
+
+    /** Gets the log partition function of each sentence, in input order. */
+    public List<Double> getLogPartitionFunctions(Iterable<Sentence> sentences, CnfGrammar grammar) {
+        return runInsideOutsideAll(sentences.iterator(), grammar, new IoChartFn<Double>() {
+            @Override
+            public Double call(Sentence sentence, PcfgIoChart chart) {
+                return chart.getLogPartitionFunction();
+            }
+        });
+    }
+
+    /** Runs inside-outside on each sentence and gets the result of fn on its chart, in input order. */
+    public <T> List<T> runInsideOutsideAll(Iterator<Sentence> sentences, final CnfGrammar grammar, final IoChartFn<T> fn) {
+        return insideOutsides.runAll(sentences, new SentenceBatchRunner.Task<PcfgInsideOutside, T>() {
+            @Override
+            public T call(PcfgInsideOutside io, Sentence sentence) {
+                return fn.call(sentence, io.runInsideOutside(sentence, grammar));
+            }
+        });
+    }
+
+}
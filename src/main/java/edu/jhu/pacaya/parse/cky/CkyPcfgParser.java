@@ -1,5 +1,12 @@
 package edu.jhu.pacaya.parse.cky;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 import edu.jhu.pacaya.nlp.data.Sentence;
 import edu.jhu.pacaya.parse.cky.chart.Chart;
 import edu.jhu.pacaya.parse.cky.chart.Chart.ChartCellType;
@@ -7,6 +14,7 @@ import edu.jhu.pacaya.parse.cky.chart.Chart.ParseType;
 import edu.jhu.pacaya.parse.cky.chart.ChartCell;
 import edu.jhu.pacaya.parse.cky.chart.ConstrainedChartCell.ChartCellConstraint;
 import edu.jhu.pacaya.parse.cky.chart.ScoresSnapshot;
+import edu.jhu.pacaya.util.Threads;
 
 /**
  * CKY Parsing algorithm for a CNF PCFG grammar.
@@ -21,6 +29,9 @@ import edu.jhu.pacaya.parse.cky.chart.ScoresSnapshot;
  * By adding in the if/else for the INSIDE algorithm in FullChartCell, we
  * dropped to 0.071 sec/sent.
  * 
+ * An instance caches its chart, so it must not be shared across threads. See
+ * {@link CkyBatchParser} for parsing many sentences in parallel.
+ * 
  * @author mgormley
  * 
  */
@@ -35,6 +46,11 @@ public class CkyPcfgParser {
         public ParseType parseType = ParseType.VITERBI;
         public ChartCellConstraint constraint = null;
         public Scorer scorer = new RuleScorer();
+        /**
+         * The number of threads with which to fill the cells of each width. If greater than 1, the
+         * scorer must be thread-safe, and the cell type must not break ties randomly.
+         */
+        public int numThreads = 1;
     }
     
     public enum LoopOrder { LEFT_CHILD, RIGHT_CHILD, CARTESIAN_PRODUCT }
@@ -48,6 +64,7 @@ public class CkyPcfgParser {
     private final boolean cacheChart;
     private final ChartCellConstraint constraint;
     private final Scorer scorer;
+    private final int numThreads;
     
     public CkyPcfgParser(CkyPcfgParserPrm prm) {
         this.loopOrder = prm.loopOrder;
@@ -56,6 +73,8 @@ public class CkyPcfgParser {
         this.cacheChart = prm.cacheChart;
         this.constraint = prm.constraint;
         this.scorer = prm.scorer;
+        this.numThreads = prm.numThreads;
+        checkCellType(cellType, numThreads);
     }
     
     public final Chart parseSentence(final Sentence sentence, final CnfGrammar grammar) {
@@ -71,7 +90,7 @@ public class CkyPcfgParser {
             chart.reset(sentence);
         }
         int[] sent = sentence.getLabelIds();
-        parseSentence(sent, grammar, loopOrder, chart, scorer);
+        parseSentence(sent, grammar, loopOrder, chart, scorer, numThreads);
         return chart;    
      }
     
@@ -96,7 +115,92 @@ public class CkyPcfgParser {
      * @param chart The output chart.
      */
     public static final void parseSentence(final int[] sent, final CnfGrammar grammar, final LoopOrder loopOrder, final Chart chart, final Scorer scorer) {
-        // Apply lexical rules to each word.
+        applyLexicalRules(sent, grammar, chart, scorer);
+        
+        // For each cell in the chart. (width increasing)
+        for (int width = 1; width <= sent.length; width++) {
+            for (int start = 0; start <= sent.length - width; start++) {
+                processCell(sent, grammar, loopOrder, chart, scorer, start, start + width);
+            }
+        }
+    
+    }
+
+    /**
+     * Runs CKY and populates the chart, filling the cells of each width concurrently.
+     * 
+     * The cells of a given width only read the (closed) cells of smaller widths, so each width is
+     * split into chunks of cells which are processed on a shared fork-join pool, and all of them
+     * must finish before the next width is started. The scorer must be thread-safe. The cell types
+     * which break ties randomly are not supported, since they share a single random number
+     * generator.
+     * 
+     * @param sent The input sentence.
+     * @param grammar The input grammar.
+     * @param loopOrder The loop order to use when parsing.
+     * @param chart The output chart.
+     * @param numThreads The number of threads. If 1, this is equivalent to the serial parser.
+     */
+    public static final void parseSentence(final int[] sent, final CnfGrammar grammar, final LoopOrder loopOrder,
+            final Chart chart, final Scorer scorer, final int numThreads) {
+        if (numThreads <= 1) {
+            parseSentence(sent, grammar, loopOrder, chart, scorer);
+            return;
+        }
+        checkCellType(chart.getCellType(), numThreads);
+        applyLexicalRules(sent, grammar, chart, scorer);
+        
+        ForkJoinPool pool = Threads.getForkJoinPool(numThreads);
+        for (int width = 1; width <= sent.length; width++) {
+            final int w = width;
+            int numCells = sent.length - width + 1;
+            if (numCells == 1) {
+                // There is nothing to parallelize.
+                processCell(sent, grammar, loopOrder, chart, scorer, 0, width);
+                continue;
+            }
+            int numChunks = Math.min(numCells, numThreads * 2);
+            List<Callable<Object>> tasks = new ArrayList<>(numChunks);
+            for (int c=0; c<numChunks; c++) {
+                final int startBegin = numCells * c / numChunks;
+                final int startEnd = numCells * (c+1) / numChunks;
+                tasks.add(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        for (int start = startBegin; start < startEnd; start++) {
+                            processCell(sent, grammar, loopOrder, chart, scorer, start, start + w);
+                        }
+                        return null;
+                    }
+                });
+            }
+            // Wait for every cell of this width to be closed.
+            try {
+                for (Future<Object> f : pool.invokeAll(tasks)) {
+                    f.get();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Checks that the cells can be filled by the given number of threads. The cells which break
+     * ties call the static {@link edu.jhu.prim.util.random.Prng}, which is neither thread-safe nor
+     * reproducible when shared across threads.
+     */
+    private static void checkCellType(ChartCellType cellType, int numThreads) {
+        if (numThreads > 1 && (cellType == ChartCellType.FULL_BREAK_TIES || cellType == ChartCellType.SINGLE_HASH_BREAK_TIES)) {
+            throw new IllegalArgumentException("Cell type " + cellType + " breaks ties randomly, so it cannot be used with numThreads > 1");
+        }
+    }
+
+    /** Applies the lexical rules to each word. */
+    private static final void applyLexicalRules(final int[] sent, final CnfGrammar grammar, final Chart chart,
+            final Scorer scorer) {
         for (int i = 0; i <= sent.length - 1; i++) {
             ChartCell cell = chart.getCell(i, i+1);
             for (final Rule r : grammar.getLexicalRulesWithChild(sent[i])) {
@@ -104,33 +208,38 @@ public class CkyPcfgParser {
                 cell.updateCell(r.getParent(), score, i+1, r);
             }
         }
+    }
+
+    /** Processes a cell (binary and unary rules) and closes it. */
+    private static final void processCell(final int[] sent, final CnfGrammar grammar, final LoopOrder loopOrder,
+            final Chart chart, final Scorer scorer, final int start, final int end) {
+        ChartCell cell = chart.getCell(start, end);
         
-        // For each cell in the chart. (width increasing)
-        for (int width = 1; width <= sent.length; width++) {
-            for (int start = 0; start <= sent.length - width; start++) {
-                int end = start + width;
-                ChartCell cell = chart.getCell(start, end);
-                
-                // Apply binary rules.
-                if (loopOrder == LoopOrder.CARTESIAN_PRODUCT) {
-                    processCellCartesianProduct(grammar, chart, start, end, cell, scorer);
-                } else if (loopOrder == LoopOrder.LEFT_CHILD) {
-                    processCellLeftChild(grammar, chart, start, end, cell, scorer);
-                } else if (loopOrder == LoopOrder.RIGHT_CHILD) {
-                    processCellRightChild(grammar, chart, start, end, cell, scorer);
-                } else {
-                    throw new RuntimeException("Not implemented: " + loopOrder);
-                }
-                
-                processCellUnaryRules(grammar, start, end, cell, scorer);
-                if (width == sent.length) {
-                    processCellUnaryRules(grammar, start, end, cell, scorer);
-                }
-                
-                cell.close();
+        // Apply binary rules.
+        if (loopOrder == LoopOrder.CARTESIAN_PRODUCT) {
+            processCellCartesianProduct(grammar, chart, start, end, cell, scorer);
+        } else if (loopOrder == LoopOrder.LEFT_CHILD) {
+            if (scorer instanceof RuleScorer) {
+                processCellLeftChildCompiled(grammar.getCompiledBinaryRulesWithLeftChild(), chart, start, end, cell);
+            } else {
+                processCellLeftChild(grammar, chart, start, end, cell, scorer);
             }
+        } else if (loopOrder == LoopOrder.RIGHT_CHILD) {
+            if (scorer instanceof RuleScorer) {
+                processCellRightChildCompiled(grammar.getCompiledBinaryRulesWithRightChild(), chart, start, end, cell);
+            } else {
+                processCellRightChild(grammar, chart, start, end, cell, scorer);
+            }
+        } else {
+            throw new RuntimeException("Not implemented: " + loopOrder);
         }
-    
+        
+        processCellUnaryRules(grammar, start, end, cell, scorer);
+        if (end - start == sent.length) {
+            processCellUnaryRules(grammar, start, end, cell, scorer);
+        }
+        
+        cell.close();
     }
 
     /** Process a cell, unary rules only. */
@@ -207,6 +316,70 @@ public class CkyPcfgParser {
         }
     }
 
+    /**
+     * Same as {@link #processCellLeftChild(CnfGrammar, Chart, int, int, ChartCell, Scorer)}, but for
+     * the static rule scores of a {@link RuleScorer}, which are read from the compiled grammar.
+     */
+    private static final void processCellLeftChildCompiled(final CompiledBinaryRules rules, final Chart chart,
+            final int start, final int end, final ChartCell cell) {
+        final int[] offsets = rules.getOffsets();
+        final int[] parents = rules.getParents();
+        final int[] rightChildren = rules.getOtherChildren();
+        final double[] scores = rules.getScores();
+        final Rule[] rs = rules.getRules();
+        // Apply binary rules.
+        for (int mid = start + 1; mid <= end - 1; mid++) {
+            ChartCell leftCell = chart.getCell(start, mid);
+            ChartCell rightCell = chart.getCell(mid, end);
+            
+            // Loop through each left child non-terminal.
+            for (final int leftChildNt : leftCell.getNts()) {
+                double leftScoreForNt = leftCell.getScore(leftChildNt);
+                // Loop through all rules with that left child.
+                for (int k = offsets[leftChildNt]; k < offsets[leftChildNt + 1]; k++) {
+                    // Check whether the right child of that rule is in the right child cell.
+                    double rightScoreForNt = rightCell.getScore(rightChildren[k]);
+                    if (rightScoreForNt > Double.NEGATIVE_INFINITY) {
+                        double score = scores[k] + leftScoreForNt + rightScoreForNt;
+                        cell.updateCell(parents[k], score, mid, rs[k]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #processCellRightChild(CnfGrammar, Chart, int, int, ChartCell, Scorer)}, but for
+     * the static rule scores of a {@link RuleScorer}, which are read from the compiled grammar.
+     */
+    private static final void processCellRightChildCompiled(final CompiledBinaryRules rules, final Chart chart,
+            final int start, final int end, final ChartCell cell) {
+        final int[] offsets = rules.getOffsets();
+        final int[] parents = rules.getParents();
+        final int[] leftChildren = rules.getOtherChildren();
+        final double[] scores = rules.getScores();
+        final Rule[] rs = rules.getRules();
+        // Apply binary rules.
+        for (int mid = start + 1; mid <= end - 1; mid++) {
+            ChartCell leftCell = chart.getCell(start, mid);
+            ChartCell rightCell = chart.getCell(mid, end);
+            
+            // Loop through each right child non-terminal.
+            for (final int rightChildNt : rightCell.getNts()) {
+                double rightScoreForNt = rightCell.getScore(rightChildNt);
+                // Loop through all rules with that right child.
+                for (int k = offsets[rightChildNt]; k < offsets[rightChildNt + 1]; k++) {
+                    // Check whether the left child of that rule is in the left child cell.
+                    double leftScoreForNt = leftCell.getScore(leftChildren[k]);
+                    if (leftScoreForNt > Double.NEGATIVE_INFINITY) {
+                        double score = scores[k] + leftScoreForNt + rightScoreForNt;
+                        cell.updateCell(parents[k], score, mid, rs[k]);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Process a cell (binary rules only) using the left-child to constrain the set of rules we consider.
      * 
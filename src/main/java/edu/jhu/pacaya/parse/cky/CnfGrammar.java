@@ -2,6 +2,7 @@ package edu.jhu.pacaya.parse.cky;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -22,6 +23,9 @@ public class CnfGrammar {
     
     private int rootSymbol;
     private ArrayList<Rule> allRules;
+    // The index of each rule in allRules. Kept here rather than in the rule, since a rule may be
+    // shared by several grammars.
+    private IdentityHashMap<Rule, Integer> ruleIds;
 
     private ArrayList<Rule>[] lexRulesForChild;
     private ArrayList<Rule>[] unaryRulesForChild;
@@ -31,6 +35,10 @@ public class CnfGrammar {
     private Rule[][][] brfc;
     private Rule[][] brwlc;
     private Rule[][] brwrc;
+    // Compiled forms of brwlc and brwrc, and whether a rule score has changed since they were compiled.
+    private volatile CompiledBinaryRules cbrwlc;
+    private volatile CompiledBinaryRules cbrwrc;
+    private volatile boolean dirty = false;
     
     private IntObjectBimap<String> lexAlphabet;
     private IntObjectBimap<String> ntAlphabet;
@@ -58,6 +66,10 @@ public class CnfGrammar {
 
         int numLexicalRules = 0;
         int numUnaryRules = 0;
+        ruleIds = new IdentityHashMap<Rule, Integer>(allRules.size());
+        for (int i=0; i<allRules.size(); i++) {
+            ruleIds.put(allRules.get(i), i);
+        }
         for (Rule r : allRules) {
             if (r.isLexical()) {
                 lexRulesForChild[r.getLeftChild()].add(r);
@@ -106,6 +118,43 @@ public class CnfGrammar {
             }
             brwrc = getAsArrays(binaryRulesWithRightChild);
         }
+        compile();
+    }
+
+    /**
+     * Compiles the binary rules for the loop order into a structure-of-arrays form. This must be
+     * called after changing the score of a rule with {@link Rule#setScore(double)}. Scores changed
+     * with {@link #setScore(Rule, double)} are recompiled automatically on next use.
+     */
+    public synchronized void compile() {
+        // Clear the flag first, so that a concurrent score change triggers another compilation.
+        dirty = false;
+        if (brwlc != null) {
+            cbrwlc = new CompiledBinaryRules(brwlc, true);
+        }
+        if (brwrc != null) {
+            cbrwrc = new CompiledBinaryRules(brwrc, false);
+        }
+    }
+
+    /**
+     * Sets the score of a rule in this grammar. The compiled binary rules are rebuilt the next time
+     * they are requested.
+     */
+    public void setScore(Rule r, double score) {
+        r.setScore(score);
+        dirty = true;
+    }
+
+    /** Recompiles the binary rules if a score was changed by {@link #setScore(Rule, double)}. */
+    private void ensureCompiled() {
+        if (dirty) {
+            synchronized (this) {
+                if (dirty) {
+                    compile();
+                }
+            }
+        }
     }
     
     private static Rule[][] getAsArrays(ArrayList<Rule>[] a) {
@@ -157,6 +206,18 @@ public class CnfGrammar {
         return brwrc[rightChildNt];
     }
     
+    /** Gets the compiled binary rules grouped by left child, or null if the loop order is not LEFT_CHILD. */
+    public final CompiledBinaryRules getCompiledBinaryRulesWithLeftChild() {
+        ensureCompiled();
+        return cbrwlc;
+    }
+
+    /** Gets the compiled binary rules grouped by right child, or null if the loop order is not RIGHT_CHILD. */
+    public final CompiledBinaryRules getCompiledBinaryRulesWithRightChild() {
+        ensureCompiled();
+        return cbrwrc;
+    }
+
     public IntObjectBimap<String> getLexAlphabet() {
         return lexAlphabet;
     }
@@ -188,6 +249,21 @@ public class CnfGrammar {
         return sb.toString();
     }
 
+    /** Gets the rule with the given id, which is its index in the list of all rules. */
+    public Rule getRule(int id) {
+        return allRules.get(id);
+    }
+
+    /** Gets the id of a rule (see {@link #getRule(int)}), or -1 if it is not in this grammar. */
+    public int getRuleId(Rule r) {
+        Integer id = ruleIds.get(r);
+        return (id == null) ? -1 : id;
+    }
+
+    public List<Rule> getAllRules() {
+        return Collections.unmodifiableList(allRules);
+    }
+
     public int getRootSymbol() {
         return rootSymbol;
     }
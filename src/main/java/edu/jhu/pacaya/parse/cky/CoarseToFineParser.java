@@ -0,0 +1,298 @@
+package edu.jhu.pacaya.parse.cky;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.jhu.pacaya.nlp.data.Sentence;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser.CkyPcfgParserPrm;
+import edu.jhu.pacaya.parse.cky.PcfgInsideOutside.PcfgInsideOutsidePrm;
+import edu.jhu.pacaya.parse.cky.PcfgInsideOutside.PcfgIoChart;
+import edu.jhu.pacaya.parse.cky.chart.Chart;
+import edu.jhu.pacaya.parse.cky.chart.Chart.ChartCellType;
+import edu.jhu.pacaya.parse.cky.chart.ConstrainedChartCell.ChartCellConstraint;
+import edu.jhu.prim.bimap.IntObjectBimap;
+import edu.jhu.prim.tuple.Triple;
+
+/**
+ * Coarse-to-fine CKY parser (Charniak et al., 2006; Petrov and Klein, 2007).
+ *
+ * Each sentence is first parsed with inside-outside under a coarse grammar, whose nonterminals are
+ * a projection of those of the fine grammar. Every (start, end, coarse nonterminal) item whose
+ * posterior falls below a threshold is pruned, and the fine grammar is then parsed with Viterbi
+ * CKY, where only the fine nonterminals whose projection survived may enter each cell.
+ *
+ * The two grammars must share the same lexical alphabet. Like {@link CkyPcfgParser}, an instance
+ * caches its charts and so must not be shared across threads.
+ *
+ * @author mgormley
+ */
+public class CoarseToFineParser {
+
+    private static final Logger log = LoggerFactory.getLogger(CoarseToFineParser.class);
+
+    public static class CoarseToFineParserPrm {
+        /** Parameters for the coarse pass. */
+        public PcfgInsideOutsidePrm coarsePrm = new PcfgInsideOutsidePrm();
+        /**
+         * Parameters for the fine pass. The cell type is replaced by the equivalent constrained cell
+         * type (FULL becomes CONSTRAINED_FULL, and SINGLE_HASH becomes CONSTRAINED_SINGLE). The
+         * constrained cells do not break ties, so FULL_BREAK_TIES and SINGLE_HASH_BREAK_TIES are
+         * rejected. The parse type must be VITERBI.
+         */
+        public CkyPcfgParserPrm finePrm = new CkyPcfgParserPrm();
+        /** Items whose coarse log posterior is below this threshold are pruned. */
+        public double logPosteriorThreshold = Math.log(1e-5);
+        /** Whether to reparse without pruning when the pruned fine pass finds no parse. */
+        public boolean fallbackToExhaustive = true;
+    }
+
+    /** Constraint which only admits the fine nonterminals whose coarse projection was not pruned. */
+    private static class PruningConstraint implements ChartCellConstraint {
+
+        private final int[] fineToCoarse;
+        /** Indexed by start, end, and coarse nonterminal. If null, nothing is pruned. */
+        private boolean[][][] keep;
+
+        public PruningConstraint(int[] fineToCoarse) {
+            this.fineToCoarse = fineToCoarse;
+        }
+
+        @Override
+        public void setSentence(Sentence sentence) {
+            // No-op: the mask is set before each fine pass.
+        }
+
+        @Override
+        public boolean shouldUpdateCell(int start, int end, int mid, Rule r, double score) {
+            return keep == null || keep[start][end][fineToCoarse[r.getParent()]];
+        }
+
+    }
+
+    private final CnfGrammar coarseGrammar;
+    private final CnfGrammar fineGrammar;
+    private final int[] fineToCoarse;
+    private final double logPosteriorThreshold;
+    private final boolean fallbackToExhaustive;
+    private final PcfgInsideOutside coarseParser;
+    private final CkyPcfgParser fineParser;
+    private final PruningConstraint constraint;
+    private boolean[][][] keep;
+
+    // Pruning statistics, accumulated over all the sentences parsed.
+    private long numSentences = 0;
+    private long numCoarseItems = 0;
+    private long numPrunedItems = 0;
+    private long numFallbacks = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param prm The parameters.
+     * @param coarseGrammar The coarse grammar.
+     * @param fineGrammar The fine grammar.
+     * @param fineToCoarse The projection, mapping each fine nonterminal to a coarse nonterminal.
+     */
+    public CoarseToFineParser(CoarseToFineParserPrm prm, CnfGrammar coarseGrammar, CnfGrammar fineGrammar,
+            int[] fineToCoarse) {
+        if (coarseGrammar.getLexAlphabet() != fineGrammar.getLexAlphabet()) {
+            throw new IllegalArgumentException("Lexical alphabets for the coarse and fine grammars must be the same.");
+        }
+        if (fineToCoarse.length != fineGrammar.getNumNonTerminals()) {
+            throw new IllegalArgumentException("Projection must have an entry for each fine nonterminal.");
+        }
+        if (prm.finePrm.parseType != Chart.ParseType.VITERBI) {
+            throw new IllegalArgumentException("Fine pass only supports Viterbi parsing: " + prm.finePrm.parseType);
+        }
+        this.coarseGrammar = coarseGrammar;
+        this.fineGrammar = fineGrammar;
+        this.fineToCoarse = fineToCoarse;
+        this.logPosteriorThreshold = prm.logPosteriorThreshold;
+        this.fallbackToExhaustive = prm.fallbackToExhaustive;
+        this.constraint = new PruningConstraint(fineToCoarse);
+        this.coarseParser = new PcfgInsideOutside(prm.coarsePrm);
+
+        CkyPcfgParserPrm finePrm = new CkyPcfgParserPrm();
+        finePrm.cacheChart = prm.finePrm.cacheChart;
+        finePrm.loopOrder = prm.finePrm.loopOrder;
+        finePrm.cellType = getConstrainedCellType(prm.finePrm.cellType);
+        finePrm.parseType = prm.finePrm.parseType;
+        finePrm.constraint = constraint;
+        finePrm.scorer = prm.finePrm.scorer;
+        finePrm.numThreads = prm.finePrm.numThreads;
+        this.fineParser = new CkyPcfgParser(finePrm);
+    }
+
+    /**
+     * Gets the constrained cell type equivalent to the given one. The constrained cells do not
+     * break ties, so the tie-breaking cell types are rejected rather than silently dropping it.
+     */
+    private static ChartCellType getConstrainedCellType(ChartCellType cellType) {
+        switch (cellType) {
+        case FULL:
+        case CONSTRAINED_FULL:
+            return ChartCellType.CONSTRAINED_FULL;
+        case SINGLE_HASH:
+        case CONSTRAINED_SINGLE:
+            return ChartCellType.CONSTRAINED_SINGLE;
+        case FULL_BREAK_TIES:
+        case SINGLE_HASH_BREAK_TIES:
+            throw new IllegalArgumentException("Cell type " + cellType + " breaks ties randomly, but the constrained cells of the fine pass do not");
+        default:
+            throw new IllegalArgumentException("No constrained cell type for: " + cellType);
+        }
+    }
+
+    /** Parses the sentence with the fine grammar, after pruning with the coarse grammar. */
+    public Chart parseSentence(Sentence sentence) {
+        int n = sentence.size();
+        PcfgIoChart coarseChart = coarseParser.runInsideOutside(sentence, coarseGrammar);
+        if (coarseChart.getLogPartitionFunction() == Double.NEGATIVE_INFINITY) {
+            // The coarse grammar has no parse, so there is nothing to prune against.
+            log.debug("No coarse parse for sentence of length {}", n);
+            constraint.keep = null;
+        } else {
+            constraint.keep = getPruningMask(coarseChart, n);
+        }
+        numSentences++;
+        Chart chart = fineParser.parseSentence(sentence, fineGrammar);
+        if (fallbackToExhaustive && constraint.keep != null
+                && chart.getCell(0, n).getScore(fineGrammar.getRootSymbol()) == Double.NEGATIVE_INFINITY) {
+            log.debug("Pruned fine pass found no parse. Reparsing without pruning.");
+            numFallbacks++;
+            constraint.keep = null;
+            chart = fineParser.parseSentence(sentence, fineGrammar);
+        }
+        return chart;
+    }
+
+    private boolean[][][] getPruningMask(PcfgIoChart coarseChart, int n) {
+        int numCoarseNts = coarseGrammar.getNumNonTerminals();
+        if (keep == null || keep.length < n || keep[0][0].length != numCoarseNts) {
+            keep = new boolean[n][n+1][numCoarseNts];
+        }
+        int numItems = 0;
+        int numPruned = 0;
+        for (int start = 0; start < n; start++) {
+            for (int end = start + 1; end <= n; end++) {
+                boolean[] cellKeep = keep[start][end];
+                for (int nt = 0; nt < numCoarseNts; nt++) {
+                    double logInside = coarseChart.getLogInsideScore(nt, start, end);
+                    if (logInside == Double.NEGATIVE_INFINITY) {
+                        cellKeep[nt] = false;
+                        continue;
+                    }
+                    numItems++;
+                    cellKeep[nt] = coarseChart.getLogExpectedCount(nt, start, end) >= logPosteriorThreshold;
+                    if (!cellKeep[nt]) {
+                        numPruned++;
+                    }
+                }
+            }
+        }
+        numCoarseItems += numItems;
+        numPrunedItems += numPruned;
+        log.trace("Pruned {} of {} coarse items", numPruned, numItems);
+        return keep;
+    }
+
+    /** Gets the number of sentences parsed. */
+    public long getNumSentences() {
+        return numSentences;
+    }
+
+    /** Gets the number of coarse items with a nonzero inside score, summed over all sentences. */
+    public long getNumCoarseItems() {
+        return numCoarseItems;
+    }
+
+    /** Gets the number of coarse items pruned, summed over all sentences. */
+    public long getNumPrunedItems() {
+        return numPrunedItems;
+    }
+
+    /** Gets the number of sentences which were reparsed without pruning. */
+    public long getNumFallbacks() {
+        return numFallbacks;
+    }
+
+    /** Logs the pruning statistics. */
+    public void logPruningStats() {
+        log.info(String.format("Coarse-to-fine: sentences=%d coarse items=%d pruned=%d (%.2f%%) fallbacks=%d",
+                numSentences, numCoarseItems, numPrunedItems,
+                100.0 * numPrunedItems / Math.max(1, numCoarseItems), numFallbacks));
+    }
+
+    /* --------------------- Projection -------------------- */
+
+    /**
+     * Gets the coarse label of a fine label by removing everything from the last occurrence of the
+     * separator, e.g. NP_3 becomes NP for the separator '_'. A label which does not contain the
+     * separator is its own coarse label.
+     */
+    public static String getCoarseLabel(String fineLabel, char separator) {
+        int idx = fineLabel.lastIndexOf(separator);
+        return (idx > 0) ? fineLabel.substring(0, idx) : fineLabel;
+    }
+
+    /**
+     * Gets the projection from the fine nonterminals to the coarse ones, by their labels.
+     *
+     * @throws IllegalArgumentException If the coarse label of a fine nonterminal is not in the
+     *             coarse grammar.
+     */
+    public static int[] getProjection(CnfGrammar fineGrammar, CnfGrammar coarseGrammar, char separator) {
+        IntObjectBimap<String> fineNts = fineGrammar.getNtAlphabet();
+        IntObjectBimap<String> coarseNts = coarseGrammar.getNtAlphabet();
+        int[] fineToCoarse = new int[fineGrammar.getNumNonTerminals()];
+        for (int nt = 0; nt < fineToCoarse.length; nt++) {
+            String coarseLabel = getCoarseLabel(fineNts.lookupObject(nt), separator);
+            fineToCoarse[nt] = coarseNts.lookupIndex(coarseLabel, false);
+            if (fineToCoarse[nt] < 0) {
+                throw new IllegalArgumentException("Coarse grammar is missing nonterminal: " + coarseLabel);
+            }
+        }
+        return fineToCoarse;
+    }
+
+    /**
+     * Projects a fine grammar onto the coarse labels of its nonterminals (see
+     * {@link #getCoarseLabel(String, char)}). The score of each coarse rule is the max over the
+     * scores of the fine rules that project onto it. This is a crude but cheap projection, which
+     * does not require expected counts from a treebank.
+     */
+    public static CnfGrammar projectGrammar(CnfGrammar fineGrammar, char separator) {
+        IntObjectBimap<String> fineNts = fineGrammar.getNtAlphabet();
+        IntObjectBimap<String> coarseNts = new IntObjectBimap<String>();
+        int[] fineToCoarse = new int[fineGrammar.getNumNonTerminals()];
+        for (int nt = 0; nt < fineToCoarse.length; nt++) {
+            fineToCoarse[nt] = coarseNts.lookupIndex(getCoarseLabel(fineNts.lookupObject(nt), separator));
+        }
+        coarseNts.stopGrowth();
+        IntObjectBimap<String> lexAlphabet = fineGrammar.getLexAlphabet();
+
+        Map<Triple<Integer,Integer,Integer>,Rule> coarseRules = new HashMap<>();
+        ArrayList<Rule> allRules = new ArrayList<Rule>();
+        for (Rule r : fineGrammar.getAllRules()) {
+            int parent = fineToCoarse[r.getParent()];
+            int leftChild = r.isLexical() ? r.getLeftChild() : fineToCoarse[r.getLeftChild()];
+            int rightChild = r.isBinary() ? fineToCoarse[r.getRightChild()] : r.getRightChild();
+            Triple<Integer,Integer,Integer> key = new Triple<>(parent, leftChild, rightChild);
+            Rule cr = coarseRules.get(key);
+            if (cr == null) {
+                cr = new Rule(parent, leftChild, rightChild, r.getScore(), coarseNts, lexAlphabet);
+                coarseRules.put(key, cr);
+                allRules.add(cr);
+            } else if (r.getScore() > cr.getScore()) {
+                cr.setScore(r.getScore());
+            }
+        }
+        return new CnfGrammar(allRules, fineToCoarse[fineGrammar.getRootSymbol()], lexAlphabet, coarseNts,
+                fineGrammar.getLoopOrder());
+    }
+
+}
@@ -0,0 +1,74 @@
+package edu.jhu.pacaya.parse.cky;
+
+/**
+ * Binary rules grouped by one child, in a structure-of-arrays layout. The rules whose grouping
+ * child is c are at the indices offsets[c] (inclusive) to offsets[c+1] (exclusive) of the parallel
+ * arrays of parents, other children, and scores. The inner loop of CKY can then scan contiguous
+ * primitive arrays instead of dereferencing a {@link Rule} for each candidate.
+ * 
+ * The scores are a snapshot of the rule scores at the time of compilation.
+ * 
+ * @author mgormley
+ */
+public final class CompiledBinaryRules {
+
+    private final int[] offsets;
+    private final int[] parents;
+    private final int[] otherChildren;
+    private final double[] scores;
+    private final Rule[] rules;
+
+    /**
+     * Compiles the rules.
+     * 
+     * @param rulesByChild The binary rules, indexed by the grouping child (e.g. the left child).
+     * @param byLeftChild Whether the rules are grouped by their left child (true) or right child
+     *            (false).
+     */
+    public CompiledBinaryRules(Rule[][] rulesByChild, boolean byLeftChild) {
+        int numRules = 0;
+        for (Rule[] rs : rulesByChild) {
+            numRules += rs.length;
+        }
+        offsets = new int[rulesByChild.length + 1];
+        parents = new int[numRules];
+        otherChildren = new int[numRules];
+        scores = new double[numRules];
+        rules = new Rule[numRules];
+        int k = 0;
+        for (int c = 0; c < rulesByChild.length; c++) {
+            offsets[c] = k;
+            for (Rule r : rulesByChild[c]) {
+                parents[k] = r.getParent();
+                otherChildren[k] = byLeftChild ? r.getRightChild() : r.getLeftChild();
+                scores[k] = r.getScore();
+                rules[k] = r;
+                k++;
+            }
+        }
+        offsets[rulesByChild.length] = k;
+    }
+
+    /** Gets the start (inclusive) of the rules for each child, with a final entry for the end. */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    public int[] getParents() {
+        return parents;
+    }
+
+    /** Gets the child by which the rules are not grouped. */
+    public int[] getOtherChildren() {
+        return otherChildren;
+    }
+
+    public double[] getScores() {
+        return scores;
+    }
+
+    public Rule[] getRules() {
+        return rules;
+    }
+
+}
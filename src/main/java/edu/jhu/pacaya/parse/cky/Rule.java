@@ -103,6 +103,11 @@ public class Rule {
                 + ", rightChild=" + getRightChildStr() + ", score=" + score + "]";
     }
 
+    /**
+     * Sets the score. If this rule is already in a grammar, use
+     * {@link CnfGrammar#setScore(Rule, double)} instead, or call {@link CnfGrammar#compile()}
+     * afterwards, so that the parser's fast path for {@link RuleScorer} sees the change.
+     */
     public void setScore(double score) {
         this.score = score;
     }
@@ -1,5 +1,10 @@
 package edu.jhu.pacaya.parse.cky;
 
+/**
+ * Scorer which uses the static score of each rule. The parser recognizes this scorer and reads the
+ * scores of the binary rules directly from the grammar's compiled form (see
+ * {@link CompiledBinaryRules}), without calling {@link #score(Rule, int, int, int)}.
+ */
 public class RuleScorer implements Scorer {
 
     @Override
@@ -0,0 +1,87 @@
+package edu.jhu.pacaya.parse.cky;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import edu.jhu.pacaya.nlp.data.Sentence;
+import edu.jhu.pacaya.util.Threads;
+import edu.jhu.prim.util.Lambda.FnO1ToVoid;
+
+/**
+ * Runs a task on each of a stream of sentences across a number of threads, and returns the
+ * results in input order.
+ * 
+ * Each task borrows a worker (e.g. a parser with a cached chart) from a pool of idle workers, and
+ * returns it when done. Since at most numThreads tasks run at once, at most numThreads workers are
+ * ever created, and they are reused across calls to {@link #runAll(Iterator, Task)}.
+ * 
+ * @author mgormley
+ * @param <W> The type of the worker.
+ */
+abstract class SentenceBatchRunner<W> {
+
+    /** A task to run on a single sentence. */
+    public interface Task<W, T> {
+        T call(W worker, Sentence sentence);
+    }
+
+    private final int numThreads;
+    private final ConcurrentLinkedQueue<W> idle = new ConcurrentLinkedQueue<W>();
+
+    public SentenceBatchRunner(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /** Creates a new worker. */
+    protected abstract W newWorker();
+
+    /** Runs the task on each sentence, and gets the results in input order. */
+    public <T> List<T> runAll(final Iterator<Sentence> sentences, final Task<W, T> task) {
+        final List<T> results = new ArrayList<>();
+        if (numThreads == 1) {
+            while (sentences.hasNext()) {
+                results.add(runOne(task, sentences.next()));
+            }
+            return results;
+        }
+        Threads.forEachOrdered(Threads.getForkJoinPool(numThreads), Threads.QUEUED_TASKS_PER_THREAD * numThreads,
+                new Iterator<Callable<T>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return sentences.hasNext();
+                    }
+                    @Override
+                    public Callable<T> next() {
+                        final Sentence sentence = sentences.next();
+                        return new Callable<T>() {
+                            @Override
+                            public T call() {
+                                return runOne(task, sentence);
+                            }
+                        };
+                    }
+                }, new FnO1ToVoid<T>() {
+                    @Override
+                    public void call(T result) {
+                        results.add(result);
+                    }
+                });
+        return results;
+    }
+
+    private <T> T runOne(Task<W, T> task, Sentence sentence) {
+        W worker = idle.poll();
+        if (worker == null) {
+            worker = newWorker();
+        }
+        try {
+            return task.call(worker, sentence);
+        } finally {
+            idle.add(worker);
+        }
+    }
+
+}
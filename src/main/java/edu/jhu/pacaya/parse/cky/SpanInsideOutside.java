@@ -0,0 +1,205 @@
+package edu.jhu.pacaya.parse.cky;
+
+import edu.jhu.pacaya.util.semiring.Algebra;
+
+/**
+ * Inside-outside algorithm for the bracketing grammar with a single nonterminal (X --> X X and
+ * X --> a), where each span has a weight that is applied once if the span is a constituent. This
+ * runs in O(n^3) time over flat span charts indexed by [start][end], without the grammar loops,
+ * chart cells or back pointers of {@link PcfgInsideOutside}.
+ *
+ * The computation is done in an arbitrary {@link Algebra}, and includes a backward pass which
+ * computes the adjoints of the span weights given the adjoints of the inside and outside scores.
+ *
+ * An instance reuses its charts across calls, growing them as needed, and so is not thread-safe.
+ *
+ * @author mgormley
+ */
+public class SpanInsideOutside {
+
+    private static final ThreadLocal<SpanInsideOutside> ios = new ThreadLocal<SpanInsideOutside>() {
+        @Override
+        protected SpanInsideOutside initialValue() {
+            return new SpanInsideOutside();
+        }
+    };
+
+    // The charts, each indexed by [start][end].
+    private double[][] weights = new double[0][0];
+    private double[][] inside = new double[0][0];
+    private double[][] outside = new double[0][0];
+    private double[][] weightsAdj = new double[0][0];
+    private double[][] insideAdj = new double[0][0];
+    private double[][] outsideAdj = new double[0][0];
+    private int n;
+    private Algebra s;
+
+    public SpanInsideOutside() { }
+
+    /** Gets the instance for the current thread. */
+    public static SpanInsideOutside getThreadLocal() {
+        return ios.get();
+    }
+
+    /**
+     * Gets the span weight chart, grown to hold a sentence of length n. The weight of the span from
+     * start to end should be set at [start][end]. The contents are undefined.
+     */
+    public double[][] getWeights(int n) {
+        ensureCapacity(n);
+        return weights;
+    }
+
+    /**
+     * Runs the inside and outside algorithms on the span weights of a sentence of length n, which
+     * must have been set in the chart returned by {@link #getWeights(int)}.
+     *
+     * @param n The length of the sentence.
+     * @param s The algebra of the weights.
+     * @return The partition function, i.e. the inside score of the span [0, n].
+     */
+    public double insideOutside(int n, Algebra s) {
+        ensureCapacity(n);
+        this.n = n;
+        this.s = s;
+        // Inside pass.
+        for (int width = 1; width <= n; width++) {
+            for (int start = 0; start <= n - width; start++) {
+                int end = start + width;
+                double sum = (width == 1) ? s.one() : s.zero();
+                for (int mid = start + 1; mid < end; mid++) {
+                    sum = s.plus(sum, s.times(inside[start][mid], inside[mid][end]));
+                }
+                inside[start][end] = s.times(weights[start][end], sum);
+                outside[start][end] = s.zero();
+            }
+        }
+        // Outside pass.
+        outside[0][n] = s.one();
+        for (int width = n; width >= 2; width--) {
+            for (int start = 0; start <= n - width; start++) {
+                int end = start + width;
+                double out = s.times(outside[start][end], weights[start][end]);
+                if (out == s.zero()) {
+                    continue;
+                }
+                for (int mid = start + 1; mid < end; mid++) {
+                    outside[start][mid] = s.plus(outside[start][mid], s.times(out, inside[mid][end]));
+                    outside[mid][end] = s.plus(outside[mid][end], s.times(out, inside[start][mid]));
+                }
+            }
+        }
+        return inside[0][n];
+    }
+
+    /**
+     * Gets the sum of the weights of all trees which contain the span from start to end, i.e. the
+     * product of its inside and outside scores.
+     */
+    public double getMarginal(int start, int end) {
+        return s.times(inside[start][end], outside[start][end]);
+    }
+
+    /** Gets the partition function from the last call to {@link #insideOutside(int, Algebra)}. */
+    public double getPartition() {
+        return inside[0][n];
+    }
+
+    public double[][] getInside() {
+        return inside;
+    }
+
+    public double[][] getOutside() {
+        return outside;
+    }
+
+    /** Sets the adjoints of the span weights and of the inside and outside scores to zero. */
+    public void zeroAdj() {
+        for (int start = 0; start < n; start++) {
+            for (int end = start + 1; end <= n; end++) {
+                insideAdj[start][end] = s.zero();
+                outsideAdj[start][end] = s.zero();
+                weightsAdj[start][end] = s.zero();
+            }
+        }
+    }
+
+    /** Gets the chart of the adjoints of the inside scores, to be added to before {@link #backward()}. */
+    public double[][] getInsideAdj() {
+        return insideAdj;
+    }
+
+    /** Gets the chart of the adjoints of the outside scores, to be added to before {@link #backward()}. */
+    public double[][] getOutsideAdj() {
+        return outsideAdj;
+    }
+
+    /** Gets the chart of the adjoints of the span weights, as computed by {@link #backward()}. */
+    public double[][] getWeightsAdj() {
+        return weightsAdj;
+    }
+
+    /**
+     * Computes the adjoints of the span weights by a backward pass through the outside and then the
+     * inside algorithm, given the adjoints of the inside and outside scores. The algebra is that of
+     * the last call to {@link #insideOutside(int, Algebra)}.
+     */
+    public void backward() {
+        // Backward through the outside pass, from the narrowest spans to the widest.
+        for (int width = 2; width <= n; width++) {
+            for (int start = 0; start <= n - width; start++) {
+                int end = start + width;
+                // out = outside[start][end] * weights[start][end].
+                double out = s.times(outside[start][end], weights[start][end]);
+                double outAdj = s.zero();
+                for (int mid = start + 1; mid < end; mid++) {
+                    outAdj = s.plus(outAdj, s.times(outsideAdj[start][mid], inside[mid][end]));
+                    outAdj = s.plus(outAdj, s.times(outsideAdj[mid][end], inside[start][mid]));
+                    if (out != s.zero()) {
+                        insideAdj[mid][end] = s.plus(insideAdj[mid][end], s.times(outsideAdj[start][mid], out));
+                        insideAdj[start][mid] = s.plus(insideAdj[start][mid], s.times(outsideAdj[mid][end], out));
+                    }
+                }
+                if (outAdj != s.zero()) {
+                    outsideAdj[start][end] = s.plus(outsideAdj[start][end], s.times(outAdj, weights[start][end]));
+                    weightsAdj[start][end] = s.plus(weightsAdj[start][end], s.times(outAdj, outside[start][end]));
+                }
+            }
+        }
+        // Backward through the inside pass, from the widest spans to the narrowest.
+        for (int width = n; width >= 1; width--) {
+            for (int start = 0; start <= n - width; start++) {
+                int end = start + width;
+                double inAdj = insideAdj[start][end];
+                if (inAdj == s.zero()) {
+                    continue;
+                }
+                if (width == 1) {
+                    weightsAdj[start][end] = s.plus(weightsAdj[start][end], inAdj);
+                    continue;
+                }
+                // inside[start][end] = weights[start][end] * sum.
+                double sumAdj = s.times(inAdj, weights[start][end]);
+                double sum = s.zero();
+                for (int mid = start + 1; mid < end; mid++) {
+                    sum = s.plus(sum, s.times(inside[start][mid], inside[mid][end]));
+                    insideAdj[start][mid] = s.plus(insideAdj[start][mid], s.times(sumAdj, inside[mid][end]));
+                    insideAdj[mid][end] = s.plus(insideAdj[mid][end], s.times(sumAdj, inside[start][mid]));
+                }
+                weightsAdj[start][end] = s.plus(weightsAdj[start][end], s.times(inAdj, sum));
+            }
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (weights.length < n) {
+            weights = new double[n][n+1];
+            inside = new double[n][n+1];
+            outside = new double[n][n+1];
+            weightsAdj = new double[n][n+1];
+            insideAdj = new double[n][n+1];
+            outsideAdj = new double[n][n+1];
+        }
+    }
+
+}
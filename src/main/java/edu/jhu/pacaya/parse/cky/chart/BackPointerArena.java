@@ -0,0 +1,67 @@
+package edu.jhu.pacaya.parse.cky.chart;
+
+import java.util.Arrays;
+
+/**
+ * Backpointers for every cell of a chart, stored in two parallel primitive arrays: the id of the
+ * rule (see {@link edu.jhu.pacaya.parse.cky.CnfGrammar#getRule(int)}) and the midpoint. Each cell
+ * owns a contiguous block of numNts entries, so updating a backpointer never allocates.
+ * 
+ * @author mgormley
+ */
+public class BackPointerArena {
+
+    /** Indicates that a nonterminal is not in the cell. */
+    public static final int ABSENT = -1;
+    /** Indicates that a nonterminal is in the cell, but has no backpointer (e.g. for INSIDE). */
+    public static final int NO_RULE = -2;
+
+    private final int n;
+    private final int numNts;
+    private final int[] rules;
+    private final int[] mids;
+
+    /**
+     * Constructor.
+     * 
+     * @param n The maximum length of a sentence.
+     * @param numNts The number of nonterminals.
+     */
+    public BackPointerArena(int n, int numNts) {
+        this.n = n;
+        this.numNts = numNts;
+        int numCells = n * (n + 1) / 2;
+        this.rules = new int[numCells * numNts];
+        this.mids = new int[numCells * numNts];
+        Arrays.fill(rules, ABSENT);
+    }
+
+    /** Gets the offset of the block for the cell (start, end). */
+    public final int getOffset(int start, int end) {
+        // Cells are laid out row by row, i.e. by start then end.
+        return (start * (2 * n - start + 1) / 2 + (end - start - 1)) * numNts;
+    }
+
+    /** Marks every nonterminal in the block at the given offset as absent. */
+    public final void clear(int offset) {
+        Arrays.fill(rules, offset, offset + numNts, ABSENT);
+    }
+
+    public final int getRule(int offset, int nt) {
+        return rules[offset + nt];
+    }
+
+    public final int getMid(int offset, int nt) {
+        return mids[offset + nt];
+    }
+
+    public final void set(int offset, int nt, int rule, int mid) {
+        rules[offset + nt] = rule;
+        mids[offset + nt] = mid;
+    }
+
+    public int getNumNts() {
+        return numNts;
+    }
+
+}
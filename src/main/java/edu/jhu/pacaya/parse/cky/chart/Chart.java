@@ -1,8 +1,11 @@
 package edu.jhu.pacaya.parse.cky.chart;
 
+import java.util.List;
+
 import edu.jhu.pacaya.nlp.data.Sentence;
 import edu.jhu.pacaya.parse.cky.CnfGrammar;
 import edu.jhu.pacaya.parse.cky.Rule;
+import edu.jhu.pacaya.parse.cky.Scorer;
 import edu.jhu.pacaya.parse.cky.chart.ConstrainedChartCell.ChartCellConstraint;
 import edu.jhu.pacaya.parse.cky.data.BinaryTree;
 import edu.jhu.prim.tuple.Pair;
@@ -46,13 +49,15 @@ public class Chart {
         }
     }
 
-    public enum ChartCellType { FULL, SINGLE_HASH, DOUBLE_HASH, FULL_BREAK_TIES, CONSTRAINED_FULL, SINGLE_HASH_BREAK_TIES, CONSTRAINED_SINGLE };
+    public enum ChartCellType { FULL, SINGLE_HASH, DOUBLE_HASH, FULL_BREAK_TIES, CONSTRAINED_FULL, SINGLE_HASH_BREAK_TIES, CONSTRAINED_SINGLE, FULL_ARENA };
     public enum ParseType { VITERBI, INSIDE };
     
     private final ChartCellType cellType;
     private final CnfGrammar grammar;
     
     private ChartCell[][] chart;
+    /** The backpointers for FULL_ARENA cells, or null for other cell types. */
+    private BackPointerArena arena;
     private Sentence sentence;
     private ParseType parseType;
     private ChartCellConstraint constraint;
@@ -63,7 +68,8 @@ public class Chart {
         this.sentence = sentence;
         this.grammar = grammar;
         this.constraint = constraint;
-        this.chart = getNewChart(sentence, grammar, cellType, parseType, constraint);
+        this.arena = getNewArena(sentence, grammar, cellType);
+        this.chart = getNewChart(sentence, grammar, cellType, parseType, constraint, arena);
     }
 
     /**
@@ -73,7 +79,8 @@ public class Chart {
         this.sentence = sentence;
         // Ensure that the chart is large enough.
         if (sentence.size() > chart.length){
-            chart = getNewChart(sentence, grammar, cellType, parseType, constraint);
+            arena = getNewArena(sentence, grammar, cellType);
+            chart = getNewChart(sentence, grammar, cellType, parseType, constraint, arena);
         } else {
             // Clear the chart.
             //
@@ -86,15 +93,23 @@ public class Chart {
         }
     }
     
+    private static BackPointerArena getNewArena(Sentence sentence, CnfGrammar grammar, ChartCellType cellType) {
+        if (cellType == ChartCellType.FULL_ARENA) {
+            return new BackPointerArena(sentence.size(), grammar.getNumNonTerminals());
+        } else {
+            return null;
+        }
+    }
+    
     /**
      * Gets a new chart of the appropriate size for the sentence, specific to
      * this grammar, and with cells of the specified type.
      */
-    private static ChartCell[][] getNewChart(Sentence sentence, CnfGrammar grammar, ChartCellType cellType, ParseType parseType, ChartCellConstraint constraint) {
+    private static ChartCell[][] getNewChart(Sentence sentence, CnfGrammar grammar, ChartCellType cellType, ParseType parseType, ChartCellConstraint constraint, BackPointerArena arena) {
         ChartCell[][] chart = new ChartCell[sentence.size()][sentence.size()+1];
         for (int i = 0; i < chart.length; i++) {
             for (int j = i+1; j < chart[i].length; j++) {
-                if (parseType == ParseType.INSIDE && cellType != ChartCellType.FULL) {
+                if (parseType == ParseType.INSIDE && cellType != ChartCellType.FULL && cellType != ChartCellType.FULL_ARENA) {
                     throw new RuntimeException("Inside algorithm not implemented for cell type: " + cellType);
                 }
                 ChartCell cell;
@@ -115,6 +130,9 @@ public class Chart {
                 case FULL:
                     chart[i][j] = new FullChartCell(i, j, grammar, parseType);
                     break;
+                case FULL_ARENA:
+                    chart[i][j] = new FullArenaChartCell(i, j, grammar, parseType, arena);
+                    break;
                 case FULL_BREAK_TIES:
                     chart[i][j] = new FullTieBreakerChartCell(grammar, true);
                     break;
@@ -145,6 +163,9 @@ public class Chart {
      * @return The highest probability tree or null if no parse exists.
      */
     private BinaryTree getViterbiTree(int start, int end, int rootSymbol) {
+        if (arena != null) {
+            return getViterbiTreeFromArena(start, end, rootSymbol);
+        }
         ChartCell cell = chart[start][end];
         BackPointer bp = cell.getBp(rootSymbol);
         if (bp == null) {
@@ -169,6 +190,45 @@ public class Chart {
         return new BinaryTree(rootSymbolStr, start, end, leftChild, rightChild, false);
     }
 
+    /** Same as {@link #getViterbiTree(int, int, int)}, but reads the backpointers directly from the arena. */
+    private BinaryTree getViterbiTreeFromArena(int start, int end, int rootSymbol) {
+        int offset = arena.getOffset(start, end);
+        int ruleId = arena.getRule(offset, rootSymbol);
+        if (ruleId < 0) {
+            return null;
+        }
+        Rule r = grammar.getRule(ruleId);
+        int mid = arena.getMid(offset, rootSymbol);
+        
+        BinaryTree leftChild;
+        BinaryTree rightChild;
+        if (r.isLexical()) {
+            String lcSymbolStr = grammar.getLexAlphabet().lookupObject(r.getLeftChild());
+            leftChild = new BinaryTree(lcSymbolStr, start, end, null, null, true);
+            rightChild = null;
+        } else if (r.isUnary()) {
+            leftChild = getViterbiTreeFromArena(start, mid, r.getLeftChild());
+            rightChild = null;
+        } else {
+            leftChild = getViterbiTreeFromArena(start, mid, r.getLeftChild());
+            rightChild = getViterbiTreeFromArena(mid, end, r.getRightChild());
+        }
+        
+        String rootSymbolStr = grammar.getNtAlphabet().lookupObject(rootSymbol);
+        return new BinaryTree(rootSymbolStr, start, end, leftChild, rightChild, false);
+    }
+
+    /**
+     * Gets the k best parses and their scores, in order of decreasing score (see
+     * {@link KBestExtractor}).
+     * 
+     * @param k The number of parses.
+     * @param scorer The scorer with which the chart was filled.
+     */
+    public List<Pair<BinaryTree,Double>> getKBestParses(int k, Scorer scorer) {
+        return new KBestExtractor(this, sentence.getLabelIds(), scorer).getKBestParses(k);
+    }
+
     public ChartCell getCell(int start, int end) {
         return chart[start][end];
     }
@@ -177,6 +237,14 @@ public class Chart {
         return sentence.size();
     }
     
+    public ParseType getParseType() {
+        return parseType;
+    }
+    
+    public ChartCellType getCellType() {
+        return cellType;
+    }
+    
     public CnfGrammar getGrammar() {
         return grammar;
     }
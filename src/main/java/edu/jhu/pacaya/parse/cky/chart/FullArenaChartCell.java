@@ -0,0 +1,122 @@
+package edu.jhu.pacaya.parse.cky.chart;
+
+import java.util.Arrays;
+
+import edu.jhu.pacaya.nlp.data.Sentence;
+import edu.jhu.pacaya.parse.cky.CnfGrammar;
+import edu.jhu.pacaya.parse.cky.Rule;
+import edu.jhu.pacaya.parse.cky.chart.Chart.BackPointer;
+import edu.jhu.pacaya.parse.cky.chart.Chart.ParseType;
+import edu.jhu.prim.list.IntArrayList;
+import edu.jhu.prim.util.math.FastMath;
+
+/**
+ * Cell that stores every possible entry explicitly, like {@link FullChartCell}, but which keeps its
+ * backpointers in a {@link BackPointerArena} shared by the whole chart. Updating the Viterbi score
+ * therefore writes two ints instead of allocating a new {@link BackPointer}.
+ * 
+ * @author mgormley
+ */
+public class FullArenaChartCell implements ChartCell {
+
+    /** Whether to compute the inside score or the max score. */
+    private final boolean computeInside;
+    /** The inside score or the max score. Indexed by the nonterminal type. */
+    private final double[] scores;
+    /** The grammar, by which the rules of the backpointers are looked up. */
+    private final CnfGrammar grammar;
+    /** The backpointers for the whole chart. */
+    private final BackPointerArena arena;
+    /** The offset of this cell's block in the arena. */
+    private final int offset;
+    /** The nonterminals which have been added to this cell. */
+    private final IntArrayList nts;
+    /** When the chart cell is closed, this is a copy of the elements in <code>nts</code>. */
+    private int[] ntsArray;
+    private boolean isClosed;
+
+    public FullArenaChartCell(int start, int end, CnfGrammar grammar, ParseType parseType, BackPointerArena arena) {
+        this.grammar = grammar;
+        this.arena = arena;
+        this.offset = arena.getOffset(start, end);
+        scores = new double[grammar.getNumNonTerminals()];
+        nts = new IntArrayList();
+        isClosed = false;
+        Arrays.fill(scores, Double.NEGATIVE_INFINITY);
+        computeInside = (parseType == ParseType.INSIDE);
+    }
+
+    public void reset(Sentence sentence) {
+        Arrays.fill(scores, Double.NEGATIVE_INFINITY);
+        arena.clear(offset);
+        nts.clear();
+        isClosed = false;
+        ntsArray = null;
+    }
+
+    public void updateCell(int nt, double score, int mid, Rule r) {
+        assert(!isClosed);
+        if (arena.getRule(offset, nt) == BackPointerArena.ABSENT) {
+            // If the non-terminal hasn't been added yet, include it in the set of non terminals.
+            nts.add(nt);
+            arena.set(offset, nt, BackPointerArena.NO_RULE, mid);
+        }
+        if (computeInside) {
+            // Compute the inside score.
+            scores[nt] = FastMath.logAdd(scores[nt], score);
+        } else {
+            // Compute the viterbi score.
+            if (score > scores[nt]) {
+                scores[nt] = score;
+                arena.set(offset, nt, (r == null) ? BackPointerArena.NO_RULE : grammar.getRuleId(r), mid);
+            }
+        }
+    }
+
+    /**
+     * Gets the backpointer. This allocates a new object, so {@link #getBpRule(int)} and
+     * {@link #getBpMid(int)} should be preferred.
+     */
+    public final BackPointer getBp(int symbol) {
+        int rule = arena.getRule(offset, symbol);
+        if (rule == BackPointerArena.ABSENT) {
+            return null;
+        } else if (rule == BackPointerArena.NO_RULE) {
+            return BackPointer.NON_NULL_BACKPOINTER;
+        }
+        return new BackPointer(grammar.getRule(rule), arena.getMid(offset, symbol));
+    }
+
+    /** Gets the id of the rule of the backpointer, or a negative value if there is none. */
+    public final int getBpRule(int symbol) {
+        return arena.getRule(offset, symbol);
+    }
+
+    /** Gets the midpoint of the backpointer. */
+    public final int getBpMid(int symbol) {
+        return arena.getMid(offset, symbol);
+    }
+
+    public final double getScore(int symbol) {
+        return scores[symbol];
+    }
+
+    public final int[] getNts() {
+        if (isClosed) {
+            return ntsArray;
+        } else {
+            return nts.toNativeArray();
+        }
+    }
+
+    public ScoresSnapshot getScoresSnapshot() {
+        return new FullScores(scores);
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        ntsArray = nts.toNativeArray();
+    }
+
+}
@@ -0,0 +1,322 @@
+package edu.jhu.pacaya.parse.cky.chart;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import edu.jhu.pacaya.parse.cky.CnfGrammar;
+import edu.jhu.pacaya.parse.cky.Rule;
+import edu.jhu.pacaya.parse.cky.Scorer;
+import edu.jhu.pacaya.parse.cky.chart.Chart.ParseType;
+import edu.jhu.pacaya.parse.cky.data.BinaryTree;
+import edu.jhu.prim.tuple.Pair;
+
+/**
+ * Lazy k-best extraction from a Viterbi CKY chart (Huang and Chiang, 2005, Algorithm 3).
+ *
+ * The derivations are those which the CKY parser considers: each cell first receives its lexical or
+ * binary items, and then one pass of unary rules (two passes for the cell spanning the whole
+ * sentence). So an item (start, end, nt) is split into levels, one per pass, and level l is
+ * derived from level l-1 either by copying it or by a unary rule. In the cell spanning the whole
+ * sentence, a single unary rule could be applied in either pass and give the same tree twice, so
+ * the second pass only applies unary rules to items built by a unary rule in the first pass (level
+ * UNARY_ONLY_LEVEL). This does not change the best derivations. The best score of each item at
+ * its final level is read from the chart, so the incoming hyperedges and derivations of an item
+ * are only built when the item is visited. Memory is therefore proportional to the number of
+ * derivations explored, rather than to the size of the chart.
+ *
+ * The chart must have been filled with {@link ParseType#VITERBI} and the same scorer. Chart cell
+ * constraints are only respected insofar as they remove items from the chart.
+ *
+ * @author mgormley
+ */
+public class KBestExtractor {
+
+    /** The level of the first unary pass, restricted to items built by a unary rule. */
+    private static final int UNARY_ONLY_LEVEL = 3;
+    private static final int NUM_LEVELS = 4;
+
+    /** A hyperedge into a node. */
+    private static class Edge {
+        /** The rule, or null for an edge which copies the previous level. */
+        final Rule r;
+        final int mid;
+        final Node[] tails;
+        final double weight;
+        public Edge(Rule r, int mid, Node[] tails, double weight) {
+            this.r = r;
+            this.mid = mid;
+            this.tails = tails;
+            this.weight = weight;
+        }
+    }
+
+    /** A derivation: an edge and the rank of the derivation of each of its tails. */
+    private static class Deriv implements Comparable<Deriv> {
+        final Edge e;
+        final int[] j;
+        final double score;
+        public Deriv(Edge e, int[] j, double score) {
+            this.e = e;
+            this.j = j;
+            this.score = score;
+        }
+        @Override
+        public int compareTo(Deriv other) {
+            // Highest score first.
+            return Double.compare(other.score, this.score);
+        }
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(e) + Arrays.hashCode(j);
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Deriv)) {
+                return false;
+            }
+            Deriv other = (Deriv) obj;
+            return e == other.e && Arrays.equals(j, other.j);
+        }
+    }
+
+    /** An item (start, end, nt) at a level. */
+    private static class Node {
+        final int start;
+        final int end;
+        final int nt;
+        final int level;
+        /** The candidate derivations, or null if the node has not been visited. */
+        PriorityQueue<Deriv> cand;
+        /** All the derivations ever pushed to cand. */
+        HashSet<Deriv> seen;
+        /** The derivations, in order of decreasing score. */
+        ArrayList<Deriv> derivs;
+        /** Whether the successors of the last derivation have been pushed. */
+        boolean lastExpanded;
+        public Node(int start, int end, int nt, int level) {
+            this.start = start;
+            this.end = end;
+            this.nt = nt;
+            this.level = level;
+        }
+    }
+
+    private final Chart chart;
+    private final CnfGrammar grammar;
+    private final int[] sent;
+    private final Scorer scorer;
+    private final int n;
+    private final HashMap<Long, Node> nodes = new HashMap<>();
+    // The binary rules indexed by parent.
+    private final List<List<Rule>> binaryRulesForParent;
+
+    public KBestExtractor(Chart chart, int[] sent, Scorer scorer) {
+        if (chart.getParseType() != ParseType.VITERBI) {
+            throw new IllegalArgumentException("K-best extraction requires a Viterbi chart: " + chart.getParseType());
+        }
+        this.chart = chart;
+        this.grammar = chart.getGrammar();
+        this.sent = sent;
+        this.scorer = scorer;
+        this.n = sent.length;
+        binaryRulesForParent = new ArrayList<List<Rule>>(grammar.getNumNonTerminals());
+        for (int nt = 0; nt < grammar.getNumNonTerminals(); nt++) {
+            binaryRulesForParent.add(new ArrayList<Rule>());
+        }
+        for (Rule r : grammar.getAllRules()) {
+            if (r.isBinary()) {
+                binaryRulesForParent.get(r.getParent()).add(r);
+            }
+        }
+    }
+
+    /**
+     * Gets the k best parses of the whole sentence and their scores, in order of decreasing score.
+     * Fewer than k are returned if there are not k distinct derivations.
+     */
+    public List<Pair<BinaryTree, Double>> getKBestParses(int k) {
+        List<Pair<BinaryTree, Double>> parses = new ArrayList<>();
+        if (chart.getCell(0, n).getScore(grammar.getRootSymbol()) == Double.NEGATIVE_INFINITY) {
+            return parses;
+        }
+        Node root = getNode(0, n, grammar.getRootSymbol(), getFinalLevel(0, n));
+        for (int i = 0; i < k && getKth(root, i); i++) {
+            Deriv d = root.derivs.get(i);
+            parses.add(new Pair<BinaryTree, Double>(getTree(root, i), d.score));
+        }
+        return parses;
+    }
+
+    /** Gets the level of the final scores in the chart for the cell. */
+    private int getFinalLevel(int start, int end) {
+        return (end - start == n) ? 2 : 1;
+    }
+
+    private Node getNode(int start, int end, int nt, int level) {
+        long key = (((long) start * (n + 1) + end) * grammar.getNumNonTerminals() + nt) * NUM_LEVELS + level;
+        Node node = nodes.get(key);
+        if (node == null) {
+            node = new Node(start, end, nt, level);
+            nodes.put(key, node);
+        }
+        return node;
+    }
+
+    /**
+     * Ensures that the k'th best derivation (0-indexed) of the node is computed.
+     *
+     * @return Whether the node has at least k+1 derivations.
+     */
+    private boolean getKth(Node v, int k) {
+        if (v.cand == null) {
+            initCandidates(v);
+        }
+        while (v.derivs.size() <= k) {
+            if (!v.derivs.isEmpty() && !v.lastExpanded) {
+                pushSuccessors(v, v.derivs.get(v.derivs.size() - 1));
+                v.lastExpanded = true;
+            }
+            if (v.cand.isEmpty()) {
+                return false;
+            }
+            v.derivs.add(v.cand.poll());
+            v.lastExpanded = false;
+        }
+        return true;
+    }
+
+    /** Gets the score of the j'th best derivation of a node, or null if there is none. */
+    private Double getScore(Node t, int j) {
+        if (j == 0 && t.level == getFinalLevel(t.start, t.end)) {
+            // Avoid visiting the node by using the Viterbi score from the chart.
+            double score = chart.getCell(t.start, t.end).getScore(t.nt);
+            return (score == Double.NEGATIVE_INFINITY) ? null : score;
+        } else if (getKth(t, j)) {
+            return t.derivs.get(j).score;
+        } else {
+            return null;
+        }
+    }
+
+    /** Gets the score of a derivation, or null if one of its tails has too few derivations. */
+    private Double getScore(Edge e, int[] j) {
+        double score = e.weight;
+        for (int i = 0; i < e.tails.length; i++) {
+            Double s = getScore(e.tails[i], j[i]);
+            if (s == null) {
+                return null;
+            }
+            score += s;
+        }
+        return score;
+    }
+
+    private void pushSuccessors(Node v, Deriv d) {
+        for (int i = 0; i < d.j.length; i++) {
+            int[] j = d.j.clone();
+            j[i]++;
+            Deriv succ = new Deriv(d.e, j, 0);
+            if (v.seen.contains(succ)) {
+                continue;
+            }
+            Double score = getScore(d.e, j);
+            if (score != null) {
+                succ = new Deriv(d.e, j, score);
+                v.seen.add(succ);
+                v.cand.add(succ);
+            }
+        }
+    }
+
+    private void initCandidates(Node v) {
+        v.cand = new PriorityQueue<Deriv>();
+        v.seen = new HashSet<Deriv>();
+        v.derivs = new ArrayList<Deriv>();
+        for (Edge e : getEdges(v)) {
+            int[] j = new int[e.tails.length];
+            Double score = getScore(e, j);
+            if (score != null) {
+                Deriv d = new Deriv(e, j, score);
+                v.seen.add(d);
+                v.cand.add(d);
+            }
+        }
+    }
+
+    /** Gets the incoming edges of a node, whose tails are all in the chart. */
+    private List<Edge> getEdges(Node v) {
+        List<Edge> edges = new ArrayList<>();
+        final int start = v.start;
+        final int end = v.end;
+        if (v.level > 0) {
+            ChartCell cell = chart.getCell(start, end);
+            int prevLevel = v.level - 1;
+            if (v.level != UNARY_ONLY_LEVEL && isInChart(cell, v.nt)) {
+                // The item may be carried over from the previous level.
+                edges.add(new Edge(null, end, new Node[]{ getNode(start, end, v.nt, prevLevel) }, 0));
+            }
+            // Or built by a unary rule from an item in the previous level.
+            int unaryTailLevel = (v.level == 2) ? UNARY_ONLY_LEVEL : (v.level == UNARY_ONLY_LEVEL) ? 0 : prevLevel;
+            for (Rule r : grammar.getUnaryRulesWithParent(v.nt)) {
+                if (isInChart(cell, r.getLeftChild())) {
+                    Node tail = getNode(start, end, r.getLeftChild(), unaryTailLevel);
+                    edges.add(new Edge(r, end, new Node[]{ tail }, scorer.score(r, start, end, end)));
+                }
+            }
+        } else if (end - start == 1) {
+            for (Rule r : grammar.getLexicalRulesWithChild(sent[start])) {
+                if (r.getParent() == v.nt) {
+                    edges.add(new Edge(r, end, new Node[0], scorer.score(r, start, end, end)));
+                }
+            }
+        } else {
+            for (int mid = start + 1; mid <= end - 1; mid++) {
+                ChartCell leftCell = chart.getCell(start, mid);
+                ChartCell rightCell = chart.getCell(mid, end);
+                for (Rule r : binaryRulesForParent.get(v.nt)) {
+                    if (isInChart(leftCell, r.getLeftChild()) && isInChart(rightCell, r.getRightChild())) {
+                        Node left = getNode(start, mid, r.getLeftChild(), getFinalLevel(start, mid));
+                        Node right = getNode(mid, end, r.getRightChild(), getFinalLevel(mid, end));
+                        edges.add(new Edge(r, mid, new Node[]{ left, right }, scorer.score(r, start, mid, end)));
+                    }
+                }
+            }
+        }
+        return edges;
+    }
+
+    private static boolean isInChart(ChartCell cell, int nt) {
+        return cell.getScore(nt) > Double.NEGATIVE_INFINITY;
+    }
+
+    /** Gets the tree for the k'th best derivation of a node, which must have been computed. */
+    private BinaryTree getTree(Node v, int k) {
+        Deriv d = v.derivs.get(k);
+        Edge e = d.e;
+        if (e.r == null) {
+            // Copy of the previous level.
+            getKth(e.tails[0], d.j[0]);
+            return getTree(e.tails[0], d.j[0]);
+        }
+        BinaryTree leftChild;
+        BinaryTree rightChild = null;
+        if (e.r.isLexical()) {
+            String lcSymbolStr = grammar.getLexAlphabet().lookupObject(e.r.getLeftChild());
+            leftChild = new BinaryTree(lcSymbolStr, v.start, v.end, null, null, true);
+        } else {
+            getKth(e.tails[0], d.j[0]);
+            leftChild = getTree(e.tails[0], d.j[0]);
+            if (e.r.isBinary()) {
+                getKth(e.tails[1], d.j[1]);
+                rightChild = getTree(e.tails[1], d.j[1]);
+            }
+        }
+        String rootSymbolStr = grammar.getNtAlphabet().lookupObject(v.nt);
+        return new BinaryTree(rootSymbolStr, v.start, v.end, leftChild, rightChild, false);
+    }
+
+}
@@ -149,5 +149,64 @@ public class EdgeScores {
         }
         return scores;
     }
+
+    /**
+     * Combines a set of edge weights, as in {@link #combine(double[], double[][])}, into a flat
+     * array indexed by p * nplus + c, where nplus is the sentence length plus one.
+     * 
+     * @param fracRoot The edge weights from the wall to each child.
+     * @param fracChild The edge weights from parent to child.
+     * @param scores Output: The combined weights. Must have length at least nplus * nplus.
+     */
+    public static void combine(double[] fracRoot, double[][] fracChild, double[] scores) {
+        int nplus = fracChild.length + 1;
+        for (int p=0; p<nplus; p++) { 
+            for (int c=0; c<nplus; c++) {
+                if (c == 0) {
+                    scores[p*nplus + c] = Double.NEGATIVE_INFINITY;
+                } else if (p == 0 && c > 0) {
+                    scores[p*nplus + c] = fracRoot[c-1];
+                } else {
+                    scores[p*nplus + c] = fracChild[p-1][c-1];
+                }
+            }
+        }
+    }
+    
+    /**
+     * Combines the edge weights in a Tensor, as in {@link #tensorToEdgeScores(Tensor)}, into a
+     * flat array indexed by p * nplus + c, where nplus is the sentence length plus one. The
+     * entries for p == c are zero.
+     * 
+     * @param t The edge weights.
+     * @param scores Output: The combined weights. Must have length at least nplus * nplus.
+     */
+    public static void tensorToCombined(Tensor t, double[] scores) {
+        if (t.getDims().length != 2) {
+            throw new IllegalArgumentException("Tensor must be an nxn matrix.");
+        }
+        int n = t.getDims()[1];
+        int nplus = n + 1;
+        for (int p = -1; p < n; p++) {
+            scores[(p+1)*nplus] = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < n; c++) {
+                scores[(p+1)*nplus + c+1] = (p == c) ? 0 : t.get(getTensorParent(p, c), c);
+            }
+        }
+    }
+    
+    /**
+     * Combines the edge weights in the values of an nxn Tensor, indexed by getTensorParent(p, c) *
+     * n + c, as in {@link #tensorToCombined(Tensor, double[])}.
+     */
+    public static void tensorToCombined(double[] t, int n, double[] scores) {
+        int nplus = n + 1;
+        for (int p = -1; p < n; p++) {
+            scores[(p+1)*nplus] = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < n; c++) {
+                scores[(p+1)*nplus + c+1] = (p == c) ? 0 : t[getTensorParent(p, c) * n + c];
+            }
+        }
+    }
     
-}
\ No newline at end of file
+}
@@ -0,0 +1,117 @@
+package edu.jhu.pacaya.parse.dep;
+
+import edu.jhu.pacaya.parse.dep.edmonds.DenseEdmonds;
+
+/**
+ * Edge-factored non-projective dependency parser, which finds the maximum spanning tree with the
+ * Chu-Liu-Edmonds algorithm as described in McDonald et al. (2005). The decoder is
+ * {@link DenseEdmonds}, which runs in O(n^2) time over a primitive weight matrix.
+ *
+ * The static methods are safe to call from multiple threads. An instance of this class reuses its
+ * weight matrix and decoder workspaces across calls, growing them as needed, and so is not
+ * thread-safe.
+ *
+ * @author mgormley
+ */
+public class NonProjectiveDependencyParser {
+
+    private static final ThreadLocal<NonProjectiveDependencyParser> parsers = new ThreadLocal<NonProjectiveDependencyParser>() {
+        @Override
+        protected NonProjectiveDependencyParser initialValue() {
+            return new NonProjectiveDependencyParser();
+        }
+    };
+
+    // Reusable buffers.
+    private final DenseEdmonds edmonds = new DenseEdmonds();
+    private double[][] weights = new double[0][0];
+    private int[] nodeParents = new int[0];
+
+    public NonProjectiveDependencyParser() { }
+
+    /** Gets the parser for the current thread. */
+    public static NonProjectiveDependencyParser getThreadLocal() {
+        return parsers.get();
+    }
+
+    /**
+     * Computes the maximum non-projective spanning tree in which the wall node (denoted as the
+     * parent -1) is the root and has exactly one child.
+     *
+     * @param fracRoot Input: The edge weights from the wall to each child.
+     * @param fracChild Input: The edge weights from parent to child.
+     * @param parents Output: The parent index of each node or -1 if its parent is the wall node.
+     * @return The score of the parse.
+     */
+    public static double parseSingleRoot(double[] fracRoot, double[][] fracChild, int[] parents) {
+        return getThreadLocal().parse(fracRoot, fracChild, true, parents);
+    }
+
+    /**
+     * Computes the maximum non-projective spanning tree in which the wall node (denoted as the
+     * parent -1) is the root and may have multiple children.
+     *
+     * @param fracRoot Input: The edge weights from the wall to each child.
+     * @param fracChild Input: The edge weights from parent to child.
+     * @param parents Output: The parent index of each node or -1 if its parent is the wall node.
+     * @return The score of the parse.
+     */
+    public static double parseMultiRoot(double[] fracRoot, double[][] fracChild, int[] parents) {
+        return getThreadLocal().parse(fracRoot, fracChild, false, parents);
+    }
+
+    /**
+     * Computes the maximum non-projective spanning tree, reusing this parser's buffers.
+     *
+     * @param fracRoot Input: The edge weights from the wall to each child.
+     * @param fracChild Input: The edge weights from parent to child.
+     * @param singleRoot Whether the wall must have exactly one child.
+     * @param parents Output: The parent index of each node or -1 if its parent is the wall node.
+     * @return The score of the parse.
+     */
+    public double parse(double[] fracRoot, double[][] fracChild, boolean singleRoot, int[] parents) {
+        assert (parents.length == fracRoot.length);
+        assert (fracChild.length == fracRoot.length);
+        final int n = fracRoot.length;
+        final int nplus = n + 1;
+        if (weights.length < nplus) {
+            weights = new double[nplus][nplus];
+            nodeParents = new int[nplus];
+        }
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < n; c++) {
+            weights[c+1][0] = Double.NEGATIVE_INFINITY;
+            weights[0][c+1] = fracRoot[c];
+            for (int p = 0; p < n; p++) {
+                weights[p+1][c+1] = (p == c) ? Double.NEGATIVE_INFINITY : fracChild[p][c];
+            }
+        }
+        if (singleRoot) {
+            // Penalize the wall's edges by more than the weight of any other edges of a tree can
+            // make up for, so that the maximum tree has exactly one of them.
+            for (int p = 0; p < nplus; p++) {
+                for (int c = 1; c < nplus; c++) {
+                    double w = weights[p][c];
+                    if (w != Double.NEGATIVE_INFINITY) {
+                        min = Math.min(min, w);
+                        max = Math.max(max, w);
+                    }
+                }
+            }
+            double penalty = 1 + nplus * (max - min);
+            for (int c = 1; c < nplus; c++) {
+                weights[0][c] -= penalty;
+            }
+        }
+        edmonds.getMaxArborescence(weights, nplus, 0, nodeParents);
+        double score = 0;
+        for (int c = 0; c < n; c++) {
+            int p = nodeParents[c+1] - 1;
+            parents[c] = p;
+            score += (p == -1) ? fracRoot[c] : fracChild[p][c];
+        }
+        return score;
+    }
+
+}
@@ -5,7 +5,6 @@ import java.util.Arrays;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.jhu.prim.arrays.DoubleArrays;
 import edu.jhu.prim.util.math.FastMath;
 
 /**
@@ -28,28 +27,41 @@ public class ProjTreeChart {
     // For incomplete constituents chart[s][t][d][INCOMPLETE] indicates that
     // s is the parent of t if (d == RIGHT) or that t is the parent of s if
     // (d==LEFT). That is the direction, d, indicates which side is the dependent.
-    private final double[] scores;
+    private double[] scores;
 
     // Backpointers, indexed just like the chart.
     //
     // The value at bps[s][t][d][c] will be the split point (r) for the
     // maximum chart entry.
-    private final int[] bps;
-    private final int nplus;
+    private int[] bps;
+    private int nplus;
     
-    final DepParseType type;
+    DepParseType type;
     
     public ProjTreeChart(int nplus, DepParseType type) {
+        this.scores = new double[0];
+        this.bps = new int[0];
+        reset(nplus, type);
+    }
+    
+    /**
+     * Clears the chart for reuse with a sentence of length nplus-1. The arrays are only
+     * reallocated if they are too small.
+     */
+    public void reset(int nplus, DepParseType type) {
         this.type = type;
         this.nplus = nplus;
-        this.scores = new double[nplus*nplus*2*2];
-        this.bps = new int[nplus*nplus*2*2];
+        int size = nplus*nplus*2*2;
+        if (scores.length < size) {
+            this.scores = new double[size];
+            this.bps = new int[size];
+        }
         
         // Initialize chart to negative infinities.
-        DoubleArrays.fill(scores, Double.NEGATIVE_INFINITY);
+        Arrays.fill(scores, 0, size, Double.NEGATIVE_INFINITY);
         
         // Fill backpointers with -1.
-        Arrays.fill(bps, -1);
+        Arrays.fill(bps, 0, size, -1);
     }
     
     private final int getIndex(int s, int t, int d, int ic) {
@@ -11,6 +11,9 @@ import edu.jhu.pacaya.parse.dep.ProjTreeChart.DepParseType;
 /**
  * Edge-factored projective dependency parser.
  * 
+ * The static methods are safe to call from multiple threads. An instance of this class reuses its
+ * charts and score buffer across calls, growing them as needed, and so is not thread-safe.
+ * 
  * TODO: break ties randomly.
  * 
  * @author mgormley
@@ -25,8 +28,24 @@ public class ProjectiveDependencyParser {
     public static final int INCOMPLETE = 0;
     public static final int COMPLETE = 1;
     
-    private ProjectiveDependencyParser() {
-        // Private constructor.
+    private static final ThreadLocal<ProjectiveDependencyParser> parsers = new ThreadLocal<ProjectiveDependencyParser>() {
+        @Override
+        protected ProjectiveDependencyParser initialValue() {
+            return new ProjectiveDependencyParser();
+        }
+    };
+    
+    // Reusable buffers.
+    private final ProjTreeChart chart = new ProjTreeChart(0, DepParseType.VITERBI);
+    private final ProjTreeChart inChart = new ProjTreeChart(0, DepParseType.INSIDE);
+    private final ProjTreeChart outChart = new ProjTreeChart(0, DepParseType.INSIDE);
+    private double[] scores = new double[0];
+    
+    public ProjectiveDependencyParser() { }
+    
+    /** Gets the parser for the current thread. */
+    public static ProjectiveDependencyParser getThreadLocal() {
+        return parsers.get();
     }
 
     /**
@@ -58,21 +77,11 @@ public class ProjectiveDependencyParser {
         assert (parents.length == fracRoot.length);
         assert (fracChild.length == fracRoot.length);    
 
-        final int n = parents.length;
-        final ProjTreeChart c = new ProjTreeChart(n+1, DepParseType.VITERBI);
-        insideAlgorithm(EdgeScores.combine(fracRoot, fracChild), c, true);
-        
-        // Trace the backpointers to extract the parents.        
-        Arrays.fill(parents, -2);
-        // Get the head of the sentence.
-        int head = c.getBp(0, n, RIGHT, COMPLETE);
-        parents[head-1] = -1; // The wall (-1) is its parent.
-        // Extract parents left of the head.
-        extractParentsComp(1, head, LEFT, c, parents);
-        // Extract parents right of the head.
-        extractParentsComp(head, n, RIGHT, c, parents);
-        
-        return c.getScore(0, n, RIGHT, COMPLETE);
+        ProjectiveDependencyParser parser = getThreadLocal();
+        int nplus = fracRoot.length + 1;
+        double[] scores = parser.getScoreBuffer(nplus);
+        EdgeScores.combine(fracRoot, fracChild, scores);
+        return parser.parse(scores, nplus, true, parents);
     }
     
     /**
@@ -92,15 +101,11 @@ public class ProjectiveDependencyParser {
         assert (parents.length == fracRoot.length);
         assert (fracChild.length == fracRoot.length);    
 
-        final int n = parents.length;
-        final ProjTreeChart c = new ProjTreeChart(n+1, DepParseType.VITERBI);
-        insideAlgorithm(EdgeScores.combine(fracRoot, fracChild), c, false);
-        
-        // Trace the backpointers to extract the parents.        
-        Arrays.fill(parents, -2);
-        // Extract parents right of the wall.
-        extractParentsComp(0, n, RIGHT, c, parents);
-        return c.getScore(0, n, RIGHT, COMPLETE);
+        ProjectiveDependencyParser parser = getThreadLocal();
+        int nplus = fracRoot.length + 1;
+        double[] scores = parser.getScoreBuffer(nplus);
+        EdgeScores.combine(fracRoot, fracChild, scores);
+        return parser.parse(scores, nplus, false, parents);
     }
     
     /**
@@ -121,27 +126,95 @@ public class ProjectiveDependencyParser {
     }
 
     private static DepIoChart insideOutside(double[] fracRoot, double[][] fracChild, final boolean singleRoot) {
-        final int n = fracRoot.length;
-        final ProjTreeChart inChart = new ProjTreeChart(n+1, DepParseType.INSIDE);
-        final ProjTreeChart outChart = new ProjTreeChart(n+1, DepParseType.INSIDE);
+        final int nplus = fracRoot.length + 1;
+        // The returned charts are owned by the caller, so only the scores are reused.
+        final ProjTreeChart inChart = new ProjTreeChart(nplus, DepParseType.INSIDE);
+        final ProjTreeChart outChart = new ProjTreeChart(nplus, DepParseType.INSIDE);
         
-        double[][] scores = EdgeScores.combine(fracRoot, fracChild);
-        log.trace("Inside:");
-        insideAlgorithm(scores, inChart, singleRoot);
-        log.trace("Outside:");
-        outsideAlgorithm(scores, inChart, outChart, singleRoot);
+        double[] scores = getThreadLocal().getScoreBuffer(nplus);
+        EdgeScores.combine(fracRoot, fracChild, scores);
+        insideOutside(scores, nplus, inChart, outChart, singleRoot);
+        return new DepIoChart(inChart, outChart);
+    }
+    
+    /**
+     * Gets this parser's score buffer, grown to hold the flat edge weights for a sentence of
+     * length nplus-1. The contents are undefined.
+     */
+    public double[] getScoreBuffer(int nplus) {
+        if (scores.length < nplus * nplus) {
+            scores = new double[nplus * nplus];
+        }
+        return scores;
+    }
+    
+    /**
+     * Computes the maximum projective dependency tree, reusing this parser's chart.
+     * 
+     * @param scores Input: The edge weights, indexed by p * nplus + c, where the wall has index 0
+     *            and the tokens of the sentence are 1-indexed (see
+     *            {@link EdgeScores#combine(double[], double[][], double[])}).
+     * @param nplus The sentence length plus one.
+     * @param singleRoot Whether the wall must have exactly one child.
+     * @param parents Output: The parent index of each node or -1 if its parent is the wall node.
+     * @return The score of the parse.
+     */
+    public double parse(double[] scores, int nplus, boolean singleRoot, int[] parents) {
+        assert parents.length == nplus - 1;
+        final int n = nplus - 1;
+        final ProjTreeChart c = chart;
+        c.reset(nplus, DepParseType.VITERBI);
+        insideAlgorithm(scores, nplus, c, singleRoot);
         
+        // Trace the backpointers to extract the parents.        
+        Arrays.fill(parents, -2);
+        if (singleRoot) {
+            // Get the head of the sentence.
+            int head = c.getBp(0, n, RIGHT, COMPLETE);
+            parents[head-1] = -1; // The wall (-1) is its parent.
+            // Extract parents left of the head.
+            extractParentsComp(1, head, LEFT, c, parents);
+            // Extract parents right of the head.
+            extractParentsComp(head, n, RIGHT, c, parents);
+        } else {
+            // Extract parents right of the wall.
+            extractParentsComp(0, n, RIGHT, c, parents);
+        }
+        return c.getScore(0, n, RIGHT, COMPLETE);
+    }
+    
+    /**
+     * Runs the inside-outside algorithm for dependency parsing, reusing this parser's charts. The
+     * returned chart is only valid until the next call to this method.
+     * 
+     * @param scores Input: The edge weights, indexed as in {@link #parse(double[], int, boolean, int[])}.
+     * @param nplus The sentence length plus one.
+     * @param singleRoot Whether the wall must have exactly one child.
+     * @return The parse chart.
+     */
+    public DepIoChart insideOutside(double[] scores, int nplus, boolean singleRoot) {
+        inChart.reset(nplus, DepParseType.INSIDE);
+        outChart.reset(nplus, DepParseType.INSIDE);
+        insideOutside(scores, nplus, inChart, outChart, singleRoot);
         return new DepIoChart(inChart, outChart);
     }
     
+    private static void insideOutside(double[] scores, int nplus, ProjTreeChart inChart, ProjTreeChart outChart,
+            boolean singleRoot) {
+        log.trace("Inside:");
+        insideAlgorithm(scores, nplus, inChart, singleRoot);
+        log.trace("Outside:");
+        outsideAlgorithm(scores, nplus, inChart, outChart, singleRoot);
+    }
+    
     /**
      * Runs the parsing algorithm of (Eisner, 2000) as described in McDonald (2006).
      * 
-     * @param scores Input: The edge weights.
+     * @param scores Input: The flat edge weights.
+     * @param n The sentence length plus one.
      * @param inChart Output: The parse chart.
      */
-    private static void insideAlgorithm(final double[][] scores, final ProjTreeChart inChart, boolean singleRoot) {
-        final int n = scores.length;        
+    private static void insideAlgorithm(final double[] scores, final int n, final ProjTreeChart inChart, boolean singleRoot) {
         final int startIdx = singleRoot ? 1 : 0;         
 
         // Initialize.
@@ -158,7 +231,7 @@ public class ProjectiveDependencyParser {
                 // First create incomplete items.
                 for (int r=s; r<t; r++) {
                     for (int d=0; d<2; d++) {
-                        double edgeScore = (d==LEFT) ? scores[t][s] : scores[s][t];
+                        double edgeScore = (d==LEFT) ? scores[t*n + s] : scores[s*n + t];
                         double score = inChart.getScore(s, r, RIGHT, COMPLETE) +
                                        inChart.getScore(r+1, t, LEFT, COMPLETE) +  
                                        edgeScore;
@@ -192,7 +265,7 @@ public class ProjectiveDependencyParser {
             for (int r=1; r<n; r++) {
                 double score = inChart.getScore(1, r, LEFT, COMPLETE) +
                                inChart.getScore(r, n-1, RIGHT, COMPLETE) + 
-                               scores[0][r];
+                               scores[r];
                 inChart.updateCell(0, r, RIGHT, INCOMPLETE, score, r);
                 inChart.updateCell(0, n-1, RIGHT, COMPLETE, score, r);
             }
@@ -202,13 +275,13 @@ public class ProjectiveDependencyParser {
     /**
      * Runs the outside-algorithm for the parsing algorithm of (Eisner, 2000).
      * 
-     * @param scores Input: The edge weights.
+     * @param scores Input: The flat edge weights.
+     * @param n The sentence length plus one.
      * @param inChart Input: The inside parse chart.
      * @param outChart Output: The outside parse chart.
      */
-    private static void outsideAlgorithm(final double[][] scores, final ProjTreeChart inChart, final ProjTreeChart outChart, 
+    private static void outsideAlgorithm(final double[] scores, final int n, final ProjTreeChart inChart, final ProjTreeChart outChart, 
             boolean singleRoot) {             
-        final int n = scores.length;
         final int startIdx = singleRoot ? 1 : 0;         
 
         if (singleRoot) {
@@ -235,12 +308,12 @@ public class ProjectiveDependencyParser {
                 // Left child.
                 double leftScore = outChart.getScore(0, r, RIGHT, INCOMPLETE) + 
                                    inChart.getScore(r, n - 1, RIGHT, COMPLETE) + 
-                                   scores[0][r];
+                                   scores[r];
                 outChart.updateCell(1, r, LEFT, COMPLETE, leftScore, -1);
                 // Right child.
                 double rightScore = outChart.getScore(0, r, RIGHT, INCOMPLETE) + 
                                     inChart.getScore(1, r, LEFT, COMPLETE) + 
-                                    scores[0][r];
+                                    scores[r];
                 outChart.updateCell(r, n - 1, RIGHT, COMPLETE, rightScore, -1);
             }
         } else  {
@@ -284,7 +357,7 @@ public class ProjectiveDependencyParser {
                 // Second create incomplete items (opposite of inside).
                 for (int r=s; r<t; r++) {
                     for (int d=0; d<2; d++) {
-                        double edgeScore = (d == LEFT) ? scores[t][s] : scores[s][t];
+                        double edgeScore = (d == LEFT) ? scores[t*n + s] : scores[s*n + t];
                         // Left child.
                         double leftScore = outChart.getScore(s, t, d, INCOMPLETE)
                                 + inChart.getScore(r + 1, t, LEFT, COMPLETE) + edgeScore;
@@ -0,0 +1,258 @@
+package edu.jhu.pacaya.parse.dep.edmonds;
+
+import java.util.Arrays;
+
+/**
+ * Chu-Liu-Edmonds' algorithm for finding a maximum spanning arborescence of a dense, directed
+ * graph given as a weight matrix. This is the O(n^2) implementation of Tarjan's 'Finding Optimum
+ * Branchings' paper for dense graphs, with the corrected expansion step of Camerini, Fratta and
+ * Maffioli (1979).
+ *
+ * Each (super)node keeps a row of the best adjusted weight entering it from every other active
+ * (super)node. Contracting a cycle C costs O(n |C|) and at most n-1 supernodes are created, so the
+ * whole algorithm runs in O(n^2) time. All the workspaces are flat primitive arrays, which are
+ * grown as needed and reused across calls, so this class is not thread-safe.
+ *
+ * Edges with weight negative infinity are treated as missing.
+ *
+ * @author mgormley
+ */
+public class DenseEdmonds {
+
+    // The stride of the matrices, twice the number of nodes of the current graph.
+    private int m;
+    // The best adjusted weight of an edge entering supernode x from supernode u, at x * m + u.
+    private double[] in = new double[0];
+    // The original tail and head of that edge.
+    private int[] inSrc = new int[0];
+    private int[] inDst = new int[0];
+    // The edge chosen to enter each supernode: its adjusted weight, original tail and head.
+    private double[] enterW = new double[0];
+    private int[] enterSrc = new int[0];
+    private int[] enterDst = new int[0];
+    // The contraction forest, with the children of each supernode as a linked list.
+    private int[] forestParent = new int[0];
+    private int[] firstChild = new int[0];
+    private int[] nextSibling = new int[0];
+    // Union-find over the contraction forest, mapping each node to its active supernode.
+    private int[] uf = new int[0];
+    private boolean[] active = new boolean[0];
+    private boolean[] done = new boolean[0];
+    private boolean[] onPath = new boolean[0];
+    private int[] path = new int[0];
+
+    public DenseEdmonds() { }
+
+    /**
+     * Finds a maximum spanning arborescence of a complete directed graph.
+     *
+     * @param weights Input: The weight of the edge from each node to each other node.
+     * @param root The root of the arborescence.
+     * @param parents Output: The parent of each node, or -1 for the root.
+     * @return The weight of the arborescence.
+     * @throws IllegalArgumentException If no spanning arborescence has finite weight.
+     */
+    public double getMaxArborescence(double[][] weights, int root, int[] parents) {
+        return getMaxArborescence(weights, weights.length, root, parents);
+    }
+
+    /**
+     * Finds a maximum spanning arborescence of the complete directed graph over the first numNodes
+     * nodes of a (possibly larger) weight matrix.
+     *
+     * @param weights Input: The weight of the edge from each node to each other node.
+     * @param numNodes The number of nodes.
+     * @param root The root of the arborescence.
+     * @param parents Output: The parent of each node, or -1 for the root.
+     * @return The weight of the arborescence.
+     * @throws IllegalArgumentException If no spanning arborescence has finite weight.
+     */
+    public double getMaxArborescence(double[][] weights, int numNodes, int root, int[] parents) {
+        final int n = numNodes;
+        ensureCapacity(n);
+        for (int v = 0; v < n; v++) {
+            for (int u = 0; u < n; u++) {
+                int k = v * m + u;
+                in[k] = (u == v || v == root) ? Double.NEGATIVE_INFINITY : weights[u][v];
+                inSrc[k] = u;
+                inDst[k] = v;
+            }
+        }
+        Arrays.fill(forestParent, 0, m, -1);
+        Arrays.fill(firstChild, 0, m, -1);
+        Arrays.fill(nextSibling, 0, m, -1);
+        Arrays.fill(active, 0, m, false);
+        Arrays.fill(done, 0, m, false);
+        Arrays.fill(onPath, 0, m, false);
+        for (int v = 0; v < n; v++) {
+            uf[v] = v;
+            active[v] = true;
+        }
+        int numSuper = n;
+        done[root] = true;
+
+        // Grow paths of maximum entering edges, contracting the cycles that they close.
+        for (int start = 0; start < n; start++) {
+            int a = find(start);
+            if (done[a]) {
+                continue;
+            }
+            int pathLen = 0;
+            path[pathLen++] = a;
+            onPath[a] = true;
+            while (true) {
+                // Choose the maximum edge entering a.
+                int b = -1;
+                double best = Double.NEGATIVE_INFINITY;
+                int row = a * m;
+                for (int u = 0; u < numSuper; u++) {
+                    if (active[u] && in[row + u] > best) {
+                        best = in[row + u];
+                        b = u;
+                    }
+                }
+                if (b == -1) {
+                    throw new IllegalArgumentException("No spanning arborescence with finite weight.");
+                }
+                enterW[a] = best;
+                enterSrc[a] = inSrc[row + b];
+                enterDst[a] = inDst[row + b];
+                if (done[b]) {
+                    // The path is now connected to the root.
+                    for (int i = 0; i < pathLen; i++) {
+                        onPath[path[i]] = false;
+                        done[path[i]] = true;
+                    }
+                    break;
+                } else if (onPath[b]) {
+                    // Contract the cycle b, ..., a into a new supernode c.
+                    int c = numSuper++;
+                    int cycleStart = pathLen - 1;
+                    while (path[cycleStart] != b) {
+                        cycleStart--;
+                    }
+                    for (int i = cycleStart; i < pathLen; i++) {
+                        int y = path[i];
+                        active[y] = false;
+                        onPath[y] = false;
+                        forestParent[y] = c;
+                        uf[y] = c;
+                        nextSibling[y] = firstChild[c];
+                        firstChild[c] = y;
+                    }
+                    contract(c, cycleStart, pathLen, numSuper);
+                    active[c] = true;
+                    uf[c] = c;
+                    pathLen = cycleStart;
+                    path[pathLen++] = c;
+                    onPath[c] = true;
+                    a = c;
+                } else {
+                    path[pathLen++] = b;
+                    onPath[b] = true;
+                    a = b;
+                }
+            }
+        }
+
+        // Expand the contracted cycles: the edge entering a supernode breaks the cycle at the
+        // original node it enters, and every other member keeps its own entering edge.
+        int[] stack = path;
+        int top = 0;
+        for (int x = 0; x < numSuper; x++) {
+            if (active[x] && x != root) {
+                stack[top++] = x;
+            }
+        }
+        parents[root] = -1;
+        double score = 0;
+        while (top > 0) {
+            int x = stack[--top];
+            int v = enterDst[x];
+            parents[v] = enterSrc[x];
+            score += weights[enterSrc[x]][v];
+            int prev = -1;
+            int y = v;
+            while (true) {
+                for (int ch = firstChild[y]; ch != -1; ch = nextSibling[ch]) {
+                    if (ch != prev) {
+                        stack[top++] = ch;
+                    }
+                }
+                if (y == x) {
+                    break;
+                }
+                prev = y;
+                y = forestParent[y];
+            }
+        }
+        return score;
+    }
+
+    /** Fills the row and column of a new supernode c whose cycle is path[cycleStart, pathLen). */
+    private void contract(int c, int cycleStart, int pathLen, int numSuper) {
+        int cRow = c * m;
+        for (int u = 0; u < numSuper; u++) {
+            in[cRow + u] = Double.NEGATIVE_INFINITY;
+            if (!active[u]) {
+                continue;
+            }
+            // Edges entering the cycle are adjusted by the weight of the edge they would replace.
+            int uCol = u * m;
+            in[uCol + c] = Double.NEGATIVE_INFINITY;
+            for (int i = cycleStart; i < pathLen; i++) {
+                int y = path[i];
+                int k = y * m + u;
+                double w = in[k] - enterW[y];
+                if (w > in[cRow + u]) {
+                    in[cRow + u] = w;
+                    inSrc[cRow + u] = inSrc[k];
+                    inDst[cRow + u] = inDst[k];
+                }
+                // Edges leaving the cycle.
+                int l = uCol + y;
+                if (in[l] > in[uCol + c]) {
+                    in[uCol + c] = in[l];
+                    inSrc[uCol + c] = inSrc[l];
+                    inDst[uCol + c] = inDst[l];
+                }
+            }
+        }
+    }
+
+    private int find(int x) {
+        int r = x;
+        while (uf[r] != r) {
+            r = uf[r];
+        }
+        while (uf[x] != r) {
+            int next = uf[x];
+            uf[x] = r;
+            x = next;
+        }
+        return r;
+    }
+
+    private void ensureCapacity(int n) {
+        m = 2 * n;
+        if (in.length < m * m) {
+            in = new double[m * m];
+            inSrc = new int[m * m];
+            inDst = new int[m * m];
+        }
+        if (enterW.length < m) {
+            enterW = new double[m];
+            enterSrc = new int[m];
+            enterDst = new int[m];
+            forestParent = new int[m];
+            firstChild = new int[m];
+            nextSibling = new int[m];
+            uf = new int[m];
+            active = new boolean[m];
+            done = new boolean[m];
+            onPath = new boolean[m];
+            path = new int[m];
+        }
+    }
+
+}
@@ -16,6 +16,9 @@ import java.util.Set;
  *   Worst case:   O(m log n)
  *   Average case: O(n (log n) + m)
  *
+ * For dependency parsing, where the graph is complete, prefer {@link DenseEdmonds}: it runs in
+ * O(n^2) over a primitive weight matrix and does not allocate an object per edge.
+ *
  * @author eraldo
  * @author Nicholas Andrews
  * 
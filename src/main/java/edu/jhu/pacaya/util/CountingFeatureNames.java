@@ -26,7 +26,7 @@ public class CountingFeatureNames extends FeatureNames {
 	}
 
 	@Override
-    public int lookupIndex(Object object, boolean addIfMissing) {
+    public synchronized int lookupIndex(Object object, boolean addIfMissing) {
 	    int index = super.lookupIndex(object, addIfMissing);
 	    if (index != MISSING_OBJECT_INDEX) {
 	        while (index+1 > idxCountMap.size()) {
@@ -38,7 +38,7 @@ public class CountingFeatureNames extends FeatureNames {
 	    return index;
 	}
 	
-	public int lookupObjectCount(int index) {
+	public synchronized int lookupObjectCount(int index) {
 	    return idxCountMap.get(index);
 	}
 
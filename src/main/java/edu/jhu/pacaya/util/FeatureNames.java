@@ -6,6 +6,13 @@ import edu.jhu.prim.bimap.IntObjectBimap;
 
 
 
+/**
+ * Bidirectional mapping of feature names to ints.
+ * 
+ * While the alphabet is growing, all lookups are synchronized so that features may be added from
+ * several threads at once. Once growth has stopped, lookups do not lock. Growth must only be
+ * started or stopped while no other thread is using the alphabet.
+ */
 public class FeatureNames extends IntObjectBimap<Object> {
 
 	private static final long serialVersionUID = 1L;
@@ -20,8 +27,48 @@ public class FeatureNames extends IntObjectBimap<Object> {
 		super(other);
 	}
 
+	@Override
+	public int lookupIndex(Object object, boolean addIfMissing) {
+		if (isGrowing()) {
+			synchronized (this) {
+				return super.lookupIndex(object, addIfMissing);
+			}
+		}
+		return super.lookupIndex(object, addIfMissing);
+	}
+
+	@Override
+	public Object lookupObject(int index) {
+		if (isGrowing()) {
+			synchronized (this) {
+				return super.lookupObject(index);
+			}
+		}
+		return super.lookupObject(index);
+	}
+
+	@Override
+	public int size() {
+		if (isGrowing()) {
+			synchronized (this) {
+				return super.size();
+			}
+		}
+		return super.size();
+	}
+
+	@Override
+	public synchronized void startGrowth() {
+		super.startGrowth();
+	}
+
+	@Override
+	public synchronized void stopGrowth() {
+		super.stopGrowth();
+	}
+
 	/** Mark this feature as a bias feature if the alphabet is growing. */
-	public void setIsBias(int index) {
+	public synchronized void setIsBias(int index) {
 		if (isGrowing()) {
 			isBias.set(index, true);
 		}		
@@ -1,13 +1,17 @@
 package edu.jhu.pacaya.util;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.RunnableFuture;
@@ -27,10 +31,14 @@ public class Threads {
 
     private static final Logger log = LoggerFactory.getLogger(Threads.class);
     private static final int DONE = -1;
+    /** The number of tasks per thread which {@link #forEachOrdered} keeps queued by default. */
+    public static final int QUEUED_TASKS_PER_THREAD = 4;
 
     // NOTE: These should never be set except with a call to initDefaultPool().
     public static ExecutorService defaultPool = null;
     public static int numThreads = 0;
+    // Shared fork-join pools, keyed by their parallelism.
+    private static final HashMap<Integer, ForkJoinPool> fjPools = new HashMap<>();
     
     static {
         // Initialize to just one thread.
@@ -56,6 +64,21 @@ public class Threads {
         }
     }
     
+    /**
+     * Gets a shared fork-join pool with the given parallelism. Unlike the default pool, these pools
+     * may safely be used from within a task that is itself running on the default pool (e.g. a
+     * single training example), since they do not share worker threads with it. The worker threads
+     * are daemon threads, so these pools never need to be shutdown.
+     */
+    public static synchronized ForkJoinPool getForkJoinPool(int parallelism) {
+        ForkJoinPool pool = fjPools.get(parallelism);
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+            fjPools.put(parallelism, pool);
+        }
+        return pool;
+    }
+    
     /* ------------------- Functions using the default pool ----------------- */
     
     public static void forEach(int endIdx, final Lambda.FnIntToVoid fn) {
@@ -175,6 +198,39 @@ public class Threads {
         }
     }
 
+
+    /**
+     * Runs a stream of tasks on the pool, and passes their results to the function in input order
+     * on the calling thread. At most maxQueued tasks are submitted but not yet passed on, so that
+     * the results of fast tasks waiting on a slow earlier one cannot pile up without bound.
+     * 
+     * @param pool The pool on which to run the tasks.
+     * @param maxQueued The maximum number of tasks in flight.
+     * @param tasks The tasks.
+     * @param fn The function applied to each result, in input order.
+     */
+    public static <T> void forEachOrdered(ExecutorService pool, int maxQueued, Iterator<? extends Callable<T>> tasks,
+            Lambda.FnO1ToVoid<? super T> fn) {
+        ArrayDeque<Future<T>> queue = new ArrayDeque<>(maxQueued);
+        try {
+            while (tasks.hasNext() || !queue.isEmpty()) {
+                if (tasks.hasNext() && queue.size() < maxQueued) {
+                    queue.add(pool.submit(tasks.next()));
+                } else {
+                    // Wait for the oldest task.
+                    fn.call(queue.poll().get());
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (Future<T> f : queue) {
+                f.cancel(true);
+            }
+        }
+    }
     
     public interface TaskFactory<T> {
         Callable<T> getTask(int i);
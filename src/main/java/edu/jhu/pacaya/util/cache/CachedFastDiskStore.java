@@ -41,9 +41,22 @@ public class CachedFastDiskStore<K,V extends Serializable> extends FastDiskStore
      *            in-memory cache or -1 to use a SoftReference cache.
      * @throws FileNotFoundException
      */
-    @SuppressWarnings("unchecked")
     public CachedFastDiskStore(File path, boolean gzipOnSerialize, int maxEntriesInMemory) throws FileNotFoundException {    
-        super(path, gzipOnSerialize);
+        this(path, new JavaSerializer<V>(gzipOnSerialize), maxEntriesInMemory);
+    }
+
+    /**
+     * Constructor with LRU cache.
+     * 
+     * @param path The file to use as the disk store.
+     * @param serializer The serializer for the values written to disk.
+     * @param maxEntriesInMemory The maximum number of entries to keep in the
+     *            in-memory cache or -1 to use a SoftReference cache.
+     * @throws FileNotFoundException
+     */
+    @SuppressWarnings("unchecked")
+    public CachedFastDiskStore(File path, Serializer<V> serializer, int maxEntriesInMemory) throws FileNotFoundException {    
+        super(path, serializer);
         if (maxEntriesInMemory == -1) {
             cache = new ReferenceMap(ReferenceMap.HARD, ReferenceMap.SOFT);
         } else {
@@ -1,5 +1,6 @@
 package edu.jhu.pacaya.util.cache;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -27,18 +28,22 @@ public class FastDiskStore<K,V extends Serializable> implements Map<K, V> {
     private RandomAccessFile raf;
     // The current insertion position.
     private long curPos;
-    // Whether to gzip serialized objects.
-    private final boolean gzipOnSerialize;
+    // The serializer for the values.
+    private final Serializer<V> serializer;
     // The number of entries.
     private int numEntries;
         
     public FastDiskStore(File path, boolean gzipOnSerialize) throws FileNotFoundException {
+        this(path, new JavaSerializer<V>(gzipOnSerialize));
+    }
+    
+    public FastDiskStore(File path, Serializer<V> serializer) throws FileNotFoundException {
         path.getParentFile().mkdirs();
         keyPosMap = new LinkedHashMap<K, Long>();
         raf = new RandomAccessFile(path, "rw");
         curPos = 0;
         numEntries = 0;
-        this.gzipOnSerialize = gzipOnSerialize;
+        this.serializer = serializer;
     }
     
     @Override
@@ -47,7 +52,7 @@ public class FastDiskStore<K,V extends Serializable> implements Map<K, V> {
             // TODO: support multiple puts per key.
             throw new IllegalStateException("FastDiskStore currently only supports one put call per key.");
         }
-        byte[] valBytes = GzipMap.serialize(value, gzipOnSerialize);
+        byte[] valBytes = serializer.serialize(value);
         try {
             raf.seek(curPos);
             // Write the number of bytes.
@@ -68,7 +73,6 @@ public class FastDiskStore<K,V extends Serializable> implements Map<K, V> {
     }
     
     @Override
-    @SuppressWarnings("unchecked")
     public V get(Object key) {
         Long pos = keyPosMap.get(key);
         if (pos == null) {
@@ -80,7 +84,7 @@ public class FastDiskStore<K,V extends Serializable> implements Map<K, V> {
             }
             raf.seek(pos);
             int numBytes = raf.readInt();
-            return (V) readBytes(numBytes);
+            return readBytes(numBytes);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -90,13 +94,13 @@ public class FastDiskStore<K,V extends Serializable> implements Map<K, V> {
         return numEntries;
     }
     
-    private Object readBytes(int numBytes) throws IOException {
+    private V readBytes(int numBytes) throws IOException {
         byte[] bytes = new byte[numBytes];
         int numRead = raf.read(bytes);
         if (numRead != numBytes) {
             throw new IllegalStateException("Invalid number of bytes read: " + numRead);
         }
-        return GzipMap.deserialize(bytes, gzipOnSerialize);
+        return serializer.deserialize(new ByteArrayInputStream(bytes));
     }
     
 
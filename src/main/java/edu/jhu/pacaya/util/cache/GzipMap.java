@@ -18,40 +18,45 @@ import java.util.zip.GZIPOutputStream;
 public class GzipMap<K, V extends Serializable> implements Map<K,V> {
 
     private Map<K,byte[]> map;
+    private Serializer<V> serializer;
     
     /** Standard constructor which uses a HashMap internally. */
     public GzipMap() {
-        this.map = new HashMap<K,byte[]>();
+        this(new HashMap<K,byte[]>());
     }
     
     /** Wrapper constructor. */
     public GzipMap(Map<K,byte[]> map) {
+        this(map, new JavaSerializer<V>(true));
+    }
+    
+    /** Wrapper constructor which stores the values in the form given by a serializer. */
+    public GzipMap(Map<K,byte[]> map, Serializer<V> serializer) {
         this.map = map;
+        this.serializer = serializer;
     }
     
-    @SuppressWarnings("unchecked")
     @Override
     public V get(Object key) {
         byte[] bytes = map.get(key);
-        return (V) safeDeserialize(bytes);
+        return safeDeserialize(bytes);
     }
 
-    private static Object safeDeserialize(byte[] bytes) {
+    private V safeDeserialize(byte[] bytes) {
         if (bytes == null) {
             return null;
         }
-        return GzipMap.deserialize(bytes, true);
+        return serializer.deserialize(new ByteArrayInputStream(bytes));
     }
 
-    private static byte[] safeSerialize(Serializable value) {
-        return GzipMap.serialize(value, true);
+    private byte[] safeSerialize(V value) {
+        return serializer.serialize(value);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public V put(K key, V value) {
         byte[] bytes = map.put(key, safeSerialize(value));
-        return (V) safeDeserialize(bytes);
+        return safeDeserialize(bytes);
     }
     
     @Override
@@ -69,19 +74,19 @@ public class GzipMap<K, V extends Serializable> implements Map<K,V> {
         return map.containsKey(key);
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public boolean containsValue(Object value) {
         if (value instanceof Serializable) {
-            return map.containsValue(safeSerialize((Serializable) value));
+            return map.containsValue(safeSerialize((V) value));
         } else {
             return false;
         }
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public V remove(Object key) {
-        return (V) safeDeserialize(map.remove(key));
+        return safeDeserialize(map.remove(key));
     }
 
     @Override
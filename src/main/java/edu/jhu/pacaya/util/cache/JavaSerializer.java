@@ -0,0 +1,53 @@
+package edu.jhu.pacaya.util.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Serializer which uses Java object serialization, optionally followed by gzip.
+ * 
+ * @author mgormley
+ * @param <V> The value type.
+ */
+public class JavaSerializer<V extends Serializable> implements Serializer<V> {
+
+    private final boolean gzipOnSerialize;
+
+    /**
+     * @param gzipOnSerialize Whether to gzip the objects after serializing them.
+     */
+    public JavaSerializer(boolean gzipOnSerialize) {
+        this.gzipOnSerialize = gzipOnSerialize;
+    }
+
+    @Override
+    public byte[] serialize(V value) {
+        return GzipMap.serialize(value, gzipOnSerialize);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V deserialize(InputStream is) {
+        try {
+            if (gzipOnSerialize) {
+                is = new GZIPInputStream(is);
+            }
+            ObjectInputStream in = new ObjectInputStream(is);
+            Object inObj = in.readObject();
+            in.close();
+            return (V) inObj;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public boolean isGzipOnSerialize() {
+        return gzipOnSerialize;
+    }
+
+}
@@ -0,0 +1,340 @@
+package edu.jhu.pacaya.util.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Disk-backed, append-only list whose values are read through memory-mapped segments of the data
+ * file.
+ *
+ * Unlike {@link FastDiskStore}, reads do not lock: any number of threads may call
+ * {@link #get(int)} concurrently with each other and with calls to {@link #add(Serializable)}
+ * (which is synchronized). A read only locks when it must (re)map a segment, which happens once
+ * per segment if the store is built before it is read. The offset of each value is also appended
+ * to an index file, so that an existing store can be reopened without rebuilding it.
+ *
+ * The data file is a sequence of records, each of which is the number of bytes (an int) followed
+ * by the serialized value. No record crosses a segment boundary. The index file is a short header,
+ * which names the class of the serializer, followed by the offset (a long) of each record.
+ *
+ * @author mgormley
+ * @param <V> The value type.
+ */
+public class MmapDiskStore<V extends Serializable> implements Closeable {
+
+    private static final int SIZE_OF_INT = Integer.SIZE / 8;
+    private static final int SIZE_OF_LONG = Long.SIZE / 8;
+    private static final long MAGIC = 0x7061636179614d4dL;
+    private static final int VERSION = 2;
+    /** The default size of each mapped segment. */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private final File dataPath;
+    private final File indexPath;
+    private final FileChannel dataChannel;
+    private final FileChannel indexChannel;
+    private final Serializer<V> serializer;
+    private final int segmentSize;
+    // The size of the header of the index file.
+    private int headerSize;
+
+    // The offset of each record. Replaced (never modified in place below numEntries) when grown.
+    private volatile long[] offsets;
+    // The number of records. Written only after the record and its offset are in place.
+    private volatile int numEntries;
+    // The current end of the data file.
+    private long curPos;
+    // The mapped segments of the data file. Each is remapped when a read goes past its limit. The
+    // array is copied on write.
+    private volatile MappedByteBuffer[] segments;
+
+    /**
+     * Opens the store at the given path, or creates it if it does not exist.
+     *
+     * @param dataPath The data file. The index file is dataPath with the suffix ".idx".
+     * @param gzipOnSerialize Whether to gzip the objects after serializing them.
+     */
+    public MmapDiskStore(File dataPath, boolean gzipOnSerialize) throws IOException {
+        this(dataPath, new JavaSerializer<V>(gzipOnSerialize));
+    }
+
+    /**
+     * Opens the store at the given path, or creates it if it does not exist.
+     * 
+     * @param dataPath The data file. The index file is dataPath with the suffix ".idx".
+     * @param serializer The serializer for the values. This must be of the same class as the one
+     *            used when an existing store was created, and must be configured the same way.
+     */
+    public MmapDiskStore(File dataPath, Serializer<V> serializer) throws IOException {
+        this(dataPath, serializer, DEFAULT_SEGMENT_SIZE);
+    }
+
+    MmapDiskStore(File dataPath, Serializer<V> serializer, int segmentSize) throws IOException {
+        if (dataPath.getAbsoluteFile().getParentFile() != null) {
+            dataPath.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        this.dataPath = dataPath;
+        this.indexPath = getIndexPath(dataPath);
+        this.serializer = serializer;
+        this.segmentSize = segmentSize;
+        this.dataChannel = new RandomAccessFile(dataPath, "rw").getChannel();
+        this.indexChannel = new RandomAccessFile(indexPath, "rw").getChannel();
+        this.segments = new MappedByteBuffer[0];
+        if (indexChannel.size() == 0) {
+            writeHeader();
+            offsets = new long[16];
+            numEntries = 0;
+            curPos = 0;
+            dataChannel.truncate(0);
+        } else {
+            readIndex();
+        }
+    }
+
+    /** Gets the path of the index file for a given data file. */
+    public static File getIndexPath(File dataPath) {
+        return new File(dataPath.getPath() + ".idx");
+    }
+
+    /**
+     * Appends a value to the store.
+     *
+     * @return The index of the value.
+     */
+    public synchronized int add(V value) {
+        byte[] valBytes = serializer.serialize(value);
+        int recordSize = SIZE_OF_INT + valBytes.length;
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("Value is too large for a segment: " + recordSize);
+        }
+        long pos = curPos;
+        if (pos / segmentSize != (pos + recordSize - 1) / segmentSize) {
+            // Skip to the start of the next segment.
+            pos = (pos / segmentSize + 1) * segmentSize;
+        }
+        try {
+            // Write the record, then its offset.
+            ByteBuffer rec = ByteBuffer.allocate(recordSize);
+            rec.putInt(valBytes.length);
+            rec.put(valBytes);
+            rec.flip();
+            writeFully(dataChannel, rec, pos);
+            ByteBuffer off = ByteBuffer.allocate(SIZE_OF_LONG);
+            off.putLong(pos);
+            off.flip();
+            writeFully(indexChannel, off, headerSize + (long) numEntries * SIZE_OF_LONG);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        curPos = pos + recordSize;
+        int i = numEntries;
+        if (i == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+        }
+        offsets[i] = pos;
+        // Publish the new entry.
+        numEntries = i + 1;
+        return i;
+    }
+
+    /** Gets the i'th value. Safe to call from any number of threads without locking. */
+    public V get(int i) {
+        if (i < 0 || i >= numEntries) {
+            throw new IndexOutOfBoundsException("Index: " + i + " Size: " + numEntries);
+        }
+        long pos = offsets[i];
+        int s = (int) (pos / segmentSize);
+        int posInSeg = (int) (pos - (long) s * segmentSize);
+        ByteBuffer seg = getSegment(s, posInSeg + SIZE_OF_INT);
+        int numBytes = seg.getInt(posInSeg);
+        seg = getSegment(s, posInSeg + SIZE_OF_INT + numBytes);
+        // A private view, so that concurrent readers do not share a position.
+        ByteBuffer view = seg.duplicate();
+        view.position(posInSeg + SIZE_OF_INT);
+        view.limit(posInSeg + SIZE_OF_INT + numBytes);
+        return serializer.deserialize(new ByteBufferInputStream(view));
+    }
+
+    /** Gets the number of values. */
+    public int size() {
+        return numEntries;
+    }
+
+    /** Forces all the writes to the storage device. */
+    public synchronized void force() {
+        try {
+            dataChannel.force(false);
+            indexChannel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        dataChannel.close();
+        indexChannel.close();
+    }
+
+    public File getDataPath() {
+        return dataPath;
+    }
+
+    /** Gets the s'th segment, remapping it if it does not cover the first minLimit bytes. */
+    private ByteBuffer getSegment(int s, int minLimit) {
+        MappedByteBuffer[] segs = segments;
+        if (s < segs.length && segs[s] != null && segs[s].limit() >= minLimit) {
+            return segs[s];
+        }
+        return remapSegment(s, minLimit);
+    }
+
+    private synchronized ByteBuffer remapSegment(int s, int minLimit) {
+        MappedByteBuffer[] segs = segments;
+        if (s < segs.length && segs[s] != null && segs[s].limit() >= minLimit) {
+            return segs[s];
+        }
+        try {
+            long start = (long) s * segmentSize;
+            long size = Math.min(segmentSize, dataChannel.size() - start);
+            if (size < minLimit) {
+                throw new IllegalStateException("Data file is shorter than its index: " + dataPath);
+            }
+            MappedByteBuffer seg = dataChannel.map(MapMode.READ_ONLY, start, size);
+            segs = Arrays.copyOf(segs, Math.max(segs.length, s + 1));
+            segs[s] = seg;
+            segments = segs;
+            return seg;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        byte[] name = getSerializerName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(SIZE_OF_LONG + 2 * SIZE_OF_INT + name.length);
+        header.putLong(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(name.length);
+        header.put(name);
+        header.flip();
+        indexChannel.truncate(0);
+        writeFully(indexChannel, header, 0);
+        headerSize = header.limit();
+    }
+
+    private void readIndex() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SIZE_OF_LONG + 2 * SIZE_OF_INT);
+        readFully(indexChannel, header, 0);
+        header.flip();
+        if (header.getLong() != MAGIC || header.getInt() != VERSION) {
+            throw new IllegalStateException("Not a valid index file: " + indexPath);
+        }
+        int nameLength = header.getInt();
+        if (nameLength < 0 || nameLength > indexChannel.size() - header.limit()) {
+            throw new IllegalStateException("Not a valid index file: " + indexPath);
+        }
+        ByteBuffer nameBuf = ByteBuffer.allocate(nameLength);
+        readFully(indexChannel, nameBuf, header.limit());
+        String name = new String(nameBuf.array(), StandardCharsets.UTF_8);
+        if (!name.equals(getSerializerName())) {
+            throw new IllegalStateException("Store was created with serializer " + name + ": " + dataPath);
+        }
+        headerSize = header.limit() + nameLength;
+        int n = (int) ((indexChannel.size() - headerSize) / SIZE_OF_LONG);
+        ByteBuffer buf = ByteBuffer.allocate(n * SIZE_OF_LONG);
+        readFully(indexChannel, buf, headerSize);
+        buf.flip();
+        long[] offs = new long[Math.max(16, n)];
+        for (int i=0; i<n; i++) {
+            offs[i] = buf.getLong();
+        }
+        if (n > 0) {
+            // Recover the end of the last record.
+            ByteBuffer len = ByteBuffer.allocate(SIZE_OF_INT);
+            readFully(dataChannel, len, offs[n-1]);
+            len.flip();
+            curPos = offs[n-1] + SIZE_OF_INT + len.getInt();
+        } else {
+            curPos = 0;
+        }
+        if (dataChannel.size() < curPos) {
+            throw new IllegalStateException("Data file is shorter than its index: " + dataPath);
+        }
+        // Drop any partially written record.
+        dataChannel.truncate(curPos);
+        offsets = offs;
+        numEntries = n;
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int numRead = ch.read(buf, pos);
+            if (numRead < 0) {
+                throw new IllegalStateException("Unexpected end of file");
+            }
+            pos += numRead;
+        }
+    }
+
+    /** Gets the name of the serializer's format, which is stored in the header of the index. */
+    private String getSerializerName() {
+        String name = serializer.getClass().getName();
+        if (serializer instanceof JavaSerializer) {
+            name += ((JavaSerializer<?>) serializer).isGzipOnSerialize() ? ":gzip" : "";
+        }
+        return name;
+    }
+
+    /** An input stream which reads the remaining bytes of a ByteBuffer, without copying them. */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buf;
+
+        public ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+
+    }
+
+}
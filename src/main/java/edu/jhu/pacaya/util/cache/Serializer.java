@@ -0,0 +1,24 @@
+package edu.jhu.pacaya.util.cache;
+
+import java.io.InputStream;
+
+/**
+ * Converts values to and from bytes for the caches and disk stores in this package.
+ * 
+ * @author mgormley
+ * @param <V> The value type.
+ */
+public interface Serializer<V> {
+
+    /** Serializes a value. */
+    byte[] serialize(V value);
+
+    /**
+     * Deserializes a value.
+     * 
+     * @param in A stream containing exactly the bytes of one value, as returned by
+     *            {@link #serialize(Object)}.
+     */
+    V deserialize(InputStream in);
+
+}
@@ -0,0 +1,157 @@
+package edu.jhu.pacaya.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * A binary max-heap over the integer keys 0, ..., capacity-1, each with a double priority. Since
+ * the position of each key in the heap is stored, the priority of any key can be updated (or the
+ * key removed) in O(log n) time.
+ *
+ * @author mgormley
+ */
+public class IndexedMaxHeap {
+
+    private static final int ABSENT = -1;
+
+    // The keys in heap order.
+    private int[] heap;
+    // The position of each key in the heap, or ABSENT. Indexed by key.
+    private int[] pos;
+    // The priority of each key. Indexed by key.
+    private double[] priority;
+    // The number of keys in the heap.
+    private int size;
+
+    public IndexedMaxHeap(int capacity) {
+        heap = new int[capacity];
+        pos = new int[capacity];
+        priority = new double[capacity];
+        Arrays.fill(pos, ABSENT);
+        size = 0;
+    }
+
+    /** Adds the key with the given priority, or updates its priority if it is already present. */
+    public void put(int key, double prio) {
+        if (pos[key] == ABSENT) {
+            heap[size] = key;
+            pos[key] = size;
+            priority[key] = prio;
+            size++;
+            siftUp(pos[key]);
+        } else {
+            double old = priority[key];
+            priority[key] = prio;
+            if (prio > old) {
+                siftUp(pos[key]);
+            } else if (prio < old) {
+                siftDown(pos[key]);
+            }
+        }
+    }
+
+    /** Removes the key if it is present. */
+    public void remove(int key) {
+        int i = pos[key];
+        if (i == ABSENT) {
+            return;
+        }
+        size--;
+        if (i != size) {
+            int last = heap[size];
+            heap[i] = last;
+            pos[last] = i;
+            siftUp(i);
+            siftDown(pos[last]);
+        }
+        pos[key] = ABSENT;
+    }
+
+    /** Gets the key with the maximum priority. */
+    public int peekMax() {
+        checkNotEmpty();
+        return heap[0];
+    }
+
+    /** Gets the maximum priority. */
+    public double peekMaxPriority() {
+        checkNotEmpty();
+        return priority[heap[0]];
+    }
+
+    /** Removes and returns the key with the maximum priority. */
+    public int popMax() {
+        int key = peekMax();
+        remove(key);
+        return key;
+    }
+
+    public boolean contains(int key) {
+        return pos[key] != ABSENT;
+    }
+
+    /** Gets the priority of a key which is present in the heap. */
+    public double getPriority(int key) {
+        if (pos[key] == ABSENT) {
+            throw new IllegalArgumentException("Key not in heap: " + key);
+        }
+        return priority[key];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        for (int i=0; i<size; i++) {
+            pos[heap[i]] = ABSENT;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        int key = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (priority[heap[parent]] >= priority[key]) {
+                break;
+            }
+            heap[i] = heap[parent];
+            pos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = key;
+        pos[key] = i;
+    }
+
+    private void siftDown(int i) {
+        int key = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && priority[heap[child + 1]] > priority[heap[child]]) {
+                child++;
+            }
+            if (priority[heap[child]] <= priority[key]) {
+                break;
+            }
+            heap[i] = heap[child];
+            pos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = key;
+        pos[key] = i;
+    }
+
+    private void checkNotEmpty() {
+        if (size == 0) {
+            throw new IllegalStateException("Heap is empty");
+        }
+    }
+
+}
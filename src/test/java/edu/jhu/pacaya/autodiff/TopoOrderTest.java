@@ -1,17 +1,28 @@
 package edu.jhu.pacaya.autodiff;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.List;
 
 import org.junit.Test;
 
+import edu.jhu.pacaya.autodiff.tensor.Combine;
+import edu.jhu.pacaya.autodiff.tensor.ConvertAlgebra;
+import edu.jhu.pacaya.autodiff.tensor.ElemMultiply;
 import edu.jhu.pacaya.autodiff.tensor.Exp;
+import edu.jhu.pacaya.autodiff.tensor.Log;
 import edu.jhu.pacaya.autodiff.tensor.ScalarAdd;
+import edu.jhu.pacaya.autodiff.tensor.Select;
 import edu.jhu.pacaya.autodiff.tensor.Sum;
 import edu.jhu.pacaya.util.collections.QLists;
 import edu.jhu.pacaya.util.semiring.Algebra;
+import edu.jhu.pacaya.util.semiring.LogSignAlgebra;
 import edu.jhu.pacaya.util.semiring.RealAlgebra;
 import edu.jhu.prim.vector.IntDoubleDenseVector;
 
@@ -92,4 +103,171 @@ public class TopoOrderTest {
         ModuleTestUtils.assertGradientCorrectByFd(topo, x, 1e-5, 1e-8);
     }
     
+    @Test
+    public void testReuseOutputs() {
+        Identity<Tensor> id1 = new Identity<Tensor>(TensorUtils.getVectorFromValues(s, 2, 3, 5));
+        Identity<Tensor> id2 = new Identity<Tensor>(TensorUtils.getVectorFromValues(s, 4, 6, 7));
+        ElemMultiply mul = new ElemMultiply(id1, id2);
+        // Convert to another algebra and back, as the circuits for global factors do.
+        ConvertAlgebra<Tensor> conv1 = new ConvertAlgebra<Tensor>(mul, LogSignAlgebra.getInstance());
+        ConvertAlgebra<Tensor> conv2 = new ConvertAlgebra<Tensor>(conv1, s);
+        Log log = new Log(conv2);
+        Combine comb = new Combine(log, id2);
+        Select sel = new Select(comb, 0, 0);
+        Sum sum = new Sum(sel);
+        TopoOrder<Tensor> topo = new TopoOrder<Tensor>(QLists.getList(id1, id2), sum);
+
+        // Without reuse.
+        double expected = topo.forward().getValue(0);
+        topo.getOutputAdj().setValue(0, 1.0);
+        topo.backward();
+        Tensor expectedAdj1 = id1.getOutputAdj().copy();
+        Tensor expectedAdj2 = id2.getOutputAdj().copy();
+
+        // With reuse, the outputs and adjoints are the same tensors on each pass.
+        topo.setReuseOutputs(true);
+        Tensor selOut = null;
+        Tensor combOut = null;
+        Tensor conv1Out = null;
+        Tensor conv2Out = null;
+        for (int i=0; i<3; i++) {
+            topo.zeroOutputAdj();
+            id1.zeroOutputAdj();
+            id2.zeroOutputAdj();
+            assertEquals(expected, topo.forward().getValue(0), 1e-13);
+            topo.getOutputAdj().setValue(0, 1.0);
+            topo.backward();
+            assertTrue(expectedAdj1.equals(id1.getOutputAdj(), 1e-13));
+            assertTrue(expectedAdj2.equals(id2.getOutputAdj(), 1e-13));
+            if (i > 0) {
+                assertSame(selOut, sel.getOutput());
+                assertSame(combOut, comb.getOutput());
+                assertSame(conv1Out, conv1.getOutput());
+                assertSame(conv2Out, conv2.getOutput());
+            }
+            selOut = sel.getOutput();
+            combOut = comb.getOutput();
+            conv1Out = conv1.getOutput();
+            conv2Out = conv2.getOutput();
+        }
+        // Finite differences run many forward passes, on positive inputs for the log.
+        IntDoubleDenseVector x = ModuleTestUtils.getAbsZeroOneGaussian(6);
+        ModuleTestUtils.assertGradientCorrectByFd(topo, x, 1e-5, 1e-8);
+    }
+
+    @Test
+    public void testReleaseOutputs() {
+        Identity<Tensor> id1 = new Identity<Tensor>(TensorUtils.getVectorFromValues(s, 2, 3, 5));
+        Identity<Tensor> id2 = new Identity<Tensor>(TensorUtils.getVectorFromValues(s, 4, 6, 7));
+        ElemMultiply mul = new ElemMultiply(id1, id2);
+        Log log = new Log(mul);
+        Combine comb = new Combine(log, id2);
+        Select sel = new Select(comb, 0, 0);
+        Sum sum = new Sum(sel);
+        TopoOrder<Tensor> topo = new TopoOrder<Tensor>(QLists.getList(id1, id2), sum);
+
+        MemoryPlan plan = topo.getMemoryPlan();
+        List<? extends Module<?>> order = topo.getTopoOrder();
+        assertEquals(order.indexOf(log), plan.getLastUse(order.indexOf(mul)));
+        assertEquals(order.indexOf(sum), plan.getLastUse(order.indexOf(sel)));
+        assertEquals(order.indexOf(sum), plan.getLastUse(order.indexOf(sum)));
+
+        // The log reads the product in backward(), but nothing reads the combination or selection.
+        assertTrue(plan.isReadByBackward(order.indexOf(mul)));
+        assertFalse(plan.isReadByBackward(order.indexOf(comb)));
+        assertFalse(plan.isReadByBackward(order.indexOf(sel)));
+
+        // Without release.
+        double expected = topo.forward().getValue(0);
+        long total = plan.getTotalBytes();
+        long peak = topo.getPeakBytes();
+        assertEquals(Double.BYTES * (3 + 3 + 6 + 3 + 1), total);
+        assertTrue(peak < total);
+        topo.getOutputAdj().setValue(0, 1.0);
+        topo.backward();
+        double expectedAdj = id1.getOutputAdj().getValue(0);
+        assertEquals(1.0 / 2, expectedAdj, 1e-13);
+
+        // With release, the outputs which backward() does not read are released.
+        topo.setReleaseOutputs(true);
+        for (int i=0; i<2; i++) {
+            topo.zeroOutputAdj();
+            id1.zeroOutputAdj();
+            assertEquals(expected, topo.forward().getValue(0), 1e-13);
+            assertEquals(peak, topo.getPeakBytes());
+            assertNotNull(mul.getOutput());
+            try {
+                comb.getOutput();
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException e) {
+                // pass
+            }
+            topo.getOutputAdj().setValue(0, 1.0);
+            topo.backward();
+            assertEquals(expectedAdj, id1.getOutputAdj().getValue(0), 1e-13);
+        }
+
+        topo.setReleaseOutputs(false);
+        assertEquals(expected, topo.forward().getValue(0), 1e-13);
+        assertNotNull(comb.getOutput());
+    }
+
+    @Test
+    public void testReleaseOutputsNested() {
+        Identity<Tensor> id1 = new Identity<Tensor>(TensorUtils.getVectorFromValues(s, 2, 3, 5));
+        Exp exp = new Exp(id1);
+        Combine comb = new Combine(exp, exp);
+        Select sel = new Select(comb, 0, 0);
+        Sum sum = new Sum(sel);
+        TopoOrder<Tensor> inner = new TopoOrder<Tensor>(QLists.getList(id1), sum);
+        Log log = new Log(inner);
+        TopoOrder<Tensor> topo = new TopoOrder<Tensor>(QLists.getList(id1), log);
+
+        double expected = topo.forward().getValue(0);
+        topo.getOutputAdj().setValue(0, 1.0);
+        topo.backward();
+        double expectedAdj = id1.getOutputAdj().getValue(0);
+
+        topo.setReleaseOutputs(true);
+        topo.zeroOutputAdj();
+        id1.zeroOutputAdj();
+        assertEquals(expected, topo.forward().getValue(0), 1e-13);
+        try {
+            comb.getOutput();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // pass
+        }
+        topo.getOutputAdj().setValue(0, 1.0);
+        topo.backward();
+        assertEquals(expectedAdj, id1.getOutputAdj().getValue(0), 1e-13);
+    }
+
+    @Test
+    public void testReleaseOutputToPool() {
+        Identity<Tensor> id1 = new Identity<Tensor>(TensorUtils.getVectorFromValues(s, 2, 3, 5));
+        Exp exp1 = new Exp(id1);
+        Exp exp2 = new Exp(exp1);
+        Exp exp3 = new Exp(exp2);
+        TensorPool pool = new TensorPool();
+        exp1.setPool(pool);
+        exp3.setPool(pool);
+
+        exp1.forward();
+        exp2.forward();
+        Tensor out1 = exp1.getOutput();
+        exp1.releaseOutput();
+        assertEquals(1, pool.size());
+        exp3.forward();
+        assertSame(out1, exp3.getOutput());
+        assertNotSame(exp2.getOutput(), exp3.getOutput());
+        assertEquals(0, pool.size());
+        assertEquals(Math.exp(Math.exp(Math.exp(2))), exp3.getOutput().getValue(0), 1e-13 * exp3.getOutput().getValue(0));
+
+        // A tensor of a different shape is not taken.
+        pool.put(TensorUtils.getVectorFromValues(s, 1, 2));
+        exp3.forward();
+        assertEquals(1, pool.size());
+    }
+
 }
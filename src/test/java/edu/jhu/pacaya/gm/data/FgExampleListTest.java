@@ -1,10 +1,17 @@
 package edu.jhu.pacaya.gm.data;
 
 import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import edu.jhu.pacaya.gm.data.FgExampleListBuilder.ExampleConsumer;
 import edu.jhu.pacaya.gm.feat.FactorTemplateList;
 import edu.jhu.pacaya.gm.model.FactorGraph;
 import edu.jhu.pacaya.gm.model.FactorGraphsForTests;
 import edu.jhu.pacaya.gm.model.Var;
+import edu.jhu.pacaya.gm.model.Var.VarType;
 import edu.jhu.pacaya.gm.model.VarConfig;
 
 public class FgExampleListTest {
@@ -29,4 +36,35 @@ public class FgExampleListTest {
         assertEquals(2, fts.getNumObsFeats());
     }
 
+    @Test
+    public void testParallelConstructAndStoreAllPreservesOrder() {
+        final int n = 200;
+        FgExampleList examples = new FgExampleList() {
+            @Override
+            public LFgExample get(int i) {
+                FactorGraph fg = new FactorGraph();
+                fg.addVar(new Var(VarType.PREDICTED, 2, "v" + i, null));
+                return new UnlabeledFgExample(fg);
+            }
+            @Override
+            public int size() {
+                return n;
+            }
+        };
+        final AtomicInteger numConsumed = new AtomicInteger();
+        FgExampleMemoryStore store = new FgExampleMemoryStore();
+        FgExampleListBuilder.constructAndStoreAll(examples, store, 4, new ExampleConsumer() {
+            @Override
+            public void accept(int i, LFgExample ex) {
+                assertEquals("v" + i, ex.getFactorGraph().getVar(0).getName());
+                numConsumed.incrementAndGet();
+            }
+        });
+        assertEquals(n, store.size());
+        assertEquals(n, numConsumed.get());
+        for (int i=0; i<n; i++) {
+            assertEquals("v" + i, store.get(i).getFactorGraph().getVar(0).getName());
+        }
+    }
+
 }
@@ -0,0 +1,169 @@
+package edu.jhu.pacaya.gm.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import edu.jhu.pacaya.gm.feat.FeatureVector;
+import edu.jhu.pacaya.gm.model.ClampFactor;
+import edu.jhu.pacaya.gm.model.ExplicitExpFamFactor;
+import edu.jhu.pacaya.gm.model.ExplicitFactor;
+import edu.jhu.pacaya.gm.model.Factor;
+import edu.jhu.pacaya.gm.model.FactorGraph;
+import edu.jhu.pacaya.gm.model.FactorGraphsForTests;
+import edu.jhu.pacaya.gm.model.FactorGraphsForTests.FgAndVars;
+import edu.jhu.pacaya.gm.model.Var;
+import edu.jhu.pacaya.gm.model.VarSet;
+import edu.jhu.pacaya.util.cache.JavaSerializer;
+
+public class FgExampleSerializerTest {
+
+    @Test
+    public void testRoundTripLabeled() {
+        LabeledFgExample ex = getExample();
+        checkRoundTrip(ex, new FgExampleSerializer(false));
+        checkRoundTrip(ex, new FgExampleSerializer(true));
+    }
+
+    @Test
+    public void testRoundTripUnlabeled() {
+        UnlabeledFgExample ex = new UnlabeledFgExample(getExample().getFactorGraph());
+        checkRoundTrip(ex, new FgExampleSerializer(false));
+        checkRoundTrip(ex, new FgExampleSerializer(true));
+    }
+
+    @Test
+    public void testRepeatedRoundTripsReuseVars() {
+        FgExampleSerializer ser = new FgExampleSerializer(false);
+        LFgExample[] exs = new LFgExample[]{ getExample(), new UnlabeledFgExample(getExample().getFactorGraph()) };
+        byte[][] store = new byte[exs.length][];
+        for (int i=0; i<exs.length; i++) {
+            store[i] = ser.serialize(exs[i]);
+        }
+        LFgExample[] first = new LFgExample[exs.length];
+        for (int r=0; r<3; r++) {
+            for (int i=0; i<exs.length; i++) {
+                checkRoundTrip(exs[i], ser);
+                LFgExample ex2 = ser.deserialize(new ByteArrayInputStream(store[i]));
+                if (r == 0) {
+                    first[i] = ex2;
+                }
+                FactorGraph fg = first[i].getFactorGraph();
+                FactorGraph fg2 = ex2.getFactorGraph();
+                for (int v=0; v<fg.getNumVars(); v++) {
+                    assertTrue(fg.getVar(v) == fg2.getVar(v));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() {
+        LabeledFgExample ex = getExample();
+        int compactSize = new FgExampleSerializer(false).serialize(ex).length;
+        int javaSize = new JavaSerializer<LFgExample>(false).serialize(ex).length;
+        assertTrue(compactSize + " " + javaSize, compactSize < javaSize);
+    }
+
+    @Test
+    public void testFeatureVector() throws IOException {
+        FeatureVector fv = new FeatureVector(new int[]{ 5, 2, 1000000, 0, 7 }, new double[]{ 1, 2.5, -1, 1, 0.5 });
+        FeatureVector ones = new FeatureVector(new int[]{ 3, 1, 4 }, new double[]{ 1, 1, 1 });
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        FgExampleSerializer.writeFeatureVector(out, fv);
+        FgExampleSerializer.writeFeatureVector(out, ones);
+        out.close();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        assertEqualFeatures(fv, FgExampleSerializer.readFeatureVector(in));
+        assertEqualFeatures(ones, FgExampleSerializer.readFeatureVector(in));
+        assertEquals(-1, in.read());
+    }
+
+    /**
+     * Gets a linear chain, whose variables are added to the factor graph in a different order than
+     * they were created, with an additional feature-based factor and a clamp factor (which is
+     * written with Java serialization).
+     */
+    private static LabeledFgExample getExample() {
+        FgAndVars fgv = FactorGraphsForTests.getLinearChainFgWithVars();
+        FactorGraph fg = fgv.fg;
+        ExplicitExpFamFactor eff = new ExplicitExpFamFactor(new VarSet(fgv.t0, fgv.t1));
+        eff.setFeatures(0, new FeatureVector(new int[]{ 3, 1, 4 }, new double[]{ 1, 1, 1 }));
+        eff.setFeatures(2, new FeatureVector(new int[]{ 9, 2 }, new double[]{ 0.5, -2 }));
+        eff.setValue(1, 0.25);
+        fg.addFactor(eff);
+        fg.addFactor(new ClampFactor(fgv.w1, 1));
+        LabeledFgExample ex = new LabeledFgExample(fg, fgv.goldConfig);
+        ex.setWeight(2.5);
+        return ex;
+    }
+
+    private static void checkRoundTrip(LFgExample ex, FgExampleSerializer ser) {
+        byte[] bytes = ser.serialize(ex);
+        LFgExample ex2 = ser.deserialize(new ByteArrayInputStream(bytes));
+        assertEquals(ex.getClass(), ex2.getClass());
+        FactorGraph fg = ex.getFactorGraph();
+        FactorGraph fg2 = ex2.getFactorGraph();
+        assertEquals(fg.getNumVars(), fg2.getNumVars());
+        for (int v=0; v<fg.getNumVars(); v++) {
+            Var var = fg.getVar(v);
+            Var var2 = fg2.getVar(v);
+            assertEquals(v, var2.getId());
+            assertEquals(var.getName(), var2.getName());
+            assertEquals(var.getType(), var2.getType());
+            assertEquals(var.getNumStates(), var2.getNumStates());
+            assertEquals(var.getStateNames(), var2.getStateNames());
+        }
+        assertEquals(fg.getNumFactors(), fg2.getNumFactors());
+        for (int a=0; a<fg.getNumFactors(); a++) {
+            Factor f = fg.getFactor(a);
+            Factor f2 = fg2.getFactor(a);
+            assertEquals(f.getClass(), f2.getClass());
+            assertEquals(a, f2.getId());
+            assertEquals(f.getVars().size(), f2.getVars().size());
+            for (int i=0; i<f.getVars().size(); i++) {
+                // The variables must be in the same order, since it determines the layout of the values.
+                assertEquals(f.getVars().get(i).getName(), f2.getVars().get(i).getName());
+                assertTrue(fg2.getVar(f2.getVars().get(i).getId()) == f2.getVars().get(i));
+            }
+            assertArrayEquals(((ExplicitFactor) f).getValues(), ((ExplicitFactor) f2).getValues(), 0.0);
+            if (f instanceof ExplicitExpFamFactor) {
+                for (int c=0; c<f.getVars().calcNumConfigs(); c++) {
+                    FeatureVector fv = ((ExplicitExpFamFactor) f).getFeatures(c);
+                    FeatureVector fv2 = ((ExplicitExpFamFactor) f2).getFeatures(c);
+                    if (fv == null) {
+                        assertNull(fv2);
+                    } else {
+                        assertEqualFeatures(fv, fv2);
+                    }
+                }
+            }
+        }
+        if (ex instanceof LabeledFgExample) {
+            assertEquals(ex.getWeight(), ex2.getWeight(), 0.0);
+            assertEquals(ex.getGoldConfig().size(), ex2.getGoldConfig().size());
+            for (int v=0; v<fg.getNumVars(); v++) {
+                assertEquals(ex.getGoldConfig().getState(fg.getVar(v)), ex2.getGoldConfig().getState(fg2.getVar(v)));
+            }
+        }
+    }
+
+    private static void assertEqualFeatures(FeatureVector fv, FeatureVector fv2) {
+        assertEquals(fv.getUsed(), fv2.getUsed());
+        for (int i=0; i<fv.getUsed(); i++) {
+            assertEquals(fv.getInternalIndices()[i], fv2.getInternalIndices()[i]);
+            assertEquals(fv.getInternalValues()[i], fv2.getInternalValues()[i], 0.0);
+        }
+    }
+
+}
@@ -4,10 +4,15 @@ import static org.junit.Assert.assertEquals;
 
 import org.junit.Test;
 
+import edu.jhu.pacaya.gm.data.FgExampleList;
+import edu.jhu.pacaya.gm.data.FgExampleListBuilder;
+import edu.jhu.pacaya.gm.data.FgExampleListBuilder.ExampleConsumer;
+import edu.jhu.pacaya.gm.data.FgExampleListBuilder.FgExamplesBuilderPrm;
 import edu.jhu.pacaya.gm.data.FgExampleMemoryStore;
 import edu.jhu.pacaya.gm.data.LFgExample;
 import edu.jhu.pacaya.gm.data.LabeledFgExample;
 import edu.jhu.pacaya.gm.data.UFgExample;
+import edu.jhu.pacaya.gm.data.UnlabeledFgExample;
 import edu.jhu.pacaya.gm.feat.ObsFeatureConjoiner.ObsFeatureConjoinerPrm;
 import edu.jhu.pacaya.gm.model.FactorGraph;
 import edu.jhu.pacaya.gm.model.Var;
@@ -79,6 +84,66 @@ public class ObsFeatureConjoinerTest {
         assertEquals(expectedNumParams, ofc.getNumParams());
     }
     
+    @Test
+    public void testParallelAndPrecountedMatchSerial() {
+        for (boolean useLat : new boolean[]{ false, true }) {
+            String serial = getInitializedOfc(useLat, 1, false).toString();
+            assertEquals(serial, getInitializedOfc(useLat, 4, false).toString());
+            assertEquals(serial, getInitializedOfc(useLat, 4, true).toString());
+        }
+    }
+
+    @Test
+    public void testExtractWithoutCutoffAcceptsUnlabeledExamples() {
+        FactorTemplateList fts = getFtl(false);
+        ObsFeatureConjoinerPrm prm = new ObsFeatureConjoinerPrm();
+        prm.includeUnsupportedFeatures = true;
+        ObsFeatureConjoiner ofc = new ObsFeatureConjoiner(prm, fts);
+        
+        FgExampleMemoryStore data = new FgExampleMemoryStore();
+        for (int i=0; i<3; i++) {
+            LFgExample ex = getExForFts("1a", "2a", ofc, fts, false);
+            // Would throw if the gold configuration were read.
+            ex = new UnlabeledFgExample(ex.getFactorGraph(), fts);
+            ofc.extractAndCount(ex);
+            data.add(ex);
+        }
+        ofc.init(data);
+        assertEquals(20, ofc.getNumParams());
+    }
+
+    /**
+     * Gets an initialized ObsFeatureConjoiner, which has either counted the features itself or
+     * had them counted as the examples were stored by FgExampleListBuilder.
+     */
+    private ObsFeatureConjoiner getInitializedOfc(boolean useLat, int numThreads, boolean precount) {
+        FactorTemplateList fts = getFtl(useLat);
+        ObsFeatureConjoinerPrm prm = new ObsFeatureConjoinerPrm();
+        prm.includeUnsupportedFeatures = false;
+        prm.numThreads = numThreads;
+        final ObsFeatureConjoiner ofc = new ObsFeatureConjoiner(prm, fts);
+        
+        FgExampleMemoryStore data = new FgExampleMemoryStore();
+        String[][] states = { {"1a", "2a"}, {"1a", "2c"}, {"1b", "2b"}, {"1b", "2c"} };
+        for (int i=0; i<25; i++) {
+            data.add(getExForFts(states[i % 4][0], states[i % 4][1], ofc, fts, useLat));
+        }
+        FgExampleList list = data;
+        if (precount) {
+            FgExamplesBuilderPrm bPrm = new FgExamplesBuilderPrm();
+            bPrm.numThreads = numThreads;
+            list = new FgExampleListBuilder(bPrm).getInstance(data, new ExampleConsumer() {
+                @Override
+                public void accept(int i, LFgExample ex) {
+                    ofc.extractAndCount(ex);
+                }
+            });
+        }
+        ofc.init(list);
+        assertEquals(useLat ? 6+6 : 6+4, ofc.getNumParams());
+        return ofc;
+    }
+    
     public static class MockFeatureExtractor implements ObsFeatureExtractor {
 
         protected FactorTemplateList fts;
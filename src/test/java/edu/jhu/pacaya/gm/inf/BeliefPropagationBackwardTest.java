@@ -244,6 +244,69 @@ public class BeliefPropagationBackwardTest {
         testGradientByFiniteDifferences(fg, goldConfig, prm);
     }
 
+    @Test
+    public void testErmaGradientCheckpointedTape() {
+        FgAndVars fgv = FactorGraphsForTests.getLinearChainFgWithVars();
+        FactorGraph fg = fgv.fg;
+        
+        // Add a loop and a global factor.
+        fg.addFactor(new ExplicitFactor(new VarSet(fgv.t0, fgv.t2)));
+        fg.addFactor(new GlobalExplicitFactor(new VarSet(fgv.w0, fgv.w1, fgv.w2)));
+        
+        VarConfig goldConfig = new VarConfig();
+        goldConfig.put(fgv.w0, 0);
+        goldConfig.put(fgv.w1, 1);
+        goldConfig.put(fgv.w2, 0);
+        goldConfig.put(fgv.t1, 1);
+        goldConfig.put(fgv.t2, 1);
+        
+        for (BpUpdateOrder updateOrder : BpUpdateOrder.values()) {
+            BeliefPropagationPrm prm = new BeliefPropagationPrm();
+            prm.updateOrder = updateOrder;
+            prm.maxIterations = 7;
+            prm.s = s;
+            prm.normalizeMessages = true;
+            ExpectedRecallFn fn = new ExpectedRecallFn(fg, goldConfig, prm);
+            IntDoubleVector theta0 = ModuleTestUtils.getAbsZeroOneGaussian(fn.getNumDimensions());
+            IntDoubleVector expected = fn.getGradient(theta0);
+            
+            // The gradient is the same for any checkpoint interval.
+            for (int k = 1; k <= prm.maxIterations + 2; k++) {
+                prm.checkpointInterval = k;
+                assertTrue(infNorm(expected, fn.getGradient(theta0)) < 1e-13);
+            }
+            // And when the interval is chosen from a memory budget.
+            prm.checkpointInterval = 0;
+            prm.maxTapeBytes = 1000;
+            assertTrue(infNorm(expected, fn.getGradient(theta0)) < 1e-13);
+        }
+    }
+    
+    @Test
+    public void testErmaGradientResidualSchedule() {
+        FgAndVars fgv = FactorGraphsForTests.getLinearChainFgWithVars();
+        FactorGraph fg = fgv.fg;
+        
+        // Add a loop and a global factor.
+        fg.addFactor(new ExplicitFactor(new VarSet(fgv.t0, fgv.t2)));
+        fg.addFactor(new GlobalExplicitFactor(new VarSet(fgv.w0, fgv.w1, fgv.w2)));
+        
+        VarConfig goldConfig = new VarConfig();
+        goldConfig.put(fgv.w0, 0);
+        goldConfig.put(fgv.w1, 1);
+        goldConfig.put(fgv.w2, 0);
+        goldConfig.put(fgv.t1, 1);
+        goldConfig.put(fgv.t2, 1);
+        
+        BeliefPropagationPrm prm = new BeliefPropagationPrm();
+        prm.schedule = BpScheduleType.RESIDUAL;
+        prm.maxMessages = 40;
+        prm.s = s;
+        prm.normalizeMessages = true;
+        
+        testGradientByFiniteDifferences(fg, goldConfig, prm);
+    }
+    
     @Test
     public void testErmaGradient1WordGlobalFactor() {
         double[] root = new double[]{ 1.0 };
@@ -31,6 +31,7 @@ import edu.jhu.pacaya.util.semiring.LogSignAlgebra;
 import edu.jhu.pacaya.util.semiring.RealAlgebra;
 import edu.jhu.pacaya.util.semiring.ShiftedRealAlgebra;
 import edu.jhu.pacaya.util.semiring.SplitAlgebra;
+import edu.jhu.prim.util.random.Prng;
 
 
 public class BeliefPropagationTest {
@@ -444,6 +445,116 @@ public class BeliefPropagationTest {
         assertEqualMarginals(fg, bp1, bp2);
     }
     
+    @Test
+    public void testThreadedParallelUpdateOrder() throws Exception {
+        // Each message is computed in exactly the same way, so the results should be identical.
+        helpThreadedParallelUpdateOrder(LogSemiring.getInstance(), Integer.MAX_VALUE, true);
+        helpThreadedParallelUpdateOrder(RealAlgebra.getInstance(), Integer.MAX_VALUE, true);
+        helpThreadedParallelUpdateOrder(LogSemiring.getInstance(), 0, false); // var dividing out
+    }
+    
+    private void helpThreadedParallelUpdateOrder(Algebra s, int minVarNbsForCache, boolean keepTape) {
+        Prng.seed(123456789l);
+        FactorGraph fg = FactorGraphsForTests.getGridGraph(6, 7, 3);
+        BeliefPropagationPrm prm1 = getDefaultBpPrmLoopy(s);
+        prm1.updateOrder = BpUpdateOrder.PARALLEL;
+        prm1.maxIterations = 15;
+        prm1.minVarNbsForCache = minVarNbsForCache;
+        prm1.keepTape = keepTape;
+        BeliefPropagation bp1 = new BeliefPropagation(fg, prm1);        
+        bp1.run();
+        BeliefPropagationPrm prm2 = getDefaultBpPrmLoopy(s);
+        prm2.updateOrder = BpUpdateOrder.PARALLEL;
+        prm2.maxIterations = 15;
+        prm2.minVarNbsForCache = minVarNbsForCache;
+        prm2.keepTape = keepTape;
+        prm2.numThreads = 4;
+        prm2.minEdgesPerChunk = 8;
+        BeliefPropagation bp2 = new BeliefPropagation(fg, prm2);        
+        bp2.run();
+        if (minVarNbsForCache == Integer.MAX_VALUE) {
+            assertEqualMarginals(fg, bp1, bp2, 0.0);
+        } else {
+            // The cached beliefs are updated in the (random) schedule order, so only compare up to
+            // rounding error.
+            for (Var var : fg.getVars()) {
+                assertTrue(bp1.getMarginals(var).equals(bp2.getMarginals(var), 1e-13));
+            }
+            assertEquals(bp1.getLogPartition(), bp2.getLogPartition(), 1e-10);
+        }
+        assertEquals(bp1.isConverged(), bp2.isConverged());
+    }
+    
+    @Test
+    public void testResidualScheduleOnChain() {
+        FactorGraph fg = BruteForceInferencerTest.getLinearChainGraph();
+        for (Algebra s : new Algebra[]{ RealAlgebra.getInstance(), LogSemiring.getInstance() }) {
+            BruteForceInferencer bf = new BruteForceInferencer(fg, s);
+            bf.run();
+            BeliefPropagationPrm prm = getDefaultBpPrmLoopy(s);
+            prm.schedule = BpScheduleType.RESIDUAL;
+            BeliefPropagation bp = new BeliefPropagation(fg, prm);        
+            bp.run();
+            assertTrue(bp.isConverged());
+            assertEqualMarginals(fg, bf, bp, 1e-10);
+        }
+    }
+    
+    @Test
+    public void testResidualScheduleOnGrid() {
+        Algebra s = LogSemiring.getInstance();
+        Prng.seed(123456789l);
+        FactorGraph fg = FactorGraphsForTests.getGridGraph(5, 5, 3);
+        // Flooding schedule.
+        BeliefPropagationPrm prm1 = getDefaultBpPrmLoopy(s);
+        prm1.updateOrder = BpUpdateOrder.PARALLEL;
+        prm1.maxIterations = 1000;
+        prm1.convergenceThreshold = 1e-10;
+        BeliefPropagation bp1 = new BeliefPropagation(fg, prm1);        
+        bp1.run();
+        assertTrue(bp1.isConverged());
+        // Residual schedule.
+        BeliefPropagationPrm prm2 = getDefaultBpPrmLoopy(s);
+        prm2.schedule = BpScheduleType.RESIDUAL;
+        prm2.maxIterations = 1000;
+        prm2.convergenceThreshold = 1e-10;
+        BeliefPropagation bp2 = new BeliefPropagation(fg, prm2);        
+        bp2.run();
+        assertTrue(bp2.isConverged());
+        for (Var var : fg.getVars()) {
+            assertTrue(bp1.getMarginals(var).equals(bp2.getMarginals(var), 1e-8));
+        }
+        
+        // With a message budget which is too small.
+        prm2.maxMessages = 10;
+        bp2 = new BeliefPropagation(fg, prm2);        
+        bp2.run();
+        assertTrue(!bp2.isConverged());
+    }
+    
+    @Test
+    public void testResidualScheduleWithGlobalFactor() throws IOException {
+        FactorGraph fg = getThreeConnectedComponentsFactorGraph();
+        VarSet allVars = new VarSet(fg.getVars().toArray(new Var[0]));
+        ExplicitFactor gf = new GlobalExplicitFactor(allVars);
+        for (int c=0; c<gf.size(); c++) {
+            gf.setValue(c, c + 2);
+        }
+        gf.convertRealToLog();
+        fg.addFactor(gf);
+
+        Algebra s = LogSemiring.getInstance();
+        BruteForceInferencer bf = new BruteForceInferencer(fg, s);
+        bf.run();
+        BeliefPropagationPrm prm = getDefaultBpPrmLoopy(s);
+        prm.schedule = BpScheduleType.RESIDUAL;
+        prm.convergenceThreshold = 1e-13;
+        BeliefPropagation bp = new BeliefPropagation(fg, prm);
+        bp.run();
+        assertTrue(bp.isConverged());
+        assertEqualMarginals(fg, bf, bp, 1e-10);
+    }
+    
     @Test
     public void testGlobalExplicitFactor() throws IOException {
         FactorGraph fg = getThreeConnectedComponentsFactorGraph();
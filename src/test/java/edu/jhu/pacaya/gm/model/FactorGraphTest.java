@@ -52,6 +52,25 @@ public class FactorGraphTest {
         assertEquals(1, fg.getConnectedComponents().size());
     }
     
+    @Test
+    public void testGetFactorConfigMaps() {
+        FactorGraph fg = FactorGraphsForTests.getLinearChainGraph();
+        int[][][] maps = fg.getFactorConfigMaps();
+        assertTrue(maps == fg.getFactorConfigMaps());
+        assertEquals(fg.getNumFactors(), maps.length);
+        for (int a=0; a<fg.getNumFactors(); a++) {
+            Factor f = fg.getFactor(a);
+            assertEquals(f.getVars().size(), maps[a].length);
+            for (int nb=0; nb<maps[a].length; nb++) {
+                Var var = fg.getVar(fg.getBipgraph().childT2(a, nb));
+                int idx = f.getVars().indexOf(var);
+                for (int c=0; c<f.getVars().calcNumConfigs(); c++) {
+                    assertEquals(f.getVars().getVarConfigAsArray(c)[idx], maps[a][nb][c]);
+                }
+            }
+        }
+    }
+    
     @Test
     public void testGetClamped() {
         FgAndVars fgv = FactorGraphsForTests.getLinearChainFgWithVars();
@@ -5,6 +5,7 @@ import edu.jhu.pacaya.gm.feat.ObsFeatureConjoiner;
 import edu.jhu.pacaya.gm.feat.ObsFeatureExtractor;
 import edu.jhu.pacaya.gm.model.Var.VarType;
 import edu.jhu.pacaya.util.collections.QLists;
+import edu.jhu.prim.util.random.Prng;
 
 // TODO: Move FactorGraphTest.* and CrfTrainerTest.* here.
 public class FactorGraphsForTests {
@@ -444,6 +445,44 @@ public class FactorGraphsForTests {
         return fgv;
     }
 
+    /**
+     * Gets a loopy grid-structured factor graph with random unary and pairwise (log-domain)
+     * potentials. The potentials are drawn from Prng, so the caller should seed it.
+     */
+    public static FactorGraph getGridGraph(int numRows, int numCols, int numStates) {
+        FactorGraph fg = new FactorGraph();
+        Var[][] vars = new Var[numRows][numCols];
+        for (int i=0; i<numRows; i++) {
+            for (int j=0; j<numCols; j++) {
+                vars[i][j] = new Var(VarType.PREDICTED, numStates, "x_"+i+"_"+j, null);
+                ExplicitFactor unary = new ExplicitFactor(new VarSet(vars[i][j]));
+                fillRandomly(unary);
+                fg.addFactor(unary);
+            }
+        }
+        for (int i=0; i<numRows; i++) {
+            for (int j=0; j<numCols; j++) {
+                if (i+1 < numRows) {
+                    ExplicitFactor down = new ExplicitFactor(new VarSet(vars[i][j], vars[i+1][j]));
+                    fillRandomly(down);
+                    fg.addFactor(down);
+                }
+                if (j+1 < numCols) {
+                    ExplicitFactor right = new ExplicitFactor(new VarSet(vars[i][j], vars[i][j+1]));
+                    fillRandomly(right);
+                    fg.addFactor(right);
+                }
+            }
+        }
+        return fg;
+    }
+
+    private static void fillRandomly(ExplicitFactor f) {
+        for (int c=0; c<f.size(); c++) {
+            f.setValue(c, Prng.nextDouble() * 2 - 1);
+        }
+    }
+    
     /** Extremely simple factor graph with just one variable. */
     public static FactorGraph getOneVarFg() {
         return getOneVarFgAndVars().fg;
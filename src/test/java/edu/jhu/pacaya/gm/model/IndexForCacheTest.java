@@ -0,0 +1,75 @@
+package edu.jhu.pacaya.gm.model;
+
+import static edu.jhu.pacaya.gm.model.IndexForVcTest.getVar;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import edu.jhu.prim.util.random.Prng;
+
+public class IndexForCacheTest {
+
+    @Test
+    public void testMatchesIndexForOnRandomVarSets() {
+        Prng.seed(1l);
+        Var[] vars = new Var[6];
+        for (int i=0; i<vars.length; i++) {
+            vars[i] = getVar(i, 1 + Prng.nextInt(4));
+        }
+        for (int t=0; t<200; t++) {
+            VarSet indexVars = getRandomSubset(vars);
+            VarSet forVars = getRandomSubset(vars);
+            int[] expected = IndexForCache.computeConfigArr(indexVars, forVars);
+            assertArrayEquals(expected, IndexForCache.getConfigArr(indexVars, forVars));
+            assertArrayEquals(expected, indexVars.getConfigArr(forVars));
+        }
+    }
+
+    @Test
+    public void testSameShapeSharesArray() {
+        // Different variables with the same ranges and alignment.
+        VarSet i1 = new VarSet(getVar(0, 2), getVar(1, 3));
+        VarSet f1 = new VarSet(i1.get(1), getVar(2, 4));
+        VarSet i2 = new VarSet(getVar(3, 2), getVar(4, 3));
+        VarSet f2 = new VarSet(i2.get(1), getVar(5, 4));
+        assertSame(IndexForCache.getConfigArr(i1, f1), IndexForCache.getConfigArr(i2, f2));
+    }
+
+    @Test
+    public void testDifferentAlignmentDoesNotShareArray() {
+        Var v0 = getVar(0, 3);
+        Var v1 = getVar(1, 3);
+        Var v2 = getVar(2, 3);
+        // The for-vars have the same ranges, but align to different index vars.
+        VarSet indexVars = new VarSet(v0, v1);
+        int[] a1 = IndexForCache.getConfigArr(indexVars, new VarSet(v0, v2));
+        int[] a2 = IndexForCache.getConfigArr(indexVars, new VarSet(v1, v2));
+        assertNotSame(a1, a2);
+        assertArrayEquals(new int[]{ 0, 0, 0, 3, 3, 3, 6, 6, 6 }, a1);
+        assertArrayEquals(new int[]{ 0, 0, 0, 1, 1, 1, 2, 2, 2 }, a2);
+    }
+
+    @Test
+    public void testLargeArraysAreNotCached() {
+        VarSet vars = new VarSet(getVar(0, 300), getVar(1, 300));
+        assertFalse(IndexForCache.isCacheable(vars));
+        int[] a1 = IndexForCache.getConfigArr(vars, vars);
+        int[] a2 = IndexForCache.getConfigArr(vars, vars);
+        assertNotSame(a1, a2);
+        assertArrayEquals(a1, a2);
+    }
+
+    private static VarSet getRandomSubset(Var[] vars) {
+        VarSet subset = new VarSet();
+        for (Var v : vars) {
+            if (Prng.nextBoolean()) {
+                subset.add(v);
+            }
+        }
+        return subset;
+    }
+
+}
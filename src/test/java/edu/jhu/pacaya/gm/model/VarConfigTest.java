@@ -131,4 +131,47 @@ public class VarConfigTest {
         
         assertEquals(config.getVars().calcNumConfigs()-1, config.getConfigIndex());
     }
+    
+    @Test
+    public void testPutOutOfOrderAndGetSubset() {
+        Var w0 = new Var(VarType.PREDICTED, 2, "w0", null);
+        Var w1 = new Var(VarType.PREDICTED, 5, "w1", null);
+        Var w2 = new Var(VarType.PREDICTED, 3, "w2", null);
+        Var w3 = new Var(VarType.PREDICTED, 4, "w3", null);
+        Var w4 = new Var(VarType.PREDICTED, 6, "w4", null);
+        
+        VarConfig config = new VarConfig();
+        config.put(w4, 5);
+        config.put(w2, 1);
+        config.put(w0, 1);
+        config.put(w3, 3);
+        config.put(w1, 2);
+        config.put(w2, 2);
+        
+        VarConfig other = new VarConfig();
+        other.put(w0, 1);
+        other.put(w1, 2);
+        other.put(w2, 2);
+        other.put(w3, 3);
+        other.put(w4, 5);
+        assertEquals(other, config);
+        assertEquals(other.hashCode(), config.hashCode());
+        assertEquals(other.getConfigIndex(), config.getConfigIndex());
+        
+        VarConfig sub = config.getSubset(new VarSet(w1, w4));
+        assertEquals(2, sub.size());
+        assertEquals(2, sub.getState(w1));
+        assertEquals(5, sub.getState(w4));
+        assertEquals(-1, sub.getState(w0, -1));
+        assertEquals(2*6 + 5, sub.getConfigIndex());
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void testGetSubsetOfMissingVar() {
+        Var w0 = new Var(VarType.PREDICTED, 2, "w0", null);
+        Var w1 = new Var(VarType.PREDICTED, 5, "w1", null);
+        VarConfig config = new VarConfig();
+        config.put(w0, 1);
+        config.getSubset(new VarSet(w0, w1));
+    }
 }
@@ -199,6 +199,41 @@ public class VarTensorTest {
         JUnitUtils.assertArrayEquals(new double[]{.6, .4}, marg.getValues(), 1e-13);
     }
 
+    @Test
+    public void testGetMarginalWithMap() {
+        Var v0 = VarSetTest.getVar(0, 2);
+        Var v1 = VarSetTest.getVar(1, 3);
+        VarTensor f1 = new VarTensor(s, new VarSet(v0, v1));
+        for (int c=0; c<f1.size(); c++) {
+            f1.setValue(c, c + 1);
+        }
+        for (Var v : new Var[]{ v0, v1 }) {
+            VarTensor expected = f1.getMarginal(new VarSet(v), false);
+            VarTensor marg = new VarTensor(s, new VarSet(v), 7.0);
+            f1.getMarginal(marg, marg.getVars().getConfigArr(f1.getVars()));
+            JUnitUtils.assertArrayEquals(expected.getValues(), marg.getValues(), 1e-13);
+        }
+    }
+    
+    @Test
+    public void testProdWithMap() {
+        Var v0 = VarSetTest.getVar(0, 2);
+        Var v1 = VarSetTest.getVar(1, 3);
+        Var v2 = VarSetTest.getVar(2, 5);
+        VarTensor f1 = new VarTensor(s, new VarSet(v0, v1, v2));
+        VarTensor f2 = new VarTensor(s, new VarSet(v0, v2));
+        for (int c=0; c<f1.size(); c++) {
+            f1.setValue(c, c + 1);
+        }
+        for (int c=0; c<f2.size(); c++) {
+            f2.setValue(c, 2 * c - 3);
+        }
+        VarTensor expected = new VarTensor(f1);
+        expected.prod(f2);
+        f1.prod(f2, f2.getVars().getConfigArr(f1.getVars()));
+        JUnitUtils.assertArrayEquals(expected.getValues(), f1.getValues(), 1e-13);
+    }
+    
     @Test
     public void testGetClamped() {
         Var v0 = VarSetTest.getVar(0, 2);
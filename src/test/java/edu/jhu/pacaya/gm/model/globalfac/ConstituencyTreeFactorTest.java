@@ -1,7 +1,10 @@
 package edu.jhu.pacaya.gm.model.globalfac;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.Arrays;
 
 import org.junit.Ignore;
@@ -16,14 +19,24 @@ import edu.jhu.pacaya.gm.model.Var.VarType;
 import edu.jhu.pacaya.gm.model.VarSet;
 import edu.jhu.pacaya.gm.model.VarTensor;
 import edu.jhu.pacaya.gm.model.globalfac.ConstituencyTreeFactor.SpanVar;
+import edu.jhu.pacaya.nlp.data.Sentence;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser.LoopOrder;
+import edu.jhu.pacaya.parse.cky.CnfGrammar;
+import edu.jhu.pacaya.parse.cky.CnfGrammarReader;
+import edu.jhu.pacaya.parse.cky.PcfgInsideOutside;
+import edu.jhu.pacaya.parse.cky.PcfgInsideOutside.PcfgInsideOutsidePrm;
+import edu.jhu.pacaya.parse.cky.PcfgInsideOutside.PcfgIoChart;
+import edu.jhu.pacaya.parse.cky.Rule;
+import edu.jhu.pacaya.parse.cky.Scorer;
 import edu.jhu.pacaya.util.collections.QLists;
 import edu.jhu.pacaya.util.semiring.Algebra;
 import edu.jhu.pacaya.util.semiring.LogSemiring;
 import edu.jhu.pacaya.util.semiring.RealAlgebra;
+import edu.jhu.prim.util.random.Prng;
 
-@Ignore("Needs to be updated with Travis' latest version")
 public class ConstituencyTreeFactorTest {
     
+    @Ignore("Needs to be updated with Travis' latest version")
     @Test
     public void testBpVsBruteForce() {
         
@@ -56,6 +69,7 @@ public class ConstituencyTreeFactorTest {
         
     }
     
+    @Ignore("Needs to be updated with Travis' latest version")
     @Test
     public void testByHand() {
         // "John loves Mary"
@@ -87,4 +101,120 @@ public class ConstituencyTreeFactorTest {
         // TODO do inside by hand and put in some exact numbers
     }
 
+    @Test
+    public void testCreateMessagesVsPcfgInsideOutside() throws IOException {
+        // The span marginals should match those of the bracketing grammar under the general
+        // PCFG inside-outside algorithm.
+        CnfGrammarReader builder = new CnfGrammarReader();
+        builder.loadFromReader(new StringReader("X\nX --> X X 0\n===\nX --> a 0\n"));
+        CnfGrammar grammar = builder.getGrammar(LoopOrder.LEFT_CHILD);
+        int x = grammar.getNtAlphabet().lookupIndex("X");
+        Prng.seed(12345);
+        for (int n = 1; n <= 5; n++) {
+            for (Algebra s : QLists.getList(RealAlgebra.getInstance(), LogSemiring.getInstance())) {
+                ConstituencyTreeFactor ctFact = new ConstituencyTreeFactor(n, VarType.PREDICTED);
+                VarTensor[] inMsgs = getRandomInMsgs(ctFact, s);
+                VarTensor[] outMsgs = getZeroMsgs(ctFact, s);
+                ctFact.createMessages(inMsgs, outMsgs);
+
+                // Width one spans are in every tree, and so are given weight one here.
+                final double[][] logOdds = new double[n][n+1];
+                for (VarTensor inMsg : inMsgs) {
+                    SpanVar span = (SpanVar) inMsg.getVars().get(0);
+                    if (span.getEnd() - span.getStart() > 1) {
+                        logOdds[span.getStart()][span.getEnd()] = s.toLogProb(inMsg.getValue(SpanVar.TRUE))
+                                - s.toLogProb(inMsg.getValue(SpanVar.FALSE));
+                    }
+                }
+                PcfgInsideOutsidePrm prm = new PcfgInsideOutsidePrm();
+                prm.scorer = new Scorer() {
+                    @Override
+                    public double score(Rule r, int start, int mid, int end) {
+                        return logOdds[start][end];
+                    }
+                };
+                int[] sent = new int[n];
+                Arrays.fill(sent, grammar.getLexAlphabet().lookupIndex("a"));
+                PcfgIoChart chart = new PcfgInsideOutside(prm).runInsideOutside(new Sentence(grammar.getLexAlphabet(), sent), grammar);
+
+                for (int i = 0; i < inMsgs.length; i++) {
+                    SpanVar span = (SpanVar) inMsgs[i].getVars().get(0);
+                    double bTrue = s.toReal(inMsgs[i].getValue(SpanVar.TRUE)) * s.toReal(outMsgs[i].getValue(SpanVar.TRUE));
+                    double bFalse = s.toReal(inMsgs[i].getValue(SpanVar.FALSE)) * s.toReal(outMsgs[i].getValue(SpanVar.FALSE));
+                    double expected = (span.getEnd() - span.getStart() == 1) ? 1.0 :
+                        Math.exp(chart.getLogExpectedCount(x, span.getStart(), span.getEnd()));
+                    assertEquals(expected, bTrue / (bTrue + bFalse), 1e-10);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBackwardByFiniteDiffs() {
+        // Checks the gradient of f(inMsgs) = \sum_i \sum_x c_i(x) outMsg_i(x).
+        RealAlgebra s = RealAlgebra.getInstance();
+        Prng.seed(12345);
+        for (int n = 1; n <= 4; n++) {
+            ConstituencyTreeFactor ctFact = new ConstituencyTreeFactor(n, VarType.PREDICTED);
+            VarTensor[] inMsgs = getRandomInMsgs(ctFact, s);
+            if (n > 2) {
+                // Disallow one span.
+                inMsgs[n].setValue(SpanVar.TRUE, 0.0);
+            }
+            VarTensor[] outMsgsAdj = getRandomInMsgs(ctFact, s);
+            for (VarTensor adj : outMsgsAdj) {
+                adj.add(-0.5);
+            }
+            VarTensor[] inMsgsAdj = getZeroMsgs(ctFact, s);
+            ctFact.forwardAndBackward(inMsgs, null, outMsgsAdj, inMsgsAdj, false);
+
+            double eps = 1e-6;
+            for (int i = 0; i < inMsgs.length; i++) {
+                for (int x = 0; x < 2; x++) {
+                    double orig = inMsgs[i].getValue(x);
+                    if (orig == 0.0) {
+                        continue;
+                    }
+                    inMsgs[i].setValue(x, orig + eps);
+                    double fPlus = evalObjective(ctFact, inMsgs, outMsgsAdj);
+                    inMsgs[i].setValue(x, orig - eps);
+                    double fMinus = evalObjective(ctFact, inMsgs, outMsgsAdj);
+                    inMsgs[i].setValue(x, orig);
+                    assertEquals((fPlus - fMinus) / (2 * eps), inMsgsAdj[i].getValue(x), 1e-5);
+                }
+            }
+        }
+    }
+
+    private static double evalObjective(ConstituencyTreeFactor ctFact, VarTensor[] inMsgs, VarTensor[] c) {
+        VarTensor[] outMsgs = getZeroMsgs(ctFact, RealAlgebra.getInstance());
+        ctFact.createMessages(inMsgs, outMsgs);
+        double f = 0;
+        for (int i = 0; i < outMsgs.length; i++) {
+            for (int x = 0; x < 2; x++) {
+                f += c[i].getValue(x) * outMsgs[i].getValue(x);
+            }
+        }
+        return f;
+    }
+
+    private static VarTensor[] getRandomInMsgs(ConstituencyTreeFactor ctFact, Algebra s) {
+        VarTensor[] msgs = getZeroMsgs(ctFact, s);
+        for (VarTensor msg : msgs) {
+            for (int x = 0; x < 2; x++) {
+                msg.setValue(x, s.fromReal(Prng.nextDouble() + 0.5));
+            }
+        }
+        return msgs;
+    }
+
+    private static VarTensor[] getZeroMsgs(ConstituencyTreeFactor ctFact, Algebra s) {
+        VarSet vars = ctFact.getVars();
+        VarTensor[] msgs = new VarTensor[vars.size()];
+        for (int i = 0; i < msgs.length; i++) {
+            msgs[i] = new VarTensor(s, new VarSet(vars.get(i)), s.zero());
+        }
+        return msgs;
+    }
+
 }
@@ -918,4 +918,48 @@ public class ProjDepTreeFactorTest {
         assertEquals(ef.getExpectedLogBelief(inMsgs), ptree.getExpectedLogBelief(inMsgs), 1e-13);
     }
     
+    @Test
+    public void testReusedKernelAcrossFactors() {
+        // The modules which compute the messages are reused on each thread, so interleave factors of
+        // different lengths and check that repeated calls give the same messages and adjoints.
+        Algebra s = LogSemiring.getInstance();
+        ProjDepTreeFactor f4 = new ProjDepTreeFactor(4, VarType.PREDICTED);
+        ProjDepTreeFactor f3 = new ProjDepTreeFactor(3, VarType.PREDICTED);
+        VarTensor[][] first4 = forwardAndBackward(f4, s);
+        VarTensor[][] first3 = forwardAndBackward(f3, s);
+        VarTensor[][] second4 = forwardAndBackward(f4, s);
+        VarTensor[][] second3 = forwardAndBackward(f3, s);
+        for (int i = 0; i < 2; i++) {
+            for (int v = 0; v < first4[i].length; v++) {
+                assertEqualMessages(first4[i][v], second4[i][v], "");
+            }
+            for (int v = 0; v < first3[i].length; v++) {
+                assertEqualMessages(first3[i][v], second3[i][v], "");
+            }
+        }
+    }
+
+    /** Gets the outgoing messages and the adjoints of the incoming messages for fixed inputs. */
+    private static VarTensor[][] forwardAndBackward(ProjDepTreeFactor f, Algebra s) {
+        VarSet vars = f.getVars();
+        VarTensor[] inMsgs = new VarTensor[vars.size()];
+        VarTensor[] outMsgs = new VarTensor[vars.size()];
+        VarTensor[] outMsgsAdj = new VarTensor[vars.size()];
+        VarTensor[] inMsgsAdj = new VarTensor[vars.size()];
+        for (int v=0; v<vars.size(); v++) {
+            VarSet vs = new VarSet(vars.get(v));
+            inMsgs[v] = new VarTensor(s, vs);
+            inMsgs[v].setValue(LinkVar.FALSE, s.fromReal(1 + v % 3));
+            inMsgs[v].setValue(LinkVar.TRUE, s.fromReal(2 + v % 5));
+            outMsgs[v] = new VarTensor(s, vs);
+            outMsgsAdj[v] = new VarTensor(s, vs);
+            outMsgsAdj[v].setValue(LinkVar.FALSE, s.fromReal(0.1 * (v % 4)));
+            outMsgsAdj[v].setValue(LinkVar.TRUE, s.fromReal(0.2 * (v % 3)));
+            inMsgsAdj[v] = new VarTensor(s, vs);
+        }
+        f.forwardAndBackward(inMsgs, outMsgs, null, null, true);
+        f.forwardAndBackward(inMsgs, null, outMsgsAdj, inMsgsAdj, false);
+        return new VarTensor[][]{ outMsgs, inMsgsAdj };
+    }
+
 }
@@ -18,6 +18,7 @@ import edu.jhu.pacaya.util.collections.QLists;
 import edu.jhu.pacaya.util.semiring.Algebra;
 import edu.jhu.pacaya.util.semiring.LogSignAlgebra;
 import edu.jhu.pacaya.util.semiring.RealAlgebra;
+import edu.jhu.prim.util.random.Prng;
 import edu.jhu.prim.vector.IntDoubleDenseVector;
 
 public class ProjDepTreeModuleTest {
@@ -197,6 +198,50 @@ public class ProjDepTreeModuleTest {
         }
     }
     
+    @Test
+    public void testFusedMatchesCircuit() {
+        for (Algebra inS : QLists.getList(RealAlgebra.getInstance(), LogSignAlgebra.getInstance())) {
+            for (Algebra tmpS : QLists.getList(RealAlgebra.getInstance(), LogSignAlgebra.getInstance())) {
+                for (int n = 1; n <= 4; n++) {
+                    Prng.seed(n);
+                    Tensor tmTrueIn = new Tensor(inS, n, n);
+                    Tensor tmFalseIn = new Tensor(inS, n, n);
+                    Tensor outAdj = new Tensor(inS, 2, n, n);
+                    for (int i = 0; i < tmTrueIn.size(); i++) {
+                        // Some edges are pruned by a zero true message.
+                        tmTrueIn.setValue(i, inS.fromReal(i % 5 == 3 ? 0 : Prng.nextDouble()));
+                        tmFalseIn.setValue(i, inS.fromReal(0.1 + Prng.nextDouble()));
+                    }
+                    for (int i = 0; i < outAdj.size(); i++) {
+                        outAdj.setValue(i, inS.fromReal(i % 4 == 1 ? 0 : Prng.nextDouble() - 0.5));
+                    }
+                    Identity<Tensor> id1 = new Identity<Tensor>(tmTrueIn);
+                    Identity<Tensor> id2 = new Identity<Tensor>(tmFalseIn);
+                    ProjDepTreeModule circuit = new ProjDepTreeModule(id1, id2, tmpS, true);
+                    circuit.forward();
+                    circuit.getOutputAdj().elemAdd(outAdj);
+                    circuit.backward();
+                    
+                    Identity<Tensor> id3 = new Identity<Tensor>(tmTrueIn);
+                    Identity<Tensor> id4 = new Identity<Tensor>(tmFalseIn);
+                    ProjDepTreeModule fused = new ProjDepTreeModule(id3, id4, tmpS);
+                    // Run twice to check that the reused buffers give the same result.
+                    for (int k = 0; k < 2; k++) {
+                        id3.zeroOutputAdj();
+                        id4.zeroOutputAdj();
+                        fused.forward();
+                        fused.zeroOutputAdj();
+                        fused.getOutputAdj().elemAdd(outAdj);
+                        fused.backward();
+                        assertTrue(circuit.getOutput().equals(fused.getOutput(), 1e-10));
+                        assertTrue(id1.getOutputAdj().equals(id3.getOutputAdj(), 1e-8));
+                        assertTrue(id2.getOutputAdj().equals(id4.getOutputAdj(), 1e-8));
+                    }
+                }
+            }
+        }
+    }
+    
     // NOTE: This test seems to occasionally fail do to floating point precision.
     @Test
     public void testGradByFiniteDiffsAllSemirings() {
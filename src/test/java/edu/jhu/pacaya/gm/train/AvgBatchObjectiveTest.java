@@ -1,11 +1,16 @@
 package edu.jhu.pacaya.gm.train;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
+import edu.jhu.hlt.optimize.function.ValueGradient;
 import edu.jhu.pacaya.gm.model.FgModel;
 import edu.jhu.pacaya.gm.train.AvgBatchObjective.ExampleObjective;
+import edu.jhu.pacaya.gm.train.AvgBatchObjective.ParallelAccum;
+import edu.jhu.pacaya.util.Threads;
 
 public class AvgBatchObjectiveTest {
 
@@ -46,4 +51,92 @@ public class AvgBatchObjectiveTest {
         assertEquals(3*6, exObj.numChecks);
     }
 
+    /** Adds a deterministic value and gradient for each example. */
+    private static class GradExObj implements ExampleObjective {
+
+        @Override
+        public void accum(FgModel model, int i, Accumulator vg) {
+            if (vg.accumValue) {
+                vg.addValue(i);
+            }
+            if (vg.accumGradient) {
+                for (int j=0; j<model.getNumParams(); j++) {
+                    if ((i + j) % 3 == 0) {
+                        vg.gradient.add(j, 0.5 * (i + 1) + j);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int getNumExamples() {
+            return 100;
+        }
+
+        @Override
+        public void report() {
+            // no-op
+        }
+        
+    }
+    
+    @Test
+    public void testParallelAccumMatchesSerial() {
+        FgModel model = new FgModel(20);
+        int[] batch = new int[]{ 3, 1, 4, 1, 5, 9, 2, 6, 5, 3, 5, 8, 9, 7, 9, 3, 2, 3, 8, 4, 6, 2, 6, 4 };
+        
+        AvgBatchObjective serial = new AvgBatchObjective(new GradExObj(), model);
+        ValueGradient expected = serial.getValueGradient(model.getParams(), batch);
+        double[] expectedGrad = toArray(expected, model.getNumParams());
+        
+        Threads.initDefaultPool(4);
+        try {
+            for (ParallelAccum pa : ParallelAccum.values()) {
+                AvgBatchObjective avg = new AvgBatchObjective(new GradExObj(), model, pa);
+                // Run twice to check that any reused state is reset.
+                for (int t=0; t<2; t++) {
+                    ValueGradient vg = avg.getValueGradient(model.getParams(), batch);
+                    assertEquals(pa.toString(), expected.getValue(), vg.getValue(), 1e-13);
+                    assertArrayEquals(pa.toString(), expectedGrad, toArray(vg, model.getNumParams()), 1e-13);
+                    assertEquals(pa.toString(), expected.getValue(), avg.getValue(model.getParams(), batch), 1e-13);
+                }
+            }
+        } finally {
+            Threads.shutdownDefaultPool();
+            Threads.initDefaultPool(1);
+        }
+    }
+
+    @Test
+    public void testShardsDiscardedWhenPoolChanges() {
+        FgModel model = new FgModel(20);
+        int[] batch = new int[]{ 3, 1, 4, 1, 5, 9, 2, 6, 5, 3, 5, 8, 9, 7, 9, 3, 2, 3, 8, 4, 6, 2, 6, 4 };
+        ValueGradient expected = new AvgBatchObjective(new GradExObj(), model).getValueGradient(model.getParams(), batch);
+        double[] expectedGrad = toArray(expected, model.getNumParams());
+        
+        AvgBatchObjective avg = new AvgBatchObjective(new GradExObj(), model, ParallelAccum.SHARDED);
+        for (int numThreads : new int[]{ 4, 2 }) {
+            Threads.initDefaultPool(numThreads);
+            try {
+                // A value-only call between gradient calls must not disturb the shards.
+                assertEquals(expected.getValue(), avg.getValue(model.getParams(), batch), 1e-13);
+                ValueGradient vg = avg.getValueGradient(model.getParams(), batch);
+                assertEquals(expected.getValue(), vg.getValue(), 1e-13);
+                assertArrayEquals(expectedGrad, toArray(vg, model.getNumParams()), 1e-13);
+                assertTrue(avg.getNumShards() <= numThreads);
+            } finally {
+                Threads.shutdownDefaultPool();
+                Threads.initDefaultPool(1);
+            }
+        }
+    }
+
+    private static double[] toArray(ValueGradient vg, int numParams) {
+        double[] grad = new double[numParams];
+        for (int j=0; j<numParams; j++) {
+            grad[j] = vg.getGradient().get(j);
+        }
+        return grad;
+    }
+
 }
@@ -0,0 +1,200 @@
+package edu.jhu.pacaya.hypergraph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import edu.jhu.pacaya.hypergraph.Hyperalgo.Scores;
+import edu.jhu.pacaya.hypergraph.depparse.DependencyScorer;
+import edu.jhu.pacaya.hypergraph.depparse.ExplicitDependencyScorer;
+import edu.jhu.pacaya.hypergraph.depparse.O1DpHypergraph;
+import edu.jhu.pacaya.hypergraph.depparse.O2AllGraDpHypergraph;
+import edu.jhu.pacaya.parse.dep.EdgeScores;
+import edu.jhu.pacaya.util.semiring.Algebra;
+import edu.jhu.pacaya.util.semiring.RealAlgebra;
+import edu.jhu.prim.util.random.Prng;
+
+public class CompiledHypergraphTest {
+
+    private Algebra s = RealAlgebra.getInstance();
+
+    @Test
+    public void testCache() {
+        assertSame(O1DpHypergraph.getCompiled(4, true), O1DpHypergraph.getCompiled(4, true));
+        assertNotSame(O1DpHypergraph.getCompiled(4, true), O1DpHypergraph.getCompiled(4, false));
+        assertNotSame(O1DpHypergraph.getCompiled(4, true), O1DpHypergraph.getCompiled(5, true));
+        assertSame(O2AllGraDpHypergraph.getCompiled(4, true), O2AllGraDpHypergraph.getCompiled(4, true));
+        try {
+            O2AllGraDpHypergraph.getCompiled(O2AllGraDpHypergraph.MAX_COMPILED_TOKENS + 1, true);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    @Test
+    public void testO1MatchesUncompiled() {
+        for (boolean singleRoot : new boolean[]{ true, false }) {
+            for (int n = 1; n <= 5; n++) {
+                Prng.seed(n);
+                double[] root = new double[n];
+                double[][] child = new double[n][n];
+                for (int i = 0; i < n; i++) {
+                    root[i] = Prng.nextDouble();
+                    for (int j = 0; j < n; j++) {
+                        child[i][j] = Prng.nextDouble();
+                    }
+                }
+                O1DpHypergraph graph = new O1DpHypergraph(root, child, s, singleRoot);
+                CompiledHypergraph cg = O1DpHypergraph.getCompiled(n, singleRoot);
+                double[] params = new double[(n+1) * (n+1)];
+                EdgeScores.combine(root, child, params);
+                checkMatchesUncompiled(graph, graph.getPotentials(), cg, params);
+            }
+        }
+    }
+
+    @Test
+    public void testO2MatchesUncompiled() {
+        for (boolean singleRoot : new boolean[]{ true, false }) {
+            for (int n = 1; n <= 4; n++) {
+                Prng.seed(n);
+                double[][][] scores = new double[n+1][n+1][n+1];
+                for (int i = 0; i <= n; i++) {
+                    for (int j = 0; j <= n; j++) {
+                        for (int k = 0; k <= n; k++) {
+                            scores[i][j][k] = Prng.nextDouble();
+                        }
+                    }
+                }
+                DependencyScorer scorer = new ExplicitDependencyScorer(scores, n);
+                O2AllGraDpHypergraph graph = new O2AllGraDpHypergraph(scorer, s, singleRoot);
+                CompiledHypergraph cg = O2AllGraDpHypergraph.getCompiled(n, singleRoot);
+                double[] params = new double[O2AllGraDpHypergraph.getNumParams(n)];
+                O2AllGraDpHypergraph.getParams(scorer, singleRoot, params);
+                checkMatchesUncompiled(graph, graph.getPotentials(), cg, params);
+            }
+        }
+    }
+
+    private void checkMatchesUncompiled(Hypergraph graph, Hyperpotential pot, CompiledHypergraph cg, double[] params) {
+        assertEquals(graph.getNumEdges(), cg.getNumEdges());
+        assertEquals(graph.getNodes().size(), cg.getNumNodes());
+
+        Scores expected = new Scores();
+        Hyperalgo.forward(graph, pot, s, expected);
+        Scores actual = new Scores();
+        Hyperalgo.forward(cg, params, s, actual);
+        assertArrayEquals(expected.beta, actual.beta, 1e-10);
+        assertArrayEquals(expected.alpha, actual.alpha, 1e-10);
+        assertArrayEquals(expected.marginal, actual.marginal, 1e-10);
+
+        int numNodes = cg.getNumNodes();
+        expected.marginalAdj = new double[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            expected.marginalAdj[i] = i % 3;
+        }
+        actual.marginalAdj = expected.marginalAdj.clone();
+        Hyperalgo.backward(graph, pot, s, expected);
+        Hyperalgo.backward(cg, params, s, actual);
+        assertArrayEquals(expected.alphaAdj, actual.alphaAdj, 1e-10);
+        assertArrayEquals(expected.betaAdj, actual.betaAdj, 1e-10);
+        // The adjoints of the edges with the same weight index are summed. The edge ids of these
+        // hypergraphs are in topological order.
+        double[] expectedWeightAdj = new double[cg.getNumWeights()];
+        int[] weightIdx = cg.getWeightIdx();
+        for (int e = 0; e < weightIdx.length; e++) {
+            if (weightIdx[e] != CompiledHypergraph.ONE) {
+                expectedWeightAdj[weightIdx[e]] += expected.weightAdj[e];
+            }
+        }
+        assertArrayEquals(expectedWeightAdj, actual.weightAdj, 1e-10);
+        
+        // The arrays of the scores are reused on another pass.
+        double[] beta = actual.beta;
+        double[] weightAdj = actual.weightAdj;
+        Hyperalgo.forward(cg, params, s, actual);
+        actual.alphaAdj = null;
+        actual.betaAdj = null;
+        Hyperalgo.backward(cg, params, s, actual);
+        assertSame(beta, actual.beta);
+        assertSame(weightAdj, actual.weightAdj);
+        assertArrayEquals(expected.beta, actual.beta, 1e-10);
+        assertArrayEquals(expectedWeightAdj, actual.weightAdj, 1e-10);
+    }
+
+    @Test
+    public void testCacheBoundedByBytes() {
+        final long bytesSingle = O1DpHypergraph.getCompiled(4, true).getNumBytes();
+        final long bytesMulti = O1DpHypergraph.getCompiled(4, false).getNumBytes();
+        final int[] numCompiles = new int[1];
+        CompiledHypergraph.Cache cache = new CompiledHypergraph.Cache(Math.max(bytesSingle, bytesMulti)) {
+            @Override
+            protected CompiledHypergraph compile(int numTokens, boolean singleRoot) {
+                numCompiles[0]++;
+                return O1DpHypergraph.getCompiled(numTokens, singleRoot);
+            }
+        };
+        CompiledHypergraph g4 = cache.get(4, true);
+        assertSame(g4, cache.get(4, true));
+        assertEquals(1, numCompiles[0]);
+        assertEquals(bytesSingle, cache.getNumBytes());
+        // Only one of these fits, so the least recently used is evicted.
+        cache.get(4, false);
+        assertEquals(2, numCompiles[0]);
+        assertEquals(bytesMulti, cache.getNumBytes());
+        cache.get(4, false);
+        assertEquals(2, numCompiles[0]);
+        cache.get(4, true);
+        assertEquals(3, numCompiles[0]);
+        assertEquals(bytesSingle, cache.getNumBytes());
+        // A hypergraph larger than the bound is not cached.
+        cache.get(9, true);
+        cache.get(9, true);
+        assertEquals(5, numCompiles[0]);
+        assertEquals(bytesSingle, cache.getNumBytes());
+    }
+
+    @Test
+    public void testCacheConcurrentGets() throws Exception {
+        final int[] numCompiles = new int[1];
+        final CompiledHypergraph.Cache cache = new CompiledHypergraph.Cache(Long.MAX_VALUE) {
+            @Override
+            protected CompiledHypergraph compile(int numTokens, boolean singleRoot) {
+                synchronized (numCompiles) {
+                    numCompiles[0]++;
+                }
+                return new O1DpHypergraph(new double[numTokens], new double[numTokens][numTokens], s, singleRoot).compile();
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<CompiledHypergraph>> futures = new ArrayList<Future<CompiledHypergraph>>();
+        for (int i = 0; i < 40; i++) {
+            final int n = 3 + i % 4;
+            futures.add(pool.submit(new Callable<CompiledHypergraph>() {
+                @Override
+                public CompiledHypergraph call() {
+                    return cache.get(n, true);
+                }
+            }));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertSame(cache.get(3 + i % 4, true), futures.get(i).get());
+        }
+        pool.shutdown();
+        // Each entry is compiled once.
+        assertEquals(4, numCompiles[0]);
+    }
+
+}
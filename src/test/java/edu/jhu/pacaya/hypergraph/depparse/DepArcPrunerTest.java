@@ -0,0 +1,85 @@
+package edu.jhu.pacaya.hypergraph.depparse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.jhu.pacaya.hypergraph.depparse.DepArcPruner.DepArcPrunerPrm;
+import edu.jhu.pacaya.parse.dep.EdgeScores;
+import edu.jhu.pacaya.util.semiring.RealAlgebra;
+import edu.jhu.prim.util.random.Prng;
+
+public class DepArcPrunerTest {
+
+    private RealAlgebra s = RealAlgebra.getInstance();
+
+    @Test
+    public void testPrunedMarginals() {
+        for (boolean singleRoot : new boolean[]{ true, false }) {
+            int n = 7;
+            DependencyScorer scorer = getRandomScorer(n);
+            DepArcPrunerPrm prm = new DepArcPrunerPrm();
+            prm.maxHeadsPerChild = 3;
+            prm.logPosteriorThreshold = Math.log(1e-3);
+            DepArcPruner pruner = new DepArcPruner(prm);
+            boolean[][] keep = pruner.getKeepArcs(scorer, s, singleRoot);
+            assertTrue(pruner.getNumPrunedArcs() > 0);
+            assertEquals(n * n, pruner.getNumArcs());
+            for (int c = 1; c <= n; c++) {
+                int numHeads = 0;
+                for (int p = 0; p <= n; p++) {
+                    if (keep[p][c]) { numHeads++; }
+                }
+                assertTrue(1 <= numHeads && numHeads <= prm.maxHeadsPerChild + 1);
+            }
+            
+            EdgeScores pruned = HyperDepParser.insideOutsideO2AllGra(scorer, s, singleRoot, keep);
+            for (int c = 0; c < n; c++) {
+                // Some tree survives the pruning, so each child still has a head.
+                double sum = 0;
+                for (int p = -1; p < n; p++) {
+                    if (p == c) { continue; }
+                    if (!keep[p+1][c+1]) {
+                        assertEquals(0.0, pruned.getScore(p, c), 1e-13);
+                    }
+                    sum += pruned.getScore(p, c);
+                }
+                assertEquals(1.0, sum, 1e-10);
+            }
+        }
+    }
+
+    @Test
+    public void testKeepAll() {
+        int n = 4;
+        DependencyScorer scorer = getRandomScorer(n);
+        DepArcPrunerPrm prm = new DepArcPrunerPrm();
+        prm.logPosteriorThreshold = Double.NEGATIVE_INFINITY;
+        DepArcPruner pruner = new DepArcPruner(prm);
+        boolean[][] keep = pruner.getKeepArcs(scorer, s, false);
+        assertEquals(0, pruner.getNumPrunedArcs());
+        EdgeScores exact = HyperDepParser.insideOutside02AllGra(scorer, s, false);
+        EdgeScores pruned = HyperDepParser.insideOutsideO2AllGra(scorer, s, false, keep);
+        for (int p = -1; p < n; p++) {
+            for (int c = 0; c < n; c++) {
+                if (p == c) { continue; }
+                assertEquals(exact.getScore(p, c), pruned.getScore(p, c), 1e-10);
+            }
+        }
+    }
+
+    private static DependencyScorer getRandomScorer(int n) {
+        Prng.seed(n);
+        double[][][] scores = new double[n+1][n+1][n+1];
+        for (int p = 0; p <= n; p++) {
+            for (int c = 0; c <= n; c++) {
+                for (int g = 0; g <= n; g++) {
+                    scores[p][c][g] = Math.exp(6 * Prng.nextDouble());
+                }
+            }
+        }
+        return new ExplicitDependencyScorer(scores, n);
+    }
+
+}
@@ -14,6 +14,7 @@ import edu.jhu.pacaya.autodiff.TensorUtils;
 import edu.jhu.pacaya.autodiff.TopoOrder;
 import edu.jhu.pacaya.autodiff.tensor.ConvertAlgebra;
 import edu.jhu.pacaya.parse.dep.EdgeScores;
+import edu.jhu.pacaya.parse.dep.ProjectiveDependencyParser;
 import edu.jhu.pacaya.util.collections.QLists;
 import edu.jhu.pacaya.util.semiring.Algebra;
 import edu.jhu.pacaya.util.semiring.LogSemiring;
@@ -88,6 +89,31 @@ public class InsideOutsideDepParseTest {
         assertEquals(expoutAdj, outAdj.toString());
     }
     
+    @Test
+    public void testBackwardAfterOtherParsesOnSameThread() {
+        Tensor t1 = new Tensor(s, 3,3);
+        t1.setValuesOnly(TensorUtils.getVectorFromValues(s, 2, 3, 5, 7, 11, 13, 17, 19, 23));
+        // A clean run.
+        Identity<Tensor> id1 = new Identity<Tensor>(t1);
+        InsideOutsideDepParse ea = new InsideOutsideDepParse(id1);
+        ea.forward();
+        ea.getOutputAdj().fill(1.0);
+        ea.backward();
+        Tensor expected = id1.getOutputAdj();
+
+        // A run with other parses between the forward and backward passes.
+        Identity<Tensor> id2 = new Identity<Tensor>(new Tensor(t1));
+        InsideOutsideDepParse ea2 = new InsideOutsideDepParse(id2);
+        ea2.forward();
+        Tensor t3 = new Tensor(s, 5,5);
+        t3.fill(0.5);
+        new InsideOutsideDepParse(new Identity<Tensor>(t3)).forward();
+        ProjectiveDependencyParser.insideOutsideSingleRoot(new double[]{ 1, 2, 3, 4 }, new double[4][4]);
+        ea2.getOutputAdj().fill(1.0);
+        ea2.backward();
+        assertEquals(expected.toString(), id2.getOutputAdj().toString());
+    }
+    
     @Test
     public void testCountTreesUsingPartition() {
         Tensor t1 = new Tensor(s, 4,4);
@@ -1,16 +1,22 @@
 package edu.jhu.pacaya.hypergraph.depparse;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
 import edu.jhu.pacaya.hypergraph.AbstractHypergraphTest;
 import edu.jhu.pacaya.hypergraph.Hyperalgo;
 import edu.jhu.pacaya.hypergraph.Hyperalgo.Scores;
+import edu.jhu.pacaya.hypergraph.Hyperedge;
+import edu.jhu.pacaya.hypergraph.Hypergraph;
+import edu.jhu.pacaya.hypergraph.Hypergraph.HyperedgeFn;
 import edu.jhu.pacaya.hypergraph.Hypernode;
 import edu.jhu.pacaya.hypergraph.Hyperpotential;
+import edu.jhu.pacaya.parse.dep.EdgeScores;
 import edu.jhu.pacaya.util.semiring.RealAlgebra;
 import edu.jhu.prim.arrays.DoubleArrays;
+import edu.jhu.prim.util.random.Prng;
 
 public class O2AllGraDpHypergraphTest extends AbstractHypergraphTest {
 
@@ -119,6 +125,59 @@ public class O2AllGraDpHypergraphTest extends AbstractHypergraphTest {
         return sc.beta[graph.getRoot().getId()];        
     }
     
+    @Test
+    public void testPrunedMatchesZeroWeights() {
+        for (boolean singleRoot : new boolean[]{ true, false }) {
+            int n = 5;
+            Prng.seed(42);
+            double[][][] scores = new double[n+1][n+1][n+1];
+            double[][][] zeroed = new double[n+1][n+1][n+1];
+            boolean[][] keep = new boolean[n+1][n+1];
+            for (int p = 0; p <= n; p++) {
+                for (int c = 0; c <= n; c++) {
+                    // Keep the right-branching chain so that some tree survives.
+                    keep[p][c] = (c == p + 1) || (c > 0 && p != c && Prng.nextDouble() < 0.6);
+                    for (int g = 0; g <= n; g++) {
+                        scores[p][c][g] = Prng.nextDouble();
+                        zeroed[p][c][g] = keep[p][c] ? scores[p][c][g] : 0.0;
+                    }
+                }
+            }
+            O2AllGraDpHypergraph pruned = new O2AllGraDpHypergraph(new ExplicitDependencyScorer(scores, n), s, singleRoot, keep);
+            O2AllGraDpHypergraph full = new O2AllGraDpHypergraph(new ExplicitDependencyScorer(zeroed, n), s, singleRoot);
+            assertTrue(pruned.getNumEdges() < full.getNumEdges());
+            assertEquals(countVisitedEdges(pruned), pruned.getNumEdges());
+            assertEquals(countVisitedEdges(full), full.getNumEdges());
+            assertTrue(pruned.getNodes().size() < full.getNodes().size());
+            
+            Scores prunedSc = new Scores();
+            Hyperalgo.forward(pruned, pruned.getPotentials(), s, prunedSc);
+            Scores fullSc = new Scores();
+            Hyperalgo.forward(full, full.getPotentials(), s, fullSc);
+            assertEquals(fullSc.beta[full.getRoot().getId()], prunedSc.beta[pruned.getRoot().getId()], 1e-10);
+            
+            EdgeScores prunedMarg = HyperDepParser.getEdgeMarginalsRealSemiring(pruned, prunedSc);
+            EdgeScores fullMarg = HyperDepParser.getEdgeMarginalsRealSemiring(full, fullSc);
+            for (int p = -1; p < n; p++) {
+                for (int c = 0; c < n; c++) {
+                    if (p == c) { continue; }
+                    assertEquals(fullMarg.getScore(p, c), prunedMarg.getScore(p, c), 1e-10);
+                }
+            }
+        }
+    }
+    
+    private static int countVisitedEdges(Hypergraph graph) {
+        final int[] count = new int[1];
+        graph.applyTopoSort(new HyperedgeFn() {
+            @Override
+            public void apply(Hyperedge e) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+    
     @Test
     public void testInsideOutsideSingleRoot() {
         O2AllGraDpHypergraph graph = getHypergraph();
@@ -0,0 +1,54 @@
+package edu.jhu.pacaya.parse.cky;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.jhu.pacaya.nlp.data.Sentence;
+import edu.jhu.pacaya.nlp.data.SentenceCollection;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser.CkyPcfgParserPrm;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser.LoopOrder;
+import edu.jhu.pacaya.parse.cky.PcfgInsideOutside.PcfgInsideOutsidePrm;
+import edu.jhu.pacaya.parse.cky.data.BinaryTree;
+import edu.jhu.prim.tuple.Pair;
+
+public class CkyBatchParserTest {
+
+    @Test
+    public void testBatchMatchesSerial() throws IOException {
+        CnfGrammarReader builder = new CnfGrammarReader();
+        builder.loadFromResource(CnfGrammarReaderTest.timeFliesGrammarResource);
+        CnfGrammar grammar = builder.getGrammar(LoopOrder.LEFT_CHILD);
+        
+        SentenceCollection sentences = new SentenceCollection(grammar.getLexAlphabet());
+        for (int i=0; i<30; i++) {
+            if (i % 3 == 0) {
+                sentences.addSentenceFromString("time flies like an arrow");
+            } else {
+                sentences.addSentenceFromString("an arrow flies like time");
+            }
+        }
+        
+        CkyBatchParser batch = new CkyBatchParser(new CkyPcfgParserPrm(), new PcfgInsideOutsidePrm(), 4);
+        // Run twice to check that reusing the workers' charts is safe.
+        for (int round=0; round<2; round++) {
+            List<Pair<BinaryTree, Double>> parses = batch.getViterbiParses(sentences, grammar);
+            List<Double> logZs = batch.getLogPartitionFunctions(sentences, grammar);
+            assertEquals(sentences.size(), parses.size());
+            assertEquals(sentences.size(), logZs.size());
+            CkyPcfgParser parser = new CkyPcfgParser(new CkyPcfgParserPrm());
+            PcfgInsideOutside io = new PcfgInsideOutside(new PcfgInsideOutsidePrm());
+            for (int i=0; i<sentences.size(); i++) {
+                Sentence sent = sentences.get(i);
+                Pair<BinaryTree, Double> expected = parser.parseSentence(sent, grammar).getViterbiParse();
+                assertEquals(expected.get1().getAsPennTreebankString(), parses.get(i).get1().getAsPennTreebankString());
+                assertEquals(expected.get2(), parses.get(i).get2(), 0.0);
+                assertEquals(io.runInsideOutside(sent, grammar).getLogPartitionFunction(), logZs.get(i), 0.0);
+            }
+        }
+    }
+
+}
@@ -1,6 +1,9 @@
 package edu.jhu.pacaya.parse.cky;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -11,6 +14,8 @@ import edu.jhu.pacaya.parse.cky.CkyPcfgParser.CkyPcfgParserPrm;
 import edu.jhu.pacaya.parse.cky.CkyPcfgParser.LoopOrder;
 import edu.jhu.pacaya.parse.cky.chart.Chart;
 import edu.jhu.pacaya.parse.cky.chart.Chart.ChartCellType;
+import edu.jhu.pacaya.parse.cky.chart.Chart.ParseType;
+import edu.jhu.pacaya.parse.cky.chart.ChartCell;
 import edu.jhu.pacaya.parse.cky.data.BinaryTree;
 import edu.jhu.prim.tuple.Pair;
 
@@ -35,6 +40,9 @@ public class CkyPcfgParserTest {
         testSimpleSentence1Helper(LoopOrder.LEFT_CHILD, ChartCellType.DOUBLE_HASH);
         testSimpleSentence1Helper(LoopOrder.RIGHT_CHILD, ChartCellType.DOUBLE_HASH);
         testSimpleSentence1Helper(LoopOrder.CARTESIAN_PRODUCT, ChartCellType.DOUBLE_HASH);
+        testSimpleSentence1Helper(LoopOrder.LEFT_CHILD, ChartCellType.FULL_ARENA);
+        testSimpleSentence1Helper(LoopOrder.RIGHT_CHILD, ChartCellType.FULL_ARENA);
+        testSimpleSentence1Helper(LoopOrder.CARTESIAN_PRODUCT, ChartCellType.FULL_ARENA);
     }
 
     private void testSimpleSentence1Helper(LoopOrder loopOrder, ChartCellType cellType) throws IOException {
@@ -74,6 +82,9 @@ public class CkyPcfgParserTest {
         testSimpleSentence2Helper(LoopOrder.LEFT_CHILD, ChartCellType.DOUBLE_HASH);
         testSimpleSentence2Helper(LoopOrder.RIGHT_CHILD, ChartCellType.DOUBLE_HASH);
         testSimpleSentence2Helper(LoopOrder.CARTESIAN_PRODUCT, ChartCellType.DOUBLE_HASH);
+        testSimpleSentence2Helper(LoopOrder.LEFT_CHILD, ChartCellType.FULL_ARENA);
+        testSimpleSentence2Helper(LoopOrder.RIGHT_CHILD, ChartCellType.FULL_ARENA);
+        testSimpleSentence2Helper(LoopOrder.CARTESIAN_PRODUCT, ChartCellType.FULL_ARENA);
     }
 
     private void testSimpleSentence2Helper(LoopOrder loopOrder, ChartCellType cellType) throws IOException {
@@ -137,6 +148,211 @@ public class CkyPcfgParserTest {
         Assert.assertEquals(-11.0 - 10.0, logProb, 1e-13);
     }
     
+    @Test
+    public void testParallelMatchesSerial() throws IOException {
+        for (LoopOrder loopOrder : LoopOrder.values()) {
+            testParallelMatchesSerialHelper(loopOrder, ChartCellType.FULL, ParseType.VITERBI);
+            testParallelMatchesSerialHelper(loopOrder, ChartCellType.FULL, ParseType.INSIDE);
+            testParallelMatchesSerialHelper(loopOrder, ChartCellType.SINGLE_HASH, ParseType.VITERBI);
+            testParallelMatchesSerialHelper(loopOrder, ChartCellType.DOUBLE_HASH, ParseType.VITERBI);
+            testParallelMatchesSerialHelper(loopOrder, ChartCellType.FULL_ARENA, ParseType.VITERBI);
+            testParallelMatchesSerialHelper(loopOrder, ChartCellType.FULL_ARENA, ParseType.INSIDE);
+        }
+    }
+
+    @Test
+    public void testParallelRejectsTieBreaking() throws IOException {
+        CnfGrammarReader builder = new CnfGrammarReader();
+        builder.loadFromResource(CnfGrammarReaderTest.timeFliesGrammarResource);
+        CnfGrammar grammar = builder.getGrammar(LoopOrder.LEFT_CHILD);
+        SentenceCollection sentences = new SentenceCollection(grammar.getLexAlphabet());
+        sentences.addSentenceFromString("time flies like an arrow");
+        Sentence sentence = sentences.get(0);
+        for (ChartCellType cellType : new ChartCellType[]{ ChartCellType.FULL_BREAK_TIES, ChartCellType.SINGLE_HASH_BREAK_TIES }) {
+            Chart chart = new Chart(sentence, grammar, cellType, ParseType.VITERBI, null);
+            try {
+                CkyPcfgParser.parseSentence(sentence.getLabelIds(), grammar, LoopOrder.LEFT_CHILD, chart, new RuleScorer(), 2);
+                Assert.fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // pass
+            }
+            CkyPcfgParserPrm prm = new CkyPcfgParserPrm();
+            prm.cellType = cellType;
+            prm.numThreads = 2;
+            try {
+                new CkyPcfgParser(prm);
+                Assert.fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // pass
+            }
+        }
+    }
+
+    private void testParallelMatchesSerialHelper(LoopOrder loopOrder, ChartCellType cellType, ParseType parseType) throws IOException {
+        CnfGrammarReader builder = new CnfGrammarReader();
+        builder.loadFromResource(CnfGrammarReaderTest.timeFliesGrammarResource);
+        CnfGrammar grammar = builder.getGrammar(loopOrder);
+        
+        SentenceCollection sentences = new SentenceCollection(grammar.getLexAlphabet());
+        sentences.addSentenceFromString("an arrow flies like time flies like an arrow like time");
+        Sentence sentence = sentences.get(0);
+        int[] sent = sentence.getLabelIds();
+        
+        Chart serial = new Chart(sentence, grammar, cellType, parseType, null);
+        CkyPcfgParser.parseSentence(sent, grammar, loopOrder, serial, new RuleScorer());
+        Chart parallel = new Chart(sentence, grammar, cellType, parseType, null);
+        CkyPcfgParser.parseSentence(sent, grammar, loopOrder, parallel, new RuleScorer(), 3);
+        
+        for (int width = 1; width <= sent.length; width++) {
+            for (int start = 0; start <= sent.length - width; start++) {
+                ChartCell c1 = serial.getCell(start, start + width);
+                ChartCell c2 = parallel.getCell(start, start + width);
+                int[] nts1 = c1.getNts().clone();
+                int[] nts2 = c2.getNts().clone();
+                Arrays.sort(nts1);
+                Arrays.sort(nts2);
+                Assert.assertArrayEquals(nts1, nts2);
+                for (int nt : nts1) {
+                    Assert.assertEquals(c1.getScore(nt), c2.getScore(nt), 0.0);
+                    if (parseType == ParseType.VITERBI) {
+                        Assert.assertEquals(c1.getBp(nt).mid, c2.getBp(nt).mid);
+                        Assert.assertEquals(c1.getBp(nt).r, c2.getBp(nt).r);
+                    }
+                }
+            }
+        }
+        if (parseType == ParseType.VITERBI) {
+            Assert.assertEquals(serial.getViterbiParse().get2(), parallel.getViterbiParse().get2(), 0.0);
+        }
+    }
+    
+    @Test
+    public void testCompiledMatchesUncompiled() throws IOException {
+        for (LoopOrder loopOrder : new LoopOrder[]{ LoopOrder.LEFT_CHILD, LoopOrder.RIGHT_CHILD }) {
+            CnfGrammarReader builder = new CnfGrammarReader();
+            builder.loadFromResource(CnfGrammarReaderTest.timeFliesGrammarResource);
+            CnfGrammar grammar = builder.getGrammar(loopOrder);
+            SentenceCollection sentences = new SentenceCollection(grammar.getLexAlphabet());
+            sentences.addSentenceFromString("an arrow flies like time flies like an arrow like time");
+            Sentence sentence = sentences.get(0);
+            int[] sent = sentence.getLabelIds();
+            // Same scores as the RuleScorer, but not recognized by the fast path.
+            Scorer dynamic = new Scorer() {
+                @Override
+                public double score(Rule r, int start, int mid, int end) {
+                    return r.getScore();
+                }
+            };
+            for (int round = 0; round < 2; round++) {
+                if (round == 1) {
+                    // Change the rule scores through the grammar, without explicitly recompiling.
+                    for (int id = 0; id < grammar.getAllRules().size(); id++) {
+                        Rule r = grammar.getRule(id);
+                        grammar.setScore(r, r.getScore() * (1 + id % 3));
+                    }
+                }
+                for (ParseType parseType : ParseType.values()) {
+                    Chart compiled = new Chart(sentence, grammar, ChartCellType.FULL, parseType, null);
+                    CkyPcfgParser.parseSentence(sent, grammar, loopOrder, compiled, new RuleScorer());
+                    Chart uncompiled = new Chart(sentence, grammar, ChartCellType.FULL, parseType, null);
+                    CkyPcfgParser.parseSentence(sent, grammar, loopOrder, uncompiled, dynamic);
+                    for (int width = 1; width <= sent.length; width++) {
+                        for (int start = 0; start <= sent.length - width; start++) {
+                            ChartCell c1 = uncompiled.getCell(start, start + width);
+                            ChartCell c2 = compiled.getCell(start, start + width);
+                            Assert.assertArrayEquals(c1.getNts(), c2.getNts());
+                            for (int nt : c1.getNts()) {
+                                Assert.assertEquals(c1.getScore(nt), c2.getScore(nt), 0.0);
+                                Assert.assertEquals(c1.getBp(nt).getRule(), c2.getBp(nt).getRule());
+                                Assert.assertEquals(c1.getBp(nt).getMid(), c2.getBp(nt).getMid());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testArenaWithRulesSharedAcrossGrammars() throws IOException {
+        CnfGrammarReader builder = new CnfGrammarReader();
+        builder.loadFromResource(CnfGrammarReaderTest.timeFliesGrammarResource);
+        CnfGrammar grammar = builder.getGrammar(LoopOrder.LEFT_CHILD);
+        // A second grammar over the same rules, in a different order, must not change the first.
+        ArrayList<Rule> reversed = new ArrayList<Rule>(grammar.getAllRules());
+        Collections.reverse(reversed);
+        CnfGrammar other = new CnfGrammar(reversed, grammar.getRootSymbol(), grammar.getLexAlphabet(),
+                grammar.getNtAlphabet(), LoopOrder.LEFT_CHILD);
+        Rule first = grammar.getRule(0);
+        Assert.assertEquals(0, grammar.getRuleId(first));
+        Assert.assertEquals(reversed.size() - 1, other.getRuleId(first));
+
+        SentenceCollection sentences = new SentenceCollection(grammar.getLexAlphabet());
+        sentences.addSentenceFromString("time flies like an arrow");
+        Sentence sentence = sentences.get(0);
+        int[] sent = sentence.getLabelIds();
+        Chart full = new Chart(sentence, grammar, ChartCellType.FULL, ParseType.VITERBI, null);
+        Chart arena = new Chart(sentence, grammar, ChartCellType.FULL_ARENA, ParseType.VITERBI, null);
+        CkyPcfgParser.parseSentence(sent, grammar, LoopOrder.LEFT_CHILD, full, new RuleScorer());
+        CkyPcfgParser.parseSentence(sent, grammar, LoopOrder.LEFT_CHILD, arena, new RuleScorer());
+        Assert.assertEquals(full.getViterbiParse().get1().getAsPennTreebankString(),
+                arena.getViterbiParse().get1().getAsPennTreebankString());
+    }
+    
+    @Test
+    public void testArenaMatchesFull() throws IOException {
+        for (LoopOrder loopOrder : LoopOrder.values()) {
+            CnfGrammarReader builder = new CnfGrammarReader();
+            builder.loadFromResource(CnfGrammarReaderTest.timeFliesGrammarResource);
+            CnfGrammar grammar = builder.getGrammar(loopOrder);
+            SentenceCollection sentences = new SentenceCollection(grammar.getLexAlphabet());
+            sentences.addSentenceFromString("time flies like an arrow");
+            sentences.addSentenceFromString("an arrow flies like time flies like an arrow like time");
+            sentences.addSentenceFromString("an arrow flies like time");
+            for (ParseType parseType : ParseType.values()) {
+                Chart full = null;
+                Chart arena = null;
+                for (Sentence sentence : sentences) {
+                    // Reuse the charts to check that the arena is reset, including after it grows.
+                    if (full == null) {
+                        full = new Chart(sentence, grammar, ChartCellType.FULL, parseType, null);
+                        arena = new Chart(sentence, grammar, ChartCellType.FULL_ARENA, parseType, null);
+                    } else {
+                        full.reset(sentence);
+                        arena.reset(sentence);
+                    }
+                    int[] sent = sentence.getLabelIds();
+                    CkyPcfgParser.parseSentence(sent, grammar, loopOrder, full, new RuleScorer());
+                    CkyPcfgParser.parseSentence(sent, grammar, loopOrder, arena, new RuleScorer());
+                    for (int width = 1; width <= sent.length; width++) {
+                        for (int start = 0; start <= sent.length - width; start++) {
+                            ChartCell c1 = full.getCell(start, start + width);
+                            ChartCell c2 = arena.getCell(start, start + width);
+                            Assert.assertArrayEquals(c1.getNts(), c2.getNts());
+                            for (int nt : c1.getNts()) {
+                                Assert.assertEquals(c1.getScore(nt), c2.getScore(nt), 0.0);
+                                if (parseType == ParseType.VITERBI) {
+                                    Assert.assertEquals(c1.getBp(nt).getRule(), c2.getBp(nt).getRule());
+                                    Assert.assertEquals(c1.getBp(nt).getMid(), c2.getBp(nt).getMid());
+                                }
+                            }
+                        }
+                    }
+                    if (parseType == ParseType.VITERBI) {
+                        Pair<BinaryTree, Double> p1 = full.getViterbiParse();
+                        Pair<BinaryTree, Double> p2 = arena.getViterbiParse();
+                        Assert.assertEquals(p1.get2(), p2.get2(), 0.0);
+                        if (p1.get1() == null) {
+                            Assert.assertNull(p2.get1());
+                        } else {
+                            Assert.assertEquals(p1.get1().getAsPennTreebankString(), p2.get1().getAsPennTreebankString());
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
     //TODO: Remove reliance on hard-coded paths: @Test
     public void testLargeGrammar() throws IOException {
         LoopOrder loopOrder = LoopOrder.LEFT_CHILD;
@@ -0,0 +1,128 @@
+package edu.jhu.pacaya.parse.cky;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import edu.jhu.pacaya.nlp.data.Sentence;
+import edu.jhu.pacaya.nlp.data.SentenceCollection;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser.CkyPcfgParserPrm;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser.LoopOrder;
+import edu.jhu.pacaya.parse.cky.CoarseToFineParser.CoarseToFineParserPrm;
+import edu.jhu.pacaya.parse.cky.chart.Chart.ChartCellType;
+import edu.jhu.pacaya.parse.cky.data.BinaryTree;
+import edu.jhu.prim.tuple.Pair;
+
+public class CoarseToFineParserTest {
+
+    /** The time-flies grammar with NP split into two latent subcategories. */
+    private static final String splitGrammar = 
+            "S\n" +
+            "S -> NP_0 VP -1\n" +
+            "S -> NP_1 VP -2\n" +
+            "S -> VP -2\n" +
+            "VP -> V NP_0 -1\n" +
+            "VP -> V NP_1 -1.5\n" +
+            "VP -> V PP -2\n" +
+            "PP -> IN NP_0 -1\n" +
+            "PP -> IN NP_1 -1\n" +
+            "NP_0 -> DT N -1\n" +
+            "NP_1 -> DT N -2\n" +
+            "NP_0 -> N -1\n" +
+            "NP_1 -> N -1.5\n" +
+            "NP_0 -> N N -2\n" +
+            "NP_1 -> N PP -3\n" +
+            "===\n" +
+            "N -> time -1\n" +
+            "V -> time -2\n" +
+            "V -> flies -1\n" +
+            "N -> flies -2\n" +
+            "IN -> like -1\n" +
+            "V -> like -2\n" +
+            "N -> like -3\n" +
+            "DT -> an -1\n" +
+            "N -> arrow -1\n";
+
+    @Test
+    public void testProjectGrammar() throws IOException {
+        CnfGrammar fine = getFineGrammar();
+        CnfGrammar coarse = CoarseToFineParser.projectGrammar(fine, '_');
+        assertEquals(fine.getNumNonTerminals() - 1, coarse.getNumNonTerminals());
+        assertEquals("S", coarse.getNtAlphabet().lookupObject(coarse.getRootSymbol()));
+        int[] fineToCoarse = CoarseToFineParser.getProjection(fine, coarse, '_');
+        int np = coarse.getNtAlphabet().lookupIndex("NP", false);
+        assertEquals(np, fineToCoarse[fine.getNtAlphabet().lookupIndex("NP_0", false)]);
+        assertEquals(np, fineToCoarse[fine.getNtAlphabet().lookupIndex("NP_1", false)]);
+        // The duplicate NP -> DT N rules are merged, keeping the max score.
+        Rule[] rules = coarse.getBinaryRulesWithLeftChild(coarse.getNtAlphabet().lookupIndex("DT", false));
+        assertEquals(1, rules.length);
+        assertEquals(-1, rules[0].getScore(), 0.0);
+    }
+
+    @Test
+    public void testMatchesExhaustive() throws IOException {
+        CnfGrammar fine = getFineGrammar();
+        CnfGrammar coarse = CoarseToFineParser.projectGrammar(fine, '_');
+        int[] fineToCoarse = CoarseToFineParser.getProjection(fine, coarse, '_');
+        
+        CoarseToFineParserPrm prm = new CoarseToFineParserPrm();
+        prm.logPosteriorThreshold = Math.log(1e-2);
+        CoarseToFineParser c2f = new CoarseToFineParser(prm, coarse, fine, fineToCoarse);
+        CkyPcfgParser exhaustive = new CkyPcfgParser(new CkyPcfgParserPrm());
+        
+        SentenceCollection sentences = new SentenceCollection(fine.getLexAlphabet());
+        sentences.addSentenceFromString("time flies like an arrow");
+        sentences.addSentenceFromString("an arrow flies like time");
+        for (Sentence sent : sentences) {
+            Pair<BinaryTree, Double> expected = exhaustive.parseSentence(sent, fine).getViterbiParse();
+            Pair<BinaryTree, Double> actual = c2f.parseSentence(sent).getViterbiParse();
+            assertEquals(expected.get1().getAsPennTreebankString(), actual.get1().getAsPennTreebankString());
+            assertEquals(expected.get2(), actual.get2(), 1e-13);
+        }
+        c2f.logPruningStats();
+        assertEquals(2, c2f.getNumSentences());
+        assertTrue(c2f.getNumPrunedItems() > 0);
+        assertTrue(c2f.getNumPrunedItems() < c2f.getNumCoarseItems());
+        assertEquals(0, c2f.getNumFallbacks());
+    }
+
+    @Test
+    public void testFallbackToExhaustive() throws IOException {
+        CnfGrammar fine = getFineGrammar();
+        CnfGrammar coarse = CoarseToFineParser.projectGrammar(fine, '_');
+        int[] fineToCoarse = CoarseToFineParser.getProjection(fine, coarse, '_');
+        
+        // Prune everything.
+        CoarseToFineParserPrm prm = new CoarseToFineParserPrm();
+        prm.logPosteriorThreshold = 1;
+        CoarseToFineParser c2f = new CoarseToFineParser(prm, coarse, fine, fineToCoarse);
+        SentenceCollection sentences = new SentenceCollection(fine.getLexAlphabet());
+        sentences.addSentenceFromString("time flies like an arrow");
+        double score = c2f.parseSentence(sentences.get(0)).getViterbiParse().get2();
+        assertEquals(-11.0, score, 1e-13);
+        assertEquals(1, c2f.getNumFallbacks());
+        assertEquals(c2f.getNumCoarseItems(), c2f.getNumPrunedItems());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsTieBreakingCellType() throws IOException {
+        CnfGrammar fine = getFineGrammar();
+        CnfGrammar coarse = CoarseToFineParser.projectGrammar(fine, '_');
+        int[] fineToCoarse = CoarseToFineParser.getProjection(fine, coarse, '_');
+        
+        CoarseToFineParserPrm prm = new CoarseToFineParserPrm();
+        prm.finePrm.cellType = ChartCellType.FULL_BREAK_TIES;
+        new CoarseToFineParser(prm, coarse, fine, fineToCoarse);
+    }
+
+    private static CnfGrammar getFineGrammar() throws IOException {
+        CnfGrammarReader reader = new CnfGrammarReader();
+        reader.loadFromReader(new StringReader(splitGrammar));
+        return reader.getGrammar(LoopOrder.LEFT_CHILD);
+    }
+
+}
@@ -0,0 +1,151 @@
+package edu.jhu.pacaya.parse.cky;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.jhu.pacaya.nlp.data.Sentence;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser.LoopOrder;
+import edu.jhu.pacaya.parse.cky.PcfgInsideOutside.PcfgInsideOutsidePrm;
+import edu.jhu.pacaya.parse.cky.PcfgInsideOutside.PcfgIoChart;
+import edu.jhu.pacaya.util.semiring.LogSemiring;
+import edu.jhu.pacaya.util.semiring.RealAlgebra;
+import edu.jhu.prim.util.random.Prng;
+
+public class SpanInsideOutsideTest {
+
+    @Test
+    public void testMatchesPcfgInsideOutside() throws IOException {
+        CnfGrammarReader builder = new CnfGrammarReader();
+        builder.loadFromReader(new StringReader("X\nX --> X X 0\n===\nX --> a 0\n"));
+        CnfGrammar grammar = builder.getGrammar(LoopOrder.LEFT_CHILD);
+        int x = grammar.getNtAlphabet().lookupIndex("X");
+        Prng.seed(12345);
+        SpanInsideOutside io = new SpanInsideOutside();
+        for (int n = 1; n <= 6; n++) {
+            final double[][] w = io.getWeights(n);
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j <= n; j++) {
+                    w[i][j] = Prng.nextDouble() * 4 - 2;
+                }
+            }
+            // Disallow one span.
+            if (n > 2) {
+                w[0][2] = Double.NEGATIVE_INFINITY;
+            }
+            double logZ = io.insideOutside(n, LogSemiring.getInstance());
+
+            PcfgInsideOutsidePrm prm = new PcfgInsideOutsidePrm();
+            prm.scorer = new Scorer() {
+                @Override
+                public double score(Rule r, int start, int mid, int end) {
+                    return w[start][end];
+                }
+            };
+            int[] sent = new int[n];
+            Arrays.fill(sent, grammar.getLexAlphabet().lookupIndex("a"));
+            PcfgIoChart chart = new PcfgInsideOutside(prm).runInsideOutside(new Sentence(grammar.getLexAlphabet(), sent), grammar);
+
+            assertEquals(chart.getLogPartitionFunction(), logZ, 1e-10);
+            assertEquals(logZ, io.getPartition(), 1e-13);
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j <= n; j++) {
+                    assertEquals(chart.getLogInsideScore(x, i, j), io.getInside()[i][j], 1e-10);
+                    if (j - i == 1) {
+                        // Every tree contains the width one spans. (The outside scores of
+                        // PcfgInsideOutside for these cells also include the lexical rules.)
+                        assertEquals(logZ, io.getMarginal(i, j), 1e-10);
+                    } else {
+                        assertEquals(chart.getLogOutsideScore(x, i, j), io.getOutside()[i][j], 1e-10);
+                        assertEquals(chart.getLogSumOfPotentials(x, i, j), io.getMarginal(i, j), 1e-10);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNumberOfTrees() {
+        // With all weights one, the partition function counts the binary trees, i.e. the Catalan
+        // numbers, and the span [0, n-1] is in as many trees as there are over n-1 leaves.
+        RealAlgebra s = RealAlgebra.getInstance();
+        SpanInsideOutside io = new SpanInsideOutside();
+        double[] catalan = new double[]{ 1, 1, 2, 5, 14, 42 };
+        for (int n = 1; n <= 6; n++) {
+            double[][] w = io.getWeights(n);
+            for (int i = 0; i < n; i++) {
+                Arrays.fill(w[i], 1.0);
+            }
+            assertEquals(catalan[n-1], io.insideOutside(n, s), 1e-13);
+            if (n > 1) {
+                assertEquals(catalan[n-2], io.getMarginal(0, n-1), 1e-13);
+            }
+        }
+    }
+
+    @Test
+    public void testBackwardByFiniteDiffs() {
+        // Checks the gradient of f(w) = Z + \sum_{ij} c_{ij} inside_{ij} + d_{ij} outside_{ij}.
+        RealAlgebra s = RealAlgebra.getInstance();
+        Prng.seed(12345);
+        SpanInsideOutside io = new SpanInsideOutside();
+        for (int n = 1; n <= 5; n++) {
+            double[][] w = new double[n][n+1];
+            double[][] c = new double[n][n+1];
+            double[][] d = new double[n][n+1];
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j <= n; j++) {
+                    w[i][j] = Prng.nextDouble() + 0.5;
+                    c[i][j] = Prng.nextDouble() * 2 - 1;
+                    d[i][j] = Prng.nextDouble() * 2 - 1;
+                }
+            }
+            evalObjective(io, n, w, c, d);
+            io.zeroAdj();
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j <= n; j++) {
+                    io.getInsideAdj()[i][j] += c[i][j];
+                    io.getOutsideAdj()[i][j] += d[i][j];
+                }
+            }
+            io.getInsideAdj()[0][n] += s.one();
+            io.backward();
+            double[][] weightsAdj = new double[n][n+1];
+            for (int i = 0; i < n; i++) {
+                weightsAdj[i] = Arrays.copyOf(io.getWeightsAdj()[i], n+1);
+            }
+
+            double eps = 1e-6;
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j <= n; j++) {
+                    double orig = w[i][j];
+                    w[i][j] = orig + eps;
+                    double fPlus = evalObjective(io, n, w, c, d);
+                    w[i][j] = orig - eps;
+                    double fMinus = evalObjective(io, n, w, c, d);
+                    w[i][j] = orig;
+                    assertEquals((fPlus - fMinus) / (2 * eps), weightsAdj[i][j], 1e-6);
+                }
+            }
+        }
+    }
+
+    private static double evalObjective(SpanInsideOutside io, int n, double[][] w, double[][] c, double[][] d) {
+        double[][] weights = io.getWeights(n);
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(w[i], 0, weights[i], 0, n+1);
+        }
+        double f = io.insideOutside(n, RealAlgebra.getInstance());
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j <= n; j++) {
+                f += c[i][j] * io.getInside()[i][j] + d[i][j] * io.getOutside()[i][j];
+            }
+        }
+        return f;
+    }
+
+}
@@ -0,0 +1,113 @@
+package edu.jhu.pacaya.parse.cky.chart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.jhu.pacaya.nlp.data.Sentence;
+import edu.jhu.pacaya.nlp.data.SentenceCollection;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser.CkyPcfgParserPrm;
+import edu.jhu.pacaya.parse.cky.CkyPcfgParser.LoopOrder;
+import edu.jhu.pacaya.parse.cky.CnfGrammar;
+import edu.jhu.pacaya.parse.cky.CnfGrammarReader;
+import edu.jhu.pacaya.parse.cky.CnfGrammarReaderTest;
+import edu.jhu.pacaya.parse.cky.PcfgInsideOutside;
+import edu.jhu.pacaya.parse.cky.PcfgInsideOutside.PcfgInsideOutsidePrm;
+import edu.jhu.pacaya.parse.cky.RuleScorer;
+import edu.jhu.pacaya.parse.cky.data.BinaryTree;
+import edu.jhu.prim.tuple.Pair;
+import edu.jhu.prim.util.math.FastMath;
+
+public class KBestExtractorTest {
+
+    private static final String ambiguousGrammar =
+            "S\n" +
+            "S -> S S -1\n" +
+            "S -> S A -0.5\n" +
+            "A -> A S -0.7\n" +
+            "===\n" +
+            "S -> x -2\n" +
+            "A -> x -1.5\n";
+
+    @Test
+    public void testAllParsesOfSimpleSentence() throws IOException {
+        CnfGrammar grammar = getGrammar();
+        Chart chart = parse(grammar, "time flies like an arrow");
+        List<Pair<BinaryTree, Double>> kbest = chart.getKBestParses(10, new RuleScorer());
+        // There are three valid trees with weights -11, -12, -15.
+        assertEquals(3, kbest.size());
+        assertEquals(-11, kbest.get(0).get2(), 1e-13);
+        assertEquals(-12, kbest.get(1).get2(), 1e-13);
+        assertEquals(-15, kbest.get(2).get2(), 1e-13);
+        assertEquals(chart.getViterbiParse().get1().getAsPennTreebankString(),
+                kbest.get(0).get1().getAsPennTreebankString());
+        assertDistinct(kbest);
+    }
+
+    @Test
+    public void testAllParsesOfAmbiguousSentence() throws IOException {
+        CnfGrammarReader builder = new CnfGrammarReader();
+        builder.loadFromReader(new StringReader(ambiguousGrammar));
+        CnfGrammar grammar = builder.getGrammar(LoopOrder.LEFT_CHILD);
+        String sentStr = "x x x x x x x";
+        Chart chart = parse(grammar, sentStr);
+        List<Pair<BinaryTree, Double>> kbest = chart.getKBestParses(1000000, new RuleScorer());
+        assertEquals(chart.getViterbiParse().get2(), kbest.get(0).get2(), 1e-13);
+        for (int i = 1; i < kbest.size(); i++) {
+            assertTrue(kbest.get(i-1).get2() >= kbest.get(i).get2());
+        }
+        assertDistinct(kbest);
+        // Without unary rules, the derivations are exactly those summed by the inside algorithm.
+        double logSum = Double.NEGATIVE_INFINITY;
+        for (Pair<BinaryTree, Double> p : kbest) {
+            logSum = FastMath.logAdd(logSum, p.get2());
+        }
+        SentenceCollection sentences = new SentenceCollection(grammar.getLexAlphabet());
+        sentences.addSentenceFromString(sentStr);
+        PcfgInsideOutside io = new PcfgInsideOutside(new PcfgInsideOutsidePrm());
+        assertEquals(io.runInsideOutside(sentences.get(0), grammar).getLogPartitionFunction(), logSum, 1e-10);
+        
+        // The first k of the k-best list do not depend on k.
+        List<Pair<BinaryTree, Double>> kbest50 = chart.getKBestParses(50, new RuleScorer());
+        assertEquals(50, kbest50.size());
+        for (int i = 0; i < kbest50.size(); i++) {
+            assertEquals(kbest.get(i).get2(), kbest50.get(i).get2(), 1e-13);
+        }
+    }
+
+    @Test
+    public void testNoParse() throws IOException {
+        CnfGrammar grammar = getGrammar();
+        Chart chart = parse(grammar, "an an");
+        assertEquals(0, chart.getKBestParses(5, new RuleScorer()).size());
+    }
+
+    private static void assertDistinct(List<Pair<BinaryTree, Double>> kbest) {
+        Set<String> trees = new HashSet<>();
+        for (Pair<BinaryTree, Double> p : kbest) {
+            assertTrue(trees.add(p.get1().getAsPennTreebankString()));
+        }
+    }
+
+    private static CnfGrammar getGrammar() throws IOException {
+        CnfGrammarReader builder = new CnfGrammarReader();
+        builder.loadFromResource(CnfGrammarReaderTest.timeFliesGrammarResource);
+        return builder.getGrammar(LoopOrder.LEFT_CHILD);
+    }
+
+    private static Chart parse(CnfGrammar grammar, String sentStr) {
+        SentenceCollection sentences = new SentenceCollection(grammar.getLexAlphabet());
+        sentences.addSentenceFromString(sentStr);
+        Sentence sentence = sentences.get(0);
+        return new CkyPcfgParser(new CkyPcfgParserPrm()).parseSentence(sentence, grammar);
+    }
+
+}
@@ -0,0 +1,124 @@
+package edu.jhu.pacaya.parse.dep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.jhu.pacaya.parse.dep.edmonds.CompleteGraph;
+import edu.jhu.pacaya.parse.dep.edmonds.DenseEdmonds;
+import edu.jhu.pacaya.parse.dep.edmonds.Edmonds;
+import edu.jhu.pacaya.util.JUnitUtils;
+import edu.jhu.prim.util.random.Prng;
+
+public class NonProjectiveDependencyParserTest {
+
+    @Test
+    public void testParseNonProjective() {
+        // The best tree, 0 <- -1, 2 <- 0, 1 <- 2, 3 <- 1, is not projective.
+        double[] root = new double[] {10, 0, 0, 0};
+        double[][] child = new double[][]{ {0, 0, 10, 0}, {0, 0, 0, 10}, {0, 10, 0, 0}, {0, 0, 0, 0} };
+        int[] parents = new int[4];
+        double score = NonProjectiveDependencyParser.parseSingleRoot(root, child, parents);
+        assertEquals(40, score, 1e-13);
+        JUnitUtils.assertArrayEquals(new int[]{-1, 2, 0, 1}, parents);
+        assertTrue(!ParentsArray.isProjective(parents));
+    }
+
+    @Test
+    public void testParseSingleRootVsMultiRoot() {
+        double[] root = new double[] {1, 20, 3}; 
+        double[][] child = new double[][]{ {0, 5, 6}, {80, 0, 90}, {11, 12, 0} };
+        int[] parents = new int[3];
+        assertEquals(190, NonProjectiveDependencyParser.parseMultiRoot(root, child, parents), 1e-13);
+        JUnitUtils.assertArrayEquals(new int[]{1, -1, 1}, parents);
+        
+        root = new double[] {10, 20, 30}; 
+        child = new double[][]{ {0, 1, 1}, {1, 0, 1}, {2, 2, 0} };
+        assertEquals(60, NonProjectiveDependencyParser.parseMultiRoot(root, child, parents), 1e-13);
+        JUnitUtils.assertArrayEquals(new int[]{-1, -1, -1}, parents);
+        assertEquals(34, NonProjectiveDependencyParser.parseSingleRoot(root, child, parents), 1e-13);
+        JUnitUtils.assertArrayEquals(new int[]{2, 2, -1}, parents);
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Prng.seed(123);
+        for (int trial = 0; trial < 200; trial++) {
+            int n = 1 + trial % 6;
+            double[] root = new double[n];
+            double[][] child = new double[n][n];
+            for (int c = 0; c < n; c++) {
+                // Some negative weights, and cycles among the best incoming edges.
+                root[c] = Prng.nextDouble() * 2 - 1.5;
+                for (int p = 0; p < n; p++) {
+                    child[p][c] = Prng.nextDouble() * 2 - 1;
+                }
+            }
+            for (boolean singleRoot : new boolean[]{ true, false }) {
+                int[] parents = new int[n];
+                double score = singleRoot ? NonProjectiveDependencyParser.parseSingleRoot(root, child, parents)
+                        : NonProjectiveDependencyParser.parseMultiRoot(root, child, parents);
+                assertTrue(ParentsArray.isDepTree(parents, false, singleRoot));
+                assertEquals(getScore(root, child, parents), score, 1e-13);
+                assertEquals(getMaxScoreBruteForce(root, child, singleRoot, new int[n], 0), score, 1e-10);
+            }
+        }
+    }
+
+    @Test
+    public void testAtLeastAsGoodAsHeapEdmonds() {
+        Prng.seed(7);
+        DenseEdmonds dense = new DenseEdmonds();
+        for (int trial = 0; trial < 50; trial++) {
+            int n = 2 + Prng.nextInt(40);
+            double[][] weights = new double[n][n];
+            for (int u = 0; u < n; u++) {
+                for (int v = 0; v < n; v++) {
+                    weights[u][v] = Prng.nextDouble();
+                }
+            }
+            int[] expected = new int[n];
+            new Edmonds().getMaxBranching(new CompleteGraph(weights), 0, expected);
+            expected[0] = -1;
+            int[] actual = new int[n];
+            double score = dense.getMaxArborescence(weights, 0, actual);
+            double expectedScore = 0;
+            for (int v = 1; v < n; v++) {
+                expectedScore += weights[expected[v]][v];
+            }
+            int[] tree = new int[n-1];
+            for (int v = 1; v < n; v++) {
+                tree[v-1] = actual[v] - 1;
+            }
+            assertTrue(ParentsArray.isDepTree(tree, false, false));
+            // The heap-based implementation may return a suboptimal branching.
+            assertTrue(score >= expectedScore - 1e-10);
+        }
+    }
+
+    private static double getScore(double[] root, double[][] child, int[] parents) {
+        double score = 0;
+        for (int c = 0; c < parents.length; c++) {
+            score += (parents[c] == -1) ? root[c] : child[parents[c]][c];
+        }
+        return score;
+    }
+
+    /** Gets the maximum score of any tree by enumerating all the parents arrays. */
+    private static double getMaxScoreBruteForce(double[] root, double[][] child, boolean singleRoot, int[] parents, int c) {
+        int n = parents.length;
+        if (c == n) {
+            return ParentsArray.isDepTree(parents, false, singleRoot) ? getScore(root, child, parents)
+                    : Double.NEGATIVE_INFINITY;
+        }
+        double max = Double.NEGATIVE_INFINITY;
+        for (int p = -1; p < n; p++) {
+            if (p == c) { continue; }
+            parents[c] = p;
+            max = Math.max(max, getMaxScoreBruteForce(root, child, singleRoot, parents, c+1));
+        }
+        return max;
+    }
+
+}
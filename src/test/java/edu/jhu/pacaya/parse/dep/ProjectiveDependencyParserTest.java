@@ -9,6 +9,7 @@ import org.junit.Test;
 import edu.jhu.pacaya.util.JUnitUtils;
 import edu.jhu.prim.arrays.DoubleArrays;
 import edu.jhu.prim.util.math.FastMath;
+import edu.jhu.prim.util.random.Prng;
 
 public class ProjectiveDependencyParserTest {
     
@@ -308,5 +309,44 @@ public class ProjectiveDependencyParserTest {
         // Check partition function.
         assertEquals(3, FastMath.exp(chart.getLogPartitionFunction()), 1e-3);        
     }
+
+    @Test
+    public void testReusedParserMatchesStatic() {
+        ProjectiveDependencyParser parser = new ProjectiveDependencyParser();
+        // Alternate longer and shorter sentences so that the buffers are grown and then reused.
+        for (int n : new int[]{ 5, 2, 7, 3, 7 }) {
+            Prng.seed(n);
+            double[] root = new double[n];
+            double[][] child = new double[n][n];
+            for (int i=0; i<n; i++) {
+                root[i] = Math.log(Prng.nextDouble());
+                for (int j=0; j<n; j++) {
+                    child[i][j] = Math.log(Prng.nextDouble());
+                }
+            }
+            int nplus = n+1;
+            double[] scores = parser.getScoreBuffer(nplus);
+            EdgeScores.combine(root, child, scores);
+            for (boolean singleRoot : new boolean[]{ true, false }) {
+                int[] expParents = new int[n];
+                double expScore = singleRoot ? ProjectiveDependencyParser.parseSingleRoot(root, child, expParents)
+                        : ProjectiveDependencyParser.parseMultiRoot(root, child, expParents);
+                int[] parents = new int[n];
+                assertEquals(expScore, parser.parse(scores, nplus, singleRoot, parents), 1e-13);
+                JUnitUtils.assertArrayEquals(expParents, parents);
+                
+                DepIoChart expChart = singleRoot ? ProjectiveDependencyParser.insideOutsideSingleRoot(root, child)
+                        : ProjectiveDependencyParser.insideOutsideMultiRoot(root, child);
+                DepIoChart chart = parser.insideOutside(scores, nplus, singleRoot);
+                assertEquals(expChart.getLogPartitionFunction(), chart.getLogPartitionFunction(), 1e-13);
+                for (int p=-1; p<n; p++) {
+                    for (int c=0; c<n; c++) {
+                        if (p == c) { continue; }
+                        assertEquals(expChart.getLogSumOfPotentials(p, c), chart.getLogSumOfPotentials(p, c), 1e-13);
+                    }
+                }
+            }
+        }
+    }
     
 }
@@ -1,8 +1,10 @@
 package edu.jhu.pacaya.util;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -14,6 +16,7 @@ import edu.jhu.pacaya.util.Threads.TaskFactory;
 import edu.jhu.pacaya.util.collections.QLists;
 import edu.jhu.prim.arrays.IntArrays;
 import edu.jhu.prim.sort.IntSort;
+import edu.jhu.prim.util.Lambda.FnO1ToVoid;
 import edu.jhu.prim.util.random.Prng;
 
 public class ThreadsTest {
@@ -50,6 +53,45 @@ public class ThreadsTest {
         assertArrayEquals(batch, res);
     }
 
+    @Test
+    public void testForEachOrdered() {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        final int n = 20;
+        final int maxQueued = 3;
+        final int[] numSubmitted = new int[1];
+        final List<Integer> results = new ArrayList<>();
+        try {
+            Threads.forEachOrdered(pool, maxQueued, new Iterator<Callable<Integer>>() {
+                @Override
+                public boolean hasNext() {
+                    return numSubmitted[0] < n;
+                }
+                @Override
+                public Callable<Integer> next() {
+                    // Results are passed on in the same thread, so this cannot race with them.
+                    assertTrue(numSubmitted[0] - results.size() < maxQueued);
+                    final int i = numSubmitted[0]++;
+                    return new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            // Later tasks finish first.
+                            Thread.sleep(n - i);
+                            return i;
+                        }
+                    };
+                }
+            }, new FnO1ToVoid<Integer>() {
+                @Override
+                public void call(Integer i) {
+                    results.add(i);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        assertArrayEquals(IntArrays.range(n), QLists.asArray(results));
+    }
+
     public static class MockCallable implements Callable<Object> {
 
         private int i;
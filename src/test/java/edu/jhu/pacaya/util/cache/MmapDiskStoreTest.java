@@ -0,0 +1,133 @@
+package edu.jhu.pacaya.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MmapDiskStoreTest {
+
+    private File dir = new File("./tmp/mmap");
+
+    @Before
+    public void setUp() {
+        try {
+            FastDiskStoreTest.deleteRecursive(dir);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testAddAndGet() throws IOException {
+        checkAddAndGet(false, MmapDiskStore.DEFAULT_SEGMENT_SIZE);
+        checkAddAndGet(true, MmapDiskStore.DEFAULT_SEGMENT_SIZE);
+    }
+
+    @Test
+    public void testRecordsDoNotCrossSmallSegments() throws IOException {
+        checkAddAndGet(false, 200);
+        checkAddAndGet(true, 200);
+    }
+
+    private void checkAddAndGet(boolean gzip, int segmentSize) throws IOException {
+        File path = new File(dir, "store-" + gzip + "-" + segmentSize + ".bin");
+        MmapDiskStore<String> store = new MmapDiskStore<String>(path, new JavaSerializer<String>(gzip), segmentSize);
+        int n = 100;
+        for (int i=0; i<n; i++) {
+            assertEquals(i, store.add(getValue(i)));
+            // Interleave reads with the writes.
+            assertEquals(getValue(i/2), store.get(i/2));
+        }
+        assertEquals(n, store.size());
+        for (int i=n-1; i>=0; i--) {
+            assertEquals(getValue(i), store.get(i));
+        }
+        store.close();
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        File path = new File(dir, "reopen.bin");
+        MmapDiskStore<String> store = new MmapDiskStore<String>(path, new JavaSerializer<String>(true), 200);
+        for (int i=0; i<50; i++) {
+            store.add(getValue(i));
+        }
+        store.close();
+
+        store = new MmapDiskStore<String>(path, new JavaSerializer<String>(true), 200);
+        assertEquals(50, store.size());
+        for (int i=0; i<50; i++) {
+            assertEquals(getValue(i), store.get(i));
+        }
+        // Append after reopening.
+        assertEquals(50, store.add(getValue(50)));
+        assertEquals(getValue(50), store.get(50));
+        assertEquals(getValue(49), store.get(49));
+        store.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReopenWithWrongGzipSetting() throws IOException {
+        File path = new File(dir, "wronggzip.bin");
+        MmapDiskStore<String> store = new MmapDiskStore<String>(path, true);
+        store.add(getValue(0));
+        store.close();
+        new MmapDiskStore<String>(path, false);
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        File path = new File(dir, "concurrent.bin");
+        final MmapDiskStore<String> store = new MmapDiskStore<String>(path, new JavaSerializer<String>(false), 1000);
+        final int n = 1000;
+        for (int i=0; i<n; i++) {
+            store.add(getValue(i));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int t=0; t<4; t++) {
+                final int offset = t;
+                futures.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int numChecked = 0;
+                        for (int i=0; i<n; i++) {
+                            int j = (i * 7 + offset) % n;
+                            assertEquals(getValue(j), store.get(j));
+                            numChecked++;
+                        }
+                        return numChecked;
+                    }
+                }));
+            }
+            for (Future<Integer> f : futures) {
+                assertEquals(n, f.get().intValue());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        store.close();
+        assertTrue(MmapDiskStore.getIndexPath(path).exists());
+    }
+
+    private static String getValue(int i) {
+        StringBuilder sb = new StringBuilder();
+        for (int k=0; k<=i%7; k++) {
+            sb.append("value:" + i + ";");
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,91 @@
+package edu.jhu.pacaya.util.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.jhu.prim.util.random.Prng;
+
+public class IndexedMaxHeapTest {
+
+    @Test
+    public void testPutAndPop() {
+        IndexedMaxHeap h = new IndexedMaxHeap(5);
+        h.put(0, 1.0);
+        h.put(1, 5.0);
+        h.put(2, 3.0);
+        h.put(3, 4.0);
+        assertEquals(4, h.size());
+        assertTrue(h.contains(3));
+        assertFalse(h.contains(4));
+        assertEquals(1, h.peekMax());
+        assertEquals(5.0, h.peekMaxPriority(), 1e-13);
+        assertEquals(1, h.popMax());
+        assertEquals(3, h.popMax());
+        assertEquals(2, h.popMax());
+        assertEquals(0, h.popMax());
+        assertTrue(h.isEmpty());
+    }
+
+    @Test
+    public void testUpdateAndRemove() {
+        IndexedMaxHeap h = new IndexedMaxHeap(5);
+        for (int i=0; i<5; i++) {
+            h.put(i, i);
+        }
+        // Decrease the max, increase the min.
+        h.put(4, -1.0);
+        h.put(0, 10.0);
+        assertEquals(0, h.peekMax());
+        assertEquals(-1.0, h.getPriority(4), 1e-13);
+        h.remove(0);
+        h.remove(0);
+        assertFalse(h.contains(0));
+        assertEquals(4, h.size());
+        assertEquals(3, h.popMax());
+        assertEquals(2, h.popMax());
+        assertEquals(1, h.popMax());
+        assertEquals(4, h.popMax());
+        h.put(2, 1.0);
+        h.clear();
+        assertTrue(h.isEmpty());
+        assertFalse(h.contains(2));
+    }
+
+    @Test
+    public void testRandomUpdatesGiveSortedOrder() {
+        Prng.seed(1l);
+        int n = 100;
+        IndexedMaxHeap h = new IndexedMaxHeap(n);
+        double[] prios = new double[n];
+        for (int t=0; t<1000; t++) {
+            int key = Prng.nextInt(n);
+            if (Prng.nextDouble() < 0.1) {
+                h.remove(key);
+                prios[key] = Double.NaN;
+            } else {
+                prios[key] = Prng.nextDouble();
+                h.put(key, prios[key]);
+            }
+        }
+        double prev = Double.POSITIVE_INFINITY;
+        int count = 0;
+        while (!h.isEmpty()) {
+            double p = h.peekMaxPriority();
+            int key = h.popMax();
+            assertEquals(prios[key], p, 0.0);
+            assertTrue(p <= prev);
+            prev = p;
+            count++;
+        }
+        int expected = 0;
+        for (double p : prios) {
+            // Keys which were never added have priority 0.0 in the array.
+            if (!Double.isNaN(p) && p != 0.0) { expected++; }
+        }
+        assertEquals(expected, count);
+    }
+
+}